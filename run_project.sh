@@ -38,7 +38,11 @@ case "$1" in
     mining)
         java -cp "$OUT_DIR:$LIB" blocksworld.MainMining
         ;;
-    # 5-Documentation
+    # 5-Mesures de performances
+    benchmark)
+        java -cp "$OUT_DIR:$LIB" blocksworld.MainBenchmark "${@:2}"
+        ;;
+    # 6-Documentation
     doc)
         echo "Génération de la Javadoc"
         mkdir -p docs
@@ -47,7 +51,7 @@ case "$1" in
         ;;
     
     *)
-        echo "Usage: ./run_project.sh {modeling|planning|csp|mining|doc}"
+        echo "Usage: ./run_project.sh {modeling|planning|csp|mining|benchmark|doc}"
         exit 1
         ;;
 esac
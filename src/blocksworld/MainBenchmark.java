@@ -0,0 +1,630 @@
+package blocksworld;
+
+import blocksworld.modelling.WorldConfig;
+import blocksworld.planning.*;
+import bwgenerator.BWGenerator;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+import modelling.*;
+import planning.*;
+
+/**
+ * Classe exécutable de mesure des performances des planificateurs.
+ *
+ * Pour chaque taille de monde, des instances aléatoires (état initial et but) sont générées
+ * avec {@code BWGenerator}, puis :
+ * - la génération des successeurs est mesurée en balayant toutes les actions, puis avec
+ *   l'{@link ApplicableActionIndex} ;
+ * - les planificateurs BFS (séquentiel, réduit aux piles non symétriques par
+ *   {@link PileSymmetryCanonicalizer}, réduit aux ensembles têtus, parallèle, en
+ *   mémoire externe, en mode « bitstate » et bidirectionnel), DFS (exact et « bitstate »)
+ *   et IDDFS (petits mondes seulement ; au-delà, BFS exact et « bitstate » dans des
+ *   limites), A*, IDA* et ARA* (limité dans le temps, chaque plan amélioré étant affiché)
+ *   sont lancés en partageant le même index d'actions, et le nombre de noeuds explorés
+ *   par seconde est affiché ;
+ * - A* est comparé avec les heuristiques Misplaced, BlockFreeing (non admissible) et les
+ *   bases de motifs ({@link PatternDatabaseHeuristic}, additive et maximale), puis avec
+ *   les relaxations h_max et h_FF ({@link RelaxedPlanningHeuristic}) ;
+ * - un {@link PlanCache} devant A* est interrogé, pour chaque instance, avec la requête,
+ *   sa répétition et une requête partant du milieu du plan (servie par suffixe), et ses
+ *   compteurs sont affichés pour chaque taille de monde ;
+ * - dans les petits mondes, la table des distances exactes ({@link PerfectDistanceTable})
+ *   est construite, enregistrée puis relue par projection en mémoire, et le plan optimal
+ *   lu par descente gloutonne est comparé à celui de A* ; la distance moyenne au but
+ *   d'états tirés uniformément par un {@link BlocksWorldStateRanker} est affichée.
+ *
+ * Arguments optionnels : nbBlocsMin nbBlocsMax nbPiles nbInstances graine.
+ *
+ * Avec {@code hda} comme premier argument, seul le passage à l'échelle de
+ * {@link HDAStarPlanner} est mesuré, avec 1, 2, 4, 8 et 16 threads.
+ *
+ * Avec {@code lots} comme premier argument, les instances de chaque taille forment un lot
+ * résolu par {@link BatchPlanner} avec A* (Misplaced), en partageant l'index d'actions,
+ * avec 1, 2, 4... threads jusqu'au nombre de coeurs ; le débit en problèmes par seconde
+ * et les problèmes hors délai sont affichés.
+ *
+ * Avec {@code admissibles} comme premier argument, seules les heuristiques admissibles
+ * sont comparées sur la suite d'instances : A* avec Misplaced, h_max (petits mondes),
+ * LM-cut ({@link LandmarkCutHeuristic}) et la base de motifs additive. Les totaux de
+ * noeuds et de temps de chaque heuristique, et le rapport moyen entre son estimation de
+ * l'état initial et le coût optimal, sont affichés pour chaque taille de monde.
+ */
+public class MainBenchmark {
+
+    /** Au-delà de ce nombre de blocs, BFS n'est plus lancé. */
+    private static final int BFS_MAX_BLOCS = 7;
+
+    /** Plafond de mémoire du tas de la recherche en largeur externe (16 Mo). */
+    private static final long EXTERNAL_RAM_BYTES = 16L << 20;
+
+    /** Nombre d'entrées de la table de transposition d'IDA* (16 Mo). */
+    private static final int IDA_TABLE_ENTRIES = 1 << 20;
+
+    /** Durée maximale de la recherche ARA*, en millisecondes. */
+    private static final long ARA_TIME_LIMIT = 2000;
+
+    /** Au-delà de ce nombre de blocs, A* avec h_max, peu informée, n'est plus lancé. */
+    private static final int HMAX_MAX_BLOCS = 6;
+
+    /** Nombre de blocs par motif des bases de motifs. */
+    private static final int PDB_PATTERN_SIZE = 4;
+
+    /** Heuristiques comparées par le banc d'essai des heuristiques admissibles. */
+    private static final String[] ADMISSIBLE_NAMES = {"A* (Misplaced)", "A* (h_max)", "A* (LM-cut)", "A* (PDB additive)"};
+
+    /** Taille maximale (blocs et piles) des mondes dont les distances exactes sont tabulées. */
+    private static final int PERFECT_TABLE_MAX_BLOCS = 7;
+    private static final int PERFECT_TABLE_MAX_PILES = 4;
+
+    /** Nombre d'états tirés uniformément pour la distance moyenne au but. */
+    private static final int DISTANCE_SAMPLES = 10000;
+
+    /** Taux d'élagage sous lequel les ensembles têtus sont abandonnés après l'essai. */
+    private static final double STUBBORN_MIN_PRUNING_RATIO = 0.1;
+
+    /** Nombre de requêtes retenues par le cache de plans. */
+    private static final int PLAN_CACHE_CAPACITY = 64;
+
+    /** Délai accordé à chaque problème d'un lot, en millisecondes. */
+    private static final long BATCH_TIMEOUT = 5000;
+
+    /** Taille du tableau de bits et nombre de bits par état des recherches « bitstate ». */
+    private static final long BITSTATE_BYTES = 1L << 20;
+    private static final int BITSTATE_HASHES = 3;
+
+    /** Limites de la recherche en largeur au-delà de {@link #BFS_MAX_BLOCS} blocs. */
+    private static final SearchLimits BFS_LIMITS = SearchLimits.NONE.withTimeout(2000).withMaxBytes(64L << 20);
+
+    /** Période d'affichage de la progression des recherches longues, en millisecondes. */
+    private static final long PROGRESS_PERIOD = 2000;
+
+    /** Nombres de threads essayés par le banc d'essai de HDA*. */
+    private static final int[] HDA_THREADS = {1, 2, 4, 8, 16};
+
+    /** Modes choisis par le premier argument ; sans mode, tout le banc d'essai est lancé. */
+    private static final Set<String> MODES = Set.of("hda", "admissibles", "lots");
+
+    public static void main(String[] args) {
+        String mode = (args.length > 0 && MODES.contains(args[0])) ? args[0] : "";
+        if (!mode.isEmpty()) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        int minBlocs = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+        int maxBlocs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int nbPiles = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int nbInstances = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+
+        Random random = new Random(seed);
+        for (int nbBlocs = minBlocs; nbBlocs <= maxBlocs; nbBlocs++) {
+            System.out.println("\n===== " + nbBlocs + " blocs, " + nbPiles + " piles =====");
+            WorldConfig config = new WorldConfig(nbBlocs, nbPiles);
+            config.getVariables();
+            BlocksWorldPlanner bw = new BlocksWorldPlanner(nbBlocs, nbPiles, config);
+            BWGenerator generator = new BWGenerator(nbBlocs, nbPiles);
+
+            long start = System.currentTimeMillis();
+            ApplicableActionIndex index = new ApplicableActionIndex(bw.getAllActions());
+            long end = System.currentTimeMillis();
+            System.out.println(index.getPackedActions().size() + " actions, index de "
+                    + index.getNbNodes() + " noeuds construit en " + (end - start) + " ms");
+
+            switch (mode) {
+                case "hda":
+                    benchmarkHda(bw, index, generator, random, nbInstances);
+                    break;
+                case "admissibles":
+                    benchmarkAdmissible(bw, index, generator, random, nbInstances);
+                    break;
+                case "lots":
+                    benchmarkBatch(bw, index, generator, random, nbInstances);
+                    break;
+                default:
+                    benchmarkPlanners(bw, index, generator, random, nbInstances);
+            }
+        }
+    }
+
+    /**
+     * Banc d'essai par défaut : sur chaque instance, la génération des successeurs, les
+     * recherches non informées, les heuristiques de A*, le cache de plans, la table des
+     * distances exactes (petits mondes), IDA* et ARA*. Les compteurs du cache sont
+     * affichés après les instances.
+     */
+    private static void benchmarkPlanners(BlocksWorldPlanner bw, ApplicableActionIndex index, BWGenerator generator,
+                                          Random random, int nbInstances) {
+        PlanCache cache = new PlanCache(index.getActions(), PLAN_CACHE_CAPACITY, PlanCache.Eviction.LRU);
+        for (int i = 0; i < nbInstances; i++) {
+            Map<Variable, Object> initial = bw.getState(generator.generate(random));
+            Map<Variable, Object> goalMap = bw.getGoal(generator.generate(random));
+            BasicGoal goal = new BasicGoal(goalMap);
+            System.out.println("-- instance " + (i + 1));
+
+            benchmarkSuccessors(index, initial, random);
+            if (bw.getNbBlocs() <= BFS_MAX_BLOCS) {
+                compareUninformed(bw, index, initial, goal, goalMap);
+            } else {
+                compareLimited(index, initial, goal);
+            }
+            compareHeuristics(bw, index, initial, goal, goalMap);
+            benchmarkCache(cache, index, initial, goal, goalMap);
+            if (bw.getNbBlocs() <= PERFECT_TABLE_MAX_BLOCS && bw.getNbPiles() <= PERFECT_TABLE_MAX_PILES) {
+                benchmarkDistanceTable(bw, index, initial, goal, goalMap, random);
+            }
+            runIdaAndAra(index, initial, goal, goalMap);
+        }
+        System.out.println(String.format("-- cache : %d succès, %d par suffixe, %d échecs, %d évictions (%.0f %% servis)",
+                cache.getHits(), cache.getSuffixHits(), cache.getMisses(), cache.getEvictions(),
+                100 * cache.getHitRatio()));
+    }
+
+    /**
+     * Mesure le passage à l'échelle de {@link HDAStarPlanner} face à A*, avec les nombres
+     * de threads de {@link #HDA_THREADS}.
+     */
+    private static void benchmarkHda(BlocksWorldPlanner bw, ApplicableActionIndex index, BWGenerator generator,
+                                     Random random, int nbInstances) {
+        for (int i = 0; i < nbInstances; i++) {
+            Map<Variable, Object> initial = bw.getState(generator.generate(random));
+            Map<Variable, Object> goalMap = bw.getGoal(generator.generate(random));
+            BasicGoal goal = new BasicGoal(goalMap);
+            System.out.println("-- instance " + (i + 1));
+
+            run("A* (Misplaced)", new AStarPlanner(initial, index, goal, new MisplacedGoalHeuristic(goalMap)));
+            for (int nbThreads : HDA_THREADS) {
+                HDAStarPlanner planner = new HDAStarPlanner(initial, index, goal, new MisplacedGoalHeuristic(goalMap));
+                planner.setParallelism(nbThreads);
+                run("HDA* " + nbThreads + " threads", planner);
+            }
+        }
+    }
+
+    /**
+     * Compare les heuristiques admissibles sur les instances, puis affiche les totaux de
+     * chacune ({@link #compareAdmissible}).
+     */
+    private static void benchmarkAdmissible(BlocksWorldPlanner bw, ApplicableActionIndex index, BWGenerator generator,
+                                            Random random, int nbInstances) {
+        long[] nodes = new long[ADMISSIBLE_NAMES.length];
+        long[] times = new long[ADMISSIBLE_NAMES.length];
+        double[] ratios = new double[ADMISSIBLE_NAMES.length];
+        for (int i = 0; i < nbInstances; i++) {
+            Map<Variable, Object> initial = bw.getState(generator.generate(random));
+            Map<Variable, Object> goalMap = bw.getGoal(generator.generate(random));
+            BasicGoal goal = new BasicGoal(goalMap);
+            System.out.println("-- instance " + (i + 1));
+
+            compareAdmissible(bw, index, initial, goal, goalMap, nodes, times, ratios);
+        }
+        System.out.println("-- total");
+        for (int h = 0; h < ADMISSIBLE_NAMES.length; h++) {
+            if (nodes[h] < 0) {
+                System.out.println(String.format("  %-18s non lancé", ADMISSIBLE_NAMES[h]));
+            } else {
+                System.out.println(String.format("  %-18s noeuds=%d temps=%d ms  h(initial)/coût optimal=%.2f",
+                        ADMISSIBLE_NAMES[h], nodes[h], times[h] / 1000000, ratios[h] / nbInstances));
+            }
+        }
+    }
+
+    /**
+     * Lance les recherches non informées d'un petit monde : les variantes de BFS, DFS,
+     * IDDFS et la recherche bidirectionnelle.
+     */
+    private static void compareUninformed(BlocksWorldPlanner bw, ApplicableActionIndex index,
+                                          Map<Variable, Object> initial, BasicGoal goal, Map<Variable, Object> goalMap) {
+        run("BFS", new BFSPlanner(initial, index, goal));
+        BFSPlanner symmetric = new BFSPlanner(initial, index, goal);
+        PileSymmetryCanonicalizer canonicalizer = new PileSymmetryCanonicalizer(bw, goalMap);
+        symmetric.setCanonicalizer(canonicalizer);
+        run("BFS symétries/" + canonicalizer.getNbSymmetricPiles(), symmetric);
+        BFSPlanner stubborn = new BFSPlanner(initial, index, goal);
+        stubborn.setPartialOrderReduction(true);
+        stubborn.getStubbornSets().setMinPruningRatio(STUBBORN_MIN_PRUNING_RATIO);
+        run("BFS ens. têtus", stubborn);
+        reportStubbornSets(stubborn.getStubbornSets());
+        run("BFS parallèle", new ParallelBFSPlanner(initial, index, goal));
+        BFSPlanner external = new BFSPlanner(initial, index, goal);
+        external.setExternalMemory(EXTERNAL_RAM_BYTES, null);
+        run("BFS externe", external);
+        BFSPlanner bitState = new BFSPlanner(initial, index, goal);
+        bitState.setBitState(BITSTATE_BYTES, BITSTATE_HASHES);
+        run("BFS bitstate", bitState);
+        reportOmission(bitState.getOmissionProbability());
+        run("DFS", new DFSPlanner(initial, index, goal));
+        DFSPlanner dfsBitState = new DFSPlanner(initial, index, goal);
+        dfsBitState.setBitState(BITSTATE_BYTES, BITSTATE_HASHES);
+        run("DFS bitstate", dfsBitState);
+        reportOmission(dfsBitState.getOmissionProbability());
+        IDDFSPlanner iddfs = new IDDFSPlanner(initial, index, goal);
+        iddfs.setTranspositionTable(IDA_TABLE_ENTRIES);
+        run("IDDFS", iddfs);
+        runBidirectional("Bidir. BFS", new BidirectionalPlanner(initial, index, goal), BidirectionalPlanner.Mode.BFS);
+        runBidirectional("Bidir. A*", new BidirectionalPlanner(initial, index, goal), BidirectionalPlanner.Mode.ASTAR);
+    }
+
+    /**
+     * Lance BFS, exact puis en mode « bitstate », dans les limites {@link #BFS_LIMITS} :
+     * au-delà de {@link #BFS_MAX_BLOCS} blocs, les recherches non informées ne vont plus
+     * au bout.
+     */
+    private static void compareLimited(ApplicableActionIndex index, Map<Variable, Object> initial, BasicGoal goal) {
+        runLimited("BFS limité", new BFSPlanner(initial, index, goal), BFS_LIMITS);
+        BFSPlanner bitState = new BFSPlanner(initial, index, goal);
+        bitState.setBitState(BITSTATE_BYTES, BITSTATE_HASHES);
+        runLimited("BFS bitstate", bitState, BFS_LIMITS);
+        reportOmission(bitState.getOmissionProbability());
+    }
+
+    /**
+     * Lance IDA* avec sa table de transposition, en affichant sa progression, puis ARA*
+     * limité dans le temps, en affichant chaque plan amélioré.
+     */
+    private static void runIdaAndAra(ApplicableActionIndex index, Map<Variable, Object> initial, BasicGoal goal,
+                                     Map<Variable, Object> goalMap) {
+        IDAStarPlanner ida = new IDAStarPlanner(initial, index, goal, new MisplacedGoalHeuristic(goalMap));
+        ida.setTranspositionTable(IDA_TABLE_ENTRIES);
+        ida.setMovePruning(true);
+        ida.setProgressListener(stats -> System.out.println(String.format(
+                "  %-18s en cours : %d développés en %d ms", "", stats.getExpanded(),
+                stats.getElapsedNanos() / 1000000)), PROGRESS_PERIOD);
+        run("IDA* (Misplaced)", ida);
+        AnytimeAStarPlanner ara = new AnytimeAStarPlanner(initial, index, goal, new MisplacedGoalHeuristic(goalMap));
+        ara.setTimeLimit(ARA_TIME_LIMIT);
+        ara.setPlanListener((plan, bound) -> System.out.println(String.format(
+                "  %-18s plan amélioré : %d actions, borne %.2f", "", plan.size(), bound)));
+        run("ARA* (Misplaced)", ara);
+    }
+
+    /**
+     * Affiche le taux d'élagage de la réduction par ensembles têtus, ou son abandon après
+     * la période d'essai.
+     */
+    private static void reportStubbornSets(StrongStubbornSets stubbornSets) {
+        if (stubbornSets.isDisabled()) {
+            System.out.println(String.format("  %-18s réduction désactivée après l'essai (%.1f %% élaguées, minimum %.0f %%)",
+                    "", 100 * stubbornSets.getPruningRatio(), 100 * STUBBORN_MIN_PRUNING_RATIO));
+        } else {
+            System.out.println(String.format("  %-18s %.1f %% des actions applicables élaguées", "",
+                    100 * stubbornSets.getPruningRatio()));
+        }
+    }
+
+    /**
+     * Mesure le nombre d'états dont on calcule les actions applicables par seconde,
+     * en balayant toutes les actions puis en interrogeant l'index, sur des états
+     * obtenus par une marche aléatoire depuis l'état initial.
+     *
+     * @param index l'index des actions
+     * @param initial l'état de départ de la marche
+     * @param random le générateur aléatoire
+     */
+    private static void benchmarkSuccessors(ApplicableActionIndex index, Map<Variable, Object> initial, Random random) {
+        StateCodec codec = index.getCodec();
+        List<PackedAction> actions = index.getPackedActions();
+        List<PackedState> states = new ArrayList<>();
+        PackedState current = codec.encode(initial);
+        for (int i = 0; i < 2000; i++) {
+            states.add(current);
+            List<PackedAction> applicable = index.getApplicableActions(current);
+            current = applicable.get(random.nextInt(applicable.size())).successor(current);
+        }
+
+        int rounds = 50;
+        long found = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (PackedState state : states) {
+                for (PackedAction action : actions) {
+                    if (action.isApplicable(state)) found++;
+                }
+            }
+        }
+        long scan = System.nanoTime() - start;
+
+        List<PackedAction> buffer = new ArrayList<>();
+        start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (PackedState state : states) {
+                buffer.clear();
+                index.collect(state, buffer);
+                found -= buffer.size();
+            }
+        }
+        long indexed = System.nanoTime() - start;
+        if (found != 0) {
+            throw new IllegalStateException("L'index et le balayage ne trouvent pas les mêmes actions");
+        }
+        long nbStates = (long) rounds * states.size();
+        System.out.println(String.format("  successeurs : balayage %.0f états/s, index %.0f états/s",
+                nbStates * 1e9 / scan, nbStates * 1e9 / indexed));
+    }
+
+    /**
+     * Résout un lot d'instances avec {@link BatchPlanner} pour des parallélismes croissants,
+     * et affiche le débit de chacun.
+     */
+    private static void benchmarkBatch(BlocksWorldPlanner bw, ApplicableActionIndex index, BWGenerator generator,
+                                       Random random, int nbInstances) {
+        List<BatchPlanner.Problem> problems = new ArrayList<>(nbInstances);
+        for (int i = 0; i < nbInstances; i++) {
+            Map<Variable, Object> initial = bw.getState(generator.generate(random));
+            problems.add(new BatchPlanner.Problem(initial, new BasicGoal(bw.getGoal(generator.generate(random)))));
+        }
+        BatchPlanner planner = new BatchPlanner(index, (initial, shared, goal) ->
+                new AStarPlanner(initial, shared, goal, new MisplacedGoalHeuristic(((BasicGoal) goal).getInstanciation())));
+        planner.setTimeout(BATCH_TIMEOUT);
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int nbThreads = 1; ; nbThreads = Math.min(2 * nbThreads, cores)) {
+            planner.setParallelism(nbThreads);
+            long start = System.nanoTime();
+            long timedOut;
+            try (Stream<BatchPlanner.Result> results = planner.solve(problems.stream())) {
+                timedOut = results.filter(result -> result.getStatus() == BatchPlanner.Status.TIMED_OUT).count();
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.println(String.format("  %-18s %d problèmes en %d ms  %.1f problèmes/s, %d hors délai",
+                    "Lot " + nbThreads + " threads", nbInstances, elapsed / 1000000,
+                    nbInstances * 1e9 / Math.max(elapsed, 1), timedOut));
+            if (nbThreads == cores) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Construit la table des distances exactes du but, l'enregistre et la relit par
+     * projection en mémoire, puis affiche la durée de la descente gloutonne et vérifie que
+     * son plan a la longueur de celui de A*. Affiche enfin la distance moyenne au but
+     * d'états tirés uniformément.
+     */
+    private static void benchmarkDistanceTable(BlocksWorldPlanner bw, ApplicableActionIndex index, Map<Variable, Object> initial,
+                                               Goal goal, Map<Variable, Object> goalMap, Random random) {
+        long start = System.nanoTime();
+        PerfectDistanceTable built = new PerfectDistanceTable(bw, goalMap);
+        long buildTime = System.nanoTime() - start;
+        PerfectDistanceTable table;
+        try {
+            Path file = Files.createTempFile("distances", ".bin");
+            built.save(file);
+            start = System.nanoTime();
+            table = PerfectDistanceTable.load(file, bw, goalMap);
+            long loadTime = System.nanoTime() - start;
+            Files.delete(file);
+            System.out.println(String.format("  %-18s %d états, %d octets, construite en %d ms, relue en %.2f ms",
+                    "Distances exactes", table.getNbStates(), table.getTableBytes(), buildTime / 1000000, loadTime / 1e6));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        start = System.nanoTime();
+        List<Action> plan = table.plan(initial);
+        long elapsed = System.nanoTime() - start;
+        List<Action> reference = new AStarPlanner(initial, index, goal, new MisplacedGoalHeuristic(goalMap)).plan();
+        if ((plan == null) != (reference == null) || (plan != null && plan.size() != reference.size())) {
+            throw new IllegalStateException("La table des distances ne donne pas un plan optimal");
+        }
+        System.out.println(String.format("  %-18s %s en %.1f µs", "Descente gloutonne",
+                (plan == null) ? "aucun plan" : "plan=" + plan.size(), elapsed / 1e3));
+
+        BlocksWorldStateRanker ranker = new BlocksWorldStateRanker(bw);
+        long total = 0;
+        int reachable = 0;
+        for (int i = 0; i < DISTANCE_SAMPLES; i++) {
+            int distance = table.distance(ranker.sample(random));
+            if (distance >= 0) {
+                total += distance;
+                reachable++;
+            }
+        }
+        System.out.println(String.format("  %-18s distance moyenne %.2f sur %d états tirés parmi %d (%d sans plan)", "",
+                (double) total / Math.max(reachable, 1), DISTANCE_SAMPLES, ranker.getNbStates(), DISTANCE_SAMPLES - reachable));
+    }
+
+    /**
+     * Interroge le cache de plans avec la requête d'une instance, sa répétition et la
+     * requête partant de l'état atteint au milieu du plan, et affiche la durée de chacune.
+     */
+    private static void benchmarkCache(PlanCache cache, ApplicableActionIndex index,
+                                       Map<Variable, Object> initial, BasicGoal goal, Map<Variable, Object> goalMap) {
+        long start = System.nanoTime();
+        List<Action> plan = cache.plan(new AStarPlanner(initial, index, goal, new MisplacedGoalHeuristic(goalMap)));
+        long first = System.nanoTime() - start;
+        start = System.nanoTime();
+        cache.plan(new AStarPlanner(initial, index, goal, new MisplacedGoalHeuristic(goalMap)));
+        long repeated = System.nanoTime() - start;
+        Map<Variable, Object> middle = initial;
+        for (int k = 0; plan != null && k < plan.size() / 2; k++) {
+            middle = plan.get(k).successor(middle);
+        }
+        start = System.nanoTime();
+        List<Action> suffix = cache.plan(new AStarPlanner(middle, index, goal, new MisplacedGoalHeuristic(goalMap)));
+        long fromMiddle = System.nanoTime() - start;
+        System.out.println(String.format("  %-18s requête %d µs, répétée %d µs, depuis le milieu (%s actions) %d µs",
+                "Cache A*", first / 1000, repeated / 1000, suffix == null ? "aucun" : String.valueOf(suffix.size()),
+                fromMiddle / 1000));
+    }
+
+    /**
+     * Lance un planificateur et affiche la longueur du plan, les noeuds explorés et le débit.
+     *
+     * @param name le nom affiché
+     * @param planner le planificateur
+     */
+    private static long run(String name, AbstractPlanner planner) {
+        planner.activateNodeCount(true);
+        long start = System.nanoTime();
+        List<Action> plan = planner.plan();
+        long elapsed = System.nanoTime() - start;
+        report(name, plan, planner.getNodesExplored(), elapsed);
+        PlannerStats stats = planner.getStats();
+        System.out.println(String.format("  %-18s générés=%d doublons=%d ouverte max=%d fermée max=%d (~%d Ko) "
+                        + "heuristique=%d ms première solution=%s",
+                "", stats.getGenerated(), stats.getDuplicates(), stats.getPeakOpen(), stats.getPeakClosed(),
+                stats.getEstimatedPeakBytes() >> 10, stats.getHeuristicNanos() / 1000000,
+                (stats.getTimeToFirstSolutionNanos() < 0) ? "aucune" : stats.getTimeToFirstSolutionNanos() / 1000000 + " ms"));
+        return elapsed;
+    }
+
+    /**
+     * Affiche la probabilité d'omission estimée d'une recherche « bitstate ».
+     *
+     * @param probability la probabilité
+     */
+    private static void reportOmission(double probability) {
+        System.out.println(String.format("  %-18s probabilité d'omission estimée %.2e (%d Ko de bits, %d par état)", "",
+                probability, BITSTATE_BYTES >> 10, BITSTATE_HASHES));
+    }
+
+    /**
+     * Lance un planificateur dans des limites et affiche l'issue de la recherche.
+     *
+     * @param name le nom affiché
+     * @param planner le planificateur
+     * @param limits les limites
+     */
+    private static void runLimited(String name, AbstractPlanner planner, SearchLimits limits) {
+        planner.setSearchLimits(limits);
+        SearchOutcome outcome = planner.solve();
+        PlannerStats stats = outcome.getStats();
+        System.out.println(String.format("  %-18s %s%s : %d noeuds, ouverte max=%d fermée max=%d (~%d Ko), %d ms", name,
+                outcome, outcome.isSolved() ? " plan=" + outcome.getPlan().size() : "", stats.getExpanded(),
+                stats.getPeakOpen(), stats.getPeakClosed(), stats.getEstimatedPeakBytes() >> 10,
+                stats.getElapsedNanos() / 1000000));
+    }
+
+    /** Affiche la longueur du plan, les noeuds explorés, la durée et le débit d'une recherche. */
+    private static void report(String name, List<Action> plan, int nodes, long elapsed) {
+        System.out.println(String.format("  %-18s plan=%s noeuds=%d temps=%d ms  %.0f noeuds/s",
+                name, plan == null ? "aucun" : String.valueOf(plan.size()), nodes,
+                elapsed / 1000000, nodes * 1e9 / Math.max(elapsed, 1)));
+    }
+
+    /**
+     * Compare A* avec les heuristiques admissibles sur une instance, et cumule pour chacune
+     * les noeuds explorés, le temps en nanosecondes et le rapport entre son estimation de
+     * l'état initial et le coût optimal. La construction des bases de motifs n'est pas
+     * comptée. Hors des petits mondes, h_max n'est pas lancé et son total de noeuds vaut -1.
+     */
+    private static void compareAdmissible(BlocksWorldPlanner bw, ApplicableActionIndex index,
+                                          Map<Variable, Object> initial, Goal goal, Map<Variable, Object> goalMap,
+                                          long[] nodes, long[] times, double[] ratios) {
+        Heuristic[] heuristics = {
+                new MisplacedGoalHeuristic(goalMap),
+                bw.getNbBlocs() <= HMAX_MAX_BLOCS
+                        ? new RelaxedPlanningHeuristic(bw.getAllActions(), goal, RelaxedPlanningHeuristic.Mode.MAX) : null,
+                new LandmarkCutHeuristic(bw.getAllActions(), goal),
+                new PatternDatabaseHeuristic(bw, goalMap, PDB_PATTERN_SIZE, PatternDatabaseHeuristic.Combination.ADDITIVE)
+        };
+        for (int h = 0; h < heuristics.length; h++) {
+            if (heuristics[h] == null) {
+                nodes[h] = -1;
+                continue;
+            }
+            AStarPlanner planner = new AStarPlanner(initial, index, goal, heuristics[h]);
+            planner.activateNodeCount(true);
+            long start = System.nanoTime();
+            List<Action> plan = planner.plan();
+            long elapsed = System.nanoTime() - start;
+            report(ADMISSIBLE_NAMES[h], plan, planner.getNodesExplored(), elapsed);
+            nodes[h] += planner.getNodesExplored();
+            times[h] += elapsed;
+            int optimal = 0;
+            for (Action action : plan) {
+                optimal += action.getCost();
+            }
+            ratios[h] += (optimal == 0) ? 1 : heuristics[h].estimate(initial) / optimal;
+        }
+    }
+
+    /**
+     * Compare A* avec les heuristiques du monde des blocs : nombre de blocs mal placés,
+     * blocs à libérer (non admissible), bases de motifs additive et maximale, et
+     * relaxations h_max (dans les petits mondes) et h_FF. La base additive est enregistrée
+     * puis relue par projection en mémoire, comme au démarrage d'un programme qui
+     * réutilise ses tables. Les réductions du nombre de noeuds et du temps par rapport aux
+     * deux premières heuristiques sont affichées.
+     */
+    private static void compareHeuristics(BlocksWorldPlanner bw, ApplicableActionIndex index,
+                                          Map<Variable, Object> initial, Goal goal, Map<Variable, Object> goalMap) {
+        AStarPlanner misplaced = new AStarPlanner(initial, index, goal, new MisplacedGoalHeuristic(goalMap));
+        long misplacedTime = run("A* (Misplaced)", misplaced);
+        AStarPlanner freeing = new AStarPlanner(initial, index, goal, new BlockFreeingHeuristic(goalMap));
+        long freeingTime = run("A* (BlockFreeing)", freeing);
+        System.out.println(String.format("  %-18s heuristique non admissible : plan non garanti optimal", ""));
+
+        long start = System.nanoTime();
+        PatternDatabaseHeuristic additive = new PatternDatabaseHeuristic(bw, goalMap, PDB_PATTERN_SIZE,
+                PatternDatabaseHeuristic.Combination.ADDITIVE);
+        long buildTime = System.nanoTime() - start;
+        PatternDatabaseHeuristic loaded;
+        try {
+            Path file = Files.createTempFile("pdb", ".bin");
+            additive.save(file);
+            start = System.nanoTime();
+            loaded = PatternDatabaseHeuristic.load(file, bw, goalMap);
+            long loadTime = System.nanoTime() - start;
+            Files.delete(file);
+            System.out.println(String.format("  %-18s %d motifs, %d octets, construits en %d ms, relus en %.2f ms",
+                    "Bases de motifs", loaded.getNbPatterns(), loaded.getTableBytes(), buildTime / 1000000, loadTime / 1e6));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        AStarPlanner pdb = new AStarPlanner(initial, index, goal, loaded);
+        long pdbTime = run("A* (PDB additive)", pdb);
+        run("A* (PDB max)", new AStarPlanner(initial, index, goal, new PatternDatabaseHeuristic(bw, goalMap,
+                PDB_PATTERN_SIZE, PatternDatabaseHeuristic.Combination.MAX)));
+        if (bw.getNbBlocs() <= HMAX_MAX_BLOCS) {
+            run("A* (h_max)", new AStarPlanner(initial, index, goal,
+                    new RelaxedPlanningHeuristic(bw.getAllActions(), goal, RelaxedPlanningHeuristic.Mode.MAX)));
+        }
+        run("A* (h_FF)", new AStarPlanner(initial, index, goal,
+                new RelaxedPlanningHeuristic(bw.getAllActions(), goal, RelaxedPlanningHeuristic.Mode.FF)));
+        System.out.println(String.format("  %-18s noeuds /%.1f et temps /%.1f (Misplaced), noeuds /%.1f et temps /%.1f (BlockFreeing)",
+                "PDB additive", (double) misplaced.getNodesExplored() / Math.max(pdb.getNodesExplored(), 1),
+                (double) misplacedTime / Math.max(pdbTime, 1),
+                (double) freeing.getNodesExplored() / Math.max(pdb.getNodesExplored(), 1),
+                (double) freeingTime / Math.max(pdbTime, 1)));
+    }
+
+    /**
+     * Lance un planificateur bidirectionnel et affiche en plus le point de rencontre des
+     * deux recherches et la répartition des noeuds entre elles.
+     *
+     * @param name le nom affiché
+     * @param planner le planificateur
+     * @param mode le mode de recherche
+     */
+    private static void runBidirectional(String name, BidirectionalPlanner planner, BidirectionalPlanner.Mode mode) {
+        planner.setMode(mode);
+        run(name, planner);
+        if (planner.getMeetingState() != null) {
+            System.out.println(String.format("  %-18s rencontre après %d + %d actions, noeuds avant=%d arrière=%d",
+                    "", planner.getForwardLength(), planner.getBackwardLength(),
+                    planner.getForwardNodes(), planner.getBackwardNodes()));
+        }
+    }
+}
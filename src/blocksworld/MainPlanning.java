@@ -78,7 +78,7 @@ public class MainPlanning {
         astarFreeing.activateNodeCount(true);
 
         Planner[] planners = { bfs, dfs, dijkstra, astarMisplaced, astarFreeing };
-        String[] names = {"BFS", "DFS", "Dijkstra", "A* (Misplaced)", "A* (BlockFreeing)"};
+        String[] names = {"BFS", "DFS", "Dijkstra", "A* (Misplaced)", "A* (BlockFreeing, non admissible)"};
 
 
         List<Action> foundPlan = null; 
@@ -100,14 +100,8 @@ public class MainPlanning {
                 if (foundPlan == null) foundPlan = plan;
             }
             int nodes = -1;
-            if (p instanceof BFSPlanner) {
-                nodes = ((BFSPlanner) p).getNodesExplored();
-            } else if (p instanceof DFSPlanner) {
-                nodes = ((DFSPlanner) p).getNodesExplored();
-            } else if (p instanceof DijkstraPlanner) {
-                nodes = ((DijkstraPlanner) p).getNodesExplored();
-            } else if (p instanceof AStarPlanner) {
-                nodes = ((AStarPlanner) p).getNodesExplored();
+            if (p instanceof AbstractPlanner) {
+                nodes = ((AbstractPlanner) p).getNodesExplored();
             }
             
             if (nodes != -1) {
@@ -10,21 +10,61 @@ import planning.*;
  * * L'estimation est calculée comme suit :
  * <ul>
  * <li>Chaque bloc {@code B} qui n'est pas à sa position but contribue pour {@code 1} au coût.</li>
- * <li>Si un tel bloc {@code B} est bloqué (c'est-à-dire qu'un autre bloc est posé dessus),
- * il ajoute une pénalité de {@code 0.5f} au coût.</li>
+ * <li>Si un tel bloc {@code B} est bloqué (c'est-à-dire qu'un autre bloc est posé dessus,
+ * sa variable "fixed_B" étant vraie), il ajoute une pénalité de {@code 0.5f} au coût.</li>
  * </ul>
- * Le coût total est la somme de ces contributions.
+ * Le coût total est la somme de ces contributions. Elle n'est pas admissible : si A est
+ * posé sur B et que le but demande B sur A, les deux blocs sont mal placés et B est
+ * bloqué, soit 2.5, alors que deux déplacements suffisent. A* guidé par cette heuristique
+ * peut donc retourner un plan plus long que l'optimal.
+ * <p>
+ * Les blocs du but, leurs positions cibles et leurs variables "fixed_" sont rangés une
+ * fois pour toutes dans des tableaux : l'évaluation ne fait ni recherche de chaîne ni
+ * allocation. Liée à un codec, l'heuristique s'évalue sur les états compacts, et la valeur
+ * d'un successeur se déduit de celle de son père en ne recalculant que les blocs dont une
+ * variable est modifiée par l'action.
+ * </p>
  */
-public class  BlockFreeingHeuristic implements Heuristic{
+public class  BlockFreeingHeuristic implements IncrementalHeuristic{
 
     /** État but, associant chaque variable à sa valeur cible. */
     private Map<Variable, Object> but;
+
+    /** Pour chaque bloc du but : variables "on_" et "fixed_", et position cible. */
+    private final Variable[] onVars;
+    private final Variable[] fixedVars;
+    private final Object[] goalValues;
+
+    /** Codec lié, et indices dans ce codec des variables et valeurs de chaque bloc du but. */
+    private StateCodec codec;
+    private int[] onIndex;
+    private int[] fixedIndex;
+    private int[] goalIndex;
+    private int[] trueIndex;
+
+    /** Pour chaque variable du codec, le bloc du but dont elle est la variable "on_" ou "fixed_" (-1 sinon). */
+    private int[] blockOf;
+
     /**
     * Constructeur de  BlockFreeingHeuristic prenant en paramètre  un état but donné.
     * @param but l'état but est représenté par une association de variables et leurs valeurs à l'état final .
     */
     public BlockFreeingHeuristic(Map<Variable, Object> but) {
         this.but = but;
+        List<Variable> vars = new ArrayList<>();
+        for (Variable var : but.keySet()) {
+            if (var.getName().startsWith("on_")) {
+                vars.add(var);
+            }
+        }
+        this.onVars = vars.toArray(new Variable[0]);
+        this.fixedVars = new Variable[this.onVars.length];
+        this.goalValues = new Object[this.onVars.length];
+        for (int i = 0; i < this.onVars.length; i++) {
+            //les variables sont egales par leur nom : "fixed_" suivi du numero du bloc
+            this.fixedVars[i] = new BooleanVariable("fixed_" + this.onVars[i].getName().substring(3));
+            this.goalValues[i] = but.get(this.onVars[i]);
+        }
     }
 
     /**
@@ -36,61 +76,114 @@ public class  BlockFreeingHeuristic implements Heuristic{
     */
     @Override 
     public float estimate(Map<Variable,Object> etat) {
-        int cout = 0;
-        // Renvoie tous les numéros de blocs qui ne sont pas à leur position finale
-        Set<Object> blocsToMove = getBlocsToMove(etat,but);
-        //On parcourt chaque bloc et on vérifie s'il ya quelque chose en dessous
-        for(Object bloc : blocsToMove){
-            cout +=1;
-            if(isBlocBlocked(bloc,etat)){
-                cout +=0.5f;
+        float cout = 0;
+        for (int i = 0; i < this.onVars.length; i++) {
+            Object actualVal = etat.get(this.onVars[i]);
+            if (actualVal != null && !actualVal.equals(this.goalValues[i])) {
+                cout += 1;
+                if (Boolean.TRUE.equals(etat.get(this.fixedVars[i]))) {
+                    cout += 0.5f;
+                }
             }
         }
-        return cout ;
-            
-
-        
+        return cout;
     }
 
+    @Override
+    public void bind(StateCodec codec) {
+        if (codec == this.codec) {
+            return;
+        }
+        int n = this.onVars.length;
+        int[] onIndex = new int[n];
+        int[] fixedIndex = new int[n];
+        int[] goalIndex = new int[n];
+        int[] trueIndex = new int[n];
+        int[] blockOf = new int[codec.getNbVariables()];
+        Arrays.fill(blockOf, -1);
+        for (int i = 0; i < n; i++) {
+            onIndex[i] = codec.indexOf(this.onVars[i]);
+            fixedIndex[i] = codec.indexOf(this.fixedVars[i]);
+            // une valeur inconnue du codec ne vaut aucun indice : Integer.MAX_VALUE
+            goalIndex[i] = (onIndex[i] < 0) ? Integer.MAX_VALUE : codec.indexOfValue(onIndex[i], this.goalValues[i]);
+            if (goalIndex[i] < 0) {
+                goalIndex[i] = Integer.MAX_VALUE;
+            }
+            trueIndex[i] = (fixedIndex[i] < 0) ? Integer.MAX_VALUE : codec.indexOfValue(fixedIndex[i], Boolean.TRUE);
+            if (onIndex[i] >= 0) {
+                blockOf[onIndex[i]] = i;
+            }
+            if (fixedIndex[i] >= 0) {
+                blockOf[fixedIndex[i]] = i;
+            }
+        }
+        this.onIndex = onIndex;
+        this.fixedIndex = fixedIndex;
+        this.goalIndex = goalIndex;
+        this.trueIndex = trueIndex;
+        this.blockOf = blockOf;
+        this.codec = codec;
+    }
 
     /**
-    * Identifie les blocs qui ne sont pas à leur position finale.
-    * @param etat l'état courant
-    * @param but le but
-    * @return l'ensemble des blocs mal placés
+    * Estime le coût sur un état compact, sans le décoder.
+    * @param state l'état compact
+    * @return le coût heuristique estimé
     */
-    private Set<Object> getBlocsToMove(Map<Variable,Object> etat ,Map<Variable,Object> but){
-        Set<Object> blocsToMove = new HashSet<>();
-        for(Variable var : but.keySet()){
-            if(var.getName().startsWith("on_")){
-                Object actualVal = etat.get(var);
-                Object objectifVal = but.get(var);
-                if(!actualVal.equals(objectifVal)){
-                    //On récupere le numéro du bloc qui n'est pas à sa place
-                    int bloc = Integer.parseInt(var.getName().substring(3)); 
-                    //On ajoute ce dernier à la liste des blocs a déplacer
-                    blocsToMove.add(bloc);
+    @Override
+    public float estimate(PackedState state) {
+        float cout = 0;
+        for (int i = 0; i < this.onIndex.length; i++) {
+            cout += contribution(state, i);
+        }
+        return cout;
+    }
 
-                }
+    /**
+    * Déduit l'estimation d'un successeur de celle de son père : seuls les blocs dont la
+    * variable "on_" ou "fixed_" est modifiée par l'action sont recalculés.
+    */
+    @Override
+    public float estimate(PackedState parent, float parentValue, PackedAction action, PackedState child) {
+        if (!action.isCompiled()) {
+            return estimate(child);
+        }
+        int[] vars = action.getEffectVariables();
+        float cout = parentValue;
+        for (int e = 0; e < vars.length; e++) {
+            int block = this.blockOf[vars[e]];
+            if (block < 0 || alreadySeen(vars, e, block)) {
+                continue;
             }
+            cout += contribution(child, block) - contribution(parent, block);
         }
-        return blocsToMove;
+        return cout;
     }
-        /**
-    * Vérifie si un bloc est bloqué par un autre.
-    * @param block le bloc à analyser
-    * @param etat l'état courant
-    * @return vrai si le bloc est bloqué, faux sinon
-    */
-    private boolean isBlocBlocked(Object block,Map<Variable,Object> etat){
-        for (Variable var : etat.keySet()) {
-            if (var.getName().startsWith("on_")) {
-                if (Objects.equals(etat.get(var), block)) {
-                    return true;
-                }
+
+    /** Vrai si un effet précédent porte déjà sur le même bloc. */
+    private boolean alreadySeen(int[] vars, int e, int block) {
+        for (int j = 0; j < e; j++) {
+            if (this.blockOf[vars[j]] == block) {
+                return true;
             }
         }
         return false;
     }
 
+    /** Contribution d'un bloc du but : 0 s'il est bien placé, 1 sinon, plus 0.5 s'il est bloqué. */
+    private float contribution(PackedState state, int i) {
+        if (this.onIndex[i] < 0) {
+            return 0;
+        }
+        int value = this.codec.get(state, this.onIndex[i]);
+        if (value < 0 || value == this.goalIndex[i]) {
+            return 0;
+        }
+        float cout = 1;
+        if (this.fixedIndex[i] >= 0 && this.codec.get(state, this.fixedIndex[i]) == this.trueIndex[i]) {
+            cout += 0.5f;
+        }
+        return cout;
+    }
+
 }
@@ -185,6 +185,65 @@ public class BlocksWorldPlanner {
         }
         return actions;
     }
+    /**
+    * Construit l'état complet correspondant à une configuration donnée sous forme de piles,
+    * au format produit par {@code BWGenerator} (le bloc du bas de chaque pile en premier).
+    * @param piles la liste des piles, la pile d'indice i correspondant à la pile i+1
+    * @return l'état associant une valeur à chaque variable du monde
+    */
+    public Map<Variable, Object> getState(List<List<Integer>> piles) {
+        Map<Variable, Object> state = new HashMap<>();
+        for (int b = 0; b < nbBlocs; b++) {
+            state.put(worldConfig.getFixedVariable(b), false);
+        }
+        for (int p = 1; p <= nbPiles; p++) {
+            state.put(worldConfig.getFreeVariable(p), true);
+        }
+        for (int p = 0; p < piles.size(); p++) {
+            List<Integer> pile = piles.get(p);
+            if (pile.isEmpty()) continue;
+            state.put(worldConfig.getFreeVariable(p + 1), false);
+            state.put(worldConfig.getOnVariable(pile.get(0)), -(p + 1));   // bloc du bas posé sur la pile
+            for (int i = 1; i < pile.size(); i++) {
+                state.put(worldConfig.getOnVariable(pile.get(i)), pile.get(i - 1));
+                state.put(worldConfig.getFixedVariable(pile.get(i - 1)), true);
+            }
+        }
+        return state;
+    }
+
+    /**
+    * Construit un but portant uniquement sur les variables "on_b" d'une configuration
+    * donnée sous forme de piles.
+    * @param piles la liste des piles, au même format que {@link #getState(List)}
+    * @return l'instanciation partielle des variables "on_b"
+    */
+    public Map<Variable, Object> getGoal(List<List<Integer>> piles) {
+        Map<Variable, Object> state = getState(piles);
+        Map<Variable, Object> goal = new HashMap<>();
+        for (int b = 0; b < nbBlocs; b++) {
+            Variable onB = worldConfig.getOnVariable(b);
+            goal.put(onB, state.get(onB));
+        }
+        return goal;
+    }
+
+    /**
+    * Retourne le nombre de blocs du monde.
+    * @return le nombre de blocs
+    */
+    public int getNbBlocs() {
+        return this.nbBlocs;
+    }
+
+    /**
+    * Retourne le nombre de piles du monde.
+    * @return le nombre de piles
+    */
+    public int getNbPiles() {
+        return this.nbPiles;
+    }
+
     /**
     * Retourne la configuration du monde utilisée.
     * @return l'objet WorldConfig associé
@@ -0,0 +1,259 @@
+package blocksworld.planning ;
+import blocksworld.modelling.WorldConfig;
+import java.util.*;
+import modelling.*;
+
+/**
+ * Numérotation parfaite des états complets d'un monde des blocs.
+ * <p>
+ * Un état complet est un ensemble ordonné de tours posées sur des piles numérotées : il
+ * est déterminé par les blocs, piles mises bout à bout et chaque pile de bas en haut, et
+ * par les hauteurs des piles. Les blocs forment une permutation, classée en temps linéaire
+ * par l'algorithme de Myrvold et Ruskey (l'ordre des rangs n'est pas lexicographique, mais
+ * la numérotation est une bijection) ; les hauteurs forment une composition de {@code n}
+ * en {@code p} parts, classée par le système combinatoire des positions de ses
+ * séparateurs. Le rang d'un état est {@code rangPermutation * nbCompositions + rangComposition},
+ * entre 0 et {@code N = n! C(n + p - 1, p - 1)} exclu : 604 800 états pour 7 blocs et
+ * 4 piles.
+ * </p>
+ * <p>
+ * Le classement et son inverse coûtent {@code O(n + p)} : un tableau indexé par le rang
+ * (ensemble de bits des états visités, distances, pères) remplace une table de hachage
+ * dans une recherche exhaustive. Tirer un rang uniformément donne un état uniforme
+ * ({@link #sample(Random)}).
+ * </p>
+ * <p>
+ * Le numéroteur n'a pas d'état modifiable et peut être partagé entre threads.
+ * </p>
+ */
+public class BlocksWorldStateRanker {
+
+    private final BlocksWorldPlanner world;
+    private final int nbBlocs;
+    private final int nbPiles;
+
+    /** Nombre d'états, et nombre de compositions des hauteurs des piles. */
+    private final long nbStates;
+    private final long nbCompositions;
+
+    /** Coefficients binomiaux {@code C(s, k)} (saturés à {@link Long#MAX_VALUE}). */
+    private final long[][] binomial;
+
+    /** Variables "on_" de chaque bloc. */
+    private final Variable[] onVars;
+
+    /**
+     * Construit le numéroteur des états d'un monde.
+     *
+     * @param world le monde des blocs
+     * @throws IllegalArgumentException si le monde n'a pas de pile, ou a plus de
+     *         {@link Long#MAX_VALUE} états
+     */
+    public BlocksWorldStateRanker(BlocksWorldPlanner world) {
+        this.world = world;
+        this.nbBlocs = world.getNbBlocs();
+        this.nbPiles = world.getNbPiles();
+        if (this.nbPiles < 1) {
+            throw new IllegalArgumentException("A world needs at least one pile to be ranked, got " + this.nbPiles);
+        }
+        int top = this.nbBlocs + this.nbPiles;
+        this.binomial = new long[top][this.nbPiles];
+        for (int s = 0; s < top; s++) {
+            this.binomial[s][0] = 1;
+            for (int k = 1; k < this.nbPiles; k++) {
+                long sum = (s == 0) ? 0 : this.binomial[s - 1][k - 1] + this.binomial[s - 1][k];
+                this.binomial[s][k] = (sum < 0) ? Long.MAX_VALUE : sum;
+            }
+        }
+        this.nbCompositions = this.binomial[top - 1][this.nbPiles - 1];
+        try {
+            long states = this.nbCompositions;
+            for (int i = 2; i <= this.nbBlocs; i++) {
+                states = Math.multiplyExact(states, i);
+            }
+            if (this.nbCompositions == Long.MAX_VALUE) {
+                throw new ArithmeticException();
+            }
+            this.nbStates = states;
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("A world of " + this.nbBlocs + " blocks and " + this.nbPiles
+                    + " piles has too many states to be ranked");
+        }
+
+        WorldConfig config = world.getWorldConfig();
+        this.onVars = new Variable[this.nbBlocs];
+        for (int b = 0; b < this.nbBlocs; b++) {
+            this.onVars[b] = config.getOnVariable(b);
+        }
+    }
+
+    /**
+     * Retourne le nombre exact d'états complets du monde.
+     *
+     * @return {@code n! C(n + p - 1, p - 1)}
+     */
+    public long getNbStates() {
+        return this.nbStates;
+    }
+
+    /**
+     * Retourne le rang d'un état.
+     *
+     * @param state un état complet du monde (seules les variables "on_" sont lues)
+     * @return son rang, entre 0 et {@link #getNbStates()} exclu
+     * @throws IllegalArgumentException si l'état n'est pas un état complet du monde
+     */
+    public long rank(Map<Variable, Object> state) {
+        int[] order = new int[this.nbBlocs];
+        int[] heights = new int[this.nbPiles];
+        toPiles(state, order, heights);
+        return rank(order, heights);
+    }
+
+    /**
+     * Retourne le rang d'un état donné par ses blocs et les hauteurs de ses piles. Les
+     * tableaux ne sont pas modifiés.
+     *
+     * @param order les blocs, piles mises bout à bout et chaque pile de bas en haut
+     * @param heights la hauteur de chaque pile
+     * @return le rang de l'état
+     */
+    public long rank(int[] order, int[] heights) {
+        // Myrvold et Ruskey : le dernier élément est échangé avec la position du plus
+        // grand bloc restant, dont il donne un chiffre du rang
+        int[] permutation = Arrays.copyOf(order, this.nbBlocs);
+        int[] inverse = new int[this.nbBlocs];
+        for (int i = 0; i < this.nbBlocs; i++) {
+            inverse[permutation[i]] = i;
+        }
+        long rank = 0;
+        long weight = 1;
+        for (int k = this.nbBlocs; k > 1; k--) {
+            int s = permutation[k - 1];
+            int at = inverse[k - 1];
+            permutation[at] = s;
+            inverse[s] = at;
+            rank += s * weight;
+            weight *= k;
+        }
+        // séparateurs après chaque pile sauf la dernière, aux positions croissantes s_k
+        long composition = 0;
+        int separator = -1;
+        for (int k = 0; k < this.nbPiles - 1; k++) {
+            separator += heights[k] + 1;
+            composition += this.binomial[separator][k + 1];
+        }
+        return rank * this.nbCompositions + composition;
+    }
+
+    /**
+     * Retrouve les blocs et les hauteurs des piles de l'état d'un rang donné.
+     *
+     * @param rank le rang, entre 0 et {@link #getNbStates()} exclu
+     * @param order reçoit les blocs, piles mises bout à bout et chaque pile de bas en haut
+     * @param heights reçoit la hauteur de chaque pile
+     */
+    public void unrank(long rank, int[] order, int[] heights) {
+        long composition = rank % this.nbCompositions;
+        long permutation = rank / this.nbCompositions;
+        int next = this.nbBlocs + this.nbPiles - 1;
+        for (int k = this.nbPiles - 2; k >= 0; k--) {
+            int separator = next - 1;
+            while (this.binomial[separator][k + 1] > composition) {
+                separator--;
+            }
+            composition -= this.binomial[separator][k + 1];
+            heights[k + 1] = next - separator - 1;
+            next = separator;
+        }
+        heights[0] = next;
+
+        for (int i = 0; i < this.nbBlocs; i++) {
+            order[i] = i;
+        }
+        for (int k = this.nbBlocs; k > 1; k--) {
+            int s = (int) (permutation % k);
+            permutation /= k;
+            int swapped = order[k - 1];
+            order[k - 1] = order[s];
+            order[s] = swapped;
+        }
+    }
+
+    /**
+     * Retourne l'état complet d'un rang donné.
+     *
+     * @param rank le rang, entre 0 et {@link #getNbStates()} exclu
+     * @return l'état, avec ses variables "on_", "fixed_" et "free_"
+     * @throws IllegalArgumentException si le rang est hors de {@code [0, N)}
+     */
+    public Map<Variable, Object> unrank(long rank) {
+        if (rank < 0 || rank >= this.nbStates) {
+            throw new IllegalArgumentException("Rank must be in [0, " + this.nbStates + "), got " + rank);
+        }
+        int[] order = new int[this.nbBlocs];
+        int[] heights = new int[this.nbPiles];
+        unrank(rank, order, heights);
+        List<List<Integer>> piles = new ArrayList<>(this.nbPiles);
+        int position = 0;
+        for (int k = 0; k < this.nbPiles; k++) {
+            List<Integer> pile = new ArrayList<>(heights[k]);
+            for (int d = 0; d < heights[k]; d++) {
+                pile.add(order[position++]);
+            }
+            piles.add(pile);
+        }
+        return this.world.getState(piles);
+    }
+
+    /**
+     * Tire un état uniformément parmi tous les états du monde.
+     *
+     * @param random le générateur aléatoire
+     * @return l'état tiré
+     */
+    public Map<Variable, Object> sample(Random random) {
+        return unrank(random.nextLong(this.nbStates));
+    }
+
+    /**
+     * Range les blocs d'un état, piles mises bout à bout de bas en haut, et les hauteurs
+     * des piles.
+     *
+     * @param state un état complet du monde (seules les variables "on_" sont lues)
+     * @param order reçoit les blocs
+     * @param heights reçoit la hauteur de chaque pile
+     * @throws IllegalArgumentException si l'état n'est pas un état complet du monde
+     */
+    public void toPiles(Map<Variable, Object> state, int[] order, int[] heights) {
+        int[] bottom = new int[this.nbPiles];
+        int[] above = new int[this.nbBlocs];
+        Arrays.fill(bottom, -1);
+        Arrays.fill(above, -1);
+        for (int b = 0; b < this.nbBlocs; b++) {
+            Object value = state.get(this.onVars[b]);
+            if (!(value instanceof Integer)) {
+                throw new IllegalArgumentException("State has no valid value for " + this.onVars[b]);
+            }
+            int on = (Integer) value;
+            int[] slot = (on < 0) ? bottom : above;
+            int index = (on < 0) ? -on - 1 : on;
+            if (index >= slot.length || on == b || slot[index] >= 0) {
+                throw new IllegalArgumentException("State is not a configuration of this world: " + this.onVars[b] + " = " + on);
+            }
+            slot[index] = b;
+        }
+        int position = 0;
+        for (int k = 0; k < this.nbPiles; k++) {
+            int height = 0;
+            for (int b = bottom[k]; b >= 0 && position < this.nbBlocs; b = above[b]) {
+                order[position++] = b;
+                height++;
+            }
+            heights[k] = height;
+        }
+        if (position != this.nbBlocs) {
+            throw new IllegalArgumentException("State is not a configuration of this world: some blocks are not on a pile");
+        }
+    }
+}
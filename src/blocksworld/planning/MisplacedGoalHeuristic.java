@@ -8,18 +8,47 @@ import planning.*;
 *Cette heuristique, est conçue afin d'estimer dans le monde des blocs le coût restant pour atteindre un état but .
 * Elle compte le nombre de variables "on_" qui ne correspondent pas
 * à la configuration finale souhaitée.
+* <p>
+* Les variables "on_" du but et leurs valeurs sont rangées une fois pour toutes dans des
+* tableaux : l'évaluation ne fait ni recherche de chaîne ni allocation. Liée à un codec,
+* l'heuristique s'évalue sur les états compacts, et la valeur d'un successeur se déduit de
+* celle de son père en ne regardant que les variables modifiées par l'action.
+* </p>
 */
-public class MisplacedGoalHeuristic implements Heuristic{
+public class MisplacedGoalHeuristic implements IncrementalHeuristic{
     
 
     /** État but, associant chaque variable à sa valeur cible. */
     private Map<Variable, Object> but;
+
+    /** Variables "on_" du but et leurs valeurs cibles. */
+    private final Variable[] onVars;
+    private final Object[] goalValues;
+
+    /** Codec lié, et pour chacune de ses variables l'indice de la valeur cible (-1 hors du but). */
+    private StateCodec codec;
+    private int[] goalValueOf;
+
+    /** Indices dans le codec des variables "on_" du but. */
+    private int[] goalVars;
+
     /**
     * Construit l'heuristique avec un  but donné.
     * @param but une map représentant la configuration finale attendue
     */
     public MisplacedGoalHeuristic(Map<Variable, Object> but) {
         this.but = but;
+        List<Variable> vars = new ArrayList<>();
+        for (Variable var : but.keySet()) {
+            if (var.getName().startsWith("on_")) {
+                vars.add(var);
+            }
+        }
+        this.onVars = vars.toArray(new Variable[0]);
+        this.goalValues = new Object[this.onVars.length];
+        for (int i = 0; i < this.onVars.length; i++) {
+            this.goalValues[i] = but.get(this.onVars[i]);
+        }
     }
 
    /**
@@ -31,11 +60,77 @@ public class MisplacedGoalHeuristic implements Heuristic{
     @Override 
     public float estimate (Map<Variable,Object> etat){
         int cout =0 ;
-        for(Variable var : etat.keySet()){
-            if(var.getName().startsWith("on_")){
-                if(but.get(var) != null && !etat.get(var).equals(but.get(var))){
-                    cout++;
-                }
+        for (int i = 0; i < this.onVars.length; i++) {
+            Object value = etat.get(this.onVars[i]);
+            if (value != null && this.goalValues[i] != null && !value.equals(this.goalValues[i])) {
+                cout++;
+            }
+        }
+        return cout;
+    }
+
+    @Override
+    public void bind(StateCodec codec) {
+        if (codec == this.codec) {
+            return;
+        }
+        int[] goalValueOf = new int[codec.getNbVariables()];
+        Arrays.fill(goalValueOf, -1);
+        List<Integer> vars = new ArrayList<>();
+        for (int i = 0; i < this.onVars.length; i++) {
+            int var = codec.indexOf(this.onVars[i]);
+            if (var >= 0 && this.goalValues[i] != null) {
+                // une valeur cible hors du domaine n'est jamais atteinte : elle ne vaut aucun indice
+                int value = codec.indexOfValue(var, this.goalValues[i]);
+                goalValueOf[var] = (value >= 0) ? value : Integer.MAX_VALUE;
+                vars.add(var);
+            }
+        }
+        this.goalVars = vars.stream().mapToInt(Integer::intValue).toArray();
+        this.goalValueOf = goalValueOf;
+        this.codec = codec;
+    }
+
+    /**
+    * Estime le coût sur un état compact, sans le décoder.
+    * @param state l'état compact
+    * @return le nombre de blocs dont la position ne correspond pas au but
+    */
+    @Override
+    public float estimate(PackedState state) {
+        int cout = 0;
+        for (int var : this.goalVars) {
+            int value = this.codec.get(state, var);
+            if (value >= 0 && value != this.goalValueOf[var]) {
+                cout++;
+            }
+        }
+        return cout;
+    }
+
+    /**
+    * Déduit l'estimation d'un successeur de celle de son père : seules les variables "on_"
+    * modifiées par l'action peuvent changer le compte.
+    */
+    @Override
+    public float estimate(PackedState parent, float parentValue, PackedAction action, PackedState child) {
+        if (!action.isCompiled()) {
+            return estimate(child);
+        }
+        int[] vars = action.getEffectVariables();
+        int[] values = action.getEffectValues();
+        float cout = parentValue;
+        for (int i = 0; i < vars.length; i++) {
+            int goal = this.goalValueOf[vars[i]];
+            if (goal < 0) {
+                continue;
+            }
+            int before = this.codec.get(parent, vars[i]);
+            if (before >= 0 && before != goal) {
+                cout--;
+            }
+            if (values[i] != goal) {
+                cout++;
             }
         }
         return cout;
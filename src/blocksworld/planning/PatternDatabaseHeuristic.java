@@ -0,0 +1,760 @@
+package blocksworld.planning ;
+import blocksworld.modelling.WorldConfig;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import modelling.*;
+import planning.*;
+
+/**
+ * Heuristique par bases de motifs (pattern databases) pour le monde des blocs.
+ * <p>
+ * Un motif est un sous-ensemble de blocs. L'abstraction d'un état ne garde que les
+ * variables "on_b" et "fixed_b" des blocs du motif et les variables "free_p" des piles ;
+ * un bloc hors du motif sur lequel repose un bloc du motif devient soit « son support dans
+ * le but », soit un support « autre ». Un bloc mal placé l'est donc aussi dans
+ * l'abstraction, et la combinaison additive domine {@link MisplacedGoalHeuristic}. Les
+ * états abstraits qui violent une propriété de tout état concret (deux blocs du motif sur
+ * le même support, un bloc du motif sur un bloc non marqué "fixed" ou sur une pile marquée
+ * "free", un cycle) sont exclus de la recherche, ce qui élimine les raccourcis de la
+ * projection sans perdre l'admissibilité.
+ * Les actions de {@link BlocksWorldPlanner} sont projetées sur ces variables, et la
+ * distance au but de chaque état abstrait est calculée une fois pour toutes par une
+ * recherche en largeur rétrograde depuis les états abstraits buts. Les distances sont
+ * rangées dans un tableau d'octets indexé par le rang de l'état abstrait.
+ * </p>
+ * <p>
+ * Deux combinaisons des motifs sont possibles :
+ * - {@link Combination#MAX} : toutes les actions coûtent 1, l'estimation est le maximum
+ *   des distances abstraites ;
+ * - {@link Combination#ADDITIVE} : les motifs sont disjoints et, dans chaque motif, seul le
+ *   déplacement d'un de ses blocs coûte 1 (les autres coûtent 0). Chaque action concrète
+ *   n'est ainsi comptée que dans un motif, et la somme des distances reste admissible.
+ * </p>
+ * <p>
+ * Les tables dépendent du but. Elles peuvent être enregistrées par {@link #save(Path)} et
+ * relues par {@link #load(Path, BlocksWorldPlanner, Map)}, qui les projette en mémoire
+ * sans les recopier : seules les pages consultées sont chargées.
+ * </p>
+ * <p>
+ * Liée à un codec, l'heuristique s'évalue sur les états compacts : la contribution au rang
+ * de chaque valeur de chaque variable abstraite est précalculée, et le rang d'un état est
+ * une somme de lectures de tableaux.
+ * </p>
+ */
+public class PatternDatabaseHeuristic implements IncrementalHeuristic {
+
+    /** Combinaison des estimations des motifs. */
+    public enum Combination { ADDITIVE, MAX }
+
+    /** Signature et version du format de fichier. */
+    private static final int MAGIC = 0x42575044;
+    private static final int VERSION = 1;
+
+    /** Distance maximale rangée dans une table (les distances plus grandes y sont ramenées). */
+    private static final int MAX_DISTANCE = 254;
+
+    /** Valeur d'un état abstrait qui ne peut pas atteindre le but. */
+    private static final int UNREACHABLE = 255;
+
+    /** Une action abstraite, préparée pour la régression. */
+    private static final class AbstractAction {
+        /** Variables abstraites et valeurs que doit avoir l'état atteint. */
+        int[] checkSlots;
+        int[] checkValues;
+        /** Variation du rang entre l'état atteint et son prédécesseur, hors variables énumérées. */
+        int delta;
+        /** Variables modifiées sans précondition : leur valeur avant l'action est quelconque. */
+        int[] freeSlots;
+        int[] freeEffects;
+        int cost;
+    }
+
+    /** Un motif et sa table de distances. */
+    private static final class Pattern {
+        int[] blocks;
+        /** Valeur "on_b" de chaque bloc du motif dans le but ({@code null} si absente). */
+        Integer[] goalValues;
+        /** Position de chaque bloc dans le motif, ou -1. */
+        int[] position;
+        /** Support dans le but de chaque bloc du motif, s'il est hors du motif (sinon -1). */
+        int[] goalSupport;
+        /** Base et poids de chaque variable abstraite dans le rang. */
+        int[] radix;
+        int[] weight;
+        int size;
+        Variable[] onVars;
+        Variable[] fixedVars;
+        ByteBuffer table;
+        /** Indice dans le codec lié de chaque variable abstraite, et contribution au rang de chacune de ses valeurs. */
+        int[] codecVars;
+        int[][] rankOf;
+    }
+
+    private final int nbBlocs;
+    private final int nbPiles;
+    private final Combination combination;
+    private final Pattern[] patterns;
+    private final Variable[] freeVars;
+
+    /** Le codec lié ({@code null} tant que l'heuristique n'est pas liée). */
+    private StateCodec codec;
+
+    /**
+     * Construit les tables de motifs formés en découpant les tours du but, de bas en
+     * haut, en groupes de {@code patternSize} blocs.
+     *
+     * @param world le monde des blocs
+     * @param goal le but (variables "on_b")
+     * @param patternSize le nombre de blocs par motif
+     * @param combination la combinaison des motifs
+     */
+    public PatternDatabaseHeuristic(BlocksWorldPlanner world, Map<Variable, Object> goal, int patternSize, Combination combination) {
+        this(world, goal, goalTowerPatterns(world, goal, patternSize), combination);
+    }
+
+    /**
+     * Construit les tables de motifs donnés.
+     *
+     * @param world le monde des blocs
+     * @param goal le but (variables "on_b")
+     * @param patterns les blocs de chaque motif (disjoints pour une combinaison additive)
+     * @param combination la combinaison des motifs
+     */
+    public PatternDatabaseHeuristic(BlocksWorldPlanner world, Map<Variable, Object> goal, List<int[]> patterns, Combination combination) {
+        this(world, goal, patterns, combination, true);
+    }
+
+    /**
+     * Prépare les motifs, et calcule leurs tables si {@code build} est vrai (sinon elles
+     * sont relues par {@link #load(Path, BlocksWorldPlanner, Map)}).
+     */
+    private PatternDatabaseHeuristic(BlocksWorldPlanner world, Map<Variable, Object> goal, List<int[]> patterns, Combination combination, boolean build) {
+        this.nbBlocs = world.getNbBlocs();
+        this.nbPiles = world.getNbPiles();
+        this.combination = combination;
+        WorldConfig config = world.getWorldConfig();
+        this.freeVars = new Variable[this.nbPiles];
+        for (int p = 0; p < this.nbPiles; p++) {
+            this.freeVars[p] = config.getFreeVariable(p + 1);
+        }
+        boolean[] used = new boolean[this.nbBlocs];
+        this.patterns = new Pattern[patterns.size()];
+        for (int i = 0; i < patterns.size(); i++) {
+            int[] blocks = patterns.get(i);
+            for (int b : blocks) {
+                if (b < 0 || b >= this.nbBlocs) {
+                    throw new IllegalArgumentException("Block " + b + " is not in a world of " + this.nbBlocs + " blocks");
+                }
+                if (used[b] && combination == Combination.ADDITIVE) {
+                    throw new IllegalArgumentException("Additive patterns must be disjoint, block " + b + " appears twice");
+                }
+                used[b] = true;
+            }
+            this.patterns[i] = newPattern(blocks, config, goal);
+        }
+        if (build) {
+            Set<Action> actions = world.getAllActions();
+            for (Pattern pattern : this.patterns) {
+                pattern.table = ByteBuffer.wrap(build(pattern, actions, config));
+            }
+        }
+    }
+
+    private Pattern newPattern(int[] blocks, WorldConfig config, Map<Variable, Object> goal) {
+        Pattern pattern = new Pattern();
+        int k = blocks.length;
+        pattern.blocks = blocks.clone();
+        pattern.position = new int[this.nbBlocs];
+        Arrays.fill(pattern.position, -1);
+        pattern.onVars = new Variable[k];
+        pattern.fixedVars = new Variable[k];
+        pattern.goalValues = new Integer[k];
+        pattern.goalSupport = new int[k];
+        for (int i = 0; i < k; i++) {
+            pattern.position[blocks[i]] = i;
+            pattern.onVars[i] = config.getOnVariable(blocks[i]);
+            pattern.fixedVars[i] = config.getFixedVariable(blocks[i]);
+            pattern.goalValues[i] = (Integer) goal.get(pattern.onVars[i]);
+        }
+        for (int i = 0; i < k; i++) {
+            Integer support = pattern.goalValues[i];
+            pattern.goalSupport[i] = (support != null && support >= 0 && pattern.position[support] < 0) ? support : -1;
+        }
+        // variables 2i et 2i+1 : "on" et "fixed" du i-ème bloc ; puis une variable par pile.
+        // Valeurs de "on" : les piles, les blocs du motif, le support but hors motif, un autre bloc
+        if (this.nbPiles + k + 2 > Long.SIZE) {
+            throw new IllegalArgumentException("Pattern of " + k + " blocks and " + this.nbPiles + " piles is too large");
+        }
+        int nbSlots = 2 * k + this.nbPiles;
+        pattern.radix = new int[nbSlots];
+        pattern.weight = new int[nbSlots];
+        long size = 1;
+        for (int s = nbSlots - 1; s >= 0; s--) {
+            pattern.radix[s] = (s < 2 * k && s % 2 == 0) ? this.nbPiles + k + 2 : 2;
+            pattern.weight[s] = (int) size;
+            size *= pattern.radix[s];
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Pattern of " + k + " blocks and " + this.nbPiles + " piles is too large");
+            }
+        }
+        pattern.size = (int) size;
+        return pattern;
+    }
+
+    /**
+     * Découpe les tours du but, de bas en haut, en motifs de {@code patternSize} blocs ;
+     * les blocs absents du but terminent le dernier motif.
+     */
+    private static List<int[]> goalTowerPatterns(BlocksWorldPlanner world, Map<Variable, Object> goal, int patternSize) {
+        if (patternSize < 1) {
+            throw new IllegalArgumentException("Pattern size must be at least 1, got " + patternSize);
+        }
+        int n = world.getNbBlocs();
+        WorldConfig config = world.getWorldConfig();
+        int[] above = new int[n];
+        Arrays.fill(above, -1);
+        List<Integer> bottoms = new ArrayList<>();
+        for (int b = 0; b < n; b++) {
+            Object on = goal.get(config.getOnVariable(b));
+            if (on == null) {
+                continue;
+            }
+            int support = (Integer) on;
+            if (support < 0) {
+                bottoms.add(b);
+            } else {
+                above[support] = b;
+            }
+        }
+        List<Integer> order = new ArrayList<>();
+        boolean[] placed = new boolean[n];
+        for (int bottom : bottoms) {
+            for (int b = bottom; b >= 0 && !placed[b]; b = above[b]) {
+                order.add(b);
+                placed[b] = true;
+            }
+        }
+        for (int b = 0; b < n; b++) {
+            if (!placed[b]) {
+                order.add(b);
+            }
+        }
+        List<int[]> patterns = new ArrayList<>();
+        for (int from = 0; from < n; from += patternSize) {
+            int to = Math.min(n, from + patternSize);
+            int[] blocks = new int[to - from];
+            for (int i = from; i < to; i++) {
+                blocks[i - from] = order.get(i);
+            }
+            patterns.add(blocks);
+        }
+        return patterns;
+    }
+
+    /**
+     * Retourne la valeur abstraite d'une valeur concrète d'une variable du motif.
+     */
+    private int abstractValue(Pattern pattern, int slot, Object value) {
+        if (slot >= 2 * pattern.blocks.length || slot % 2 == 1) {
+            return ((Boolean) value) ? 1 : 0;
+        }
+        int support = (Integer) value;
+        if (support < 0) {
+            return -support - 1;
+        }
+        int position = pattern.position[support];
+        if (position >= 0) {
+            return this.nbPiles + position;
+        }
+        int k = pattern.blocks.length;
+        return this.nbPiles + (support == pattern.goalSupport[slot / 2] ? k : k + 1);
+    }
+
+    /**
+     * Calcule la table d'un motif par une recherche rétrograde, couche par couche (les
+     * actions de coût nul prolongent la couche courante).
+     */
+    private byte[] build(Pattern pattern, Set<Action> actions, WorldConfig config) {
+        int k = pattern.blocks.length;
+        Map<Variable, Integer> slotOf = new HashMap<>();
+        for (int i = 0; i < k; i++) {
+            slotOf.put(pattern.onVars[i], 2 * i);
+            slotOf.put(pattern.fixedVars[i], 2 * i + 1);
+        }
+        for (int p = 0; p < this.nbPiles; p++) {
+            slotOf.put(this.freeVars[p], 2 * k + p);
+        }
+        Map<Variable, Integer> movedBlock = new HashMap<>();
+        for (int b = 0; b < this.nbBlocs; b++) {
+            movedBlock.put(config.getOnVariable(b), b);
+        }
+
+        // projection des actions, sans doublons, rangées selon leur premier effet
+        int nbSlots = pattern.radix.length;
+        int[] slotBase = new int[nbSlots + 1];
+        for (int s = 0; s < nbSlots; s++) {
+            slotBase[s + 1] = slotBase[s] + pattern.radix[s];
+        }
+        List<List<AbstractAction>> byEffect = new ArrayList<>();
+        for (int i = 0; i < slotBase[nbSlots]; i++) {
+            byEffect.add(new ArrayList<>());
+        }
+        Set<String> seen = new HashSet<>();
+        for (Action action : actions) {
+            if (action.getPrecondition() == null || action.getEffect() == null) {
+                throw new IllegalArgumentException("Pattern databases need exposed preconditions and effects, got " + action.getClass().getName());
+            }
+            int[] pre = project(pattern, action.getPrecondition(), slotOf);
+            int[] eff = project(pattern, action.getEffect(), slotOf);
+            int moved = -1;
+            for (Variable var : action.getEffect().keySet()) {
+                moved = movedBlock.getOrDefault(var, moved);
+            }
+            boolean inPattern = moved >= 0 && pattern.position[moved] >= 0;
+            int cost = (this.combination == Combination.MAX || inPattern) ? 1 : 0;
+            if (isNoop(pre, eff) || !seen.add(Arrays.toString(pre) + Arrays.toString(eff) + cost)) {
+                continue;
+            }
+            byEffect.get(slotBase[firstSlot(eff)] + eff[firstSlot(eff)]).add(regression(pattern, pre, eff, cost));
+        }
+
+        byte[] table = new byte[pattern.size];
+        Arrays.fill(table, (byte) UNREACHABLE);
+        int[] current = new int[1024];
+        int currentSize = 0;
+        int[] scratch = new int[nbSlots];
+        for (int rank = 0; rank < pattern.size; rank++) {
+            if (isGoal(pattern, rank) && isConsistent(pattern, rank, scratch)) {
+                table[rank] = 0;
+                if (currentSize == current.length) {
+                    current = Arrays.copyOf(current, 2 * currentSize);
+                }
+                current[currentSize++] = rank;
+            }
+        }
+        int[] next = new int[1024];
+        int[] predecessors = new int[64];
+        int[] values = new int[nbSlots];
+        for (int distance = 0; currentSize > 0; distance++) {
+            int nextSize = 0;
+            for (int i = 0; i < currentSize; i++) {
+                int rank = current[i];
+                if ((table[rank] & 0xFF) != distance) {
+                    continue;
+                }
+                for (int s = 0, rest = rank; s < nbSlots; s++) {
+                    values[s] = rest / pattern.weight[s];
+                    rest -= values[s] * pattern.weight[s];
+                }
+                for (int s = 0; s < nbSlots; s++) {
+                    for (AbstractAction action : byEffect.get(slotBase[s] + values[s])) {
+                        int nbPredecessors = predecessors(pattern, action, rank, values, predecessors);
+                        int newDistance = Math.min(distance + action.cost, MAX_DISTANCE);
+                        for (int j = 0; j < nbPredecessors; j++) {
+                            int before = predecessors[j];
+                            if ((table[before] & 0xFF) <= newDistance || !isConsistent(pattern, before, scratch)) {
+                                continue;
+                            }
+                            table[before] = (byte) newDistance;
+                            if (newDistance == distance) {
+                                if (currentSize == current.length) {
+                                    current = Arrays.copyOf(current, 2 * currentSize);
+                                }
+                                current[currentSize++] = before;
+                            } else {
+                                if (nextSize == next.length) {
+                                    next = Arrays.copyOf(next, 2 * nextSize);
+                                }
+                                next[nextSize++] = before;
+                            }
+                        }
+                    }
+                }
+            }
+            int[] swap = current;
+            current = next;
+            next = swap;
+            currentSize = nextSize;
+        }
+        return table;
+    }
+
+    /**
+     * Projette une instanciation sur les variables du motif : valeur abstraite de chaque
+     * variable, -1 si elle est absente.
+     */
+    private int[] project(Pattern pattern, Map<Variable, Object> values, Map<Variable, Integer> slotOf) {
+        int[] projected = new int[pattern.radix.length];
+        Arrays.fill(projected, -1);
+        for (Map.Entry<Variable, Object> entry : values.entrySet()) {
+            Integer slot = slotOf.get(entry.getKey());
+            if (slot != null) {
+                projected[slot] = abstractValue(pattern, slot, entry.getValue());
+            }
+        }
+        return projected;
+    }
+
+    private static int firstSlot(int[] eff) {
+        for (int s = 0; s < eff.length; s++) {
+            if (eff[s] >= 0) {
+                return s;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Vrai si l'action projetée ne modifie aucune variable du motif.
+     */
+    private static boolean isNoop(int[] pre, int[] eff) {
+        for (int s = 0; s < eff.length; s++) {
+            if (eff[s] >= 0 && eff[s] != pre[s]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static AbstractAction regression(Pattern pattern, int[] pre, int[] eff, int cost) {
+        AbstractAction action = new AbstractAction();
+        List<Integer> checkSlots = new ArrayList<>();
+        List<Integer> checkValues = new ArrayList<>();
+        List<Integer> freeSlots = new ArrayList<>();
+        for (int s = 0; s < eff.length; s++) {
+            if (eff[s] >= 0) {
+                checkSlots.add(s);
+                checkValues.add(eff[s]);
+                if (pre[s] >= 0) {
+                    action.delta += (pre[s] - eff[s]) * pattern.weight[s];
+                } else {
+                    freeSlots.add(s);
+                }
+            } else if (pre[s] >= 0) {
+                checkSlots.add(s);
+                checkValues.add(pre[s]);
+            }
+        }
+        action.checkSlots = checkSlots.stream().mapToInt(Integer::intValue).toArray();
+        action.checkValues = checkValues.stream().mapToInt(Integer::intValue).toArray();
+        action.freeSlots = freeSlots.stream().mapToInt(Integer::intValue).toArray();
+        action.freeEffects = new int[action.freeSlots.length];
+        for (int i = 0; i < action.freeSlots.length; i++) {
+            action.freeEffects[i] = eff[action.freeSlots[i]];
+        }
+        action.cost = cost;
+        return action;
+    }
+
+    /**
+     * Calcule les prédécesseurs d'un état abstrait, de valeurs {@code values}, par une action.
+     *
+     * @return le nombre de prédécesseurs rangés dans {@code out}
+     */
+    private static int predecessors(Pattern pattern, AbstractAction action, int rank, int[] values, int[] out) {
+        for (int i = 0; i < action.checkSlots.length; i++) {
+            if (values[action.checkSlots[i]] != action.checkValues[i]) {
+                return 0;
+            }
+        }
+        out[0] = rank + action.delta;
+        int count = 1;
+        for (int i = 0; i < action.freeSlots.length; i++) {
+            int s = action.freeSlots[i];
+            int before = count;
+            for (int value = 0; value < pattern.radix[s]; value++) {
+                if (value == action.freeEffects[i]) {
+                    continue;
+                }
+                int shift = (value - action.freeEffects[i]) * pattern.weight[s];
+                for (int j = 0; j < before; j++) {
+                    out[count++] = out[j] + shift;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Vérifie qu'un état abstrait peut être l'image d'un état concret : supports des blocs
+     * du motif distincts, cohérents avec les variables "fixed" et "free", et sans cycle.
+     */
+    private boolean isConsistent(Pattern pattern, int rank, int[] values) {
+        for (int s = 0, rest = rank; s < values.length; s++) {
+            values[s] = rest / pattern.weight[s];
+            rest -= values[s] * pattern.weight[s];
+        }
+        int k = pattern.blocks.length;
+        long supports = 0;
+        for (int i = 0; i < k; i++) {
+            int support = values[2 * i];
+            if (support >= this.nbPiles + k) {
+                continue;
+            }
+            if ((supports & (1L << support)) != 0) {
+                return false;
+            }
+            supports |= 1L << support;
+            if (support < this.nbPiles) {
+                if (values[2 * k + support] != 0) {
+                    return false;
+                }
+            } else if (support - this.nbPiles == i || values[2 * (support - this.nbPiles) + 1] != 1) {
+                return false;
+            }
+        }
+        for (int i = 0; i < k; i++) {
+            int block = i;
+            for (int steps = 0; values[2 * block] >= this.nbPiles && values[2 * block] < this.nbPiles + k; steps++) {
+                if (steps == k) {
+                    return false;
+                }
+                block = values[2 * block] - this.nbPiles;
+            }
+        }
+        return true;
+    }
+
+    private boolean isGoal(Pattern pattern, int rank) {
+        for (int i = 0; i < pattern.blocks.length; i++) {
+            Integer goal = pattern.goalValues[i];
+            if (goal != null && rank / pattern.weight[2 * i] % pattern.radix[2 * i] != abstractValue(pattern, 2 * i, goal)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Estime le coût restant par les distances abstraites des motifs.
+     *
+     * @param etat l'état courant
+     * @return la somme ou le maximum des distances, ou l'infini si un motif montre que le
+     *         but est inaccessible
+     */
+    @Override
+    public float estimate(Map<Variable, Object> etat) {
+        int total = 0;
+        for (Pattern pattern : this.patterns) {
+            int rank = 0;
+            for (int i = 0; i < pattern.blocks.length; i++) {
+                rank += abstractValue(pattern, 2 * i, etat.get(pattern.onVars[i])) * pattern.weight[2 * i];
+                rank += abstractValue(pattern, 2 * i + 1, etat.get(pattern.fixedVars[i])) * pattern.weight[2 * i + 1];
+            }
+            for (int p = 0; p < this.nbPiles; p++) {
+                rank += abstractValue(pattern, 2 * pattern.blocks.length + p, etat.get(this.freeVars[p]))
+                        * pattern.weight[2 * pattern.blocks.length + p];
+            }
+            int distance = pattern.table.get(rank) & 0xFF;
+            if (distance == UNREACHABLE) {
+                return Float.POSITIVE_INFINITY;
+            }
+            total = (this.combination == Combination.ADDITIVE) ? total + distance : Math.max(total, distance);
+        }
+        return total;
+    }
+
+    @Override
+    public void bind(StateCodec codec) {
+        if (codec == this.codec) {
+            return;
+        }
+        for (Pattern pattern : this.patterns) {
+            int k = pattern.blocks.length;
+            int nbSlots = pattern.radix.length;
+            int[] codecVars = new int[nbSlots];
+            int[][] rankOf = new int[nbSlots][];
+            for (int s = 0; s < nbSlots; s++) {
+                Variable variable = (s >= 2 * k) ? this.freeVars[s - 2 * k]
+                                  : (s % 2 == 0) ? pattern.onVars[s / 2] : pattern.fixedVars[s / 2];
+                int var = codec.indexOf(variable);
+                if (var < 0) {
+                    throw new IllegalArgumentException("Variable " + variable + " is not encoded by the codec");
+                }
+                codecVars[s] = var;
+                rankOf[s] = new int[codec.getNbValues(var)];
+                for (int value = 0; value < rankOf[s].length; value++) {
+                    rankOf[s][value] = abstractValue(pattern, s, codec.getValue(var, value)) * pattern.weight[s];
+                }
+            }
+            pattern.codecVars = codecVars;
+            pattern.rankOf = rankOf;
+        }
+        this.codec = codec;
+    }
+
+    /**
+     * Estime le coût restant sur un état compact, sans le décoder.
+     *
+     * @param state l'état compact (complet)
+     * @return la somme ou le maximum des distances, ou l'infini si le but est inaccessible
+     */
+    @Override
+    public float estimate(PackedState state) {
+        int total = 0;
+        for (Pattern pattern : this.patterns) {
+            int rank = 0;
+            for (int s = 0; s < pattern.codecVars.length; s++) {
+                rank += pattern.rankOf[s][this.codec.get(state, pattern.codecVars[s])];
+            }
+            int distance = pattern.table.get(rank) & 0xFF;
+            if (distance == UNREACHABLE) {
+                return Float.POSITIVE_INFINITY;
+            }
+            total = (this.combination == Combination.ADDITIVE) ? total + distance : Math.max(total, distance);
+        }
+        return total;
+    }
+
+    /**
+     * Retourne le nombre de motifs.
+     *
+     * @return le nombre de motifs
+     */
+    public int getNbPatterns() {
+        return this.patterns.length;
+    }
+
+    /**
+     * Retourne la taille totale des tables en octets.
+     *
+     * @return la taille des tables
+     */
+    public long getTableBytes() {
+        long bytes = 0;
+        for (Pattern pattern : this.patterns) {
+            bytes += pattern.size;
+        }
+        return bytes;
+    }
+
+    /**
+     * Enregistre les tables dans un fichier : un en-tête (signature, version, taille du
+     * monde, combinaison, puis blocs et valeurs buts de chaque motif) suivi des tables.
+     *
+     * @param file le fichier à écrire
+     */
+    public void save(Path file) {
+        ByteBuffer header = ByteBuffer.allocate(headerSize());
+        header.putInt(MAGIC).putInt(VERSION).putInt(this.nbBlocs).putInt(this.nbPiles)
+              .putInt(this.combination.ordinal()).putInt(this.patterns.length);
+        for (Pattern pattern : this.patterns) {
+            header.putInt(pattern.blocks.length);
+            for (int i = 0; i < pattern.blocks.length; i++) {
+                header.putInt(pattern.blocks[i]);
+                header.putInt(pattern.goalValues[i] == null ? Integer.MIN_VALUE : pattern.goalValues[i]);
+            }
+        }
+        header.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, header);
+            for (Pattern pattern : this.patterns) {
+                ByteBuffer table = pattern.table.duplicate();
+                table.clear();
+                write(channel, table);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write " + file, e);
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private int headerSize() {
+        int size = 6 * Integer.BYTES;
+        for (Pattern pattern : this.patterns) {
+            size += Integer.BYTES * (1 + 2 * pattern.blocks.length);
+        }
+        return size;
+    }
+
+    /**
+     * Relit des tables enregistrées par {@link #save(Path)}, en projetant le fichier en
+     * mémoire.
+     *
+     * @param file le fichier à lire
+     * @param world le monde des blocs
+     * @param goal le but, qui doit être celui des tables enregistrées
+     * @return l'heuristique
+     * @throws IllegalArgumentException si le fichier n'est pas une base de motifs de ce
+     *         monde et de ce but
+     */
+    public static PatternDatabaseHeuristic load(Path file, BlocksWorldPlanner world, Map<Variable, Object> goal) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int fixedSize = 6 * Integer.BYTES;
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), fixedSize));
+            if (header.remaining() < fixedSize || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IllegalArgumentException(file + " is not a pattern database");
+            }
+            int nbBlocs = header.getInt();
+            int nbPiles = header.getInt();
+            if (nbBlocs != world.getNbBlocs() || nbPiles != world.getNbPiles()) {
+                throw new IllegalArgumentException(file + " was built for " + nbBlocs + " blocks and " + nbPiles + " piles");
+            }
+            int ordinal = header.getInt();
+            if (ordinal < 0 || ordinal >= Combination.values().length) {
+                throw new IllegalArgumentException(file + " has an unknown pattern combination " + ordinal);
+            }
+            Combination combination = Combination.values()[ordinal];
+            int nbPatterns = header.getInt();
+            if (nbPatterns < 0 || nbPatterns > (channel.size() - fixedSize) / Integer.BYTES) {
+                throw new IllegalArgumentException(file + " declares " + nbPatterns + " patterns, more than it can hold");
+            }
+            // chaque motif : son nombre de blocs, puis un bloc et sa valeur but par bloc
+            long maxPatternsSize = (long) nbPatterns * Integer.BYTES * (1 + 2L * nbBlocs);
+            ByteBuffer patternHeader = channel.map(FileChannel.MapMode.READ_ONLY, fixedSize,
+                    Math.min(Math.min(channel.size() - fixedSize, maxPatternsSize), Integer.MAX_VALUE));
+            List<int[]> blocks = new ArrayList<>();
+            List<int[]> goalValues = new ArrayList<>();
+            for (int i = 0; i < nbPatterns; i++) {
+                if (patternHeader.remaining() < Integer.BYTES) {
+                    throw new IllegalArgumentException(file + " is truncated");
+                }
+                int k = patternHeader.getInt();
+                if (k < 0 || k > nbBlocs) {
+                    throw new IllegalArgumentException(file + " has a pattern of " + k + " blocks in a world of " + nbBlocs);
+                }
+                if (patternHeader.remaining() < 2 * k * Integer.BYTES) {
+                    throw new IllegalArgumentException(file + " is truncated");
+                }
+                int[] patternBlocks = new int[k];
+                int[] patternGoal = new int[k];
+                for (int j = 0; j < k; j++) {
+                    patternBlocks[j] = patternHeader.getInt();
+                    patternGoal[j] = patternHeader.getInt();
+                }
+                blocks.add(patternBlocks);
+                goalValues.add(patternGoal);
+            }
+            PatternDatabaseHeuristic heuristic = new PatternDatabaseHeuristic(world, goal, blocks, combination, false);
+            long offset = fixedSize + patternHeader.position();
+            for (int i = 0; i < nbPatterns; i++) {
+                Pattern pattern = heuristic.patterns[i];
+                for (int j = 0; j < pattern.blocks.length; j++) {
+                    int expected = pattern.goalValues[j] == null ? Integer.MIN_VALUE : pattern.goalValues[j];
+                    if (goalValues.get(i)[j] != expected) {
+                        throw new IllegalArgumentException(file + " was built for another goal");
+                    }
+                }
+                if (offset + pattern.size > channel.size()) {
+                    throw new IllegalArgumentException(file + " is truncated");
+                }
+                pattern.table = channel.map(FileChannel.MapMode.READ_ONLY, offset, pattern.size);
+                offset += pattern.size;
+            }
+            return heuristic;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + file, e);
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package blocksworld.planning ;
+import blocksworld.modelling.WorldConfig;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import modelling.*;
+import planning.*;
+
+/**
+ * Table des distances exactes au but de tous les états d'un petit monde des blocs.
+ * <p>
+ * Les états complets sont numérotés par un {@link BlocksWorldStateRanker} : la table
+ * est un tableau d'octets indexé par le rang, de {@code n! C(n + p - 1, p - 1)} cases
+ * (604 800 pour 7 blocs et 4 piles).
+ * </p>
+ * <p>
+ * Les distances sont calculées une fois pour toutes par une recherche en largeur
+ * rétrograde depuis tous les états qui satisfont le but. Chaque déplacement se défait par
+ * le déplacement inverse, au même coût : les prédécesseurs d'un état sont ses successeurs.
+ * Chaque état reçoit un octet, sa distance au but ou 255 s'il ne peut pas l'atteindre, et
+ * les couches de la recherche sont retrouvées en parcourant la table : aucune file n'est
+ * nécessaire. Les requêtes sont ensuite des lectures de la table, sans recherche : un plan
+ * optimal se lit par descente gloutonne, en choisissant à chaque étape un déplacement vers
+ * un état dont la distance est inférieure de 1.
+ * </p>
+ * <p>
+ * La table dépend du but. Elle peut être enregistrée par {@link #save(Path)} et relue par
+ * {@link #load(Path, BlocksWorldPlanner, Map)}, qui la projette en mémoire sans la
+ * recopier. Une fois construite, elle n'est plus modifiée et peut être interrogée depuis
+ * plusieurs threads.
+ * </p>
+ */
+public class PerfectDistanceTable implements Heuristic {
+
+    /** Signature et version du format de fichier. */
+    private static final int MAGIC = 0x42574454;
+    private static final int VERSION = 2;
+
+    /** Distance maximale rangée dans la table. */
+    private static final int MAX_DISTANCE = 254;
+
+    /** Valeur d'un état qui ne peut pas atteindre le but. */
+    private static final int UNREACHABLE = 255;
+
+    private final int nbBlocs;
+    private final int nbPiles;
+
+    /** Numérotation des états, et leur nombre. */
+    private final BlocksWorldStateRanker ranker;
+    private final int nbStates;
+
+    /**
+     * Le but : valeur "on_" de chaque bloc ({@link Integer#MIN_VALUE} si libre), valeur
+     * "fixed_" de chaque bloc et "free_" de chaque pile (1 vrai, 0 faux, -1 libre).
+     */
+    private final int[] goalOn;
+    private final int[] goalFixed;
+    private final int[] goalFree;
+
+    /** Action déplaçant chaque bloc, indexée par le code de son support de départ et d'arrivée. */
+    private final Action[][] moves;
+
+    /** Les distances, indexées par le rang des états. */
+    private ByteBuffer table;
+
+    /**
+     * Construit la table des distances au but de tous les états d'un monde.
+     *
+     * @param world le monde des blocs
+     * @param goal le but (variables "on_", "fixed_" et "free_" du monde)
+     * @throws IllegalArgumentException si le monde a trop d'états pour une table, ou si le
+     *         but contient une variable qui n'est pas du monde
+     */
+    public PerfectDistanceTable(BlocksWorldPlanner world, Map<Variable, Object> goal) {
+        this(world, goal, true);
+    }
+
+    /**
+     * Prépare le classement des états et le but, et calcule la table si {@code build} est
+     * vrai (sinon elle est relue par {@link #load(Path, BlocksWorldPlanner, Map)}).
+     */
+    private PerfectDistanceTable(BlocksWorldPlanner world, Map<Variable, Object> goal, boolean build) {
+        this.nbBlocs = world.getNbBlocs();
+        this.nbPiles = world.getNbPiles();
+        this.ranker = new BlocksWorldStateRanker(world);
+        if (this.ranker.getNbStates() > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("A world of " + this.nbBlocs + " blocks and " + this.nbPiles
+                    + " piles has too many states for a distance table");
+        }
+        this.nbStates = (int) this.ranker.getNbStates();
+
+        WorldConfig config = world.getWorldConfig();
+        Map<Variable, Integer> onBlock = new HashMap<>();
+        Map<Variable, Integer> fixedBlock = new HashMap<>();
+        Map<Variable, Integer> freePile = new HashMap<>();
+        for (int b = 0; b < this.nbBlocs; b++) {
+            onBlock.put(config.getOnVariable(b), b);
+            fixedBlock.put(config.getFixedVariable(b), b);
+        }
+        for (int p = 0; p < this.nbPiles; p++) {
+            freePile.put(config.getFreeVariable(p + 1), p);
+        }
+
+        this.goalOn = new int[this.nbBlocs];
+        this.goalFixed = new int[this.nbBlocs];
+        this.goalFree = new int[this.nbPiles];
+        Arrays.fill(this.goalOn, Integer.MIN_VALUE);
+        Arrays.fill(this.goalFixed, -1);
+        Arrays.fill(this.goalFree, -1);
+        for (Map.Entry<Variable, Object> entry : goal.entrySet()) {
+            Variable var = entry.getKey();
+            if (onBlock.containsKey(var)) {
+                this.goalOn[onBlock.get(var)] = (Integer) entry.getValue();
+            } else if (fixedBlock.containsKey(var)) {
+                this.goalFixed[fixedBlock.get(var)] = Boolean.TRUE.equals(entry.getValue()) ? 1 : 0;
+            } else if (freePile.containsKey(var)) {
+                this.goalFree[freePile.get(var)] = Boolean.TRUE.equals(entry.getValue()) ? 1 : 0;
+            } else {
+                throw new IllegalArgumentException("Variable " + var + " is not a variable of this world");
+            }
+        }
+
+        int nbSupports = this.nbBlocs + this.nbPiles;
+        this.moves = new Action[this.nbBlocs][nbSupports * nbSupports];
+        for (Action action : world.getAllActions()) {
+            for (Variable var : action.getEffect().keySet()) {
+                Integer b = onBlock.get(var);
+                if (b != null) {
+                    int from = support((Integer) action.getPrecondition().get(var));
+                    int to = support((Integer) action.getEffect().get(var));
+                    this.moves[b][from * nbSupports + to] = action;
+                }
+            }
+        }
+
+        if (build) {
+            this.table = ByteBuffer.wrap(build());
+        }
+    }
+
+    /**
+     * Remplit la table couche par couche : les états de la couche {@code d} sont ceux de
+     * distance {@code d}, et leurs voisins non atteints forment la couche {@code d + 1}.
+     */
+    private byte[] build() {
+        byte[] distances = new byte[this.nbStates];
+        Arrays.fill(distances, (byte) UNREACHABLE);
+        int[] order = new int[this.nbBlocs];
+        int[] heights = new int[this.nbPiles];
+        int[] nextOrder = new int[this.nbBlocs];
+        int[] nextHeights = new int[this.nbPiles];
+        int layer = 0;
+        for (int rank = 0; rank < this.nbStates; rank++) {
+            this.ranker.unrank(rank, order, heights);
+            if (satisfiesGoal(order, heights)) {
+                distances[rank] = 0;
+                layer++;
+            }
+        }
+        for (int d = 0; layer > 0; d++) {
+            if (d + 1 > MAX_DISTANCE) {
+                throw new IllegalStateException("Distances exceed " + MAX_DISTANCE + " moves");
+            }
+            layer = 0;
+            for (int rank = 0; rank < this.nbStates; rank++) {
+                if ((distances[rank] & 0xFF) != d) {
+                    continue;
+                }
+                this.ranker.unrank(rank, order, heights);
+                for (int from = 0; from < this.nbPiles; from++) {
+                    if (heights[from] == 0) {
+                        continue;
+                    }
+                    for (int to = 0; to < this.nbPiles; to++) {
+                        if (to == from) {
+                            continue;
+                        }
+                        moveTop(order, heights, from, to, nextOrder, nextHeights);
+                        int next = rank(nextOrder, nextHeights);
+                        if ((distances[next] & 0xFF) == UNREACHABLE) {
+                            distances[next] = (byte) (d + 1);
+                            layer++;
+                        }
+                    }
+                }
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * Retourne la distance exacte d'un état au but.
+     *
+     * @param state un état complet du monde
+     * @return le nombre minimal d'actions jusqu'au but, ou -1 si le but est inaccessible
+     * @throws IllegalArgumentException si l'état n'est pas un état complet du monde
+     */
+    public int distance(Map<Variable, Object> state) {
+        int[] order = new int[this.nbBlocs];
+        int[] heights = new int[this.nbPiles];
+        this.ranker.toPiles(state, order, heights);
+        int distance = this.table.get(rank(order, heights)) & 0xFF;
+        return (distance == UNREACHABLE) ? -1 : distance;
+    }
+
+    /**
+     * Estime le coût restant par la distance exacte : l'heuristique est parfaite.
+     *
+     * @param etat l'état courant, complet
+     * @return la distance au but, ou l'infini si le but est inaccessible
+     */
+    @Override
+    public float estimate(Map<Variable, Object> etat) {
+        int distance = distance(etat);
+        return (distance < 0) ? Float.POSITIVE_INFINITY : distance;
+    }
+
+    /**
+     * Construit un plan optimal par descente gloutonne dans la table, sans recherche.
+     *
+     * @param initialState un état complet du monde
+     * @return la liste des actions jusqu'au but, ou {@code null} si le but est inaccessible
+     * @throws IllegalArgumentException si l'état n'est pas un état complet du monde
+     */
+    public List<Action> plan(Map<Variable, Object> initialState) {
+        int[] order = new int[this.nbBlocs];
+        int[] heights = new int[this.nbPiles];
+        int[] nextOrder = new int[this.nbBlocs];
+        int[] nextHeights = new int[this.nbPiles];
+        this.ranker.toPiles(initialState, order, heights);
+        int distance = this.table.get(rank(order, heights)) & 0xFF;
+        if (distance == UNREACHABLE) {
+            return null;
+        }
+        List<Action> plan = new ArrayList<>(distance);
+        while (distance > 0) {
+            Action step = null;
+            for (int from = 0; from < this.nbPiles && step == null; from++) {
+                for (int to = 0; to < this.nbPiles && step == null && heights[from] > 0; to++) {
+                    if (to == from) {
+                        continue;
+                    }
+                    moveTop(order, heights, from, to, nextOrder, nextHeights);
+                    if ((this.table.get(rank(nextOrder, nextHeights)) & 0xFF) == distance - 1) {
+                        step = moveAction(order, heights, from, to);
+                    }
+                }
+            }
+            if (step == null) {
+                throw new IllegalStateException("Distance table has no move towards the goal at distance " + distance);
+            }
+            plan.add(step);
+            System.arraycopy(nextOrder, 0, order, 0, this.nbBlocs);
+            System.arraycopy(nextHeights, 0, heights, 0, this.nbPiles);
+            distance--;
+        }
+        return plan;
+    }
+
+    /**
+     * Retourne le nombre d'états du monde.
+     *
+     * @return le nombre d'états, qui est aussi la taille de la table en octets
+     */
+    public int getNbStates() {
+        return this.nbStates;
+    }
+
+    /**
+     * Retourne la taille de la table en octets.
+     *
+     * @return la taille de la table
+     */
+    public long getTableBytes() {
+        return this.nbStates;
+    }
+
+    /** Code d'un support : le bloc lui-même, ou {@code n + p - 1} pour la pile {@code p}. */
+    private int support(int value) {
+        return (value >= 0) ? value : this.nbBlocs - value - 1;
+    }
+
+    private int rank(int[] order, int[] heights) {
+        return (int) this.ranker.rank(order, heights);
+    }
+
+    /**
+     * Déplace le bloc au sommet de la pile {@code from} sur la pile {@code to}.
+     */
+    private void moveTop(int[] order, int[] heights, int from, int to, int[] nextOrder, int[] nextHeights) {
+        int top = -1;
+        int insert = 0;
+        for (int k = 0; k < this.nbPiles; k++) {
+            top += heights[k];
+            if (k == from) {
+                break;
+            }
+        }
+        for (int k = 0; k <= to; k++) {
+            insert += heights[k];
+        }
+        int block = order[top];
+        if (top < insert) {
+            // le bloc descend vers une pile plus à droite : les blocs entre eux reculent
+            System.arraycopy(order, 0, nextOrder, 0, top);
+            System.arraycopy(order, top + 1, nextOrder, top, insert - top - 1);
+            nextOrder[insert - 1] = block;
+            System.arraycopy(order, insert, nextOrder, insert, this.nbBlocs - insert);
+        } else {
+            System.arraycopy(order, 0, nextOrder, 0, insert);
+            nextOrder[insert] = block;
+            System.arraycopy(order, insert, nextOrder, insert + 1, top - insert);
+            System.arraycopy(order, top + 1, nextOrder, top + 1, this.nbBlocs - top - 1);
+        }
+        System.arraycopy(heights, 0, nextHeights, 0, this.nbPiles);
+        nextHeights[from]--;
+        nextHeights[to]++;
+    }
+
+    /** Retourne l'action du monde qui déplace le sommet de la pile {@code from} sur la pile {@code to}. */
+    private Action moveAction(int[] order, int[] heights, int from, int to) {
+        int start = 0;
+        for (int k = 0; k < from; k++) {
+            start += heights[k];
+        }
+        int top = start + heights[from] - 1;
+        int below = (top == start) ? -(from + 1) : order[top - 1];
+        int end = 0;
+        for (int k = 0; k <= to; k++) {
+            end += heights[k];
+        }
+        int onto = (heights[to] == 0) ? -(to + 1) : order[end - 1];
+        Action action = this.moves[order[top]][support(below) * (this.nbBlocs + this.nbPiles) + support(onto)];
+        if (action == null) {
+            throw new IllegalStateException("No action moves block " + order[top] + " from " + below + " onto " + onto);
+        }
+        return action;
+    }
+
+    private boolean satisfiesGoal(int[] order, int[] heights) {
+        int position = 0;
+        for (int k = 0; k < this.nbPiles; k++) {
+            if (this.goalFree[k] >= 0 && this.goalFree[k] != (heights[k] == 0 ? 1 : 0)) {
+                return false;
+            }
+            for (int d = 0; d < heights[k]; d++) {
+                int b = order[position + d];
+                int on = (d == 0) ? -(k + 1) : order[position + d - 1];
+                if (this.goalOn[b] != Integer.MIN_VALUE && this.goalOn[b] != on) {
+                    return false;
+                }
+                if (this.goalFixed[b] >= 0 && this.goalFixed[b] != (d < heights[k] - 1 ? 1 : 0)) {
+                    return false;
+                }
+            }
+            position += heights[k];
+        }
+        return true;
+    }
+
+    /**
+     * Enregistre la table dans un fichier : un en-tête (signature, version, taille du
+     * monde, puis le but) suivi des distances.
+     *
+     * @param file le fichier à écrire
+     */
+    public void save(Path file) {
+        ByteBuffer header = ByteBuffer.allocate(headerSize());
+        header.putInt(MAGIC).putInt(VERSION).putInt(this.nbBlocs).putInt(this.nbPiles);
+        for (int b = 0; b < this.nbBlocs; b++) {
+            header.putInt(this.goalOn[b]).putInt(this.goalFixed[b]);
+        }
+        for (int p = 0; p < this.nbPiles; p++) {
+            header.putInt(this.goalFree[p]);
+        }
+        header.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, header);
+            ByteBuffer distances = this.table.duplicate();
+            distances.clear();
+            write(channel, distances);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write " + file, e);
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private int headerSize() {
+        return Integer.BYTES * (4 + 2 * this.nbBlocs + this.nbPiles);
+    }
+
+    /**
+     * Relit une table enregistrée par {@link #save(Path)}, en projetant le fichier en
+     * mémoire.
+     *
+     * @param file le fichier à lire
+     * @param world le monde des blocs
+     * @param goal le but, qui doit être celui de la table enregistrée
+     * @return la table
+     * @throws IllegalArgumentException si le fichier n'est pas une table de distances de
+     *         ce monde et de ce but
+     */
+    public static PerfectDistanceTable load(Path file, BlocksWorldPlanner world, Map<Variable, Object> goal) {
+        PerfectDistanceTable distances = new PerfectDistanceTable(world, goal, false);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int headerSize = distances.headerSize();
+            if (channel.size() < 4 * Integer.BYTES) {
+                throw new IllegalArgumentException(file + " is not a distance table");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), headerSize));
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IllegalArgumentException(file + " is not a distance table");
+            }
+            int nbBlocs = header.getInt();
+            int nbPiles = header.getInt();
+            if (nbBlocs != distances.nbBlocs || nbPiles != distances.nbPiles) {
+                throw new IllegalArgumentException(file + " was built for " + nbBlocs + " blocks and " + nbPiles + " piles");
+            }
+            if (channel.size() < headerSize + (long) distances.nbStates) {
+                throw new IllegalArgumentException(file + " is truncated");
+            }
+            for (int b = 0; b < nbBlocs; b++) {
+                if (header.getInt() != distances.goalOn[b] || header.getInt() != distances.goalFixed[b]) {
+                    throw new IllegalArgumentException(file + " was built for another goal");
+                }
+            }
+            for (int p = 0; p < nbPiles; p++) {
+                if (header.getInt() != distances.goalFree[p]) {
+                    throw new IllegalArgumentException(file + " was built for another goal");
+                }
+            }
+            distances.table = channel.map(FileChannel.MapMode.READ_ONLY, headerSize, distances.nbStates);
+            return distances;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + file, e);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package blocksworld.planning;
+import blocksworld.modelling.WorldConfig;
+import java.util.*;
+import modelling.Variable;
+import planning.*;
+
+/**
+ * Réduction des symétries entre piles du monde des blocs.
+ * <p>
+ * Les piles sont interchangeables : deux états qui ne diffèrent que par la numérotation
+ * des piles (valeurs {@code -p} des variables "on_" et variables "free_p") ont le même
+ * coût jusqu'au but, dès que le but ne distingue pas ces piles. Les piles que le but
+ * nomme (un bloc du but posé sur la pile, ou sa variable "free_" contrainte) restent
+ * fixes ; les autres sont renumérotées dans l'ordre croissant du bloc posé à leur base,
+ * les piles vides en dernier. L'état canonique d'un monde de {@code p} piles libres
+ * représente ainsi jusqu'à {@code p!} états.
+ * </p>
+ * <p>
+ * Le canonicaliseur se branche sur n'importe quel planificateur du paquetage
+ * {@code planning} par {@link AbstractPlanner#setCanonicalizer}, qui rejoue le plan trouvé
+ * sur les piles concrètes.
+ * </p>
+ */
+public class PileSymmetryCanonicalizer implements StateCanonicalizer {
+
+    private final int nbBlocs;
+
+    /** Variables "on_" de chaque bloc. */
+    private final Variable[] onVars;
+
+    /** Numéros (à partir de 1) des piles interchangeables, et leurs variables "free_". */
+    private final int[] piles;
+    private final Variable[] freeVars;
+
+    /** Codec lié, et indices des variables "on_" de chaque bloc. */
+    private StateCodec codec;
+    private int[] onIndex;
+
+    /** Pour chaque bloc : l'indice de valeur de chaque pile interchangeable, et la pile de chaque indice de valeur (-1 hors d'elles). */
+    private int[][] pileValue;
+    private int[][] slotOf;
+
+    /** Indices des variables "free_" des piles interchangeables, et de leurs valeurs vrai et faux. */
+    private int[] freeIndex;
+    private int[] freeTrue;
+    private int[] freeFalse;
+
+    /**
+     * Construit le canonicaliseur d'un monde pour un but.
+     *
+     * @param world le monde des blocs
+     * @param goal le but, dont les piles nommées restent fixes
+     */
+    public PileSymmetryCanonicalizer(BlocksWorldPlanner world, Map<Variable, Object> goal) {
+        this.nbBlocs = world.getNbBlocs();
+        int nbPiles = world.getNbPiles();
+        WorldConfig config = world.getWorldConfig();
+        this.onVars = new Variable[this.nbBlocs];
+        boolean[] fixed = new boolean[nbPiles + 1];
+        for (int b = 0; b < this.nbBlocs; b++) {
+            this.onVars[b] = config.getOnVariable(b);
+            Object value = goal.get(this.onVars[b]);
+            if (value instanceof Integer && (Integer) value < 0 && -(Integer) value <= nbPiles) {
+                fixed[-(Integer) value] = true;
+            }
+        }
+        List<Integer> piles = new ArrayList<>();
+        for (int p = 1; p <= nbPiles; p++) {
+            if (!fixed[p] && !goal.containsKey(config.getFreeVariable(p))) {
+                piles.add(p);
+            }
+        }
+        this.piles = piles.stream().mapToInt(Integer::intValue).toArray();
+        this.freeVars = new Variable[this.piles.length];
+        for (int j = 0; j < this.piles.length; j++) {
+            this.freeVars[j] = config.getFreeVariable(this.piles[j]);
+        }
+    }
+
+    /**
+     * Retourne le nombre de piles interchangeables : celles que le but ne nomme pas.
+     *
+     * @return le nombre de piles renumérotées
+     */
+    public int getNbSymmetricPiles() {
+        return this.piles.length;
+    }
+
+    /**
+     * @throws IllegalArgumentException si une variable ou une valeur de pile est inconnue du codec
+     */
+    @Override
+    public void bind(StateCodec codec) {
+        if (codec == this.codec) {
+            return;
+        }
+        int m = this.piles.length;
+        int[] onIndex = new int[this.nbBlocs];
+        int[][] pileValue = new int[this.nbBlocs][m];
+        int[][] slotOf = new int[this.nbBlocs][];
+        for (int b = 0; b < this.nbBlocs; b++) {
+            onIndex[b] = require(codec.indexOf(this.onVars[b]), this.onVars[b]);
+            slotOf[b] = new int[codec.getNbValues(onIndex[b])];
+            Arrays.fill(slotOf[b], -1);
+            for (int j = 0; j < m; j++) {
+                pileValue[b][j] = require(codec.indexOfValue(onIndex[b], -this.piles[j]), this.onVars[b]);
+                slotOf[b][pileValue[b][j]] = j;
+            }
+        }
+        int[] freeIndex = new int[m];
+        int[] freeTrue = new int[m];
+        int[] freeFalse = new int[m];
+        for (int j = 0; j < m; j++) {
+            freeIndex[j] = require(codec.indexOf(this.freeVars[j]), this.freeVars[j]);
+            freeTrue[j] = require(codec.indexOfValue(freeIndex[j], Boolean.TRUE), this.freeVars[j]);
+            freeFalse[j] = require(codec.indexOfValue(freeIndex[j], Boolean.FALSE), this.freeVars[j]);
+        }
+        this.onIndex = onIndex;
+        this.pileValue = pileValue;
+        this.slotOf = slotOf;
+        this.freeIndex = freeIndex;
+        this.freeTrue = freeTrue;
+        this.freeFalse = freeFalse;
+        this.codec = codec;
+    }
+
+    private static int require(int index, Variable var) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Variable or pile value of " + var + " not encoded");
+        }
+        return index;
+    }
+
+    /**
+     * Renumérote les piles interchangeables dans l'ordre croissant de leur bloc de base,
+     * les piles vides en dernier. L'état est renvoyé tel quel s'il est déjà canonique.
+     */
+    @Override
+    public PackedState canonicalize(PackedState state) {
+        int m = this.piles.length;
+        if (m < 2) {
+            return state;
+        }
+        // bloc de base de chaque pile interchangeable (nbBlocs pour une pile vide)
+        int[] bottom = new int[m];
+        Arrays.fill(bottom, this.nbBlocs);
+        for (int b = 0; b < this.nbBlocs; b++) {
+            int value = this.codec.get(state, this.onIndex[b]);
+            if (value >= 0 && this.slotOf[b][value] >= 0) {
+                bottom[this.slotOf[b][value]] = b;
+            }
+        }
+        // nouvelle place de chaque pile : son rang, les piles vides gardant leur ordre
+        int[] target = new int[m];
+        boolean identity = true;
+        for (int j = 0; j < m; j++) {
+            for (int k = 0; k < m; k++) {
+                if (bottom[k] < bottom[j] || (bottom[k] == bottom[j] && k < j)) {
+                    target[j]++;
+                }
+            }
+            identity &= target[j] == j;
+        }
+        if (identity) {
+            return state;
+        }
+        int[] vars = new int[this.nbBlocs + m];
+        int[] values = new int[this.nbBlocs + m];
+        int n = 0;
+        for (int j = 0; j < m; j++) {
+            if (target[j] == j) {
+                continue;
+            }
+            if (bottom[j] < this.nbBlocs) {
+                vars[n] = this.onIndex[bottom[j]];
+                values[n++] = this.pileValue[bottom[j]][target[j]];
+            }
+            int free = this.codec.get(state, this.freeIndex[j]);
+            vars[n] = this.freeIndex[target[j]];
+            values[n++] = (free < 0) ? -1 : (free == this.freeTrue[j]) ? this.freeTrue[target[j]] : this.freeFalse[target[j]];
+        }
+        return this.codec.with(state, vars, values, n);
+    }
+}
@@ -1,117 +1,87 @@
 package planning;
-import modelling.Variable; 
-import planning.Goal; 
+import modelling.Variable;
 import java.util.* ;
 
-public class AStarPlanner implements Planner{
-    private Map<Variable,Object> initialState;
-    private Set<Action> actions;
-    private Goal goal;
+public class AStarPlanner extends AbstractPlanner{
     private Heuristic heuristique;
-    private boolean nodeCountActive;
-    private int nodeExplored;
-    
+    //la liste ouverte, triee selon la distance totale (heuristique +distance)
+    private OpenList open;
+
     public AStarPlanner(Map<Variable,Object> initialState,Set<Action> actions,Goal goal,Heuristic heuristique){
-        this.initialState= initialState;
-        this.actions =actions;
-        this.goal = goal ;
+        super(initialState, actions, goal);
         this.heuristique=heuristique;
-        this.nodeCountActive = false;
-        this.nodeExplored=0;
-
+        this.open = new IndexedBinaryHeap();
     }
-       @Override
-    public Map<Variable,Object> getInitialState(){
-        return this.initialState;
+    public AStarPlanner(Map<Variable,Object> initialState,ApplicableActionIndex actionIndex,Goal goal,Heuristic heuristique){
+        super(initialState, actionIndex, goal);
+        this.heuristique=heuristique;
+        this.open = new IndexedBinaryHeap();
     }
-    
-    @Override
-    public Set<Action> getActions(){
-        return this.actions;
-
+    /**
+     * Remplace la liste ouverte (par défaut un {@link IndexedBinaryHeap}). Une
+     * {@link BucketQueue} peut être utilisée si l'heuristique est nulle sur les états buts.
+     *
+     * @param open la liste ouverte à utiliser
+     */
+    public void setOpenList(OpenList open){
+        this.open = open;
     }
+
+    /**
+     * Un noeud de la {@link SearchNodeArena} et la valeur de son heuristique.
+     */
     @Override
-    public Goal getGoal(){
-        return this.goal;
+    protected int getBytesPerNode(){
+        return SearchNodeArena.getBytesPerNode(getCodec()) + 4;
     }
 
-    @Override 
+    @Override
 
-    public List<Action> plan(){
-        //va stocker le noeud et sa distance 
-        Map<Map<Variable ,Object>,Double > distance = new HashMap<>();
-        //stocke chaque noeud et son pere
-        Map<Map<Variable,Object >, Map<Variable,Object>> father = new HashMap<>();
-        //stocke chaque noeud et l'action qui l'a engendre 
-        Map<Map<Variable,Object >,Action> plan = new HashMap<>();
-        Map<Map<Variable ,Object>,Float > value  = new HashMap<>();
-        //permet de trier les noeuds selon la distance totale (heuristique +distance)
-        PriorityQueue<Map<Variable,Object>> open = new PriorityQueue <>(
-            Comparator.comparingDouble(value::get)
-        );
-        open.add(initialState);
-        distance.put(initialState,0.0);
-        father.put(initialState,null);
-        value.put(initialState,heuristique.estimate(initialState));
+    protected List<Action> search(){
+        PackedGoal goal = getPackedGoal();
+        bindHeuristic(heuristique);
+        //stocke chaque noeud, sa distance, son pere et l'action qui l'a engendre
+        SearchNodeArena nodes = new SearchNodeArena(getCodec(),getPackedActions());
+        //valeur de l'heuristique de chaque noeud, calculee une seule fois par etat
+        float[] h = new float[64];
+        open.clear();
+        int root = nodes.add(getPackedInitialState(),0,-1,null);
+        h[root] = estimate(heuristique,nodes.getState(root));
+        open.insertOrUpdate(root,h[root],0);
         while(!open.isEmpty()){
-            Map<Variable,Object> current = open.poll();
-            if(this.nodeCountActive){
-                this.nodeExplored++;
-            }
-            if(goal.isSatisfiedBy(current)){
-                return getAstarPlan(father,plan,current);
+            int current = open.poll();
+            PackedState state = nodes.getState(current);
+            countNode();
+            observeFrontier(open.size(),nodes.size() - open.size());
+            if(goal.isSatisfiedBy(state)){
+                return concretize(nodes.extractPlan(current));
             }
-          
-                
-            for(Action action : actions){
-                if(action.isApplicable(current)){
-                    //on genere le prochain etat
-                    Map<Variable,Object> next = action.successor(current);
-                    
-                    if( !distance.containsKey(next) ){
-                        distance.put(next,Double.POSITIVE_INFINITY);       
-                    }
 
-                    double newCost =distance.get(current) + action.getCost();
-                    if(distance.get(next) > newCost){
-                            distance.put(next,newCost);
-                            father.put(next,current);
-                            value.put(next,(float)newCost+heuristique.estimate(next));
-                            plan.put(next,action);
-                            open.add(next);  
-                        }
+            int distance = nodes.getCost(current);
+            for(PackedAction action : getApplicableActions(state)){
+                //on genere le prochain etat
+                PackedState next = successor(action,state);
+
+                int newCost = distance + action.getCost();
+                int id = nodes.indexOf(next);
+                if(id < 0){
+                    id = nodes.add(next,newCost,current,action);
+                    if(id == h.length){
+                        h = Arrays.copyOf(h,2*id);
                     }
+                    h[id] = estimate(heuristique,state,h[current],action,next);
                 }
+                else if(newCost < nodes.getCost(id)){
+                    nodes.update(id,newCost,current,action);
+                }
+                else{
+                    countDuplicate();
+                    continue;
+                }
+                //un noeud deja ferme est rouvert
+                open.insertOrUpdate(id,newCost+h[id],newCost);
             }
-         return null;   }   
-        
-    private List<Action> getAstarPlan(Map<Map<Variable, Object>, Map<Variable, Object>> father,
-                                    Map<Map<Variable, Object>, Action> planMap,
-                                    Map<Variable, Object> goalState){
-    
-    List<Action> plan = new ArrayList<>();
-    Map<Variable,Object> current = goalState;
-    while(father.get(current) != null){
-        plan.add(0,planMap.get(current));
-        current = father.get(current);
-
-    }
-    return plan;
-    
-    
-    }
-    public void activateNodeCount(boolean activate){
-        this.nodeCountActive = activate;
-        if(activate){
-            this.nodeExplored=0;
         }
-
-    }
-    public int getNodesExplored(){
-        return this.nodeExplored;
+        return null;
     }
-        }
-
-     
-
-    
+}
@@ -0,0 +1,853 @@
+package planning;
+import modelling.Variable;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Classe abstraite de base pour les planificateurs.
+ * <p>
+ * Elle stocke l'état initial, les actions et le but du problème, gère le compteur
+ * de noeuds explorés, et prépare la forme compacte du problème : un {@link StateCodec},
+ * les actions compilées et le but compilé. Les planificateurs concrets cherchent sur les
+ * {@link PackedState} et ne décodent vers {@code Map<Variable,Object>} qu'aux frontières
+ * de l'API (heuristique, plan retourné).
+ * </p>
+ * <p>
+ * Un {@link StateCanonicalizer} peut réduire les symétries du problème : l'état initial et
+ * les successeurs ({@link #successor}) sont alors canoniques, et les planificateurs
+ * traduisent le plan trouvé en plan concret ({@link #concretize}) avant de le retourner.
+ * </p>
+ * <p>
+ * La réduction d'ordre partiel ({@link #setPartialOrderReduction}) restreint la génération
+ * des successeurs ({@link #getApplicableActions}, {@link #collectApplicableActions}) aux
+ * actions d'un ensemble têtu fort ({@link StrongStubbornSets}).
+ * </p>
+ * <p>
+ * {@link #plan()} encadre la recherche propre à chaque planificateur ({@link #search()}) :
+ * il crée les {@link PlannerStats} de l'exécution, que la recherche remplit par
+ * {@link #countNode}, {@link #successor}, {@link #countDuplicate}, {@link #observeFrontier}
+ * et {@link #estimate}, appelle l'observateur de progression à chaque période, et émet un
+ * événement JFR {@code planning.Search} à la fin.
+ * </p>
+ * <p>
+ * {@link #solve()} applique en plus les {@link SearchLimits} du planificateur et retourne
+ * une {@link SearchOutcome}. Les limites sont vérifiées aux mêmes points : {@link #countNode}
+ * décrémente un compte à rebours et ne consulte l'horloge, le compte de noeuds et
+ * l'annulation qu'à son échéance, au plus tous les {@code 1024} noeuds ;
+ * {@link #observeFrontier} compare les états mémorisés au budget et avance l'échéance s'il
+ * est dépassé. Une limite atteinte déroule la recherche jusqu'à {@link #solve()} par une
+ * exception interne ; les recherches parallèles vérifient les limites dans leurs threads
+ * par {@link #checkLimits} et s'arrêtent d'elles-mêmes.
+ * </p>
+ * <p>
+ * Sur le thread de la recherche, les noeuds développés et générés, les doublons et les
+ * évaluations de l'heuristique sont comptés dans des champs simples, reportés dans les
+ * statistiques aux mêmes points de vérification ; l'évaluation chronométrée est choisie
+ * par un compte à rebours. Les threads de travail des recherches parallèles comptent
+ * directement dans les statistiques, et une évaluation chronométrée y est choisie par la
+ * clé de Zobrist de l'état.
+ * </p>
+ */
+public abstract class AbstractPlanner implements Planner {
+
+    /** L'état initial du problème. */
+    private Map<Variable, Object> initialState;
+
+    /** L'ensemble des actions du problème. */
+    private Set<Action> actions;
+
+    /** Le but à atteindre. */
+    private Goal goal;
+
+    /** Indique si le compte de noeuds est activé. */
+    private boolean nodeCountActive;
+
+    /** Le nombre de noeuds explorés. */
+    private int nodeExplored;
+
+    /** Le codec des états, construit à la première planification. */
+    private StateCodec codec;
+
+    /** Les actions compilées pour le codec. */
+    private List<PackedAction> packedActions;
+
+    /** Le but compilé pour le codec. */
+    private PackedGoal packedGoal;
+
+    /** L'index des actions selon leurs préconditions. */
+    private ApplicableActionIndex actionIndex;
+
+    /** La réduction des symétries ({@code null} si elle est désactivée). */
+    private StateCanonicalizer canonicalizer;
+
+    /** La réduction d'ordre partiel ({@code null} si elle est désactivée). */
+    private StrongStubbornSets stubbornSets;
+
+    /** Les statistiques de la dernière exécution de {@link #plan()}. */
+    private PlannerStats stats;
+
+    /** L'observateur de progression ({@code null} s'il n'y en a pas), et sa période en nanosecondes. */
+    private PlannerStats.ProgressListener progressListener;
+    private long progressPeriod = DEFAULT_PROGRESS_PERIOD;
+
+    /** Échéance du prochain point de progression, et noeuds à développer avant la prochaine vérification. */
+    private long nextProgress;
+    private int checkCountdown;
+
+    /** Le thread de la recherche en cours ({@code null} hors recherche). */
+    private Thread searchThread;
+
+    /**
+     * Noeuds développés et générés, doublons et évaluations de l'heuristique du thread de
+     * la recherche, pas encore reportés dans les statistiques.
+     */
+    private long pendingExpanded;
+    private long pendingGenerated;
+    private long pendingDuplicates;
+    private long pendingEvaluations;
+
+    /** Évaluations de l'heuristique du thread de la recherche avant la prochaine chronométrée. */
+    private int samplingCountdown;
+
+    /** Les limites des recherches. */
+    private SearchLimits limits = SearchLimits.NONE;
+
+    /** Vrai si la recherche en cours doit s'arrêter ({@link #cancel()}). */
+    private volatile boolean cancelled;
+
+    /**
+     * Les limites de la recherche en cours : échéance ({@code System.nanoTime()}), noeuds
+     * développés, et états mémorisés avec la limite qu'ils représentent.
+     */
+    private long deadline = Long.MAX_VALUE;
+    private long maxExpansions = Long.MAX_VALUE;
+    private long stateBudget = Long.MAX_VALUE;
+    private SearchLimits.Limit stateLimit = SearchLimits.Limit.STATES;
+
+    /** États mémorisés relevés au dépassement du budget. */
+    private long stored;
+
+    /** Période par défaut des points de progression (1 s), émis en JFR même sans observateur. */
+    private static final long DEFAULT_PROGRESS_PERIOD = 1000000000L;
+
+    /** Nombre maximal de noeuds développés entre deux vérifications des limites et de la progression. */
+    private static final int PROGRESS_CHECK_INTERVAL = 1024;
+
+    /**
+     * Construit un planificateur.
+     *
+     * @param initialState l'état initial
+     * @param actions les actions disponibles
+     * @param goal le but à atteindre
+     */
+    public AbstractPlanner(Map<Variable, Object> initialState, Set<Action> actions, Goal goal) {
+        this.initialState = initialState;
+        this.actions = actions;
+        this.goal = goal;
+        this.nodeCountActive = false;
+        this.nodeExplored = 0;
+        this.stats = new PlannerStats(getClass().getSimpleName(), 0);
+    }
+
+    /**
+     * Cherche un plan, en relevant les statistiques de la recherche ({@link #getStats()}).
+     * Une recherche arrêtée par une limite retourne le plan déjà trouvé s'il y en a un
+     * ({@link #getIncumbent()}), {@code null} sinon : {@link #solve()} distingue les cas.
+     *
+     * @return le plan trouvé, ou {@code null} s'il n'y en a pas
+     * @throws CancellationException si la recherche a été annulée ou son thread interrompu
+     */
+    @Override
+    public final List<Action> plan() {
+        SearchOutcome outcome = solve();
+        if (outcome.getLimit() == SearchLimits.Limit.CANCELLED) {
+            throw new CancellationException("Planning interrupted");
+        }
+        return outcome.getPlan();
+    }
+
+    /**
+     * Cherche un plan dans les limites fixées par {@link #setSearchLimits}, en relevant les
+     * statistiques de la recherche. Une annulation ({@link #cancel()}) ou une interruption
+     * du thread arrête la recherche avec la limite {@link SearchLimits.Limit#CANCELLED}.
+     *
+     * @return l'issue de la recherche
+     */
+    @Override
+    public final SearchOutcome solve() {
+        SearchEvents.Search event = new SearchEvents.Search();
+        event.begin();
+        this.stats = new PlannerStats(getClass().getSimpleName(), getBytesPerNode());
+        long start = System.nanoTime();
+        this.nextProgress = start + this.progressPeriod;
+        this.deadline = this.limits.deadlineNanos(start);
+        this.maxExpansions = this.limits.getMaxExpansions();
+        this.stateBudget = this.limits.stateBudget(this.stats.getBytesPerNode());
+        this.stateLimit = (this.stateBudget < this.limits.getMaxStates()) ? SearchLimits.Limit.BYTES : SearchLimits.Limit.STATES;
+        this.stored = 0;
+        this.checkCountdown = nextCheck(0);
+        this.searchThread = Thread.currentThread();
+        this.samplingCountdown = PlannerStats.HEURISTIC_SAMPLING;
+        SearchOutcome outcome = null;
+        try {
+            List<Action> plan = search();
+            outcome = new SearchOutcome((plan == null) ? SearchOutcome.Status.EXHAUSTED : SearchOutcome.Status.SOLVED,
+                    plan, null, this.stats);
+        } catch (SearchLimitException e) {
+            outcome = new SearchOutcome(SearchOutcome.Status.LIMIT_REACHED, getIncumbent(), e.getLimit(), this.stats);
+        } finally {
+            this.cancelled = false;
+            flushCounters();
+            this.searchThread = null;
+            this.stats.finish((outcome == null) ? null : outcome.getPlan());
+            event.end();
+            if (event.shouldCommit()) {
+                SearchEvents.fill(event, this.stats);
+                event.planLength = this.stats.getPlanLength();
+                event.timeToFirstSolution = this.stats.getTimeToFirstSolutionNanos();
+                event.outcome = (outcome == null) ? "FAILED" : outcome.toString();
+                event.commit();
+            }
+        }
+        return outcome;
+    }
+
+    /**
+     * Retourne le meilleur plan déjà trouvé par une recherche arrêtée par une limite. Par
+     * défaut aucun : seules les recherches qui publient des solutions successives en ont un.
+     *
+     * @return le plan, ou {@code null}
+     */
+    protected List<Action> getIncumbent() {
+        return null;
+    }
+
+    /**
+     * Fixe les limites des recherches suivantes.
+     *
+     * @param limits les limites, {@link SearchLimits#NONE} pour ne pas limiter
+     */
+    public void setSearchLimits(SearchLimits limits) {
+        this.limits = Objects.requireNonNull(limits, "limits");
+    }
+
+    /**
+     * Retourne les limites des recherches.
+     *
+     * @return les limites
+     */
+    public SearchLimits getSearchLimits() {
+        return this.limits;
+    }
+
+    /**
+     * Demande l'arrêt de la recherche en cours, depuis n'importe quel thread ; appelé avant
+     * une recherche, il arrête la suivante dès son premier point de vérification. La
+     * recherche s'arrête avec la limite {@link SearchLimits.Limit#CANCELLED}.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * Vérifie les limites de la recherche en cours, sans lever d'exception : pour les
+     * threads de travail des recherches parallèles, qui s'arrêtent d'eux-mêmes. Peut être
+     * appelé depuis n'importe quel thread de la recherche.
+     *
+     * @param expanded le nombre de noeuds développés depuis le début de la recherche
+     * @param stored le nombre d'états mémorisés
+     * @return la limite dépassée, ou {@code null}
+     */
+    protected SearchLimits.Limit checkLimits(long expanded, long stored) {
+        if (this.cancelled || Thread.currentThread().isInterrupted()) {
+            return SearchLimits.Limit.CANCELLED;
+        }
+        if (expanded > this.maxExpansions) {
+            return SearchLimits.Limit.EXPANSIONS;
+        }
+        if (stored > this.stateBudget) {
+            return this.stateLimit;
+        }
+        if (this.deadline != Long.MAX_VALUE && System.nanoTime() >= this.deadline) {
+            return SearchLimits.Limit.DEADLINE;
+        }
+        return null;
+    }
+
+    /**
+     * Vérifie les limites de la recherche en cours, et l'arrête si l'une est dépassée.
+     *
+     * @param expanded le nombre de noeuds développés depuis le début de la recherche
+     * @param stored le nombre d'états mémorisés
+     */
+    protected void enforceLimits(long expanded, long stored) {
+        SearchLimits.Limit limit = checkLimits(expanded, stored);
+        if (limit != null) {
+            throw new SearchLimitException(limit);
+        }
+    }
+
+    /**
+     * Calcule le nombre d'appels de {@link #countNode} jusqu'à la prochaine vérification :
+     * au plus tard celui du premier noeud au-delà de la limite.
+     */
+    private int nextCheck(long expanded) {
+        return (int) Math.min(PROGRESS_CHECK_INTERVAL, this.maxExpansions - expanded);
+    }
+
+    /**
+     * Vérifie les limites avant de compter un noeud de plus, et émet un point de
+     * progression si la période est écoulée.
+     */
+    private void checkpoint() {
+        flushCounters();
+        long expanded = this.stats.getExpanded();
+        enforceLimits(expanded + 1, this.stored);
+        this.checkCountdown = nextCheck(expanded);
+        progress();
+    }
+
+    /**
+     * La recherche propre au planificateur, appelée par {@link #plan()}.
+     *
+     * @return le plan trouvé, ou {@code null} s'il n'y en a pas
+     */
+    protected abstract List<Action> search();
+
+    /**
+     * Retourne l'estimation des octets occupés par un noeud dans les structures du
+     * planificateur. Par défaut, un {@link PackedState} et sa comptabilité
+     * ({@link #getNodeBookkeepingBytes()}) ; les planificateurs qui rangent leurs noeuds
+     * dans une {@link SearchNodeArena} n'ont pas d'objet par état.
+     *
+     * @return les octets par noeud
+     */
+    protected int getBytesPerNode() {
+        return getCodec().getBytesPerState() + getNodeBookkeepingBytes();
+    }
+
+    /**
+     * Retourne l'estimation des octets occupés par un noeud dans les structures du
+     * planificateur, en plus de son état compact. Par défaut, une entrée de table de
+     * hachage, un identifiant, le coût, le père et l'action.
+     *
+     * @return les octets par noeud hors état
+     */
+    protected int getNodeBookkeepingBytes() {
+        return 72;
+    }
+
+    /**
+     * Retourne les statistiques de la dernière exécution ; appelé depuis le thread de la
+     * recherche en cours, il y reporte d'abord ses compteurs.
+     */
+    @Override
+    public PlannerStats getStats() {
+        if (Thread.currentThread() == this.searchThread) {
+            flushCounters();
+        }
+        return this.stats;
+    }
+
+    /** Reporte dans les statistiques les compteurs du thread de la recherche. */
+    private void flushCounters() {
+        if (this.pendingExpanded != 0) {
+            this.stats.addExpanded(this.pendingExpanded);
+            this.pendingExpanded = 0;
+        }
+        if (this.pendingGenerated != 0) {
+            this.stats.addGenerated(this.pendingGenerated);
+            this.pendingGenerated = 0;
+        }
+        if (this.pendingDuplicates != 0) {
+            this.stats.addDuplicates(this.pendingDuplicates);
+            this.pendingDuplicates = 0;
+        }
+        if (this.pendingEvaluations != 0) {
+            this.stats.addHeuristicEvaluations(this.pendingEvaluations);
+            this.pendingEvaluations = 0;
+        }
+    }
+
+    /**
+     * Installe un observateur appelé périodiquement pendant les recherches, depuis le
+     * thread de la recherche.
+     *
+     * @param listener l'observateur, ou {@code null} pour le retirer
+     * @param periodMillis la période en millisecondes
+     * @throws IllegalArgumentException si la période n'est pas strictement positive
+     */
+    public void setProgressListener(PlannerStats.ProgressListener listener, long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Progress period must be positive, got " + periodMillis);
+        }
+        this.progressListener = listener;
+        this.progressPeriod = (listener == null) ? DEFAULT_PROGRESS_PERIOD : periodMillis * 1000000L;
+    }
+
+    /** Émet un point de progression si la période est écoulée. */
+    private void progress() {
+        long now = System.nanoTime();
+        if (now < this.nextProgress) {
+            return;
+        }
+        this.nextProgress = now + this.progressPeriod;
+        if (this.progressListener != null) {
+            this.progressListener.onProgress(this.stats);
+        }
+        SearchEvents.Progress event = new SearchEvents.Progress();
+        if (event.shouldCommit()) {
+            SearchEvents.fill(event, this.stats);
+            event.commit();
+        }
+    }
+
+    /**
+     * Compte un successeur écarté parce que son état était déjà connu avec un coût au
+     * moins aussi bon.
+     */
+    protected void countDuplicate() {
+        if (Thread.currentThread() == this.searchThread) {
+            this.pendingDuplicates++;
+        } else {
+            this.stats.addDuplicates(1);
+        }
+    }
+
+    /**
+     * Compte plusieurs successeurs écartés (utile aux recherches parallèles).
+     *
+     * @param count le nombre de doublons
+     */
+    protected void countDuplicates(long count) {
+        this.stats.addDuplicates(count);
+    }
+
+    /**
+     * Compte plusieurs successeurs générés, pour les recherches qui ne passent pas par
+     * {@link #successor}.
+     *
+     * @param count le nombre de successeurs
+     */
+    protected void countGenerated(long count) {
+        this.stats.addGenerated(count);
+    }
+
+    /**
+     * Relève les tailles courantes des listes ouverte et fermée, dont les statistiques
+     * retiennent le maximum. Au-delà du budget d'états des {@link SearchLimits}, la
+     * recherche s'arrête au prochain noeud développé ({@link #countNode}).
+     *
+     * @param open le nombre de noeuds à développer
+     * @param closed le nombre de noeuds mémorisés hors liste ouverte
+     */
+    protected void observeFrontier(long open, long closed) {
+        this.stats.observeFrontier(open, closed);
+        if (open + closed > this.stateBudget) {
+            // arrêt au prochain noeud développé, qui passe par la vérification
+            this.stored = open + closed;
+            this.checkCountdown = 1;
+        }
+    }
+
+    /**
+     * Note qu'une solution a été trouvée, pour les recherches qui en trouvent plusieurs
+     * avant de retourner la meilleure.
+     */
+    protected void solutionFound() {
+        this.stats.solutionFound();
+    }
+
+    /**
+     * Construit un planificateur à partir d'un index d'actions déjà construit,
+     * dont le codec et les actions compilées sont réutilisés.
+     *
+     * @param initialState l'état initial
+     * @param actionIndex l'index des actions disponibles
+     * @param goal le but à atteindre
+     */
+    public AbstractPlanner(Map<Variable, Object> initialState, ApplicableActionIndex actionIndex, Goal goal) {
+        this(initialState, actionIndex.getActions(), goal);
+        this.actionIndex = actionIndex;
+        this.codec = actionIndex.getCodec();
+        this.packedActions = actionIndex.getPackedActions();
+    }
+
+    @Override
+    public Map<Variable, Object> getInitialState() {
+        return this.initialState;
+    }
+
+    @Override
+    public Set<Action> getActions() {
+        return this.actions;
+    }
+
+    @Override
+    public Goal getGoal() {
+        return this.goal;
+    }
+
+    /**
+     * Retourne le codec des états du problème, en le construisant si nécessaire.
+     *
+     * @return le codec
+     */
+    public StateCodec getCodec() {
+        if (this.codec == null) {
+            this.codec = StateCodec.forProblem(this.initialState, this.actions, this.goal);
+        }
+        return this.codec;
+    }
+
+    /**
+     * Retourne les actions compilées pour le codec du problème.
+     *
+     * @return la liste des actions compilées
+     */
+    protected List<PackedAction> getPackedActions() {
+        if (this.packedActions == null) {
+            this.packedActions = getCodec().compileAll(this.actions);
+        }
+        return this.packedActions;
+    }
+
+    /**
+     * Retourne l'index des actions selon leurs préconditions, en le construisant si nécessaire.
+     *
+     * @return l'index des actions
+     */
+    public ApplicableActionIndex getActionIndex() {
+        if (this.actionIndex == null) {
+            this.actionIndex = new ApplicableActionIndex(getCodec(), this.actions, getPackedActions());
+        }
+        return this.actionIndex;
+    }
+
+    /**
+     * Retourne les actions à développer dans un état compact : les actions applicables,
+     * restreintes à un ensemble têtu si la réduction d'ordre partiel est active.
+     *
+     * @param state l'état compact
+     * @return la liste des actions à développer
+     */
+    protected List<PackedAction> getApplicableActions(PackedState state) {
+        List<PackedAction> actions = getActionIndex().getApplicableActions(state);
+        if (this.stubbornSets != null) {
+            this.stubbornSets.prune(state, actions);
+        }
+        return actions;
+    }
+
+    /**
+     * Ajoute à une liste les actions à développer dans un état compact, sans la vider :
+     * les actions applicables, restreintes à un ensemble têtu si la réduction d'ordre
+     * partiel est active.
+     *
+     * @param state l'état compact
+     * @param out la liste à compléter
+     */
+    protected void collectApplicableActions(PackedState state, List<PackedAction> out) {
+        int from = out.size();
+        getActionIndex().collect(state, out);
+        if (this.stubbornSets != null) {
+            this.stubbornSets.prune(state, out, from);
+        }
+    }
+
+    /**
+     * Active ou désactive la réduction d'ordre partiel : dans chaque état, seules les
+     * actions applicables d'un ensemble têtu fort sont développées. Les recherches
+     * complètes ou optimales le restent ; le taux d'élagage se lit sur
+     * {@link #getStubbornSets()}, qui permet aussi d'abandonner une réduction qui élague
+     * trop peu ({@link StrongStubbornSets#setMinPruningRatio}). Elle ne se combine pas avec
+     * la réduction des symétries.
+     *
+     * @param active {@code true} pour activer la réduction
+     * @throws IllegalStateException si un canonicaliseur est en place
+     * @throws IllegalArgumentException si le but n'est pas un {@link BasicGoal} ou si une
+     *         action n'expose pas ses préconditions et ses effets
+     */
+    public void setPartialOrderReduction(boolean active) {
+        if (!active) {
+            this.stubbornSets = null;
+        } else if (this.stubbornSets == null) {
+            if (this.canonicalizer != null) {
+                throw new IllegalStateException("Partial-order reduction does not support state canonicalization");
+            }
+            this.stubbornSets = new StrongStubbornSets(getCodec(), getPackedActions(), this.goal);
+        }
+    }
+
+    /**
+     * Retourne la réduction d'ordre partiel utilisée.
+     *
+     * @return les ensembles têtus, ou {@code null} si la réduction est désactivée
+     */
+    public StrongStubbornSets getStubbornSets() {
+        return this.stubbornSets;
+    }
+
+    /**
+     * Retourne le but compilé pour le codec du problème.
+     *
+     * @return le but compilé
+     */
+    protected PackedGoal getPackedGoal() {
+        if (this.packedGoal == null) {
+            this.packedGoal = getCodec().compile(this.goal);
+        }
+        return this.packedGoal;
+    }
+
+    /**
+     * Active la réduction des symétries, ou la désactive : la recherche se fait alors
+     * entre états canoniques, et le plan trouvé est rejoué depuis l'état initial concret.
+     *
+     * @param canonicalizer le canonicaliseur, lié au codec du problème, ou {@code null}
+     * @throws IllegalStateException si la réduction d'ordre partiel est active
+     */
+    public void setCanonicalizer(StateCanonicalizer canonicalizer) {
+        if (canonicalizer != null && this.stubbornSets != null) {
+            throw new IllegalStateException("State canonicalization does not support partial-order reduction");
+        }
+        if (canonicalizer != null) {
+            canonicalizer.bind(getCodec());
+        }
+        this.canonicalizer = canonicalizer;
+    }
+
+    /**
+     * Retourne la réduction des symétries utilisée.
+     *
+     * @return le canonicaliseur, ou {@code null} s'il n'y en a pas
+     */
+    public StateCanonicalizer getCanonicalizer() {
+        return this.canonicalizer;
+    }
+
+    /**
+     * Retourne l'état initial sous forme compacte, canonique si les symétries sont réduites.
+     *
+     * @return l'état initial compact
+     */
+    protected PackedState getPackedInitialState() {
+        PackedState state = getCodec().encode(this.initialState);
+        return (this.canonicalizer == null) ? state : this.canonicalizer.canonicalize(state);
+    }
+
+    /**
+     * Calcule le successeur d'un état par une action, sous forme canonique si les
+     * symétries sont réduites.
+     *
+     * @param action l'action applicable
+     * @param state l'état compact
+     * @return le successeur
+     */
+    protected PackedState successor(PackedAction action, PackedState state) {
+        if (Thread.currentThread() == this.searchThread) {
+            this.pendingGenerated++;
+        } else {
+            this.stats.addGenerated(1);
+        }
+        return replay(action, state);
+    }
+
+    /**
+     * Calcule le successeur d'un état comme {@link #successor}, sans le compter comme
+     * généré : pour rejouer ou reconstruire un plan après la recherche.
+     *
+     * @param action l'action applicable
+     * @param state l'état compact
+     * @return le successeur
+     */
+    protected PackedState replay(PackedAction action, PackedState state) {
+        PackedState next = action.successor(state);
+        return (this.canonicalizer == null) ? next : this.canonicalizer.canonicalize(next);
+    }
+
+    /**
+     * Traduit un plan trouvé entre états canoniques en un plan applicable depuis l'état
+     * initial concret : à chaque pas, l'action retenue est, parmi les actions applicables
+     * dont le successeur a la forme canonique attendue, la moins coûteuse. Sans réduction
+     * des symétries, le plan est renvoyé tel quel.
+     *
+     * @param plan le plan entre états canoniques, ou {@code null}
+     * @return le plan concret, ou {@code null} si {@code plan} l'est
+     * @throws IllegalStateException si le canonicaliseur n'est pas une symétrie du problème
+     */
+    protected List<Action> concretize(List<Action> plan) {
+        if (this.canonicalizer == null || plan == null) {
+            return plan;
+        }
+        Map<Action, PackedAction> packed = new IdentityHashMap<>();
+        for (PackedAction action : getPackedActions()) {
+            packed.put(action.getAction(), action);
+        }
+        PackedState canonical = getPackedInitialState();
+        PackedState concrete = getCodec().encode(this.initialState);
+        List<Action> result = new ArrayList<>(plan.size());
+        for (Action step : plan) {
+            canonical = replay(packed.get(step), canonical);
+            PackedAction chosen = null;
+            for (PackedAction action : getActionIndex().getApplicableActions(concrete)) {
+                if ((chosen == null || action.getCost() < chosen.getCost())
+                        && this.canonicalizer.canonicalize(action.successor(concrete)).equals(canonical)) {
+                    chosen = action;
+                }
+            }
+            if (chosen == null) {
+                throw new IllegalStateException("No concrete action matches " + step + ": canonicalizer is not a symmetry");
+            }
+            result.add(chosen.getAction());
+            concrete = chosen.successor(concrete);
+        }
+        return result;
+    }
+
+    /**
+     * Prépare une heuristique pour la recherche : une {@link IncrementalHeuristic} est liée
+     * au codec du problème.
+     *
+     * @param heuristic l'heuristique
+     */
+    protected void bindHeuristic(Heuristic heuristic) {
+        if (heuristic instanceof IncrementalHeuristic) {
+            ((IncrementalHeuristic) heuristic).bind(getCodec());
+        }
+    }
+
+    /**
+     * Évalue une heuristique sur un état compact, sans le décoder si elle est une
+     * {@link IncrementalHeuristic} (liée par {@link #bindHeuristic(Heuristic)}).
+     *
+     * @param heuristic l'heuristique
+     * @param state l'état compact
+     * @return le coût estimé
+     */
+    protected float estimate(Heuristic heuristic, PackedState state) {
+        if (!sampleEvaluation(state)) {
+            return evaluate(heuristic, state);
+        }
+        long start = System.nanoTime();
+        float value = evaluate(heuristic, state);
+        this.stats.addSampledHeuristicTime(System.nanoTime() - start);
+        return value;
+    }
+
+    /**
+     * Compte une évaluation de l'heuristique et indique si elle doit être chronométrée :
+     * une sur {@link PlannerStats#HEURISTIC_SAMPLING}, par compte à rebours sur le thread
+     * de la recherche, selon la clé de l'état sur les autres.
+     */
+    private boolean sampleEvaluation(PackedState state) {
+        if (Thread.currentThread() == this.searchThread) {
+            this.pendingEvaluations++;
+            if (--this.samplingCountdown != 0) {
+                return false;
+            }
+            this.samplingCountdown = PlannerStats.HEURISTIC_SAMPLING;
+            return true;
+        }
+        this.stats.addHeuristicEvaluations(1);
+        return Long.remainderUnsigned(state.getKey(), PlannerStats.HEURISTIC_SAMPLING) == 0;
+    }
+
+    private float evaluate(Heuristic heuristic, PackedState state) {
+        if (heuristic instanceof IncrementalHeuristic) {
+            return ((IncrementalHeuristic) heuristic).estimate(state);
+        }
+        return heuristic.estimate(getCodec().decode(state));
+    }
+
+    /**
+     * Évalue une heuristique sur le successeur d'un état, de façon incrémentale si elle est
+     * une {@link IncrementalHeuristic}. Si les symétries sont réduites, le successeur
+     * canonique n'est pas celui que produit l'action : il est évalué entièrement.
+     *
+     * @param heuristic l'heuristique
+     * @param parent l'état père
+     * @param parentValue la valeur de l'heuristique pour le père
+     * @param action l'action appliquée
+     * @param child le successeur
+     * @return le coût estimé depuis le successeur
+     */
+    protected float estimate(Heuristic heuristic, PackedState parent, float parentValue,
+                             PackedAction action, PackedState child) {
+        if (!sampleEvaluation(child)) {
+            return evaluate(heuristic, parent, parentValue, action, child);
+        }
+        long start = System.nanoTime();
+        float value = evaluate(heuristic, parent, parentValue, action, child);
+        this.stats.addSampledHeuristicTime(System.nanoTime() - start);
+        return value;
+    }
+
+    private float evaluate(Heuristic heuristic, PackedState parent, float parentValue,
+                           PackedAction action, PackedState child) {
+        if (heuristic instanceof IncrementalHeuristic) {
+            IncrementalHeuristic incremental = (IncrementalHeuristic) heuristic;
+            return (this.canonicalizer == null) ? incremental.estimate(parent, parentValue, action, child)
+                                                : incremental.estimate(child);
+        }
+        return heuristic.estimate(getCodec().decode(child));
+    }
+
+    /**
+     * Compte un noeud développé dans les statistiques, et au compteur de noeuds explorés
+     * s'il est activé ; réservé au thread de la recherche. Appelé à chaque noeud
+     * développé, c'est aussi le point de progression et le point d'arrêt des recherches :
+     * un planificateur qui dépasse ses {@link SearchLimits}, est annulé ou dont le thread
+     * est interrompu s'arrête là.
+     */
+    protected void countNode() {
+        if (--this.checkCountdown == 0) {
+            checkpoint();
+        }
+        this.pendingExpanded++;
+        if (this.nodeCountActive) {
+            this.nodeExplored++;
+        }
+    }
+
+    /**
+     * Ajoute plusieurs noeuds développés aux statistiques, et au compteur s'il est activé
+     * (utile aux recherches parallèles, qui comptent localement avant de reporter le total).
+     * Les limites n'y sont pas vérifiées : ces recherches les vérifient elles-mêmes
+     * ({@link #checkLimits}, {@link #enforceLimits}), et un total reporté après une
+     * recherche terminée ne doit pas l'arrêter.
+     *
+     * @param count le nombre de noeuds explorés
+     */
+    protected void countNodes(int count) {
+        if (Thread.currentThread() == this.searchThread) {
+            flushCounters();
+        }
+        this.stats.addExpanded(count);
+        progress();
+        if (this.nodeCountActive) {
+            this.nodeExplored += count;
+        }
+    }
+
+    /**
+     * Active ou désactive le compte des noeuds explorés (le remet à zéro à l'activation).
+     *
+     * @param activate vrai pour activer le compte
+     */
+    public void activateNodeCount(boolean activate) {
+        this.nodeCountActive = activate;
+        if (activate) {
+            this.nodeExplored = 0;
+        }
+    }
+
+    /**
+     * Retourne le nombre de noeuds explorés.
+     *
+     * @return le nombre de noeuds explorés
+     */
+    public int getNodesExplored() {
+        return this.nodeExplored;
+    }
+}
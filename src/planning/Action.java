@@ -5,4 +5,26 @@ public interface Action{
     boolean isApplicable(Map<Variable,Object> etat);
     Map<Variable, Object> successor(Map<Variable, Object> etat);
     int getCost();
+
+    /**
+     * Renvoie les préconditions de l'action, si elle les expose : les affectations que
+     * l'état doit contenir pour qu'elle soit applicable. Les actions qui les exposent,
+     * avec leurs effets, peuvent être compilées en masques de bits et analysées (régression,
+     * heuristiques de relaxation). La map renvoyée ne doit pas être modifiée.
+     *
+     * @return les préconditions, ou {@code null} si l'action ne les expose pas
+     */
+    default Map<Variable, Object> getPrecondition(){
+        return null;
+    }
+
+    /**
+     * Renvoie les effets de l'action, si elle les expose : les affectations écrites dans
+     * l'état successeur. La map renvoyée ne doit pas être modifiée.
+     *
+     * @return les effets, ou {@code null} si l'action ne les expose pas
+     */
+    default Map<Variable, Object> getEffect(){
+        return null;
+    }
 }
\ No newline at end of file
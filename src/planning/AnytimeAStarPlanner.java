@@ -0,0 +1,308 @@
+package planning;
+import modelling.Variable;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Planificateur A* pondéré « anytime » (ARA*).
+ * <p>
+ * La recherche commence avec un poids élevé sur l'heuristique ({@code f = g + w.h}) pour
+ * trouver vite un premier plan, puis diminue le poids jusqu'à 1 en réutilisant l'arbre de
+ * recherche : pendant une passe, un état déjà fermé dont le coût diminue n'est pas rouvert
+ * mais placé dans une liste d'états incohérents, qui rejoint la liste ouverte au début de la
+ * passe suivante. Avec une heuristique admissible, chaque plan publié coûte au plus
+ * {@code borne} fois le coût optimal, où la borne est le minimum de {@code w} et du rapport
+ * entre le coût du plan et le plus petit {@code g + h} des listes ouverte et incohérente.
+ * </p>
+ * <p>
+ * Chaque amélioration est publiée auprès d'un écouteur (plan et borne), et le meilleur plan
+ * courant peut être lu à tout moment, y compris depuis un autre thread, par
+ * {@link #getBestPlanSupplier()}. La recherche s'arrête proprement à l'échéance fixée par
+ * {@link #setTimeLimit(long)} et retourne le meilleur plan trouvé ; une recherche arrêtée
+ * par ses {@link SearchLimits} retourne aussi le meilleur plan publié
+ * ({@link SearchOutcome#getPlan()}).
+ * </p>
+ */
+public class AnytimeAStarPlanner extends AbstractPlanner {
+
+    /** Nombre de développements entre deux lectures de l'horloge. */
+    private static final int CLOCK_PERIOD = 256;
+
+    /** L'heuristique utilisée. */
+    private final Heuristic heuristique;
+
+    /** Poids initial et pas de diminution du poids. */
+    private double initialWeight;
+    private double weightStep;
+
+    /** Durée maximale d'une planification en millisecondes (0 : pas de limite). */
+    private long timeLimit;
+
+    /** Écouteur des plans améliorés ({@code null} si aucun). */
+    private BiConsumer<List<Action>, Double> listener;
+
+    /** Meilleur plan trouvé et sa borne de sous-optimalité. */
+    private volatile List<Action> bestPlan;
+    private volatile double bound;
+    private int bestCost;
+
+    /** État de la recherche en cours. */
+    private SearchNodeArena nodes;
+    private double[] h;
+    private int[] closedPass;
+    private int[] inconsPass;
+    private List<Integer> incons;
+    private IndexedBinaryHeap open;
+    private int pass;
+    private int goalNode;
+    private long deadline;
+
+    /**
+     * Construit un planificateur ARA* (poids initial 5, diminué de 1 à chaque passe).
+     *
+     * @param initialState l'état initial
+     * @param actions les actions disponibles
+     * @param goal le but à atteindre
+     * @param heuristique l'heuristique (admissible pour que la borne soit garantie)
+     */
+    public AnytimeAStarPlanner(Map<Variable, Object> initialState, Set<Action> actions, Goal goal, Heuristic heuristique) {
+        super(initialState, actions, goal);
+        this.heuristique = heuristique;
+        this.initialWeight = 5;
+        this.weightStep = 1;
+    }
+
+    /**
+     * Construit un planificateur ARA* à partir d'un index d'actions partagé.
+     *
+     * @param initialState l'état initial
+     * @param actionIndex l'index des actions disponibles
+     * @param goal le but à atteindre
+     * @param heuristique l'heuristique (admissible pour que la borne soit garantie)
+     */
+    public AnytimeAStarPlanner(Map<Variable, Object> initialState, ApplicableActionIndex actionIndex, Goal goal, Heuristic heuristique) {
+        super(initialState, actionIndex, goal);
+        this.heuristique = heuristique;
+        this.initialWeight = 5;
+        this.weightStep = 1;
+    }
+
+    /**
+     * Fixe le poids initial de l'heuristique et son pas de diminution.
+     *
+     * @param initialWeight le poids de la première passe (au moins 1)
+     * @param weightStep la diminution du poids entre deux passes (strictement positive)
+     */
+    public void setWeights(double initialWeight, double weightStep) {
+        if (!(initialWeight >= 1) || !(weightStep > 0)) {
+            throw new IllegalArgumentException("Weights need initialWeight >= 1 and weightStep > 0, got "
+                    + initialWeight + " and " + weightStep);
+        }
+        this.initialWeight = initialWeight;
+        this.weightStep = weightStep;
+    }
+
+    /**
+     * Fixe la durée maximale d'une planification.
+     *
+     * @param millis la durée en millisecondes, ou 0 pour chercher jusqu'au plan optimal
+     */
+    public void setTimeLimit(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Time limit must be non-negative, got " + millis);
+        }
+        this.timeLimit = millis;
+    }
+
+    /**
+     * Fixe l'écouteur appelé à chaque plan amélioré, avec le plan et sa borne de
+     * sous-optimalité. Il est appelé dans le thread de la planification.
+     *
+     * @param listener l'écouteur, ou {@code null}
+     */
+    public void setPlanListener(BiConsumer<List<Action>, Double> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Retourne un fournisseur du meilleur plan courant, qui peut être interrogé depuis un
+     * autre thread pendant la planification.
+     *
+     * @return le fournisseur (qui donne {@code null} tant qu'aucun plan n'est trouvé)
+     */
+    public Supplier<List<Action>> getBestPlanSupplier() {
+        return () -> this.bestPlan;
+    }
+
+    /**
+     * Retourne la borne de sous-optimalité du meilleur plan courant (1 s'il est optimal).
+     *
+     * @return la borne, ou l'infini si aucun plan n'est trouvé
+     */
+    public double getSuboptimalityBound() {
+        return this.bound;
+    }
+
+    /** Le meilleur plan publié, rendu par une recherche arrêtée par ses limites. */
+    @Override
+    protected List<Action> getIncumbent() {
+        return this.bestPlan;
+    }
+
+    /** Un noeud de la {@link SearchNodeArena}, son heuristique et ses numéros de passe. */
+    @Override
+    protected int getBytesPerNode() {
+        return SearchNodeArena.getBytesPerNode(getCodec()) + 16;
+    }
+
+    @Override
+    protected List<Action> search() {
+        this.bestPlan = null;
+        this.bound = Double.POSITIVE_INFINITY;
+        this.bestCost = Integer.MAX_VALUE;
+        long start = System.currentTimeMillis();
+        this.deadline = (this.timeLimit == 0) ? Long.MAX_VALUE : start + this.timeLimit;
+        this.nodes = new SearchNodeArena(getCodec(), getPackedActions());
+        this.h = new double[64];
+        this.closedPass = new int[64];
+        this.inconsPass = new int[64];
+        this.incons = new ArrayList<>();
+        this.open = new IndexedBinaryHeap();
+        this.goalNode = -1;
+        bindHeuristic(this.heuristique);
+
+        int root = addNode(getPackedInitialState(), 0, -1, null, null);
+        if (getPackedGoal().isSatisfiedBy(this.nodes.getState(root))) {
+            publish(root, 1);
+            return this.bestPlan;
+        }
+        double weight = this.initialWeight;
+        this.pass = 1;
+        this.open.insertOrUpdate(root, weight * this.h[root], 0);
+        while (true) {
+            boolean completed = improvePath(weight);
+            if (this.goalNode >= 0) {
+                int cost = this.nodes.getCost(this.goalNode);
+                double minF = minOpenF();
+                double ratio = (cost == 0 || minF == Double.POSITIVE_INFINITY) ? 1
+                             : (minF > 0) ? cost / minF : Double.POSITIVE_INFINITY;
+                double newBound = Math.max(1, completed ? Math.min(weight, ratio) : ratio);
+                if (cost < this.bestCost || newBound < this.bound) {
+                    publish(this.goalNode, Math.min(newBound, this.bound));
+                }
+            }
+            if (!completed || this.goalNode < 0 || weight <= 1 || this.bound <= 1) {
+                return this.bestPlan;
+            }
+            weight = Math.max(1, weight - this.weightStep);
+            this.pass++;
+            reorderOpen(weight);
+        }
+    }
+
+    /**
+     * Développe les états jusqu'à ce qu'aucun état ouvert ne puisse améliorer le plan
+     * courant, pour le poids donné.
+     *
+     * @return faux si l'échéance a interrompu la passe
+     */
+    private boolean improvePath(double weight) {
+        PackedGoal goal = getPackedGoal();
+        int expanded = 0;
+        while (!this.open.isEmpty()) {
+            if (this.goalNode >= 0 && this.open.peekPriority() >= this.nodes.getCost(this.goalNode)) {
+                return true;
+            }
+            if (++expanded % CLOCK_PERIOD == 0 && System.currentTimeMillis() >= this.deadline) {
+                return false;
+            }
+            int current = this.open.poll();
+            this.closedPass[current] = this.pass;
+            countNode();
+            observeFrontier(this.open.size(), this.nodes.size() - this.open.size());
+            PackedState state = this.nodes.getState(current);
+            int distance = this.nodes.getCost(current);
+            for (PackedAction action : getApplicableActions(state)) {
+                PackedState next = successor(action, state);
+                int newCost = distance + action.getCost();
+                int id = this.nodes.indexOf(next);
+                if (id < 0) {
+                    id = addNode(next, newCost, current, state, action);
+                } else if (newCost < this.nodes.getCost(id)) {
+                    this.nodes.update(id, newCost, current, action);
+                } else {
+                    countDuplicate();
+                    continue;
+                }
+                if ((this.goalNode < 0 || newCost < this.nodes.getCost(this.goalNode)) && goal.isSatisfiedBy(next)) {
+                    this.goalNode = id;
+                }
+                if (this.closedPass[id] != this.pass) {
+                    this.open.insertOrUpdate(id, newCost + weight * this.h[id], newCost);
+                } else if (this.inconsPass[id] != this.pass) {
+                    // état déjà fermé pendant cette passe : il attend la passe suivante
+                    this.inconsPass[id] = this.pass;
+                    this.incons.add(id);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Retourne le plus petit {@code g + h} des listes ouverte et incohérente.
+     */
+    private double minOpenF() {
+        double minF = Double.POSITIVE_INFINITY;
+        for (int id = 0; id < this.nodes.size(); id++) {
+            if (this.open.contains(id) || this.inconsPass[id] == this.pass) {
+                minF = Math.min(minF, this.nodes.getCost(id) + this.h[id]);
+            }
+        }
+        return minF;
+    }
+
+    /**
+     * Prépare la passe suivante : les états incohérents rejoignent la liste ouverte, dont
+     * les priorités sont recalculées avec le nouveau poids.
+     */
+    private void reorderOpen(double weight) {
+        List<Integer> ids = new ArrayList<>(this.incons);
+        for (int id = 0; id < this.nodes.size(); id++) {
+            if (this.open.contains(id)) {
+                ids.add(id);
+            }
+        }
+        this.incons.clear();
+        this.open.clear();
+        for (int id : ids) {
+            int g = this.nodes.getCost(id);
+            this.open.insertOrUpdate(id, g + weight * this.h[id], g);
+        }
+    }
+
+    private int addNode(PackedState state, int cost, int father, PackedState fatherState, PackedAction via) {
+        int id = this.nodes.add(state, cost, father, via);
+        if (id == this.h.length) {
+            int capacity = 2 * id;
+            this.h = Arrays.copyOf(this.h, capacity);
+            this.closedPass = Arrays.copyOf(this.closedPass, capacity);
+            this.inconsPass = Arrays.copyOf(this.inconsPass, capacity);
+        }
+        this.h[id] = (father < 0) ? estimate(this.heuristique, state)
+                   : estimate(this.heuristique, fatherState, (float) this.h[father], via, state);
+        return id;
+    }
+
+    private void publish(int goalNode, double newBound) {
+        solutionFound();
+        List<Action> plan = concretize(this.nodes.extractPlan(goalNode));
+        this.bestCost = this.nodes.getCost(goalNode);
+        this.bestPlan = plan;
+        this.bound = newBound;
+        if (this.listener != null) {
+            this.listener.accept(plan, newBound);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package planning;
+import modelling.Variable;
+import java.util.*;
+
+/**
+ * Index des actions selon leurs préconditions, permettant d'obtenir directement les
+ * actions applicables dans un état sans tester chaque action.
+ * <p>
+ * L'index est un arbre de décision construit une seule fois : chaque noeud teste une
+ * variable et possède un fils par valeur, ainsi qu'un fils pour les actions qui ne
+ * contraignent pas cette variable. Les préconditions de chaque action sont consommées
+ * dans l'ordre des indices de variables ; une action placée dans un noeud a donc toutes
+ * ses préconditions vérifiées par le chemin qui y mène. Les actions qui n'exposent pas
+ * leurs préconditions et leurs effets (voir {@link Action#getPrecondition()}) sont
+ * testées une à une.
+ * </p>
+ * <p>
+ * L'index est immuable une fois construit et peut être partagé par plusieurs planificateurs
+ * travaillant avec le même codec.
+ * </p>
+ */
+public class ApplicableActionIndex {
+
+    /** Noeud de l'arbre de décision. */
+    private static final class Node {
+        /** Variable testée (-1 si le noeud n'a pas de fils). */
+        int var = -1;
+        /** Fils par indice de valeur de la variable testée. */
+        Node[] children;
+        /** Fils des actions qui ne contraignent pas la variable testée. */
+        Node dontCare;
+        /** Actions dont toutes les préconditions sont vérifiées à ce noeud. */
+        PackedAction[] applicable;
+    }
+
+    /** Le codec des états. */
+    private final StateCodec codec;
+
+    /** Les actions d'origine. */
+    private final Set<Action> actions;
+
+    /** Les actions compilées. */
+    private final List<PackedAction> packedActions;
+
+    /** Les actions non compilées, testées une à une. */
+    private final PackedAction[] generic;
+
+    /** La racine de l'arbre de décision. */
+    private final Node root;
+
+    /** Le nombre de noeuds de l'arbre. */
+    private int nbNodes;
+
+    /**
+     * Construit l'index d'un ensemble d'actions, avec un codec couvrant leurs variables.
+     *
+     * @param actions les actions à indexer
+     */
+    public ApplicableActionIndex(Set<Action> actions) {
+        this(StateCodec.forProblem(Collections.emptyMap(), actions, null), actions);
+    }
+
+    /**
+     * Construit l'index d'un ensemble d'actions pour un codec donné.
+     *
+     * @param codec le codec des états
+     * @param actions les actions à indexer
+     */
+    public ApplicableActionIndex(StateCodec codec, Set<Action> actions) {
+        this(codec, actions, codec.compileAll(actions));
+    }
+
+    /**
+     * Construit l'index à partir d'actions déjà compilées.
+     *
+     * @param codec le codec des états
+     * @param actions les actions d'origine
+     * @param packedActions les actions compilées
+     */
+    ApplicableActionIndex(StateCodec codec, Set<Action> actions, List<PackedAction> packedActions) {
+        this.codec = codec;
+        this.actions = actions;
+        this.packedActions = Collections.unmodifiableList(packedActions);
+
+        List<PackedAction> compiled = new ArrayList<>();
+        List<PackedAction> others = new ArrayList<>();
+        for (PackedAction action : packedActions) {
+            if (!action.isCompiled()) {
+                others.add(action);
+            } else if (!action.isImpossible()) {
+                compiled.add(action);
+            }
+        }
+        this.generic = others.toArray(new PackedAction[0]);
+        this.root = build(compiled.toArray(new PackedAction[0]), new int[compiled.size()]);
+    }
+
+    /**
+     * Construit récursivement un noeud de l'arbre.
+     *
+     * @param acts les actions à placer sous ce noeud
+     * @param pos pour chaque action, le nombre de préconditions déjà vérifiées
+     * @return le noeud construit, ou {@code null} s'il n'y a aucune action
+     */
+    private Node build(PackedAction[] acts, int[] pos) {
+        if (acts.length == 0) {
+            return null;
+        }
+        this.nbNodes++;
+        Node node = new Node();
+        List<PackedAction> applicable = new ArrayList<>();
+        int var = Integer.MAX_VALUE;
+        for (int i = 0; i < acts.length; i++) {
+            int[] vars = acts[i].getPreconditionVariables();
+            if (pos[i] == vars.length) {
+                applicable.add(acts[i]);
+            } else {
+                var = Math.min(var, vars[pos[i]]);
+            }
+        }
+        if (!applicable.isEmpty()) {
+            node.applicable = applicable.toArray(new PackedAction[0]);
+        }
+        if (var == Integer.MAX_VALUE) {
+            return node;
+        }
+
+        // répartition des actions restantes selon la valeur requise pour var
+        int nbValues = this.codec.getNbValues(var);
+        List<List<Integer>> byValue = new ArrayList<>();
+        for (int v = 0; v < nbValues; v++) {
+            byValue.add(new ArrayList<>());
+        }
+        List<Integer> dontCare = new ArrayList<>();
+        for (int i = 0; i < acts.length; i++) {
+            int[] vars = acts[i].getPreconditionVariables();
+            if (pos[i] == vars.length) {
+                continue;
+            }
+            if (vars[pos[i]] == var) {
+                byValue.get(acts[i].getPreconditionValues()[pos[i]]).add(i);
+            } else {
+                dontCare.add(i);
+            }
+        }
+        node.var = var;
+        node.children = new Node[nbValues];
+        for (int v = 0; v < nbValues; v++) {
+            node.children[v] = buildSubset(acts, pos, byValue.get(v), 1);
+        }
+        node.dontCare = buildSubset(acts, pos, dontCare, 0);
+        return node;
+    }
+
+    private Node buildSubset(PackedAction[] acts, int[] pos, List<Integer> subset, int advance) {
+        PackedAction[] subActs = new PackedAction[subset.size()];
+        int[] subPos = new int[subset.size()];
+        for (int k = 0; k < subset.size(); k++) {
+            subActs[k] = acts[subset.get(k)];
+            subPos[k] = pos[subset.get(k)] + advance;
+        }
+        return build(subActs, subPos);
+    }
+
+    /**
+     * Retourne le codec des états utilisé par l'index.
+     *
+     * @return le codec
+     */
+    public StateCodec getCodec() {
+        return this.codec;
+    }
+
+    /**
+     * Retourne les actions d'origine.
+     *
+     * @return l'ensemble des actions
+     */
+    public Set<Action> getActions() {
+        return this.actions;
+    }
+
+    /**
+     * Retourne toutes les actions compilées (applicables ou non).
+     *
+     * @return la liste non modifiable des actions compilées
+     */
+    public List<PackedAction> getPackedActions() {
+        return this.packedActions;
+    }
+
+    /**
+     * Retourne le nombre de noeuds de l'arbre de décision.
+     *
+     * @return le nombre de noeuds
+     */
+    public int getNbNodes() {
+        return this.nbNodes;
+    }
+
+    /**
+     * Ajoute à une liste les actions applicables dans un état compact.
+     *
+     * @param state l'état compact
+     * @param out la liste à compléter
+     */
+    public void collect(PackedState state, List<PackedAction> out) {
+        collect(this.root, state.words(), out);
+        for (PackedAction action : this.generic) {
+            if (action.isApplicable(state)) {
+                out.add(action);
+            }
+        }
+    }
+
+    private void collect(Node node, long[] words, List<PackedAction> out) {
+        while (node != null) {
+            if (node.applicable != null) {
+                Collections.addAll(out, node.applicable);
+            }
+            if (node.var < 0) {
+                return;
+            }
+            int value = this.codec.get(words, node.var);
+            if (value >= 0 && node.children[value] != null) {
+                collect(node.children[value], words, out);
+            }
+            node = node.dontCare;
+        }
+    }
+
+    /**
+     * Retourne les actions applicables dans un état compact.
+     *
+     * @param state l'état compact
+     * @return la liste des actions applicables
+     */
+    public List<PackedAction> getApplicableActions(PackedState state) {
+        List<PackedAction> out = new ArrayList<>();
+        collect(state, out);
+        return out;
+    }
+
+    /**
+     * Retourne les actions applicables dans un état.
+     *
+     * @param etat l'état
+     * @return la liste des actions applicables
+     */
+    public List<Action> getApplicableActions(Map<Variable, Object> etat) {
+        List<Action> applicable = new ArrayList<>();
+        for (PackedAction action : getApplicableActions(this.codec.encode(etat))) {
+            applicable.add(action.getAction());
+        }
+        return applicable;
+    }
+}
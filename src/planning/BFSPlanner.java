@@ -1,98 +1,343 @@
 package planning;
-import modelling.Variable; 
-import planning.Goal; 
+import modelling.Variable;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Path;
 import java.util.*;
 
-public class BFSPlanner implements Planner {
-    private Map<Variable,Object> initialState;
-    private Set<Action> actions;
-    private Goal goal;
-    private boolean nodeCountActive;
-    private int nodeExplored;
+public class BFSPlanner extends AbstractPlanner {
+    //plafond de memoire du tas pour la recherche en memoire externe (0 : recherche en memoire)
+    private long externalRamBytes;
+    private Path externalDirectory;
+    //taille en octets du tableau de bits du mode bitstate (0 : mode desactive) et bits par etat
+    private long bitStateBytes;
+    private int bitStateHashes;
+    //probabilite d'omission estimee de la derniere recherche en mode bitstate
+    private double omissionProbability;
+
     public BFSPlanner(Map<Variable,Object> initialState , Set<Action> actions , Goal goal){
-        this.initialState = initialState;
-        this.actions = actions;
-        this.goal= goal;
-        this.nodeCountActive = false;
-        this.nodeExplored=0;
+        super(initialState, actions, goal);
     }
-    @Override
-    public Map<Variable,Object> getInitialState(){
-        return this.initialState;
+    public BFSPlanner(Map<Variable,Object> initialState , ApplicableActionIndex actionIndex , Goal goal){
+        super(initialState, actionIndex, goal);
     }
-    
-    @Override
-    public Set<Action> getActions(){
-        return this.actions;
-
+    /**
+     * Active la recherche en largeur en mémoire externe : les couches sont stockées sur
+     * disque par un {@link ExternalStateStore}, avec détection différée des doublons.
+     *
+     * @param ramBytes le plafond de mémoire du tas du stockage, en octets, ou 0 pour
+     *                 revenir à la recherche en mémoire
+     * @param directory le répertoire des fichiers, ou {@code null} pour le répertoire temporaire
+     */
+    public void setExternalMemory(long ramBytes, Path directory){
+        this.externalRamBytes = ramBytes;
+        this.externalDirectory = directory;
+    }
+    /**
+     * Active le mode « bitstate » (supertrace) : les états visités ne sont retenus que par
+     * {@code nbHashes} bits d'un tableau hors du tas ({@link BitStateTable}), et seules la
+     * couche courante et la suivante sont gardées en mémoire. Un état peut être omis, avec
+     * une probabilité estimée par {@link #getOmissionProbability()} : le plan trouvé peut
+     * alors ne pas être le plus court, et un plan existant peut être manqué. Ce mode
+     * exclut la mémoire externe.
+     * <p>
+     * Seul l'ensemble des états visités est borné par le tableau de bits. Les deux couches
+     * restent dans le tas, à {@code 8 * nbWords + 8} octets par état : la mémoire de la
+     * recherche croît avec la plus large paire de couches consécutives, et le budget
+     * d'états des {@link SearchLimits} les compte.
+     * </p>
+     *
+     * @param bytes la taille du tableau de bits en octets (arrondie à la puissance de deux
+     *              inférieure), ou 0 pour revenir à la recherche exacte
+     * @param nbHashes le nombre de bits par état (au moins 1)
+     */
+    public void setBitState(long bytes, int nbHashes){
+        if(bytes < 0 || (bytes > 0 && (bytes < 8 || nbHashes < 1))){
+            throw new IllegalArgumentException("Bitstate mode needs at least 8 bytes and 1 hash, got "
+                    + bytes + " and " + nbHashes);
+        }
+        this.bitStateBytes = bytes;
+        this.bitStateHashes = nbHashes;
+    }
+    /**
+     * Retourne la probabilité estimée qu'un état atteint ait été omis par la dernière
+     * recherche en mode « bitstate ».
+     *
+     * @return la probabilité, ou 0 hors du mode « bitstate »
+     */
+    public double getOmissionProbability(){
+        return omissionProbability;
     }
+    /**
+     * Un noeud de la {@link SearchNodeArena} en mémoire, les mots et la clé d'un état d'une
+     * couche en mode « bitstate » (le tableau de bits, de taille fixe, n'est pas compté) ;
+     * l'estimation par défaut en mémoire externe.
+     */
     @Override
-    public Goal getGoal(){
-        return this.goal;
+    protected int getBytesPerNode(){
+        if(bitStateBytes > 0){
+            return 8 * getCodec().getNbWords() + 8;
+        }
+        return (externalRamBytes > 0) ? super.getBytesPerNode() : SearchNodeArena.getBytesPerNode(getCodec());
     }
     @Override
-    public List<Action> plan(){
-        Map<Map<Variable,Object>,Map<Variable,Object>> father = new HashMap<>();
-        Map<Map<Variable,Object>,Action> planMap = new HashMap<>();
+    protected List<Action> search(){
+        if(bitStateBytes > 0){
+            if(externalRamBytes > 0){
+                throw new IllegalStateException("Bitstate mode and external memory cannot be combined");
+            }
+            return planBitState();
+        }
+        if(externalRamBytes > 0){
+            try{
+                return planExternal();
+            }catch(UncheckedIOException e){
+                // une interruption pendant une entrée-sortie ferme le fichier : c'est une annulation
+                if(e.getCause() instanceof ClosedByInterruptException){
+                    throw new SearchLimitException(SearchLimits.Limit.CANCELLED);
+                }
+                throw e;
+            }
+        }
+        PackedGoal goal = getPackedGoal();
+        PackedState initialState = getPackedInitialState();
+        if(goal.isSatisfiedBy(initialState)){
+            return new ArrayList<>();
+        }
 
-        Set<Map<Variable,Object>> closed = new HashSet<>();
-        Queue<Map<Variable,Object>> open = new LinkedList<>();
+        //les noeuds sont numerotes dans l'ordre de la largeur : la file est l'intervalle [head, size)
+        //et la table contient aussi les etats de la file
+        SearchNodeArena nodes = new SearchNodeArena(getCodec(),getPackedActions());
+        nodes.add(initialState,0,-1,null);
+        List<PackedAction> applicable = new ArrayList<>();
 
-        open.add(initialState);
-        closed.add(initialState);
-        father.put(initialState,null);
+        for(int head = 0; head < nodes.size(); head++){
+            PackedState current = nodes.getState(head);
+            countNode();
+            observeFrontier(nodes.size() - head - 1,head + 1);
+
+            applicable.clear();
+            collectApplicableActions(current,applicable);
+            for(PackedAction action : applicable){
+                PackedState next = successor(action,current);
+                if(nodes.indexOf(next) >= 0){
+                    countDuplicate();
+                }
+                else{
+                    int id = nodes.add(next,nodes.getCost(head) + 1,head,action);
+                    if(goal.isSatisfiedBy(next)){
+                        return concretize(nodes.extractPlan(id));
+                    }
+                }
+            }
+        }
+        return null;
+    }
 
+    /**
+     * Recherche en largeur en mode « bitstate » : chaque couche est développée en retenant
+     * dans la {@link BitStateTable} les successeurs qui forment la couche suivante. Aucun
+     * père n'est mémorisé : quand le but est atteint à la profondeur {@code d}, le plan est
+     * retrouvé par une recherche en profondeur bornée à {@code d} ({@link DepthFirstSearch}),
+     * qui n'explore que les états à moins de {@code d} actions de l'état initial.
+     */
+    private List<Action> planBitState(){
+        PackedGoal goal = getPackedGoal();
+        PackedState initialState = getPackedInitialState();
+        omissionProbability = 0;
         if(goal.isSatisfiedBy(initialState)){
             return new ArrayList<>();
         }
-        while(!open.isEmpty()){
-            Map<Variable,Object> current = open.poll();
-            if(this.nodeCountActive){
-                    this.nodeExplored++;
-            }
-
-            for(Action action : actions){
-                if(action.isApplicable(current)){
-                    Map<Variable,Object> next = action.successor(current);
-                    if(!closed.contains(next) && !open.contains(next)){
-                        father.put(next,current);
-                        planMap.put(next,action);
-                        if(goal.isSatisfiedBy(next)){
-                            return getBFSPlan(father,planMap,next);
+        BitStateTable visited = new BitStateTable(bitStateBytes, bitStateHashes);
+        try{
+            visited.add(initialState.getKey());
+            int nbWords = getCodec().getNbWords();
+            Layer current = new Layer(nbWords);
+            Layer next = new Layer(nbWords);
+            current.add(initialState);
+            List<PackedAction> applicable = new ArrayList<>();
+            for(int depth = 0; current.size() > 0; depth++){
+                for(long i = 0; i < current.size(); i++){
+                    PackedState state = current.get(i);
+                    countNode();
+                    observeFrontier(current.size() - i - 1 + next.size(), i + 1);
+                    applicable.clear();
+                    collectApplicableActions(state, applicable);
+                    for(PackedAction action : applicable){
+                        PackedState successor = successor(action, state);
+                        if(goal.isSatisfiedBy(successor)){
+                            return concretize(rebuildPlan(depth + 1, current.size() + next.size()));
+                        }
+                        if(visited.add(successor.getKey())){
+                            next.add(successor);
                         }
                         else{
-                            open.add(next);
-                            closed.add(next);
+                            countDuplicate();
                         }
                     }
                 }
+                Layer done = current;
+                current = next;
+                next = done;
+                next.clear();
             }
+            return null;
+        }finally{
+            omissionProbability = visited.getOmissionProbability();
         }
-        return null;
     }
-    private List<Action> getBFSPlan(Map<Map<Variable, Object>, Map<Variable, Object>> father,
-                                    Map<Map<Variable, Object>, Action> planMap,
-                                    Map<Variable, Object> goalState){
-    
-    List<Action> plan = new ArrayList<>();
-    Map<Variable,Object> current = goalState;
-    while(father.get(current) != null){
-        plan.add(0,planMap.get(current));
-        current = father.get(current);
 
+    /**
+     * Retrouve un plan d'au plus {@code length} actions, dont l'existence est connue, par
+     * une recherche en profondeur bornée. Les limites comptent, en plus du chemin de la
+     * recherche en profondeur, les {@code layerStates} états des couches encore en mémoire.
+     */
+    private List<Action> rebuildPlan(int length, long layerStates){
+        DepthFirstSearch search = new DepthFirstSearch(getActionIndex(), getPackedGoal(), getCanonicalizer(), getStubbornSets());
+        search.setTranspositionTable(DFSPlanner.DEFAULT_TABLE_ENTRIES);
+        search.setLimitCheck((expanded, depth) -> enforceLimits(getStats().getExpanded() + expanded, layerStates + depth));
+        List<PackedAction> path;
+        try{
+            path = search.search(null, getPackedInitialState(), length, null);
+        }finally{
+            countNodes((int) search.takeExpanded());
+            countGenerated(search.takeGenerated());
+            countDuplicates(search.takeDuplicates());
+        }
+        if(path == null){
+            throw new IllegalStateException("No plan of " + length + " actions found again from the initial state");
+        }
+        List<Action> plan = new ArrayList<>(path.size());
+        for(PackedAction action : path){
+            plan.add(action.getAction());
+        }
+        return plan;
     }
-    return plan;
-    
-    
+
+    /**
+     * Recherche en largeur en mémoire externe : chaque couche est développée en lisant
+     * la précédente sur disque, ses doublons sont éliminés en fin de couche. Aucun père
+     * n'est mémorisé : le plan est reconstruit en cherchant, couche par couche en
+     * remontant, un état dont un successeur est l'état déjà retrouvé.
+     */
+    private List<Action> planExternal(){
+        PackedGoal goal = getPackedGoal();
+        PackedState initialState = getPackedInitialState();
+        if(goal.isSatisfiedBy(initialState)){
+            return new ArrayList<>();
+        }
+        try(ExternalStateStore store = new ExternalStateStore(getCodec(), externalRamBytes, externalDirectory)){
+            store.add(initialState);
+            store.flushLayer();
+            List<PackedAction> applicable = new ArrayList<>();
+            PackedState[] found = new PackedState[2];
+            long[] layerGenerated = new long[1];
+            long stored = 1;
+            for(int depth = 0; store.getLayerSize(depth) > 0; depth++){
+                layerGenerated[0] = 0;
+                //le but est teste a la generation : sa profondeur est depth + 1
+                store.scanLayer(depth, current -> {
+                    countNode();
+                    applicable.clear();
+                    collectApplicableActions(current, applicable);
+                    for(PackedAction action : applicable){
+                        PackedState next = successor(action,current);
+                        if(goal.isSatisfiedBy(next)){
+                            found[0] = current;
+                            found[1] = next;
+                            return true;
+                        }
+                        store.add(next);
+                        layerGenerated[0]++;
+                    }
+                    return false;
+                });
+                if(found[0] != null){
+                    return concretize(rebuildPlan(store, depth, found[0], found[1]));
+                }
+                //doublons elimines en fin de couche
+                long layerSize = store.flushLayer();
+                countDuplicates(layerGenerated[0] - layerSize);
+                observeFrontier(layerSize,stored);
+                stored += layerSize;
+            }
+            return null;
+        }
     }
-    public void activateNodeCount(boolean activate){
-        this.nodeCountActive = activate;
-        if(activate){
-            this.nodeExplored=0;
+
+    /**
+     * Reconstruit le plan d'un état but atteint depuis un état de la couche {@code depth}.
+     */
+    private List<Action> rebuildPlan(ExternalStateStore store, int depth, PackedState father, PackedState goalState){
+        LinkedList<Action> plan = new LinkedList<>();
+        plan.addFirst(findAction(father, goalState).getAction());
+        PackedState target = father;
+        List<PackedAction> applicable = new ArrayList<>();
+        for(int layer = depth - 1; layer >= 0; layer--){
+            PackedState child = target;
+            PackedState parent = store.scanLayer(layer, candidate -> {
+                applicable.clear();
+                getActionIndex().collect(candidate, applicable);
+                for(PackedAction action : applicable){
+                    if(replay(action,candidate).equals(child)){
+                        return true;
+                    }
+                }
+                return false;
+            });
+            plan.addFirst(findAction(parent, child).getAction());
+            target = parent;
         }
+        return new ArrayList<>(plan);
+    }
 
+    private PackedAction findAction(PackedState from, PackedState to){
+        for(PackedAction action : getActionIndex().getApplicableActions(from)){
+            if(replay(action,from).equals(to)){
+                return action;
+            }
+        }
+        throw new IllegalStateException("No action leads from " + from + " to " + to);
     }
-    public int getNodesExplored(){
-        return this.nodeExplored;
+
+    /**
+     * Une couche de la recherche « bitstate » : les mots de ses états bout à bout, et leurs
+     * clés, par blocs de taille fixe pour qu'aucun tableau ne déborde.
+     */
+    private static final class Layer{
+        private static final int BLOCK_SHIFT = 14;
+        private static final int BLOCK_STATES = 1 << BLOCK_SHIFT;
+        private final int nbWords;
+        private final List<long[]> words = new ArrayList<>();
+        private final List<long[]> keys = new ArrayList<>();
+        private long size;
+
+        Layer(int nbWords){
+            this.nbWords = nbWords;
+        }
+        void add(PackedState state){
+            int block = (int) (size >>> BLOCK_SHIFT);
+            int at = (int) (size & (BLOCK_STATES - 1));
+            if(block == keys.size()){
+                words.add(new long[BLOCK_STATES * nbWords]);
+                keys.add(new long[BLOCK_STATES]);
+            }
+            System.arraycopy(state.words(), 0, words.get(block), at * nbWords, nbWords);
+            keys.get(block)[at] = state.getKey();
+            size++;
+        }
+        PackedState get(long i){
+            int block = (int) (i >>> BLOCK_SHIFT);
+            int from = (int) (i & (BLOCK_STATES - 1)) * nbWords;
+            return new PackedState(Arrays.copyOfRange(words.get(block), from, from + nbWords),
+                                   keys.get(block)[(int) (i & (BLOCK_STATES - 1))]);
+        }
+        long size(){
+            return size;
+        }
+        //les blocs sont gardés pour la couche suivante
+        void clear(){
+            size = 0;
+        }
     }
 }
@@ -36,6 +36,14 @@ public class BasicAction implements Action{
         return nouveau;
     }
     @Override
+    public Map<Variable, Object> getPrecondition(){
+        return this.precondition;
+    }
+    @Override
+    public Map<Variable, Object> getEffect(){
+        return this.effet;
+    }
+    @Override
     public int getCost(){
         return this.cout;
     }
@@ -19,5 +19,8 @@ public class BasicGoal implements Goal{
         }
         return true;
     }
+    public Map<Variable, Object> getInstanciation(){
+        return this.instanciation;
+    }
     
 }
\ No newline at end of file
@@ -0,0 +1,386 @@
+package planning;
+import modelling.Variable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Résolution concurrente d'un lot de problèmes sur les mêmes actions.
+ * <p>
+ * Tous les planificateurs du lot partagent un seul {@link ApplicableActionIndex}, immuable
+ * après construction : le codec, les actions compilées et l'index ne sont construits
+ * qu'une fois. Les problèmes sont lus à la demande dans le flux d'entrée et résolus par un
+ * {@link ForkJoinPool} borné ; au plus deux problèmes par thread sont en cours ou en
+ * attente, si bien qu'un lot de milliers de problèmes n'occupe qu'une mémoire bornée. Les
+ * résultats sont rendus dans l'ordre où les résolutions se terminent.
+ * </p>
+ * <p>
+ * Un délai par problème peut être fixé : à son échéance, le thread du problème est
+ * interrompu et le résultat est marqué {@link Status#TIMED_OUT}. Les planificateurs du
+ * paquetage s'arrêtent à leur prochaine vérification des {@link SearchLimits}, au plus
+ * quelques milliers de noeuds plus tard. Les limites propres aux planificateurs créés par
+ * la fabrique s'appliquent aussi : une échéance atteinte donne {@link Status#TIMED_OUT},
+ * les autres {@link Status#LIMIT_REACHED}.
+ * </p>
+ * <p>
+ * Les recherches étant limitées par le calcul, les threads de la plateforme suffisent :
+ * le débit croît avec le parallélisme jusqu'au nombre de coeurs.
+ * </p>
+ */
+public class BatchPlanner {
+
+    /** Fabrique du planificateur d'un problème, à partir de l'index partagé. */
+    @FunctionalInterface
+    public interface PlannerFactory {
+        /**
+         * Construit le planificateur d'un problème.
+         *
+         * @param initialState l'état initial
+         * @param index l'index d'actions partagé
+         * @param goal le but
+         * @return le planificateur
+         */
+        Planner create(Map<Variable, Object> initialState, ApplicableActionIndex index, Goal goal);
+    }
+
+    /** Issue de la résolution d'un problème. */
+    public enum Status {
+        /** Un plan a été trouvé. */
+        SOLVED,
+        /** Le planificateur n'a pas trouvé de plan. */
+        NO_PLAN,
+        /** Le délai du problème, ou l'échéance de ses limites, a expiré. */
+        TIMED_OUT,
+        /** Le planificateur a atteint une autre de ses {@link SearchLimits}. */
+        LIMIT_REACHED,
+        /** Le planificateur a levé une exception. */
+        FAILED
+    }
+
+    /** Un problème du lot : un état initial et un but. */
+    public static final class Problem {
+        private final Map<Variable, Object> initialState;
+        private final Goal goal;
+
+        /**
+         * Construit un problème.
+         *
+         * @param initialState l'état initial
+         * @param goal le but
+         */
+        public Problem(Map<Variable, Object> initialState, Goal goal) {
+            this.initialState = initialState;
+            this.goal = goal;
+        }
+
+        /**
+         * Retourne l'état initial du problème.
+         *
+         * @return l'état initial
+         */
+        public Map<Variable, Object> getInitialState() {
+            return this.initialState;
+        }
+
+        /**
+         * Retourne le but du problème.
+         *
+         * @return le but
+         */
+        public Goal getGoal() {
+            return this.goal;
+        }
+    }
+
+    /** Le résultat d'un problème du lot. */
+    public static final class Result {
+        private final int index;
+        private final Problem problem;
+        private final Status status;
+        private final List<Action> plan;
+        private final long elapsed;
+        private final Throwable error;
+
+        Result(int index, Problem problem, Status status, List<Action> plan, long elapsed, Throwable error) {
+            this.index = index;
+            this.problem = problem;
+            this.status = status;
+            this.plan = plan;
+            this.elapsed = elapsed;
+            this.error = error;
+        }
+
+        /**
+         * Retourne la position du problème dans le flux d'entrée.
+         *
+         * @return la position, à partir de 0
+         */
+        public int getIndex() {
+            return this.index;
+        }
+
+        /**
+         * Retourne le problème résolu.
+         *
+         * @return le problème, tel que lu dans le flux d'entrée
+         */
+        public Problem getProblem() {
+            return this.problem;
+        }
+
+        /**
+         * Retourne l'issue de la résolution.
+         *
+         * @return le statut
+         */
+        public Status getStatus() {
+            return this.status;
+        }
+
+        /**
+         * Retourne le plan trouvé.
+         *
+         * @return le plan, ou {@code null} si le statut n'est pas {@link Status#SOLVED}
+         */
+        public List<Action> getPlan() {
+            return this.plan;
+        }
+
+        /**
+         * Retourne la durée de la résolution.
+         *
+         * @return la durée en nanosecondes
+         */
+        public long getElapsedNanos() {
+            return this.elapsed;
+        }
+
+        /**
+         * Retourne l'exception levée par le planificateur.
+         *
+         * @return l'exception, ou {@code null} si le statut n'est pas {@link Status#FAILED}
+         */
+        public Throwable getError() {
+            return this.error;
+        }
+    }
+
+    /** L'index d'actions partagé. */
+    private final ApplicableActionIndex index;
+
+    /** La fabrique des planificateurs. */
+    private final PlannerFactory factory;
+
+    /** Nombre de threads. */
+    private int parallelism;
+
+    /** Délai par problème en millisecondes (0 : pas de délai). */
+    private long timeout;
+
+    /**
+     * Construit un planificateur de lots.
+     *
+     * @param index l'index d'actions partagé par tous les problèmes
+     * @param factory la fabrique du planificateur de chaque problème
+     */
+    public BatchPlanner(ApplicableActionIndex index, PlannerFactory factory) {
+        this.index = index;
+        this.factory = factory;
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+        this.timeout = 0;
+    }
+
+    /**
+     * Fixe le nombre de problèmes résolus en même temps (par défaut, le nombre de coeurs).
+     *
+     * @param parallelism le nombre de threads (au moins 1)
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Retourne le nombre de problèmes résolus en même temps.
+     *
+     * @return le nombre de threads
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Fixe le délai accordé à chaque problème, compté depuis le début de sa résolution.
+     *
+     * @param timeout le délai en millisecondes, ou 0 pour ne pas limiter
+     */
+    public void setTimeout(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative, got " + timeout);
+        }
+        this.timeout = timeout;
+    }
+
+    /**
+     * Retourne le délai accordé à chaque problème.
+     *
+     * @return le délai en millisecondes, ou 0 si les problèmes ne sont pas limités
+     */
+    public long getTimeout() {
+        return this.timeout;
+    }
+
+    /**
+     * Résout un lot de problèmes. Les problèmes sont lus au fur et à mesure de la
+     * consommation des résultats ; fermer le flux des résultats abandonne les problèmes en
+     * cours.
+     *
+     * @param problems les problèmes
+     * @return les résultats, dans l'ordre où les résolutions se terminent
+     */
+    public Stream<Result> solve(Stream<Problem> problems) {
+        Batch batch = new Batch(problems.iterator());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(batch, Spliterator.NONNULL), false)
+                .onClose(batch::shutdown)
+                .onClose(problems::close);
+    }
+
+    /** Une exécution de {@link #solve} : le pool, les problèmes en cours et les résultats prêts. */
+    private final class Batch implements Iterator<Result> {
+        private final Iterator<Problem> problems;
+        private final ForkJoinPool pool = new ForkJoinPool(BatchPlanner.this.parallelism);
+        private final ScheduledExecutorService timer;
+        private final BlockingQueue<Result> done = new LinkedBlockingQueue<>();
+        private final int maxInFlight = 2 * BatchPlanner.this.parallelism;
+        private int submitted;
+        private int delivered;
+
+        Batch(Iterator<Problem> problems) {
+            this.problems = problems;
+            if (BatchPlanner.this.timeout > 0) {
+                this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "batch-planner-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            } else {
+                this.timer = null;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            fill();
+            if (this.delivered == this.submitted) {
+                shutdown();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public Result next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                Result result = this.done.take();
+                this.delivered++;
+                return result;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                shutdown();
+                throw new IllegalStateException("Batch planning interrupted", e);
+            }
+        }
+
+        /** Soumet des problèmes jusqu'à la limite des problèmes en cours. */
+        private void fill() {
+            while (this.submitted - this.delivered < this.maxInFlight && this.problems.hasNext()) {
+                Task task = new Task(this.submitted++, this.problems.next());
+                this.pool.execute(task::run);
+            }
+        }
+
+        void shutdown() {
+            this.pool.shutdownNow();
+            if (this.timer != null) {
+                this.timer.shutdownNow();
+            }
+        }
+
+        /** La résolution d'un problème. */
+        private final class Task {
+            private final int index;
+            private final Problem problem;
+            private Thread thread;
+            private boolean finished;
+            private boolean timedOut;
+
+            Task(int index, Problem problem) {
+                this.index = index;
+                this.problem = problem;
+            }
+
+            void run() {
+                long start = System.nanoTime();
+                ScheduledFuture<?> alarm = null;
+                synchronized (this) {
+                    this.thread = Thread.currentThread();
+                }
+                if (timer != null) {
+                    alarm = timer.schedule(this::expire, BatchPlanner.this.timeout, TimeUnit.MILLISECONDS);
+                }
+                Status status;
+                List<Action> plan = null;
+                Throwable error = null;
+                try {
+                    SearchOutcome outcome = BatchPlanner.this.factory.create(this.problem.getInitialState(),
+                            BatchPlanner.this.index, this.problem.getGoal()).solve();
+                    // une échéance du lot se manifeste par la limite CANCELLED, requalifiée plus bas
+                    status = status(outcome);
+                    plan = outcome.isSolved() ? outcome.getPlan() : null;
+                } catch (RuntimeException | Error e) {
+                    status = Status.FAILED;
+                    error = e;
+                }
+                if (alarm != null) {
+                    alarm.cancel(false);
+                }
+                synchronized (this) {
+                    this.finished = true;
+                    if (this.timedOut) {
+                        status = Status.TIMED_OUT;
+                        plan = null;
+                        error = null;
+                    }
+                }
+                // efface une interruption d'échéance avant de rendre le thread au pool
+                Thread.interrupted();
+                done.add(new Result(this.index, this.problem, status, plan, System.nanoTime() - start, error));
+            }
+
+            private Status status(SearchOutcome outcome) {
+                switch (outcome.getStatus()) {
+                    case SOLVED:
+                        return Status.SOLVED;
+                    case EXHAUSTED:
+                        return Status.NO_PLAN;
+                    default:
+                        return (outcome.getLimit() == SearchLimits.Limit.DEADLINE) ? Status.TIMED_OUT : Status.LIMIT_REACHED;
+                }
+            }
+
+            /** Interrompt la résolution à l'échéance si elle n'est pas terminée. */
+            synchronized void expire() {
+                if (!this.finished) {
+                    this.timedOut = true;
+                    this.thread.interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,624 @@
+package planning;
+import modelling.Variable;
+import java.util.*;
+
+/**
+ * Planificateur bidirectionnel : une recherche en avant depuis l'état initial et une
+ * recherche par régression depuis le but, qui se rejoignent au milieu.
+ * <p>
+ * La recherche arrière travaille sur des états partiels (les variables absentes d'un
+ * {@link PackedState} ne sont pas contraintes), obtenus par {@link PackedAction#regress}.
+ * Les deux recherches se rejoignent quand un état avant satisfait un état partiel arrière.
+ * Pour trouver ces rencontres sans parcourir toute l'autre recherche, les états sont
+ * rangés dans une table de hachage selon leur projection sur les variables du but que
+ * la régression ne peut jamais effacer (toute action qui les modifie les a aussi en
+ * précondition) : un état et un état partiel qu'il satisfait ont la même projection.
+ * </p>
+ * <p>
+ * Deux modes sont disponibles :
+ * - {@link Mode#BFS} développe à chaque tour une couche entière du côté dont la frontière
+ *   est la plus petite, et retourne un plan de longueur minimale ;
+ * - {@link Mode#ASTAR} est un A* bidirectionnel « front-to-front » : la priorité d'un noeud
+ *   est son coût plus le minimum, sur la frontière de l'autre recherche, du coût de
+ *   l'autre noeud plus une estimation admissible de la distance entre les deux (le nombre
+ *   de variables à changer divisé par le nombre maximal d'effets d'une action). Ce calcul
+ *   parcourt toute l'autre frontière ; quand elle devient trop grande, seule la distance
+ *   estimée jusqu'à la racine de l'autre recherche est utilisée. La recherche s'arrête
+ *   quand aucune des deux frontières ne peut plus améliorer la meilleure rencontre : le
+ *   plan retourné est de coût minimal.
+ * </p>
+ * Les actions doivent exposer leurs préconditions et leurs effets (comme les
+ * {@link BasicAction}) et le but doit être un {@link BasicGoal}. La réduction des
+ * symétries ({@link StateCanonicalizer}) n'est pas prise en charge.
+ */
+public class BidirectionalPlanner extends AbstractPlanner {
+
+    /** Mode de recherche du planificateur bidirectionnel. */
+    public enum Mode {
+        /** Recherche en largeur, couche par couche, en longueur de plan. */
+        BFS,
+        /** A* bidirectionnel front-to-front, en coût des actions. */
+        ASTAR
+    }
+
+    /** Les noeuds d'une des deux recherches. */
+    private final class Side {
+        final boolean forward;
+        /** États, coûts, pères et actions des noeuds. */
+        final SearchNodeArena nodes = new SearchNodeArena(getCodec(), getPackedActions());
+        final int nbWords = getCodec().getNbWords();
+        /**
+         * Noeuds rangés selon leur projection sur les variables persistantes du but : les
+         * projections distinctes, le dernier noeud de chaque projection, puis le précédent
+         * de chaque noeud dans la même projection (-1 : aucun).
+         */
+        final SearchNodeArena projections = new SearchNodeArena(getCodec(), getPackedActions());
+        int[] bucketHead = new int[64];
+        int[] nextInBucket = new int[64];
+        /** Variables définies de chaque état (utile aux états partiels), {@code nbWords} mots par noeud. */
+        long[] masks = new long[64 * this.nbWords];
+        /** Noeuds de la frontière, dans un ordre quelconque, et position de chaque noeud. */
+        int[] frontier = new int[64];
+        int[] frontierPos = new int[64];
+        int frontierSize;
+        final IndexedBinaryHeap open = new IndexedBinaryHeap();
+        /** Premier noeud de la couche courante ({@link Mode#BFS}). */
+        int layerStart;
+        int expanded;
+
+        Side(boolean forward) {
+            this.forward = forward;
+        }
+
+        int add(PackedState state, int cost, int father, PackedAction action) {
+            int id = this.nodes.add(state, cost, father, action);
+            if (id == this.frontierPos.length) {
+                int capacity = id * 2;
+                this.masks = Arrays.copyOf(this.masks, capacity * this.nbWords);
+                this.frontierPos = Arrays.copyOf(this.frontierPos, capacity);
+                this.nextInBucket = Arrays.copyOf(this.nextInBucket, capacity);
+            }
+            definedMask(state, this.masks, id * this.nbWords);
+            this.frontierPos[id] = -1;
+            PackedState projection = project(state);
+            int p = this.projections.indexOf(projection);
+            if (p < 0) {
+                p = this.projections.add(projection, 0, -1, null);
+                if (p == this.bucketHead.length) {
+                    this.bucketHead = Arrays.copyOf(this.bucketHead, p * 2);
+                }
+                this.bucketHead[p] = -1;
+            }
+            this.nextInBucket[id] = this.bucketHead[p];
+            this.bucketHead[p] = id;
+            return id;
+        }
+
+        /** Dernier noeud rangé sous une projection, ou -1. */
+        int bucket(PackedState projection) {
+            int p = this.projections.indexOf(projection);
+            return (p < 0) ? -1 : this.bucketHead[p];
+        }
+
+        int size() {
+            return this.nodes.size();
+        }
+
+        int layerSize() {
+            return this.nodes.size() - this.layerStart;
+        }
+
+        int g(int id) {
+            return this.nodes.getCost(id);
+        }
+
+        long mask(int id, int w) {
+            return this.masks[id * this.nbWords + w];
+        }
+
+        void enterFrontier(int id) {
+            if (this.frontierPos[id] >= 0) {
+                return;
+            }
+            if (this.frontierSize == this.frontier.length) {
+                this.frontier = Arrays.copyOf(this.frontier, this.frontierSize * 2);
+            }
+            this.frontierPos[id] = this.frontierSize;
+            this.frontier[this.frontierSize++] = id;
+        }
+
+        void leaveFrontier(int id) {
+            int i = this.frontierPos[id];
+            int last = this.frontier[--this.frontierSize];
+            this.frontier[i] = last;
+            this.frontierPos[last] = i;
+            this.frontierPos[id] = -1;
+        }
+    }
+
+    /** Au-delà de cette taille de frontière, l'estimation front-to-front n'est plus calculée. */
+    private static final int FRONT_TO_FRONT_LIMIT = 512;
+
+    /** Le mode de recherche. */
+    private Mode mode;
+
+    /** Masque des variables du but que la régression ne peut pas effacer. */
+    private long[] keyMask;
+
+    /** Pour chaque variable et chaque valeur, les actions qui la produisent. */
+    private PackedAction[][][] producers;
+
+    /** Champs de chaque mot, pour compter les variables différentes. */
+    private int[][] varsOfWord;
+
+    /** Nombre maximal d'effets d'une action et coût minimal d'une action. */
+    private int maxEffects;
+    private int minCost;
+
+    /** Résultat de la dernière recherche. */
+    private Map<Variable, Object> meetingState;
+    private Map<Variable, Object> meetingCondition;
+    private int forwardLength;
+    private int backwardLength;
+    private int forwardNodes;
+    private int backwardNodes;
+
+    /**
+     * Construit un planificateur bidirectionnel en largeur.
+     *
+     * @param initialState l'état initial
+     * @param actions les actions disponibles (des {@link BasicAction})
+     * @param goal le but à atteindre (un {@link BasicGoal})
+     */
+    public BidirectionalPlanner(Map<Variable, Object> initialState, Set<Action> actions, Goal goal) {
+        super(initialState, actions, goal);
+        this.mode = Mode.BFS;
+    }
+
+    /**
+     * Construit un planificateur bidirectionnel en largeur à partir d'un index d'actions partagé.
+     *
+     * @param initialState l'état initial
+     * @param actionIndex l'index des actions disponibles (des {@link BasicAction})
+     * @param goal le but à atteindre (un {@link BasicGoal})
+     */
+    public BidirectionalPlanner(Map<Variable, Object> initialState, ApplicableActionIndex actionIndex, Goal goal) {
+        super(initialState, actionIndex, goal);
+        this.mode = Mode.BFS;
+    }
+
+    /**
+     * Choisit le mode de recherche (par défaut {@link Mode#BFS}).
+     *
+     * @param mode le mode de recherche
+     */
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Retourne le mode de recherche.
+     *
+     * @return le mode
+     */
+    public Mode getMode() {
+        return this.mode;
+    }
+
+    /**
+     * Retourne l'état atteint par la recherche avant au point de rencontre.
+     *
+     * @return l'état de rencontre, ou {@code null} si aucun plan n'a été trouvé
+     */
+    public Map<Variable, Object> getMeetingState() {
+        return this.meetingState;
+    }
+
+    /**
+     * Retourne l'état partiel de la recherche arrière satisfait au point de rencontre.
+     *
+     * @return l'état partiel de rencontre, ou {@code null} si aucun plan n'a été trouvé
+     */
+    public Map<Variable, Object> getMeetingCondition() {
+        return this.meetingCondition;
+    }
+
+    /**
+     * Retourne le nombre d'actions du plan avant le point de rencontre.
+     *
+     * @return la longueur de la partie avant
+     */
+    public int getForwardLength() {
+        return this.forwardLength;
+    }
+
+    /**
+     * Retourne le nombre d'actions du plan après le point de rencontre.
+     *
+     * @return la longueur de la partie arrière
+     */
+    public int getBackwardLength() {
+        return this.backwardLength;
+    }
+
+    /**
+     * Retourne le nombre de noeuds développés par la recherche avant.
+     *
+     * @return le nombre de noeuds avant
+     */
+    public int getForwardNodes() {
+        return this.forwardNodes;
+    }
+
+    /**
+     * Retourne le nombre de noeuds développés par la recherche arrière.
+     *
+     * @return le nombre de noeuds arrière
+     */
+    public int getBackwardNodes() {
+        return this.backwardNodes;
+    }
+
+    /**
+     * Un noeud de la {@link SearchNodeArena} de son côté, son masque des variables
+     * définies, au plus une nouvelle projection, son chaînage et sa place dans la frontière.
+     */
+    @Override
+    protected int getBytesPerNode() {
+        return 2 * SearchNodeArena.getBytesPerNode(getCodec()) + 8 * getCodec().getNbWords() + 16;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException si un canonicaliseur est utilisé : la recherche arrière
+     *         régresse des états partiels, que les symétries ne savent pas réduire
+     */
+    @Override
+    protected List<Action> search() {
+        if (getCanonicalizer() != null) {
+            throw new IllegalStateException("Bidirectional search does not support state canonicalization");
+        }
+        prepare();
+        this.meetingState = null;
+        this.meetingCondition = null;
+        this.forwardLength = 0;
+        this.backwardLength = 0;
+        Side forward = new Side(true);
+        Side backward = new Side(false);
+        forward.add(getPackedInitialState(), 0, -1, null);
+        backward.add(getCodec().encode(((BasicGoal) getGoal()).getInstanciation()), 0, -1, null);
+        List<Action> plan;
+        if (satisfies(forward, 0, backward, 0)) {
+            plan = buildPlan(forward, 0, backward, 0);
+        } else if (this.mode == Mode.BFS) {
+            plan = searchBFS(forward, backward);
+        } else {
+            plan = searchAStar(forward, backward);
+        }
+        this.forwardNodes = forward.expanded;
+        this.backwardNodes = backward.expanded;
+        return plan;
+    }
+
+    /**
+     * Vérifie que le problème se prête à la régression et prépare les tables qui en dépendent.
+     */
+    private void prepare() {
+        if (this.producers != null) {
+            return;
+        }
+        if (!(getGoal() instanceof BasicGoal)) {
+            throw new IllegalStateException("Bidirectional search needs a BasicGoal, got " + getGoal());
+        }
+        StateCodec codec = getCodec();
+        int nbVars = codec.getNbVariables();
+        List<List<List<PackedAction>>> producers = new ArrayList<>(nbVars);
+        for (int v = 0; v < nbVars; v++) {
+            List<List<PackedAction>> byValue = new ArrayList<>();
+            for (int value = 0; value < codec.getNbValues(v); value++) {
+                byValue.add(new ArrayList<>());
+            }
+            producers.add(byValue);
+        }
+        boolean[] erasable = new boolean[nbVars];
+        this.maxEffects = 1;
+        this.minCost = Integer.MAX_VALUE;
+        for (PackedAction action : getPackedActions()) {
+            if (!action.isCompiled()) {
+                throw new IllegalStateException("Bidirectional search needs exposed preconditions and effects, got " + action);
+            }
+            if (action.isImpossible()) {
+                continue;
+            }
+            int[] effVars = action.getEffectVariables();
+            int[] effValues = action.getEffectValues();
+            int[] preVars = action.getPreconditionVariables();
+            for (int i = 0; i < effVars.length; i++) {
+                producers.get(effVars[i]).get(effValues[i]).add(action);
+                if (Arrays.binarySearch(preVars, effVars[i]) < 0) {
+                    erasable[effVars[i]] = true;
+                }
+            }
+            this.maxEffects = Math.max(this.maxEffects, effVars.length);
+            this.minCost = Math.min(this.minCost, action.getCost());
+        }
+        if (this.minCost == Integer.MAX_VALUE) {
+            this.minCost = 0;
+        }
+        this.producers = new PackedAction[nbVars][][];
+        for (int v = 0; v < nbVars; v++) {
+            this.producers[v] = new PackedAction[codec.getNbValues(v)][];
+            for (int value = 0; value < this.producers[v].length; value++) {
+                this.producers[v][value] = producers.get(v).get(value).toArray(new PackedAction[0]);
+            }
+        }
+        this.keyMask = new long[codec.getNbWords()];
+        for (Variable variable : ((BasicGoal) getGoal()).getInstanciation().keySet()) {
+            int var = codec.indexOf(variable);
+            if (var >= 0 && !erasable[var]) {
+                this.keyMask[codec.wordOf(var)] |= codec.fieldMask(var);
+            }
+        }
+        List<List<Integer>> fields = new ArrayList<>();
+        for (int w = 0; w < codec.getNbWords(); w++) {
+            fields.add(new ArrayList<>());
+        }
+        for (int v = 0; v < nbVars; v++) {
+            fields.get(codec.wordOf(v)).add(v);
+        }
+        this.varsOfWord = new int[codec.getNbWords()][];
+        for (int w = 0; w < this.varsOfWord.length; w++) {
+            this.varsOfWord[w] = fields.get(w).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * Recherche en largeur bidirectionnelle : développe à chaque tour toute la couche du
+     * côté le plus petit. Toutes les rencontres de la couche sont examinées avant de
+     * s'arrêter, pour garder la plus courte.
+     */
+    private List<Action> searchBFS(Side forward, Side backward) {
+        // les noeuds d'un côté sont numérotés couche par couche : la couche est l'intervalle [layerStart, size)
+        forward.layerStart = 0;
+        backward.layerStart = 0;
+        int[] best = { Integer.MAX_VALUE, -1, -1 };
+        List<PackedAction> applicable = new ArrayList<>();
+        while (forward.layerSize() > 0 && backward.layerSize() > 0) {
+            boolean forwardTurn = forward.layerSize() <= backward.layerSize();
+            Side side = forwardTurn ? forward : backward;
+            Side other = forwardTurn ? backward : forward;
+            int layerEnd = side.size();
+            for (int id = side.layerStart; id < layerEnd; id++) {
+                side.expanded++;
+                countNode();
+                PackedState state = side.nodes.getState(id);
+                applicable.clear();
+                successors(side, state, applicable);
+                for (PackedAction action : applicable) {
+                    PackedState child = side.forward ? action.successor(state) : action.regress(state);
+                    if (child == null) {
+                        continue;
+                    }
+                    countGenerated(1);
+                    if (side.nodes.indexOf(child) >= 0) {
+                        countDuplicate();
+                        continue;
+                    }
+                    int c = side.add(child, side.g(id) + 1, id, action);
+                    meet(side, c, child, other, best);
+                }
+            }
+            side.layerStart = layerEnd;
+            int open = forward.layerSize() + backward.layerSize();
+            observeFrontier(open, forward.size() + backward.size() - open);
+            if (best[1] >= 0) {
+                return forwardTurn ? buildPlan(forward, best[1], backward, best[2])
+                                   : buildPlan(forward, best[2], backward, best[1]);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A* bidirectionnel front-to-front : développe le meilleur noeud du côté dont la
+     * frontière est la plus petite, jusqu'à ce qu'aucune frontière ne puisse améliorer
+     * la meilleure rencontre.
+     */
+    private List<Action> searchAStar(Side forward, Side backward) {
+        int[] best = { Integer.MAX_VALUE, -1, -1 };
+        boolean bestForward = true;
+        forward.open.insertOrUpdate(0, estimate(forward, 0, backward), 0);
+        forward.enterFrontier(0);
+        backward.open.insertOrUpdate(0, estimate(backward, 0, forward), 0);
+        backward.enterFrontier(0);
+        List<PackedAction> applicable = new ArrayList<>();
+        while (!forward.open.isEmpty() && !backward.open.isEmpty()) {
+            if (best[0] <= Math.max(forward.open.peekPriority(), backward.open.peekPriority())) {
+                break;
+            }
+            Side side = forward.open.size() <= backward.open.size() ? forward : backward;
+            Side other = (side == forward) ? backward : forward;
+            int id = side.open.poll();
+            side.leaveFrontier(id);
+            side.expanded++;
+            countNode();
+            int open = forward.open.size() + backward.open.size();
+            observeFrontier(open, forward.size() + backward.size() - open);
+            PackedState state = side.nodes.getState(id);
+            applicable.clear();
+            successors(side, state, applicable);
+            for (PackedAction action : applicable) {
+                PackedState child = side.forward ? action.successor(state) : action.regress(state);
+                if (child == null) {
+                    continue;
+                }
+                countGenerated(1);
+                int cost = side.g(id) + action.getCost();
+                int c = side.nodes.indexOf(child);
+                if (c < 0) {
+                    c = side.add(child, cost, id, action);
+                } else if (cost < side.g(c)) {
+                    side.nodes.update(c, cost, id, action);
+                } else {
+                    countDuplicate();
+                    continue;
+                }
+                int previous = best[0];
+                meet(side, c, child, other, best);
+                if (best[0] < previous) {
+                    bestForward = side.forward;
+                }
+                side.open.insertOrUpdate(c, cost + estimate(side, c, other), cost);
+                side.enterFrontier(c);
+            }
+        }
+        if (best[1] < 0) {
+            return null;
+        }
+        return bestForward ? buildPlan(forward, best[1], backward, best[2])
+                           : buildPlan(forward, best[2], backward, best[1]);
+    }
+
+    /**
+     * Ajoute les actions utilisables depuis un noeud : les actions applicables en avant,
+     * les actions qui produisent une variable de l'état partiel en arrière (chacune une
+     * seule fois, au titre de la première de ses variables d'effet définie dans l'état ;
+     * leur régression peut encore échouer si elles contredisent l'état partiel).
+     */
+    private void successors(Side side, PackedState state, List<PackedAction> out) {
+        if (side.forward) {
+            collectApplicableActions(state, out);
+            return;
+        }
+        StateCodec codec = getCodec();
+        for (int var = 0; var < this.producers.length; var++) {
+            int value = codec.get(state, var);
+            if (value < 0) {
+                continue;
+            }
+            for (PackedAction action : this.producers[var][value]) {
+                int[] effVars = action.getEffectVariables();
+                int first = 0;
+                while (codec.get(state, effVars[first]) < 0) {
+                    first++;
+                }
+                if (effVars[first] == var) {
+                    out.add(action);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cherche les noeuds de l'autre recherche qui rencontrent un nouveau noeud et garde
+     * la meilleure rencontre : {@code best} contient son coût, le noeud de ce côté et
+     * celui de l'autre côté.
+     */
+    private void meet(Side side, int id, PackedState state, Side other, int[] best) {
+        for (int o = other.bucket(project(state)); o >= 0; o = other.nextInBucket[o]) {
+            boolean met = side.forward ? satisfies(side, id, other, o) : satisfies(other, o, side, id);
+            if (met && side.g(id) + other.g(o) < best[0]) {
+                best[0] = side.g(id) + other.g(o);
+                best[1] = id;
+                best[2] = o;
+            }
+        }
+    }
+
+    /** Vrai si l'état avant {@code f} satisfait l'état partiel arrière {@code b}. */
+    private boolean satisfies(Side forward, int f, Side backward, int b) {
+        for (int w = 0; w < forward.nbWords; w++) {
+            if ((forward.nodes.getWord(f, w) & backward.mask(b, w)) != backward.nodes.getWord(b, w)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Estimation de la distance restante d'un noeud. La distance estimée jusqu'à la racine
+     * de l'autre recherche (front-to-end) est toujours admissible ; tant que la frontière de
+     * l'autre recherche est assez petite, elle est renforcée par le minimum, sur cette
+     * frontière, du coût de l'autre noeud plus la distance estimée entre les deux.
+     */
+    private double estimate(Side side, int id, Side other) {
+        double h = distance(side, id, other, 0);
+        if (other.frontierSize > 0 && other.frontierSize <= FRONT_TO_FRONT_LIMIT) {
+            double front = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < other.frontierSize && front > h; i++) {
+                int o = other.frontier[i];
+                front = Math.min(front, other.g(o) + distance(side, id, other, o));
+            }
+            h = Math.max(h, front);
+        }
+        return h;
+    }
+
+    /** Distance estimée entre deux noeuds : le nombre de variables à changer divisé par le nombre maximal d'effets. */
+    private double distance(Side side, int id, Side other, int o) {
+        int mismatches = side.forward ? mismatches(side, id, other, o) : mismatches(other, o, side, id);
+        return (double) ((mismatches + this.maxEffects - 1) / this.maxEffects) * this.minCost;
+    }
+
+    /** Nombre de variables de l'état partiel arrière {@code b} que l'état avant {@code f} ne satisfait pas. */
+    private int mismatches(Side forward, int f, Side backward, int b) {
+        StateCodec codec = getCodec();
+        int count = 0;
+        for (int w = 0; w < forward.nbWords; w++) {
+            long diff = (forward.nodes.getWord(f, w) & backward.mask(b, w)) ^ backward.nodes.getWord(b, w);
+            if (diff != 0) {
+                for (int var : this.varsOfWord[w]) {
+                    if ((diff & codec.fieldMask(var)) != 0) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Écrit le masque des champs des variables définies d'un état à partir de {@code offset}. */
+    private void definedMask(PackedState state, long[] mask, int offset) {
+        StateCodec codec = getCodec();
+        long[] words = state.words();
+        for (int w = 0; w < words.length; w++) {
+            mask[offset + w] = 0;
+            if (words[w] != 0) {
+                for (int var : this.varsOfWord[w]) {
+                    long field = codec.fieldMask(var);
+                    if ((words[w] & field) != 0) {
+                        mask[offset + w] |= field;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Projection d'un état sur les variables persistantes du but. */
+    private PackedState project(PackedState state) {
+        long[] words = state.words();
+        long[] projected = new long[words.length];
+        for (int w = 0; w < words.length; w++) {
+            projected[w] = words[w] & this.keyMask[w];
+        }
+        return getCodec().wrap(projected);
+    }
+
+    /**
+     * Construit le plan : les actions de l'état initial jusqu'au point de rencontre, puis
+     * celles de la chaîne de régression jusqu'au but.
+     */
+    private List<Action> buildPlan(Side forward, int f, Side backward, int b) {
+        List<Action> plan = new ArrayList<>();
+        plan.addAll(forward.nodes.extractPlan(f));
+        this.forwardLength = plan.size();
+        for (int id = b; backward.nodes.getParent(id) >= 0; id = backward.nodes.getParent(id)) {
+            plan.add(backward.nodes.getAction(id).getAction());
+        }
+        this.backwardLength = plan.size() - this.forwardLength;
+        this.meetingState = getCodec().decode(forward.nodes.getState(f));
+        this.meetingCondition = getCodec().decode(backward.nodes.getState(b));
+        return plan;
+    }
+}
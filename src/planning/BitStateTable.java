@@ -0,0 +1,152 @@
+package planning;
+import java.nio.ByteBuffer;
+
+/**
+ * Ensemble approché des états visités pour la recherche « bitstate » (supertrace).
+ * <p>
+ * Un état n'est retenu que par {@code k} bits d'un grand tableau de bits, choisis par
+ * double hachage de sa clé de Zobrist comme dans un {@link BloomFilter}. Un état dont les
+ * {@code k} bits sont déjà levés est considéré comme visité : la recherche peut ainsi
+ * omettre, à tort, un état nouveau, mais ne développe jamais deux fois le même état. Le
+ * tableau est hors du tas, en segments d'au plus 1 Gio alloués par
+ * {@link ByteBuffer#allocateDirect(int)} (leur total est borné par
+ * {@code -XX:MaxDirectMemorySize}), sans rien à parcourir pour le ramasse-miettes. Le
+ * tableau ne borne que l'ensemble des états visités : la frontière de la recherche qui
+ * l'utilise reste à sa charge.
+ * </p>
+ * <p>
+ * La probabilité d'omission est estimée comme par Holzmann : un état nouveau testé quand
+ * une fraction {@code f} des bits est levée est pris pour un état visité avec la
+ * probabilité {@code f^k}. La somme de ces probabilités sur les états retenus estime le
+ * nombre d'états omis.
+ * </p>
+ * <p>
+ * La table n'est pas synchronisée.
+ * </p>
+ */
+class BitStateTable {
+
+    /** Nombre de mots de 64 bits par segment (1 Gio). */
+    private static final int SEGMENT_LONGS = 1 << 27;
+
+    /** Les segments du tableau de bits. */
+    private final ByteBuffer[] segments;
+
+    /** Nombre de bits (une puissance de deux) et masque d'une position. */
+    private final long nbBits;
+    private final long mask;
+
+    /** Nombre de bits par état. */
+    private final int nbHashes;
+
+    /** Nombres de bits levés et d'états retenus. */
+    private long setBits;
+    private long stored;
+
+    /** Nombre estimé d'états omis. */
+    private double expectedOmissions;
+
+    /**
+     * Construit une table vide.
+     *
+     * @param bytes la taille du tableau de bits en octets, arrondie à la puissance de deux
+     *              inférieure (au moins 8)
+     * @param nbHashes le nombre de bits par état (au moins 1)
+     */
+    BitStateTable(long bytes, int nbHashes) {
+        if (bytes < 8 || nbHashes < 1) {
+            throw new IllegalArgumentException("Bitstate table needs at least 8 bytes and 1 hash, got "
+                    + bytes + " and " + nbHashes);
+        }
+        long nbLongs = Long.highestOneBit(bytes / 8);
+        this.nbBits = 64 * nbLongs;
+        this.mask = this.nbBits - 1;
+        this.nbHashes = nbHashes;
+        int nbSegments = (int) ((nbLongs + SEGMENT_LONGS - 1) / SEGMENT_LONGS);
+        this.segments = new ByteBuffer[nbSegments];
+        for (int s = 0; s < nbSegments; s++) {
+            this.segments[s] = ByteBuffer.allocateDirect((int) (8 * Math.min(nbLongs, SEGMENT_LONGS)));
+        }
+    }
+
+    /**
+     * Retient un état s'il n'est pas déjà considéré comme visité.
+     *
+     * @param key la clé de Zobrist de l'état
+     * @return vrai si l'état est nouveau (au moins un de ses bits n'était pas levé)
+     */
+    boolean add(long key) {
+        // deux mélanges indépendants de la clé, le pas étant impair pour parcourir tout le tableau
+        long h1 = mix(key);
+        long h2 = mix(key ^ 0x9E3779B97F4A7C15L) | 1;
+        double fill = (double) this.setBits / this.nbBits;
+        int flipped = 0;
+        for (int i = 0; i < this.nbHashes; i++) {
+            long bit = (h1 + i * h2) & this.mask;
+            long word = bit >>> 6;
+            ByteBuffer segment = this.segments[(int) (word / SEGMENT_LONGS)];
+            int offset = (int) (word % SEGMENT_LONGS) << 3;
+            long value = segment.getLong(offset);
+            long flag = 1L << bit;
+            if ((value & flag) == 0) {
+                segment.putLong(offset, value | flag);
+                flipped++;
+            }
+        }
+        if (flipped == 0) {
+            return false;
+        }
+        this.setBits += flipped;
+        this.stored++;
+        double omission = 1;
+        for (int i = 0; i < this.nbHashes; i++) {
+            omission *= fill;
+        }
+        this.expectedOmissions += omission;
+        return true;
+    }
+
+    /**
+     * Retourne la taille du tableau de bits en octets.
+     *
+     * @return la taille du tableau
+     */
+    long getBytes() {
+        return this.nbBits / 8;
+    }
+
+    /**
+     * Retourne le nombre d'états retenus.
+     *
+     * @return le nombre d'états
+     */
+    long getStored() {
+        return this.stored;
+    }
+
+    /**
+     * Retourne la fraction des bits levés.
+     *
+     * @return la fraction, entre 0 et 1
+     */
+    double getFillRatio() {
+        return (double) this.setBits / this.nbBits;
+    }
+
+    /**
+     * Estime la probabilité qu'un état atteint par la recherche ait été omis, c'est-à-dire
+     * pris à tort pour un état déjà visité.
+     *
+     * @return la probabilité estimée
+     */
+    double getOmissionProbability() {
+        return (this.stored == 0) ? 0 : this.expectedOmissions / (this.stored + this.expectedOmissions);
+    }
+
+    /** Mélange de splitmix64. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,84 @@
+package planning;
+
+/**
+ * Filtre de Bloom sur des empreintes de 64 bits.
+ * <p>
+ * Les {@code k} positions d'une empreinte sont obtenues par double hachage à partir de
+ * ses deux moitiés. Un test négatif est certain ; un test positif peut être un faux
+ * positif, avec une probabilité estimée par {@link #getFalsePositiveRate()}.
+ * </p>
+ */
+class BloomFilter {
+
+    /** Les bits du filtre. */
+    private final long[] bits;
+
+    /** Nombre de bits du filtre. */
+    private final long nbBits;
+
+    /** Nombre de positions par empreinte. */
+    private final int nbHashes;
+
+    /** Nombre d'empreintes ajoutées. */
+    private long count;
+
+    /**
+     * Construit un filtre vide.
+     *
+     * @param bytes la taille du filtre en octets (au moins 8)
+     * @param nbHashes le nombre de positions par empreinte (au moins 1)
+     */
+    BloomFilter(long bytes, int nbHashes) {
+        if (bytes < 8 || nbHashes < 1) {
+            throw new IllegalArgumentException("Bloom filter needs at least 8 bytes and 1 hash, got "
+                    + bytes + " and " + nbHashes);
+        }
+        int nbLongs = (int) Math.min(bytes / 8, Integer.MAX_VALUE - 8);
+        this.bits = new long[nbLongs];
+        this.nbBits = 64L * nbLongs;
+        this.nbHashes = nbHashes;
+    }
+
+    /**
+     * Ajoute une empreinte.
+     *
+     * @param hash l'empreinte
+     */
+    void add(long hash) {
+        long h1 = hash >>> 32;
+        long h2 = hash & 0xFFFFFFFFL | 1;
+        for (int i = 0; i < this.nbHashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, this.nbBits);
+            this.bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        this.count++;
+    }
+
+    /**
+     * Vérifie si une empreinte a peut-être été ajoutée.
+     *
+     * @param hash l'empreinte
+     * @return faux si l'empreinte n'a certainement pas été ajoutée
+     */
+    boolean mightContain(long hash) {
+        long h1 = hash >>> 32;
+        long h2 = hash & 0xFFFFFFFFL | 1;
+        for (int i = 0; i < this.nbHashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, this.nbBits);
+            if ((this.bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Estime la probabilité qu'un test positif soit un faux positif, compte tenu du
+     * nombre d'empreintes déjà ajoutées.
+     *
+     * @return la probabilité estimée
+     */
+    double getFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) this.nbHashes * this.count / this.nbBits), this.nbHashes);
+    }
+}
@@ -0,0 +1,227 @@
+package planning;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * File à seaux pour les coûts entiers renvoyés par {@link Action#getCost()}.
+ * <p>
+ * Chaque noeud est rangé dans le seau de la partie entière de sa priorité ; l'insertion,
+ * la mise à jour et l'extraction se font en temps constant (amorti), sans comparaison.
+ * Avec des coûts d'action entiers et une heuristique nulle sur les états buts, arrondir
+ * {@code f = g + h} à l'entier inférieur ne fait pas perdre l'optimalité de A* : un
+ * noeud d'un chemin optimal a toujours un seau strictement inférieur à celui d'un but
+ * sous-optimal.
+ * </p>
+ * <p>
+ * À l'intérieur d'un seau, les noeuds peuvent être départagés en préférant le plus
+ * grand {@code g}, puis selon l'ordre d'insertion : dernier entré premier sorti (LIFO)
+ * ou premier entré premier sorti (FIFO).
+ * </p>
+ */
+public class BucketQueue implements OpenList {
+
+    /** Vrai pour préférer le plus grand g à l'intérieur d'un seau. */
+    private final boolean preferHighG;
+
+    /** Vrai pour un ordre LIFO à l'intérieur d'un sous-seau, FIFO sinon. */
+    private final boolean lifo;
+
+    /** Têtes et queues des listes chaînées, par seau f puis par sous-seau g. */
+    private int[][] head;
+    private int[][] tail;
+
+    /** Nombre de noeuds de chaque seau f. */
+    private int[] count;
+
+    /** Plus grand sous-seau g potentiellement non vide de chaque seau f. */
+    private int[] topG;
+
+    /** Chaînage des noeuds. */
+    private int[] next;
+    private int[] prev;
+
+    /** Seau f et sous-seau g de chaque noeud (-1 s'il est absent). */
+    private int[] bucketF;
+    private int[] bucketG;
+
+    /** Plus petit seau f potentiellement non vide. */
+    private int minF;
+
+    /** Nombre de noeuds dans la file. */
+    private int size;
+
+    /**
+     * Construit une file à seaux qui préfère le plus grand g puis l'ordre LIFO.
+     */
+    public BucketQueue() {
+        this(true, true);
+    }
+
+    /**
+     * Construit une file à seaux avec le départage choisi.
+     *
+     * @param preferHighG vrai pour préférer le plus grand g dans un seau
+     * @param lifo vrai pour un ordre LIFO dans un seau, faux pour FIFO
+     */
+    public BucketQueue(boolean preferHighG, boolean lifo) {
+        this.preferHighG = preferHighG;
+        this.lifo = lifo;
+        this.head = new int[16][];
+        this.tail = new int[16][];
+        this.count = new int[16];
+        this.topG = new int[16];
+        this.next = new int[64];
+        this.prev = new int[64];
+        this.bucketF = new int[64];
+        this.bucketG = new int[64];
+        Arrays.fill(this.bucketF, -1);
+    }
+
+    private void ensureNode(int node) {
+        if (node >= this.bucketF.length) {
+            int capacity = Math.max(node + 1, this.bucketF.length * 2);
+            int old = this.bucketF.length;
+            this.next = Arrays.copyOf(this.next, capacity);
+            this.prev = Arrays.copyOf(this.prev, capacity);
+            this.bucketF = Arrays.copyOf(this.bucketF, capacity);
+            this.bucketG = Arrays.copyOf(this.bucketG, capacity);
+            Arrays.fill(this.bucketF, old, capacity, -1);
+        }
+    }
+
+    private void ensureBucket(int f, int gi) {
+        if (f >= this.head.length) {
+            int capacity = Math.max(f + 1, this.head.length * 2);
+            this.head = Arrays.copyOf(this.head, capacity);
+            this.tail = Arrays.copyOf(this.tail, capacity);
+            this.count = Arrays.copyOf(this.count, capacity);
+            this.topG = Arrays.copyOf(this.topG, capacity);
+        }
+        if (this.head[f] == null || gi >= this.head[f].length) {
+            int old = (this.head[f] == null) ? 0 : this.head[f].length;
+            int capacity = Math.max(gi + 1, old * 2);
+            this.head[f] = (old == 0) ? new int[capacity] : Arrays.copyOf(this.head[f], capacity);
+            this.tail[f] = (old == 0) ? new int[capacity] : Arrays.copyOf(this.tail[f], capacity);
+            Arrays.fill(this.head[f], old, capacity, -1);
+            Arrays.fill(this.tail[f], old, capacity, -1);
+        }
+    }
+
+    @Override
+    public void insertOrUpdate(int node, double priority, int g) {
+        if (!(priority >= 0) || Double.isInfinite(priority) || g < 0) {
+            throw new IllegalArgumentException("Bucket queue needs finite non-negative priorities, got " + priority);
+        }
+        ensureNode(node);
+        if (this.bucketF[node] >= 0) {
+            unlink(node);
+        }
+        int f = (int) priority;
+        int gi = this.preferHighG ? g : 0;
+        ensureBucket(f, gi);
+        int[] h = this.head[f];
+        int[] t = this.tail[f];
+        if (h[gi] < 0) {
+            h[gi] = node;
+            t[gi] = node;
+            this.next[node] = -1;
+            this.prev[node] = -1;
+        } else if (this.lifo) {
+            this.next[node] = h[gi];
+            this.prev[node] = -1;
+            this.prev[h[gi]] = node;
+            h[gi] = node;
+        } else {
+            this.prev[node] = t[gi];
+            this.next[node] = -1;
+            this.next[t[gi]] = node;
+            t[gi] = node;
+        }
+        this.bucketF[node] = f;
+        this.bucketG[node] = gi;
+        this.count[f]++;
+        this.topG[f] = Math.max(this.topG[f], gi);
+        this.size++;
+        if (f < this.minF || this.size == 1) {
+            this.minF = f;
+        }
+    }
+
+    private void unlink(int node) {
+        int f = this.bucketF[node];
+        int gi = this.bucketG[node];
+        if (this.prev[node] >= 0) {
+            this.next[this.prev[node]] = this.next[node];
+        } else {
+            this.head[f][gi] = this.next[node];
+        }
+        if (this.next[node] >= 0) {
+            this.prev[this.next[node]] = this.prev[node];
+        } else {
+            this.tail[f][gi] = this.prev[node];
+        }
+        this.bucketF[node] = -1;
+        this.count[f]--;
+        this.size--;
+    }
+
+    @Override
+    public int poll() {
+        if (this.size == 0) {
+            throw new NoSuchElementException();
+        }
+        while (this.count[this.minF] == 0) {
+            this.minF++;
+        }
+        int f = this.minF;
+        int gi = this.topG[f];
+        while (this.head[f][gi] < 0) {
+            gi--;
+        }
+        this.topG[f] = gi;
+        int node = this.head[f][gi];
+        unlink(node);
+        return node;
+    }
+
+    @Override
+    public double peekPriority() {
+        if (this.size == 0) {
+            throw new NoSuchElementException();
+        }
+        while (this.count[this.minF] == 0) {
+            this.minF++;
+        }
+        return this.minF;
+    }
+
+    @Override
+    public boolean contains(int node) {
+        return node < this.bucketF.length && this.bucketF[node] >= 0;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    @Override
+    public void clear() {
+        for (int f = 0; f < this.head.length; f++) {
+            if (this.head[f] != null) {
+                Arrays.fill(this.head[f], -1);
+                Arrays.fill(this.tail[f], -1);
+            }
+            this.count[f] = 0;
+            this.topG[f] = 0;
+        }
+        Arrays.fill(this.bucketF, -1);
+        this.minF = 0;
+        this.size = 0;
+    }
+}
@@ -1,80 +1,128 @@
 package planning;
-import modelling.Variable;   
-import java.util.Map;         
-import java.util.Set;       
-import java.util.List;        
-import java.util.ArrayList;   
-import java.util.HashSet;     
-import java.util.HashMap;     
-import java.util.Stack;  
-import java.util.Collections; 
+import modelling.Variable;
+import java.util.Map;
+import java.util.Set;
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Planificateur en profondeur d'abord.
+ * <p>
+ * La recherche utilise une pile explicite ({@link DepthFirstSearch}) et ne détecte les
+ * cycles que sur le chemin courant : la mémoire est linéaire en la profondeur, sans
+ * ensemble global des états visités. Une table de transposition de taille fixe (activée
+ * par défaut) évite de redévelopper la plupart des états déjà explorés, sans laquelle la
+ * recherche peut parcourir un nombre exponentiel de chemins. Le plan retourné n'est pas
+ * optimal ; une profondeur maximale peut borner sa longueur.
+ * </p>
+ * <p>
+ * En mode « bitstate » ({@link #setBitState(long, int)}), les états visités ne sont
+ * retenus que par quelques bits d'un grand tableau hors du tas ({@link BitStateTable}),
+ * qui remplace la table de transposition : aucun état n'est redéveloppé, mais un état
+ * peut être omis, avec une probabilité estimée par {@link #getOmissionProbability()}.
+ * </p>
+ */
+public class DFSPlanner extends AbstractPlanner{
+    //nombre d'entrees par defaut de la table de transposition (16 octets chacune)
+    public static final int DEFAULT_TABLE_ENTRIES = 1 << 16;
+
+    private int tableEntries = DEFAULT_TABLE_ENTRIES;
+    //profondeur maximale de la recherche (pas de limite par defaut)
+    private int maxDepth = Integer.MAX_VALUE;
+    //taille en octets du tableau de bits du mode bitstate (0 : mode desactive) et bits par etat
+    private long bitStateBytes;
+    private int bitStateHashes;
+    //probabilite d'omission estimee de la derniere recherche en mode bitstate
+    private double omissionProbability;
 
-public class DFSPlanner implements Planner{
-    private Map<Variable,Object> etat;
-    private Set<Action> ensembleA;
-    private Goal but;
-    private boolean nodeCountActive;
-    private int nodeExplored;
     public DFSPlanner(Map<Variable,Object> etat,Set<Action> ensembleA,Goal but){
-        this.etat = etat;
-        this.ensembleA = ensembleA;
-        this.but = but;
-        this.nodeCountActive = false;
-        this.nodeExplored=0;
+        super(etat, ensembleA, but);
     }
-    @Override 
-    public List<Action>plan(){
-        Stack<Action> plan = new Stack<>();
-        Set<Map<Variable, Object>> visited = new HashSet<>();
-        visited.add(new HashMap<>(etat));
-        return dfs(etat,plan,visited);
+    public DFSPlanner(Map<Variable,Object> etat,ApplicableActionIndex actionIndex,Goal but){
+        super(etat, actionIndex, but);
     }
-    public List<Action> dfs(Map<Variable,Object> etat,Stack<Action> plan ,Set<Map<Variable, Object>> visited){
-        if(this.nodeCountActive){
-            this.nodeExplored++;
+    /**
+     * Fixe la longueur maximale des plans cherchés.
+     *
+     * @param maxDepth le nombre maximal d'actions (au moins 0)
+     */
+    public void setMaxDepth(int maxDepth){
+        if(maxDepth < 0){
+            throw new IllegalArgumentException("Max depth must be non-negative, got " + maxDepth);
         }
-        if(but.isSatisfiedBy(etat)){
-            return new ArrayList<>(plan);
-        }
-        for(Action action : ensembleA){
-            if(action.isApplicable(etat)){
-                Map<Variable,Object> next = action.successor(etat);
-                //si l'etat suivant na pas ete visite 
-                if(!visited.contains(next)){
-                    plan.push(action); //on ajoute l'action à notre plan
-                    visited.add(next); //on ajoute l'etat comme visité
-                    List<Action> subplan = dfs(next,plan,visited); //on visite les sous etats
-                    if(subplan != null){
-                        return subplan;
-                    }
-                    else {
-                        plan.pop();
-                    }
-                }
-                
-            }
+        this.maxDepth = maxDepth;
+    }
+    /**
+     * Fixe la taille de la table de transposition.
+     *
+     * @param entries le nombre d'entrées, ou 0 pour ne détecter les cycles que sur le chemin
+     */
+    public void setTranspositionTable(int entries){
+        if(entries < 0){
+            throw new IllegalArgumentException("Table entries must be non-negative, got " + entries);
         }
-        return  null;
+        this.tableEntries = entries;
     }
-
-    @Override
-    public Goal getGoal(){
-        return but;
+    /**
+     * Active le mode « bitstate », ou le désactive.
+     *
+     * @param bytes la taille du tableau de bits en octets (arrondie à la puissance de deux
+     *              inférieure), ou 0 pour revenir à la table de transposition
+     * @param nbHashes le nombre de bits par état (au moins 1)
+     */
+    public void setBitState(long bytes, int nbHashes){
+        if(bytes < 0 || (bytes > 0 && (bytes < 8 || nbHashes < 1))){
+            throw new IllegalArgumentException("Bitstate mode needs at least 8 bytes and 1 hash, got "
+                    + bytes + " and " + nbHashes);
+        }
+        this.bitStateBytes = bytes;
+        this.bitStateHashes = nbHashes;
     }
-    public Map<Variable, Object> getInitialState(){
-        return etat;
+    /**
+     * Retourne la probabilité estimée qu'un état atteint ait été omis par la dernière
+     * recherche en mode « bitstate ».
+     *
+     * @return la probabilité, ou 0 hors du mode « bitstate »
+     */
+    public double getOmissionProbability(){
+        return omissionProbability;
     }
-    public Set<Action> getActions(){
-        return ensembleA;
+    /**
+     * Seul le chemin courant est mémorisé : une entrée de l'ensemble des états du chemin,
+     * une case de la pile et ses actions applicables par noeud.
+     */
+    @Override
+    protected int getNodeBookkeepingBytes(){
+        return 64;
     }
-    public void activateNodeCount(boolean activate){
-        this.nodeCountActive = activate;
-        if(activate){
-            this.nodeExplored=0;
+    @Override
+    protected List<Action>search(){
+        DepthFirstSearch search = new DepthFirstSearch(getActionIndex(), getPackedGoal(), getCanonicalizer(), getStubbornSets());
+        BitStateTable bitState = (bitStateBytes > 0) ? new BitStateTable(bitStateBytes, bitStateHashes) : null;
+        search.setTranspositionTable((bitState != null) ? 0 : tableEntries);
+        search.setBitState(bitState);
+        omissionProbability = 0;
+        search.setLimitCheck((expanded, depth) -> enforceLimits(getStats().getExpanded() + expanded, depth));
+        List<PackedAction> path;
+        try{
+            path = search.search(null, getPackedInitialState(), maxDepth, null);
+        }finally{
+            // reporté aussi quand une limite arrête la recherche
+            countNodes((int) search.takeExpanded());
+            countGenerated(search.takeGenerated());
+            countDuplicates(search.takeDuplicates());
+            observeFrontier(search.getMaxDepth(), 0);
+            if(bitState != null){
+                omissionProbability = bitState.getOmissionProbability();
+            }
         }
-
-    }
-    public int getNodesExplored(){
-        return this.nodeExplored;
+        if(path == null){
+            return null;
+        }
+        List<Action> plan = new ArrayList<>(path.size());
+        for(PackedAction action : path){
+            plan.add(action.getAction());
+        }
+        return concretize(plan);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,298 @@
+package planning;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Recherche en profondeur à pile explicite, bornée en profondeur.
+ * <p>
+ * La pile ne contient que le chemin courant : l'état de chaque niveau, et les actions
+ * applicables de tous les niveaux empilées dans une seule liste, chaque niveau retenant
+ * l'indice de sa première action et de sa prochaine action à essayer. Les cycles sont
+ * détectés sur le chemin seulement, la mémoire est donc linéaire en la profondeur. Les
+ * tableaux et la liste sont réutilisés d'une recherche à l'autre.
+ * </p>
+ * <p>
+ * Une {@link TranspositionTable} de taille fixe peut en plus élaguer un état déjà atteint
+ * pendant la recherche à une profondeur inférieure ou égale : la mémoire reste bornée, et
+ * un état évincé de la table est seulement redéveloppé.
+ * </p>
+ * <p>
+ * En mode « bitstate », une {@link BitStateTable} remplace la table de transposition :
+ * tout état déjà retenu, à n'importe quelle profondeur, est élagué. Aucun état n'est
+ * développé deux fois, au prix d'omissions possibles (collisions de bits, ou état atteint
+ * d'abord par un chemin plus long que la borne de profondeur ne laisse pas prolonger).
+ * </p>
+ * <p>
+ * Une instance n'est pas partagée entre threads : la recherche parallèle en crée une par
+ * sous-arbre.
+ * </p>
+ * <p>
+ * Les limites de la recherche sont vérifiées par un {@link LimitCheck} tous les
+ * {@link #CHECK_INTERVAL} états développés.
+ * </p>
+ */
+class DepthFirstSearch {
+
+    /** Vérification des limites de la recherche, qui l'arrête en levant une exception. */
+    @FunctionalInterface
+    interface LimitCheck {
+        /**
+         * Vérifie les limites.
+         *
+         * @param expanded les états développés depuis le dernier relevé ({@link #takeExpanded()})
+         * @param depth la profondeur du chemin courant
+         */
+        void check(long expanded, int depth);
+    }
+
+    /** Nombre d'états développés entre deux vérifications des limites. */
+    static final int CHECK_INTERVAL = 1024;
+
+    /** L'index des actions et le but compilé. */
+    private final ApplicableActionIndex index;
+    private final PackedGoal goal;
+
+    /** La réduction des symétries ({@code null} si elle est désactivée). */
+    private final StateCanonicalizer canonicalizer;
+
+    /** La réduction d'ordre partiel ({@code null} si elle est désactivée). */
+    private final StrongStubbornSets stubbornSets;
+
+    /** L'état de chaque niveau du chemin courant. */
+    private PackedState[] states = new PackedState[64];
+
+    /** Indice, dans {@code actions}, de la première et de la prochaine action de chaque niveau. */
+    private int[] firstAction = new int[64];
+    private int[] nextAction = new int[64];
+
+    /** Les actions applicables de tous les niveaux du chemin, empilées. */
+    private final ArrayList<PackedAction> actions = new ArrayList<>();
+
+    /** Les états du chemin courant. */
+    private final Set<PackedState> onPath = new HashSet<>();
+
+    /** La table de transposition ({@code null} si elle est désactivée) et le numéro de la recherche. */
+    private TranspositionTable table;
+    private int iteration;
+
+    /** L'ensemble approché des états visités ({@code null} hors du mode « bitstate »). */
+    private BitStateTable bitState;
+
+    /** Nombres d'états développés, de successeurs générés et de doublons depuis le dernier relevé. */
+    private long expanded;
+    private long generated;
+    private long duplicates;
+
+    /** Profondeur maximale atteinte depuis la création. */
+    private int maxDepth;
+
+    /** Vrai si la dernière recherche a été coupée par la borne de profondeur. */
+    private boolean cutoff;
+
+    /** La vérification des limites ({@code null} si elle est désactivée). */
+    private LimitCheck limitCheck;
+
+    /**
+     * Prépare une recherche.
+     *
+     * @param index l'index des actions
+     * @param goal le but compilé
+     * @param canonicalizer la réduction des symétries, appliquée à chaque successeur, ou {@code null}
+     * @param stubbornSets la réduction d'ordre partiel, appliquée aux actions de chaque niveau, ou {@code null}
+     */
+    DepthFirstSearch(ApplicableActionIndex index, PackedGoal goal, StateCanonicalizer canonicalizer,
+                     StrongStubbornSets stubbornSets) {
+        this.index = index;
+        this.goal = goal;
+        this.canonicalizer = canonicalizer;
+        this.stubbornSets = stubbornSets;
+    }
+
+    /**
+     * Active une table de transposition, ou la désactive.
+     *
+     * @param entries le nombre d'entrées, ou 0 pour désactiver la table
+     */
+    void setTranspositionTable(int entries) {
+        this.table = (entries == 0) ? null : new TranspositionTable(entries);
+    }
+
+    /**
+     * Active le mode « bitstate », qui remplace la table de transposition, ou le désactive.
+     * La table n'est pas vidée entre deux recherches.
+     *
+     * @param bitState l'ensemble approché des états visités, ou {@code null}
+     */
+    void setBitState(BitStateTable bitState) {
+        this.bitState = bitState;
+    }
+
+    /**
+     * Installe la vérification des limites, ou la retire.
+     *
+     * @param limitCheck la vérification, ou {@code null}
+     */
+    void setLimitCheck(LimitCheck limitCheck) {
+        this.limitCheck = limitCheck;
+    }
+
+    /**
+     * Cherche un plan d'au plus {@code limit} actions depuis un état.
+     *
+     * @param parent un état déjà sur le chemin au-dessus de {@code root} (exclu de la
+     *               recherche), ou {@code null}
+     * @param root l'état de départ
+     * @param limit la profondeur maximale
+     * @param stop un drapeau d'arrêt consulté à chaque action, ou {@code null}
+     * @return les actions du plan, ou {@code null} si aucun plan n'a été trouvé
+     */
+    List<PackedAction> search(PackedState parent, PackedState root, int limit, AtomicBoolean stop) {
+        this.cutoff = false;
+        this.iteration++;
+        this.onPath.clear();
+        this.actions.clear();
+        if (parent != null) {
+            this.onPath.add(parent);
+        }
+        this.onPath.add(root);
+        if (this.bitState != null) {
+            this.bitState.add(root.getKey());
+        }
+        if (this.goal.isSatisfiedBy(root)) {
+            return new ArrayList<>();
+        }
+        if (limit == 0) {
+            this.cutoff = true;
+            return null;
+        }
+        int depth = 0;
+        push(0, root);
+        while (depth >= 0) {
+            if (stop != null && stop.get()) {
+                return null;
+            }
+            if (this.nextAction[depth] == this.actions.size()) {
+                // niveau épuisé : ses actions sont en haut de la liste
+                truncate(this.firstAction[depth]);
+                this.onPath.remove(this.states[depth]);
+                depth--;
+                continue;
+            }
+            PackedAction action = this.actions.get(this.nextAction[depth]++);
+            PackedState next = action.successor(this.states[depth]);
+            this.generated++;
+            if (this.canonicalizer != null) {
+                next = this.canonicalizer.canonicalize(next);
+            }
+            if (!this.onPath.add(next)) {
+                this.duplicates++;
+                continue;
+            }
+            if (this.goal.isSatisfiedBy(next)) {
+                List<PackedAction> plan = new ArrayList<>(depth + 1);
+                for (int d = 0; d <= depth; d++) {
+                    plan.add(this.actions.get(this.nextAction[d] - 1));
+                }
+                return plan;
+            }
+            if (depth + 1 == limit) {
+                this.cutoff = true;
+                this.onPath.remove(next);
+                continue;
+            }
+            if ((this.bitState != null) ? !this.bitState.add(next.getKey())
+                    : this.table != null && this.table.probe(next.getKey(), depth + 1, this.iteration)) {
+                this.duplicates++;
+                this.onPath.remove(next);
+                continue;
+            }
+            depth++;
+            push(depth, next);
+        }
+        return null;
+    }
+
+    /**
+     * Empile un niveau et ses actions applicables (celles de l'ensemble têtu si la
+     * réduction d'ordre partiel est active).
+     */
+    private void push(int depth, PackedState state) {
+        if (depth == this.states.length) {
+            int capacity = 2 * depth;
+            this.states = Arrays.copyOf(this.states, capacity);
+            this.firstAction = Arrays.copyOf(this.firstAction, capacity);
+            this.nextAction = Arrays.copyOf(this.nextAction, capacity);
+        }
+        this.states[depth] = state;
+        this.maxDepth = Math.max(this.maxDepth, depth + 1);
+        this.firstAction[depth] = this.actions.size();
+        this.nextAction[depth] = this.actions.size();
+        this.index.collect(state, this.actions);
+        if (this.stubbornSets != null) {
+            this.stubbornSets.prune(state, this.actions, this.firstAction[depth]);
+        }
+        this.expanded++;
+        if (this.limitCheck != null && this.expanded % CHECK_INTERVAL == 0) {
+            this.limitCheck.check(this.expanded, depth + 1);
+        }
+    }
+
+    private void truncate(int size) {
+        for (int i = this.actions.size() - 1; i >= size; i--) {
+            this.actions.remove(i);
+        }
+    }
+
+    /**
+     * Retourne le nombre d'états développés depuis le dernier appel, et remet le compte à zéro.
+     *
+     * @return le nombre d'états développés
+     */
+    long takeExpanded() {
+        long count = this.expanded;
+        this.expanded = 0;
+        return count;
+    }
+
+    /**
+     * Retourne le nombre de successeurs générés depuis le dernier appel, et remet le compte à zéro.
+     *
+     * @return le nombre de successeurs générés
+     */
+    long takeGenerated() {
+        long count = this.generated;
+        this.generated = 0;
+        return count;
+    }
+
+    /**
+     * Retourne le nombre de successeurs écartés (sur le chemin ou dans la table de
+     * transposition) depuis le dernier appel, et remet le compte à zéro.
+     *
+     * @return le nombre de doublons
+     */
+    long takeDuplicates() {
+        long count = this.duplicates;
+        this.duplicates = 0;
+        return count;
+    }
+
+    /**
+     * Retourne la profondeur maximale du chemin depuis la création.
+     *
+     * @return le nombre maximal d'états empilés
+     */
+    int getMaxDepth() {
+        return this.maxDepth;
+    }
+
+    /**
+     * Indique si la dernière recherche a laissé des états non développés à la borne de
+     * profondeur (sinon, une borne plus grande ne trouverait rien de plus).
+     *
+     * @return vrai si la borne a coupé la recherche
+     */
+    boolean isCutoff() {
+        return this.cutoff;
+    }
+}
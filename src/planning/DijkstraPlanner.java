@@ -1,98 +1,73 @@
 package planning;
-import modelling.Variable; 
-import planning.Goal; 
+import modelling.Variable;
 
 import java.util.* ;
 
-public class DijkstraPlanner implements Planner{
-    private Map<Variable,Object> initialState;
-    private Set<Action> actions;
-    private Goal goal;
-    private boolean nodeCountActive ; //indique si le compte de noeud est activé
-    private int nodeExplored; //indique le nombre de noeud explorés
+public class DijkstraPlanner extends AbstractPlanner{
+    //la liste ouverte, triee selon la distance
+    private OpenList open;
     public DijkstraPlanner(Map<Variable,Object> initialState , Set<Action> actions , Goal goal){
-        this.initialState = initialState;
-        this.actions = actions;
-        this.goal= goal;
-        this.nodeCountActive= false;
-        this.nodeExplored=0;
+        super(initialState, actions, goal);
+        this.open = new BucketQueue();
     }
-    @Override
-    public Map<Variable,Object> getInitialState(){
-        return this.initialState;
+    public DijkstraPlanner(Map<Variable,Object> initialState , ApplicableActionIndex actionIndex , Goal goal){
+        super(initialState, actionIndex, goal);
+        this.open = new BucketQueue();
     }
-    
-    @Override
-    public Set<Action> getActions(){
-        return this.actions;
-
+    /**
+     * Remplace la liste ouverte (par défaut une {@link BucketQueue}, les coûts étant entiers).
+     *
+     * @param open la liste ouverte à utiliser
+     */
+    public void setOpenList(OpenList open){
+        this.open = open;
     }
+    /**
+     * Un noeud de la {@link SearchNodeArena}.
+     */
     @Override
-    public Goal getGoal(){
-        return this.goal;
+    protected int getBytesPerNode(){
+        return SearchNodeArena.getBytesPerNode(getCodec());
     }
-    @Override 
+    @Override
 
-    public List<Action> plan(){
-        //va stocker le noeud et sa distance 
-        Map<Map<Variable ,Object>,Integer > distance = new HashMap<>();
-        //stocke chaque noeud et son pere
-        Map<Map<Variable,Object >, Map<Variable,Object>> father = new HashMap<>();
-        //stocke chaque noeud et laction qui la engendre 
-        Map<Map<Variable,Object >,Action> planMap = new HashMap<>();
-        //permet de trier les noeuds selon la distance
-        PriorityQueue<Map<Variable,Object>> open = new PriorityQueue <>(
-            Comparator.comparingInt(distance::get)
-        );
-        open.add(initialState);
-        distance.put(initialState,0);
-        father.put(initialState,null);
+    protected List<Action> search(){
+        PackedGoal goal = getPackedGoal();
+        //stocke chaque noeud, sa distance, son pere et l'action qui l'a engendre
+        SearchNodeArena nodes = new SearchNodeArena(getCodec(),getPackedActions());
+        open.clear();
+        int root = nodes.add(getPackedInitialState(),0,-1,null);
+        open.insertOrUpdate(root,0,0);
         while(!open.isEmpty()){
-            Map<Variable,Object> current = open.poll();
-            if(this.nodeCountActive){
-                this.nodeExplored++;
-            }
-            if(goal.isSatisfiedBy(current)){
-                return getDijkstraPlan(father,planMap,current);
+            int current = open.poll();
+            PackedState state = nodes.getState(current);
+            countNode();
+            observeFrontier(open.size(),nodes.size() - open.size());
+            if(goal.isSatisfiedBy(state)){
+                return concretize(nodes.extractPlan(current));
             }
-            for(Action action : actions){
-                if(action.isApplicable(current)){
-                    Map<Variable,Object> next = action.successor(current);
-                    int newCost = distance.get(current)+ action.getCost() ;
-                    if(!distance.containsKey(next) || newCost < distance.get(next) ){
-                        distance.put(next,newCost);
-                        father.put(next,current);
-                        planMap.put(next,action);
-                        open.remove(next);
-                        open.add(next);                  }
+            int distance = nodes.getCost(current);
+            for(PackedAction action : getApplicableActions(state)){
+                PackedState next = successor(action,state);
+                int newCost = distance + action.getCost();
+                int id = nodes.indexOf(next);
+                if(id < 0){
+                    id = nodes.add(next,newCost,current,action);
+                    open.insertOrUpdate(id,newCost,newCost);
+                }
+                else if(newCost < nodes.getCost(id)){
+                    //diminution de la distance sans entree perimee dans la liste ouverte
+                    nodes.update(id,newCost,current,action);
+                    open.insertOrUpdate(id,newCost,newCost);
+                }
+                else{
+                    countDuplicate();
                 }
             }
-            
+
         }
 
         return null;
 
     }
-    private List<Action> getDijkstraPlan(Map<Map<Variable, Object>, Map<Variable, Object>> father,
-                                         Map<Map<Variable, Object>, Action> planMap,
-                                         Map<Variable, Object> goalState){
-                                            List<Action> plan = new ArrayList<>();
-                                            Map<Variable,Object> current = goalState;
-                                            while(father.get(current)!=null){
-                                                plan.add(0,planMap.get(current));
-                                                current = father.get(current);
-                                            }
-                                            return plan;
-                                         }
-    
-    public void activateNodeCount(boolean activate){
-        this.nodeCountActive = activate;
-        if(activate){
-            this.nodeExplored=0;
-        }
-
-    }
-    public int getNodesExplored(){
-        return this.nodeExplored;
-    }
-}
\ No newline at end of file
+}
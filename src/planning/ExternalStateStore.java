@@ -0,0 +1,414 @@
+package planning;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Ensemble d'états compacts stocké sur disque, couche par couche, pour une recherche en
+ * largeur en mémoire externe (détection différée des doublons, à la manière de Korf).
+ * <p>
+ * Les états d'une nouvelle couche sont d'abord ajoutés à un tampon en mémoire (une table
+ * de hachage qui élimine déjà les doublons qu'elle contient). Quand le tampon est plein,
+ * il est trié et écrit sur disque en un segment trié ({@link SortedRun}). À la fin de la
+ * couche, {@link #flushLayer()} fusionne les segments, élimine les doublons entre eux et
+ * retire les états déjà présents dans les couches précédentes : un filtre de Bloom sur
+ * tous les états stockés écarte sans accès disque les états certainement nouveaux, les
+ * autres sont cherchés par dichotomie dans les couches projetées en mémoire, de la plus
+ * récente à la plus ancienne. La couche obtenue est un nouveau fichier trié.
+ * </p>
+ * <p>
+ * La mémoire du tas utilisée est bornée par le plafond donné à la construction : un quart
+ * pour le filtre de Bloom, le reste pour le tampon. Les fichiers projetés ne comptent pas
+ * dans le tas (ils sont dans le cache du système). Les fichiers sont supprimés par
+ * {@link #close()}.
+ * </p>
+ */
+public class ExternalStateStore implements AutoCloseable {
+
+    /** Plus petit plafond de mémoire accepté. */
+    private static final long MIN_RAM_BYTES = 1 << 16;
+
+    /** Nombre de positions du filtre de Bloom par état. */
+    private static final int BLOOM_HASHES = 3;
+
+    /** Le codec des états. */
+    private final StateCodec codec;
+
+    /** Nombre de mots d'un état. */
+    private final int nbWords;
+
+    /** Le répertoire des fichiers, créé par le stockage. */
+    private final Path directory;
+
+    /** Le filtre de Bloom de tous les états des couches. */
+    private final BloomFilter bloom;
+
+    /** Le tampon des états en attente : enregistrements à plat et table de hachage (indice + 1). */
+    private final long[] records;
+    private final int[] table;
+    private final int capacity;
+    private int count;
+
+    /** Segments triés de la couche en attente, déjà écrits. */
+    private final List<SortedRun> pending = new ArrayList<>();
+
+    /** Les couches stockées. */
+    private final List<SortedRun> layers = new ArrayList<>();
+
+    /** Numéro du prochain fichier. */
+    private int nextFile;
+
+    /** Tableau de travail. */
+    private final long[] scratch;
+
+    /**
+     * Construit un stockage vide dans un répertoire temporaire.
+     *
+     * @param codec le codec des états
+     * @param ramBytes le plafond de mémoire du tas, en octets
+     */
+    public ExternalStateStore(StateCodec codec, long ramBytes) {
+        this(codec, ramBytes, null);
+    }
+
+    /**
+     * Construit un stockage vide.
+     *
+     * @param codec le codec des états
+     * @param ramBytes le plafond de mémoire du tas, en octets (au moins 64 Ko)
+     * @param directory le répertoire où créer les fichiers, ou {@code null} pour le
+     *                  répertoire temporaire du système
+     */
+    public ExternalStateStore(StateCodec codec, long ramBytes, Path directory) {
+        if (ramBytes < MIN_RAM_BYTES) {
+            throw new IllegalArgumentException("RAM ceiling must be at least " + MIN_RAM_BYTES + " bytes, got " + ramBytes);
+        }
+        this.codec = codec;
+        this.nbWords = codec.getNbWords();
+        this.scratch = new long[this.nbWords];
+        this.bloom = new BloomFilter(ramBytes / 4, BLOOM_HASHES);
+        // chaque état du tampon coûte ses mots et deux cases de la table
+        long bufferBytes = ramBytes - ramBytes / 4;
+        int wanted = (int) Math.min(bufferBytes / (8L * this.nbWords + 8), 1 << 29);
+        this.table = new int[Integer.highestOneBit(wanted) * 2];
+        // taux de remplissage de la table limité à 3/4
+        this.capacity = Math.min(wanted, this.table.length / 4 * 3);
+        this.records = new long[this.capacity * this.nbWords];
+        try {
+            if (directory == null) {
+                this.directory = Files.createTempDirectory("planning-");
+            } else {
+                Files.createDirectories(directory);
+                this.directory = Files.createTempDirectory(directory, "planning-");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create the store directory", e);
+        }
+    }
+
+    /**
+     * Ajoute un état à la couche en attente.
+     *
+     * @param state l'état
+     * @return faux si l'état est déjà dans le tampon (il peut encore être un doublon
+     *         d'un segment déjà écrit ou d'une couche précédente)
+     */
+    public boolean add(PackedState state) {
+        long[] words = state.words();
+        int mask = this.table.length - 1;
+        int slot = (int) hash(words, 0) & mask;
+        while (this.table[slot] != 0) {
+            int offset = (this.table[slot] - 1) * this.nbWords;
+            if (SortedRun.compare(this.records, offset, words, 0, this.nbWords) == 0) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        System.arraycopy(words, 0, this.records, this.count * this.nbWords, this.nbWords);
+        this.table[slot] = ++this.count;
+        if (this.count == this.capacity) {
+            spill();
+        }
+        return true;
+    }
+
+    /**
+     * Termine la couche en attente : fusionne ses segments, élimine les doublons et les
+     * états des couches précédentes, et l'enregistre comme nouvelle couche.
+     *
+     * @return le nombre d'états de la nouvelle couche
+     */
+    public long flushLayer() {
+        List<Cursor> sources = new ArrayList<>();
+        if (this.pending.isEmpty()) {
+            sortRecords(0, this.count - 1);
+            sources.add(new Cursor(this.records, this.count));
+        } else {
+            if (this.count > 0) {
+                spill();
+            }
+            for (SortedRun run : this.pending) {
+                sources.add(new Cursor(run));
+            }
+        }
+        PriorityQueue<Cursor> heap = new PriorityQueue<>();
+        for (Cursor cursor : sources) {
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+        }
+        SortedRun.Writer writer = new SortedRun.Writer(nextFile("layer"), this.nbWords);
+        long[] last = new long[this.nbWords];
+        boolean first = true;
+        while (!heap.isEmpty()) {
+            Cursor cursor = heap.poll();
+            long[] current = cursor.current;
+            if (first || SortedRun.compare(current, 0, last, 0, this.nbWords) != 0) {
+                first = false;
+                System.arraycopy(current, 0, last, 0, this.nbWords);
+                long h = hash(current, 0);
+                if (!this.bloom.mightContain(h) || !inLayers(current)) {
+                    writer.append(current, 0);
+                    this.bloom.add(h);
+                }
+            }
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+        }
+        for (SortedRun run : this.pending) {
+            run.delete();
+        }
+        this.pending.clear();
+        Arrays.fill(this.table, 0);
+        this.count = 0;
+        SortedRun layer = writer.finish();
+        this.layers.add(layer);
+        return layer.size();
+    }
+
+    /**
+     * Vérifie si un état est dans une des couches stockées.
+     *
+     * @param state l'état
+     * @return vrai si l'état est stocké
+     */
+    public boolean contains(PackedState state) {
+        long[] words = state.words();
+        return this.bloom.mightContain(hash(words, 0)) && inLayers(words);
+    }
+
+    /**
+     * Parcourt une couche dans l'ordre du fichier, jusqu'à ce que le visiteur retourne vrai.
+     *
+     * @param layer le numéro de la couche
+     * @param visitor le visiteur, qui retourne vrai pour arrêter le parcours
+     * @return l'état sur lequel le parcours s'est arrêté, ou {@code null}
+     */
+    public PackedState scanLayer(int layer, Predicate<PackedState> visitor) {
+        SortedRun run = this.layers.get(layer);
+        for (long i = 0; i < run.size(); i++) {
+            long[] words = new long[this.nbWords];
+            run.read(i, words);
+            PackedState state = this.codec.wrap(words);
+            if (visitor.test(state)) {
+                return state;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Retourne le nombre de couches stockées.
+     *
+     * @return le nombre de couches
+     */
+    public int getNbLayers() {
+        return this.layers.size();
+    }
+
+    /**
+     * Retourne le nombre d'états d'une couche.
+     *
+     * @param layer le numéro de la couche
+     * @return la taille de la couche
+     */
+    public long getLayerSize(int layer) {
+        return this.layers.get(layer).size();
+    }
+
+    /**
+     * Retourne la place occupée sur disque par les couches.
+     *
+     * @return le nombre d'octets
+     */
+    public long getDiskBytes() {
+        long bytes = 0;
+        for (SortedRun layer : this.layers) {
+            bytes += layer.bytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Retourne la probabilité estimée de faux positif du filtre de Bloom (un faux positif
+     * ne coûte qu'une recherche sur disque inutile).
+     *
+     * @return la probabilité estimée
+     */
+    public double getFalsePositiveRate() {
+        return this.bloom.getFalsePositiveRate();
+    }
+
+    /**
+     * Supprime les fichiers du stockage, y compris un segment dont l'écriture a échoué.
+     */
+    @Override
+    public void close() {
+        for (SortedRun run : this.pending) {
+            run.delete();
+        }
+        for (SortedRun layer : this.layers) {
+            layer.delete();
+        }
+        this.pending.clear();
+        this.layers.clear();
+        try {
+            if (Files.isDirectory(this.directory)) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+                    for (Path file : files) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+            Files.deleteIfExists(this.directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot delete " + this.directory, e);
+        }
+    }
+
+    private boolean inLayers(long[] words) {
+        for (int l = this.layers.size() - 1; l >= 0; l--) {
+            if (this.layers.get(l).contains(words, this.scratch)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Trie le tampon et l'écrit en un segment trié de la couche en attente. */
+    private void spill() {
+        sortRecords(0, this.count - 1);
+        SortedRun.Writer writer = new SortedRun.Writer(nextFile("run"), this.nbWords);
+        for (int i = 0; i < this.count; i++) {
+            writer.append(this.records, i * this.nbWords);
+        }
+        this.pending.add(writer.finish());
+        Arrays.fill(this.table, 0);
+        this.count = 0;
+    }
+
+    private Path nextFile(String prefix) {
+        return this.directory.resolve(prefix + "-" + (this.nextFile++) + ".bin");
+    }
+
+    /** Empreinte de 64 bits des mots d'un état (mélange de type splitmix64). */
+    private long hash(long[] words, int offset) {
+        long h = 0x9E3779B97F4A7C15L;
+        for (int w = 0; w < this.nbWords; w++) {
+            h ^= words[offset + w];
+            h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+            h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+            h ^= h >>> 31;
+        }
+        return h;
+    }
+
+    /** Tri rapide des enregistrements du tampon entre deux indices inclus. */
+    private void sortRecords(int low, int high) {
+        while (high - low > 16) {
+            int mid = (low + high) >>> 1;
+            long[] pivot = Arrays.copyOfRange(this.records, mid * this.nbWords, (mid + 1) * this.nbWords);
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (SortedRun.compare(this.records, i * this.nbWords, pivot, 0, this.nbWords) < 0) {
+                    i++;
+                }
+                while (SortedRun.compare(this.records, j * this.nbWords, pivot, 0, this.nbWords) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            // récursion sur la plus petite partie
+            if (j - low < high - i) {
+                sortRecords(low, j);
+                low = i;
+            } else {
+                sortRecords(i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int k = i; k > low && SortedRun.compare(this.records, (k - 1) * this.nbWords, this.records, k * this.nbWords, this.nbWords) > 0; k--) {
+                swap(k - 1, k);
+            }
+        }
+    }
+
+    private void swap(int a, int b) {
+        int offsetA = a * this.nbWords;
+        int offsetB = b * this.nbWords;
+        for (int w = 0; w < this.nbWords; w++) {
+            long tmp = this.records[offsetA + w];
+            this.records[offsetA + w] = this.records[offsetB + w];
+            this.records[offsetB + w] = tmp;
+        }
+    }
+
+    /** Curseur sur une source triée : le tampon trié ou un segment sur disque. */
+    private final class Cursor implements Comparable<Cursor> {
+        final long[] current = new long[ExternalStateStore.this.nbWords];
+        private final long[] array;
+        private final SortedRun run;
+        private final long size;
+        private long next;
+
+        Cursor(long[] array, int size) {
+            this.array = array;
+            this.run = null;
+            this.size = size;
+        }
+
+        Cursor(SortedRun run) {
+            this.array = null;
+            this.run = run;
+            this.size = run.size();
+        }
+
+        boolean advance() {
+            if (this.next == this.size) {
+                return false;
+            }
+            if (this.run != null) {
+                this.run.read(this.next, this.current);
+            } else {
+                int n = ExternalStateStore.this.nbWords;
+                System.arraycopy(this.array, (int) this.next * n, this.current, 0, n);
+            }
+            this.next++;
+            return true;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            return SortedRun.compare(this.current, 0, other.current, 0, ExternalStateStore.this.nbWords);
+        }
+    }
+}
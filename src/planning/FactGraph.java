@@ -0,0 +1,199 @@
+package planning;
+import modelling.Variable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Graphe de faits d'un problème, compilé pour un codec, immuable : la représentation
+ * propositionnelle qu'utilisent les heuristiques de relaxation.
+ * <p>
+ * Le fait (variable, indice de valeur) porte le numéro {@code base[variable] + indice}.
+ * Chaque action est reliée aux faits de ses préconditions et de ses effets, et chaque
+ * fait aux actions qui l'utilisent et à celles qui le produisent. Les listes d'adjacence
+ * sont rangées à plat : les éléments de la liste {@code i} occupent
+ * {@code [start[i], start[i+1])}. Les actions jamais applicables sont écartées.
+ * </p>
+ */
+final class FactGraph {
+    final StateCodec codec;
+    final int nbVariables;
+    final int nbFacts;
+    final int nbActions;
+    final int[] base;
+
+    /** Coût, nombre de préconditions, préconditions et effets de chaque action. */
+    final int[] actionCost;
+    final int[] nbPre;
+    final int[] preStart;
+    final int[] pre;
+    final int[] effStart;
+    final int[] eff;
+
+    /** Actions sans précondition, déclenchées au départ de chaque évaluation. */
+    final int[] noPrecondition;
+
+    /** Pour chaque fait, les actions dont il est une précondition. */
+    final int[] preOfStart;
+    final int[] preOf;
+
+    /** Pour chaque fait, les actions qui le produisent. */
+    final int[] achieverStart;
+    final int[] achievers;
+
+    /** Faits du but. */
+    final int[] goalFacts;
+    final boolean[] isGoal;
+    final boolean unreachableGoal;
+
+    /**
+     * Compile le graphe d'un problème.
+     *
+     * @param codec le codec des états
+     * @param actions les actions, qui exposent leurs préconditions et leurs effets
+     * @param goal le but
+     * @throws IllegalArgumentException si une action n'expose pas ses préconditions et ses effets
+     */
+    FactGraph(StateCodec codec, Set<Action> actions, BasicGoal goal) {
+        this.codec = codec;
+        this.nbVariables = codec.getNbVariables();
+        this.base = new int[this.nbVariables + 1];
+        for (int var = 0; var < this.nbVariables; var++) {
+            this.base[var + 1] = this.base[var] + codec.getNbValues(var);
+        }
+        this.nbFacts = this.base[this.nbVariables];
+
+        List<PackedAction> compiled = new ArrayList<>(actions.size());
+        for (PackedAction action : codec.compileAll(actions)) {
+            if (!action.isCompiled()) {
+                throw new IllegalArgumentException("Relaxed planning heuristics need exposed preconditions and effects, got "
+                        + action.getAction().getClass().getName());
+            }
+            if (!action.isImpossible()) {
+                compiled.add(action);
+            }
+        }
+        int nbActions = compiled.size();
+        this.nbActions = nbActions;
+        this.actionCost = new int[nbActions];
+        this.nbPre = new int[nbActions];
+        this.preStart = new int[nbActions + 1];
+        this.effStart = new int[nbActions + 1];
+        int nbNoPre = 0;
+        for (int a = 0; a < nbActions; a++) {
+            PackedAction action = compiled.get(a);
+            this.actionCost[a] = action.getCost();
+            this.nbPre[a] = action.getPreconditionVariables().length;
+            this.preStart[a + 1] = this.preStart[a] + this.nbPre[a];
+            this.effStart[a + 1] = this.effStart[a] + action.getEffectVariables().length;
+            if (this.nbPre[a] == 0) {
+                nbNoPre++;
+            }
+        }
+        this.pre = new int[this.preStart[nbActions]];
+        this.eff = new int[this.effStart[nbActions]];
+        this.noPrecondition = new int[nbNoPre];
+        nbNoPre = 0;
+        for (int a = 0; a < nbActions; a++) {
+            PackedAction action = compiled.get(a);
+            int[] vars = action.getPreconditionVariables();
+            int[] values = action.getPreconditionValues();
+            for (int i = 0; i < vars.length; i++) {
+                this.pre[this.preStart[a] + i] = this.base[vars[i]] + values[i];
+            }
+            vars = action.getEffectVariables();
+            values = action.getEffectValues();
+            for (int i = 0; i < vars.length; i++) {
+                this.eff[this.effStart[a] + i] = this.base[vars[i]] + values[i];
+            }
+            if (this.nbPre[a] == 0) {
+                this.noPrecondition[nbNoPre++] = a;
+            }
+        }
+        this.preOfStart = new int[this.nbFacts + 1];
+        this.preOf = invert(this.preStart, this.pre, this.preOfStart);
+        this.achieverStart = new int[this.nbFacts + 1];
+        this.achievers = invert(this.effStart, this.eff, this.achieverStart);
+
+        this.isGoal = new boolean[this.nbFacts];
+        List<Integer> goalFacts = new ArrayList<>();
+        boolean unreachable = false;
+        for (Map.Entry<Variable, Object> entry : goal.getInstanciation().entrySet()) {
+            int var = codec.indexOf(entry.getKey());
+            int value = (var < 0) ? -1 : codec.indexOfValue(var, entry.getValue());
+            if (value < 0) {
+                unreachable = true;
+            } else if (!this.isGoal[this.base[var] + value]) {
+                this.isGoal[this.base[var] + value] = true;
+                goalFacts.add(this.base[var] + value);
+            }
+        }
+        this.goalFacts = goalFacts.stream().mapToInt(Integer::intValue).toArray();
+        this.unreachableGoal = unreachable;
+    }
+
+    /**
+     * Inverse une relation action → faits rangée à plat en la relation fait → actions.
+     *
+     * @param start les débuts des listes de chaque action
+     * @param facts les faits des listes
+     * @param factStart rempli avec les débuts des listes de chaque fait
+     * @return les actions des listes de chaque fait
+     */
+    private int[] invert(int[] start, int[] facts, int[] factStart) {
+        for (int fact : facts) {
+            factStart[fact + 1]++;
+        }
+        for (int f = 0; f < this.nbFacts; f++) {
+            factStart[f + 1] += factStart[f];
+        }
+        int[] actions = new int[facts.length];
+        int[] fill = Arrays.copyOf(factStart, this.nbFacts);
+        for (int a = 0; a < this.nbActions; a++) {
+            for (int k = start[a]; k < start[a + 1]; k++) {
+                actions[fill[facts[k]]++] = a;
+            }
+        }
+        return actions;
+    }
+
+    /**
+     * Range les faits vrais dans un état compact.
+     *
+     * @param state l'état compact
+     * @param facts le tableau à remplir, d'au moins {@code nbVariables} cases
+     * @return le nombre de faits rangés
+     */
+    int collect(PackedState state, int[] facts) {
+        int n = 0;
+        for (int var = 0; var < this.nbVariables; var++) {
+            int value = this.codec.get(state, var);
+            if (value >= 0) {
+                facts[n++] = this.base[var] + value;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Range les faits vrais dans un état décodé ; les affectations inconnues du codec
+     * sont ignorées.
+     *
+     * @param etat l'état décodé
+     * @param facts le tableau à remplir, d'au moins {@code nbVariables} cases
+     * @return le nombre de faits rangés
+     */
+    int collect(Map<Variable, Object> etat, int[] facts) {
+        int n = 0;
+        for (Map.Entry<Variable, Object> entry : etat.entrySet()) {
+            int var = this.codec.indexOf(entry.getKey());
+            int value = (var < 0) ? -1 : this.codec.indexOfValue(var, entry.getValue());
+            if (value >= 0) {
+                facts[n++] = this.base[var] + value;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,81 @@
+package planning;
+import java.util.Arrays;
+
+/**
+ * File de priorité des faits d'une propagation de coûts dans un {@link FactGraph} : un
+ * tas binaire de {@code long} codés {@code coût << 32 | fait}, sans allocation une fois
+ * dimensionné. Un fait dont le coût diminue est inséré à nouveau ; l'appelant ignore les
+ * entrées périmées à l'extraction.
+ */
+final class FactQueue {
+    private long[] heap = new long[64];
+    private int size;
+
+    /** Vide la file. */
+    void clear() {
+        this.size = 0;
+    }
+
+    /** Vrai si la file est vide. */
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Insère un fait.
+     *
+     * @param fact le fait
+     * @param cost son coût, positif ou nul
+     */
+    void push(int fact, int cost) {
+        long entry = ((long) cost << 32) | fact;
+        if (this.size == this.heap.length) {
+            this.heap = Arrays.copyOf(this.heap, 2 * this.size);
+        }
+        int i = this.size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (this.heap[parent] <= entry) {
+                break;
+            }
+            this.heap[i] = this.heap[parent];
+            i = parent;
+        }
+        this.heap[i] = entry;
+    }
+
+    /**
+     * Extrait l'entrée de plus petit coût.
+     *
+     * @return l'entrée, dont {@link #fact(long)} et {@link #cost(long)} donnent le fait et le coût
+     */
+    long pop() {
+        long top = this.heap[0];
+        long last = this.heap[--this.size];
+        int i = 0;
+        int half = this.size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < this.size && this.heap[child + 1] < this.heap[child]) {
+                child++;
+            }
+            if (last <= this.heap[child]) {
+                break;
+            }
+            this.heap[i] = this.heap[child];
+            i = child;
+        }
+        this.heap[i] = last;
+        return top;
+    }
+
+    /** Le fait d'une entrée. */
+    static int fact(long entry) {
+        return (int) entry;
+    }
+
+    /** Le coût d'une entrée. */
+    static int cost(long entry) {
+        return (int) (entry >>> 32);
+    }
+}
@@ -0,0 +1,375 @@
+package planning;
+import modelling.Variable;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Planificateur A* parallèle à distribution par hachage (HDA*).
+ * <p>
+ * Chaque état appartient à un unique thread, choisi à partir de sa clé de Zobrist.
+ * Chaque thread possède sa propre liste ouverte et sa propre table des états. Les
+ * successeurs appartenant à un autre thread lui sont envoyés dans une boîte aux lettres
+ * sans verrou ({@link ConcurrentLinkedQueue}). Le meilleur coût de solution connu est
+ * partagé : un noeud dont {@code f = g + h} n'est pas inférieur à ce coût est élagué.
+ * </p>
+ * <p>
+ * La recherche se termine quand tous les threads sont inactifs et qu'aucun message n'est
+ * en transit : chaque envoi incrémente un compteur global, et un thread n'ajoute les
+ * messages qu'il a consommés au compteur des réceptions qu'au moment où il redevient
+ * inactif. Les deux compteurs égaux, lus de part et d'autre de la vérification de
+ * l'inactivité, garantissent qu'aucun travail ne reste. Avec une heuristique admissible,
+ * le plan retourné est alors optimal.
+ * </p>
+ * <p>
+ * Chaque thread vérifie les {@link SearchLimits} tous les {@link #CHECK_INTERVAL} noeuds
+ * développés, sur des comptes de noeuds et d'états partagés ; une limite atteinte termine
+ * tous les threads.
+ * </p>
+ * <p>
+ * La table de chaque thread est une {@link SearchNodeArena}. Un noeud y est désigné, pour
+ * tous les threads, par l'entier {@code id * n + propriétaire} : le père d'un noeud est
+ * un tel entier, et le plan se reconstruit en remontant ces entiers de table en table.
+ * </p>
+ */
+public class HDAStarPlanner extends AbstractPlanner {
+
+    /** Un état envoyé à son propriétaire, avec son père désigné pour tous les threads. */
+    private static final class Message {
+        final PackedState state;
+        final int g;
+        final int father;
+        final PackedAction action;
+
+        Message(PackedState state, int g, int father, PackedAction action) {
+            this.state = state;
+            this.g = g;
+            this.father = father;
+            this.action = action;
+        }
+    }
+
+    /** Nombre de noeuds développés par un thread entre deux vérifications des limites. */
+    private static final int CHECK_INTERVAL = 1024;
+
+    /** L'heuristique utilisée (elle doit pouvoir être appelée par plusieurs threads). */
+    private final Heuristic heuristique;
+
+    /** Nombre de threads de la recherche. */
+    private int parallelism;
+
+    /**
+     * Construit un planificateur HDA* utilisant tous les processeurs.
+     *
+     * @param initialState l'état initial
+     * @param actions les actions disponibles
+     * @param goal le but à atteindre
+     * @param heuristique une heuristique admissible, sans état modifiable
+     */
+    public HDAStarPlanner(Map<Variable, Object> initialState, Set<Action> actions, Goal goal, Heuristic heuristique) {
+        super(initialState, actions, goal);
+        this.heuristique = heuristique;
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Construit un planificateur HDA* à partir d'un index d'actions partagé.
+     *
+     * @param initialState l'état initial
+     * @param actionIndex l'index des actions disponibles
+     * @param goal le but à atteindre
+     * @param heuristique une heuristique admissible, sans état modifiable
+     */
+    public HDAStarPlanner(Map<Variable, Object> initialState, ApplicableActionIndex actionIndex, Goal goal, Heuristic heuristique) {
+        super(initialState, actionIndex, goal);
+        this.heuristique = heuristique;
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Fixe le nombre de threads de la recherche.
+     *
+     * @param parallelism le nombre de threads (au moins 1)
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Retourne le nombre de threads de la recherche.
+     *
+     * @return le nombre de threads
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /** Un noeud de la {@link SearchNodeArena} d'un thread et la valeur de son heuristique. */
+    @Override
+    protected int getBytesPerNode() {
+        return SearchNodeArena.getBytesPerNode(getCodec()) + 4;
+    }
+
+    @Override
+    protected List<Action> search() {
+        bindHeuristic(this.heuristique);
+        Search search = new Search(this.parallelism);
+        return search.run(getPackedInitialState());
+    }
+
+    /** État partagé d'une exécution de la recherche. */
+    private final class Search {
+        final int n;
+        final Worker[] workers;
+        final StateCodec codec = getCodec();
+        final PackedGoal goal = getPackedGoal();
+        /** L'index des actions, construit avant le départ des threads. */
+        final ApplicableActionIndex index = getActionIndex();
+        final List<PackedAction> actions = getPackedActions();
+
+        /** Coût de la meilleure solution connue (bits d'un double). */
+        final AtomicLong bestCost = new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+        /** Noeud but de la meilleure solution connue (-1 : aucun). */
+        final AtomicInteger bestGoal = new AtomicInteger(-1);
+
+        /** Messages envoyés, et messages absorbés par des threads redevenus inactifs. */
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong received = new AtomicLong();
+        /** Nombre de threads inactifs. */
+        final AtomicInteger idle = new AtomicInteger();
+        volatile boolean terminated;
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        /** Noeuds développés et états mémorisés reportés par les threads, et la limite atteinte. */
+        final LongAdder expandedAll = new LongAdder();
+        final LongAdder storedAll = new LongAdder();
+        final AtomicReference<SearchLimits.Limit> limit = new AtomicReference<>();
+
+        Search(int n) {
+            this.n = n;
+            this.workers = new Worker[n];
+            for (int i = 0; i < n; i++) {
+                this.workers[i] = new Worker(this, i);
+            }
+        }
+
+        int owner(PackedState state) {
+            return (int) Long.remainderUnsigned(state.getKey() * 0x9E3779B97F4A7C15L, this.n);
+        }
+
+        double best() {
+            return Double.longBitsToDouble(this.bestCost.get());
+        }
+
+        void offerSolution(int node, double cost) {
+            while (true) {
+                long current = this.bestCost.get();
+                if (cost >= Double.longBitsToDouble(current)) {
+                    return;
+                }
+                if (this.bestCost.compareAndSet(current, Double.doubleToLongBits(cost))) {
+                    this.bestGoal.set(node);
+                    solutionFound();
+                    return;
+                }
+            }
+        }
+
+        void send(PackedState state, int g, int father, PackedAction action) {
+            this.sent.incrementAndGet();
+            this.workers[owner(state)].mailbox.add(new Message(state, g, father, action));
+        }
+
+        /** Reporte les comptes d'un thread et termine la recherche si une limite est atteinte. */
+        void checkLimits(Worker worker) {
+            this.expandedAll.add(CHECK_INTERVAL);
+            this.storedAll.add(worker.nodes.size() - worker.reported);
+            worker.reported = worker.nodes.size();
+            SearchLimits.Limit reached = HDAStarPlanner.this.checkLimits(this.expandedAll.sum(), this.storedAll.sum());
+            if (reached != null && this.limit.compareAndSet(null, reached)) {
+                this.terminated = true;
+            }
+        }
+
+        boolean checkTermination() {
+            long s1 = this.sent.get();
+            if (this.idle.get() == this.n && this.received.get() == s1 && this.sent.get() == s1) {
+                this.terminated = true;
+            }
+            return this.terminated;
+        }
+
+        List<Action> run(PackedState initialState) {
+            send(initialState, 0, -1, null);
+            Thread[] threads = new Thread[this.n];
+            for (int i = 0; i < this.n; i++) {
+                Worker worker = this.workers[i];
+                threads[i] = new Thread(() -> {
+                    try {
+                        worker.run();
+                    } catch (Throwable t) {
+                        this.failure.compareAndSet(null, t);
+                        this.terminated = true;
+                    }
+                }, "hdastar-" + i);
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    this.terminated = true;
+                    Thread.currentThread().interrupt();
+                    throw new SearchLimitException(SearchLimits.Limit.CANCELLED);
+                }
+            }
+            if (this.failure.get() != null) {
+                throw new IllegalStateException("HDA* worker failed", this.failure.get());
+            }
+            int expanded = 0;
+            long peakOpen = 0;
+            long stored = 0;
+            for (Worker worker : this.workers) {
+                expanded += worker.expanded;
+                peakOpen += worker.peakOpen;
+                stored += worker.nodes.size();
+            }
+            countNodes(expanded);
+            observeFrontier(peakOpen, stored);
+            if (this.limit.get() != null) {
+                throw new SearchLimitException(this.limit.get());
+            }
+            int goalNode = this.bestGoal.get();
+            return (goalNode < 0) ? null : concretize(extractPlan(goalNode));
+        }
+
+        List<Action> extractPlan(int goalNode) {
+            List<Action> plan = new ArrayList<>();
+            for (int node = goalNode; node >= 0; ) {
+                SearchNodeArena nodes = this.workers[node % this.n].nodes;
+                int id = node / this.n;
+                if (nodes.getParent(id) >= 0) {
+                    plan.add(nodes.getAction(id).getAction());
+                }
+                node = nodes.getParent(id);
+            }
+            Collections.reverse(plan);
+            return plan;
+        }
+    }
+
+    /** Un thread de la recherche, propriétaire d'une partie des états. */
+    private final class Worker {
+        final Search search;
+        /** Rang du thread, propriétaire des noeuds {@code id * n + rank}. */
+        final int rank;
+        final ConcurrentLinkedQueue<Message> mailbox = new ConcurrentLinkedQueue<>();
+        final SearchNodeArena nodes;
+        /** Valeur de l'heuristique de chaque noeud. */
+        float[] h = new float[1024];
+        final IndexedBinaryHeap open = new IndexedBinaryHeap();
+        final List<PackedAction> applicable = new ArrayList<>();
+        int expanded;
+        int peakOpen;
+        int reported;
+        long consumed;
+
+        Worker(Search search, int rank) {
+            this.search = search;
+            this.rank = rank;
+            this.nodes = new SearchNodeArena(search.codec, search.actions);
+        }
+
+        /** Désigne un noeud de ce thread pour tous les threads. */
+        int global(int id) {
+            if (id > (Integer.MAX_VALUE - this.rank) / this.search.n) {
+                throw new IllegalStateException("Too many HDA* nodes for " + this.search.n + " threads");
+            }
+            return id * this.search.n + this.rank;
+        }
+
+        void run() {
+            while (!this.search.terminated) {
+                Message message;
+                while ((message = this.mailbox.poll()) != null) {
+                    this.consumed++;
+                    receive(message.state, message.g, message.father, message.action);
+                }
+                if (!this.open.isEmpty()) {
+                    this.peakOpen = Math.max(this.peakOpen, this.open.size());
+                    expand(this.open.poll());
+                    continue;
+                }
+                // plus rien à faire : le thread devient inactif
+                this.search.received.addAndGet(this.consumed);
+                this.consumed = 0;
+                this.search.idle.incrementAndGet();
+                while (this.mailbox.isEmpty()) {
+                    if (this.search.checkTermination()) {
+                        return;
+                    }
+                    LockSupport.parkNanos(20_000);
+                }
+                this.search.idle.decrementAndGet();
+            }
+        }
+
+        void receive(PackedState state, int g, int father, PackedAction action) {
+            int id = this.nodes.indexOf(state);
+            if (id < 0) {
+                id = this.nodes.add(state, g, father, action);
+                if (id == this.h.length) {
+                    this.h = Arrays.copyOf(this.h, 2 * id);
+                }
+                this.h[id] = estimate(HDAStarPlanner.this.heuristique, state);
+            } else if (g >= this.nodes.getCost(id)) {
+                countDuplicate();
+                return;
+            } else {
+                this.nodes.update(id, g, father, action);
+            }
+            double f = g + this.h[id];
+            if (f < this.search.best()) {
+                this.open.insertOrUpdate(id, f, g);
+            }
+        }
+
+        void expand(int id) {
+            int distance = this.nodes.getCost(id);
+            if (distance + this.h[id] >= this.search.best()) {
+                return;
+            }
+            this.expanded++;
+            if (this.expanded % CHECK_INTERVAL == 0) {
+                this.search.checkLimits(this);
+            }
+            PackedState state = this.nodes.getState(id);
+            if (this.search.goal.isSatisfiedBy(state)) {
+                this.search.offerSolution(global(id), distance);
+                return;
+            }
+            int father = global(id);
+            this.applicable.clear();
+            collectApplicableActions(state, this.applicable);
+            for (PackedAction action : this.applicable) {
+                PackedState next = successor(action, state);
+                int g = distance + action.getCost();
+                if (g >= this.search.best()) {
+                    continue;
+                }
+                if (this.search.workers[this.search.owner(next)] == this) {
+                    receive(next, g, father, action);
+                } else {
+                    this.search.send(next, g, father, action);
+                }
+            }
+        }
+    }
+}
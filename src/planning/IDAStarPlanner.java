@@ -0,0 +1,214 @@
+package planning;
+import modelling.Variable;
+import java.util.*;
+
+/**
+ * Planificateur IDA* (A* par approfondissement itératif).
+ * <p>
+ * Une suite de recherches en profondeur est bornée par un seuil sur {@code f = g + h} ;
+ * chaque itération repart de l'état initial avec pour seuil la plus petite valeur de
+ * {@code f} qui a dépassé le seuil précédent. Seul le chemin courant est mémorisé : la
+ * mémoire est linéaire en la profondeur du plan, là où A* garde tous les états générés.
+ * Avec une heuristique admissible, le plan retourné est de coût minimal.
+ * </p>
+ * <p>
+ * Deux options réduisent les redéveloppements :
+ * - une table de transposition de taille fixe ({@link #setTranspositionTable(int)}) élague
+ *   un état déjà atteint pendant l'itération par un chemin au moins aussi court ;
+ * - l'élagage des mouvements ({@link #setMovePruning(boolean)}) interdit d'enchaîner deux
+ *   actions qui lisent et modifient une même variable. Dans le monde des blocs cette
+ *   variable est la position du bloc déplacé : on ne déplace jamais deux fois de suite le
+ *   même bloc, ce qui couvre l'annulation du dernier mouvement. Cet élagage ne garde
+ *   l'optimalité que si deux telles actions consécutives peuvent toujours être remplacées
+ *   par au plus une action de coût inférieur ou égal, comme dans le monde des blocs.
+ * </p>
+ */
+public class IDAStarPlanner extends AbstractPlanner {
+
+    /** L'heuristique utilisée. */
+    private final Heuristic heuristique;
+
+    /** La table de transposition ({@code null} si elle est désactivée). */
+    private TranspositionTable table;
+
+    /** Vrai si l'élagage des mouvements est activé. */
+    private boolean movePruning;
+
+    /** Variables lues et modifiées par chaque action (ensemble de bits des indices de variables). */
+    private Map<PackedAction, long[]> readWrite;
+
+    /** État de la recherche en cours. */
+    private List<PackedAction> path;
+    private Set<PackedState> onPath;
+    private double nextThreshold;
+    private int iteration;
+    private int nbIterations;
+
+    /**
+     * Construit un planificateur IDA*.
+     *
+     * @param initialState l'état initial
+     * @param actions les actions disponibles
+     * @param goal le but à atteindre
+     * @param heuristique l'heuristique (admissible pour un plan optimal)
+     */
+    public IDAStarPlanner(Map<Variable, Object> initialState, Set<Action> actions, Goal goal, Heuristic heuristique) {
+        super(initialState, actions, goal);
+        this.heuristique = heuristique;
+    }
+
+    /**
+     * Construit un planificateur IDA* à partir d'un index d'actions partagé.
+     *
+     * @param initialState l'état initial
+     * @param actionIndex l'index des actions disponibles
+     * @param goal le but à atteindre
+     * @param heuristique l'heuristique (admissible pour un plan optimal)
+     */
+    public IDAStarPlanner(Map<Variable, Object> initialState, ApplicableActionIndex actionIndex, Goal goal, Heuristic heuristique) {
+        super(initialState, actionIndex, goal);
+        this.heuristique = heuristique;
+    }
+
+    /**
+     * Active une table de transposition de taille fixe, ou la désactive.
+     *
+     * @param entries le nombre d'entrées (arrondi à une puissance de deux, 16 octets
+     *                chacune), ou 0 pour désactiver la table
+     */
+    public void setTranspositionTable(int entries) {
+        this.table = (entries == 0) ? null : new TranspositionTable(entries);
+    }
+
+    /**
+     * Active ou désactive l'élagage des mouvements.
+     *
+     * @param movePruning vrai pour ne jamais enchaîner deux actions qui lisent et
+     *                    modifient une même variable
+     */
+    public void setMovePruning(boolean movePruning) {
+        this.movePruning = movePruning;
+    }
+
+    /**
+     * Retourne le nombre d'itérations de la dernière recherche.
+     *
+     * @return le nombre d'itérations
+     */
+    public int getNbIterations() {
+        return this.nbIterations;
+    }
+
+    /**
+     * Seul le chemin courant est mémorisé : une entrée de l'ensemble des états du chemin
+     * et une case de la pile des actions par noeud.
+     */
+    @Override
+    protected int getNodeBookkeepingBytes() {
+        return 48;
+    }
+
+    @Override
+    protected List<Action> search() {
+        if (this.movePruning && this.readWrite == null) {
+            this.readWrite = computeReadWrite();
+        }
+        bindHeuristic(this.heuristique);
+        PackedState root = getPackedInitialState();
+        float rootH = estimate(this.heuristique, root);
+        double threshold = rootH;
+        this.path = new ArrayList<>();
+        this.onPath = new HashSet<>();
+        this.onPath.add(root);
+        this.nbIterations = 0;
+        while (true) {
+            this.nbIterations++;
+            this.iteration++;
+            this.nextThreshold = Double.POSITIVE_INFINITY;
+            if (search(root, 0, rootH, threshold, null)) {
+                List<Action> plan = new ArrayList<>(this.path.size());
+                for (PackedAction action : this.path) {
+                    plan.add(action.getAction());
+                }
+                return concretize(plan);
+            }
+            if (this.nextThreshold == Double.POSITIVE_INFINITY) {
+                return null;
+            }
+            threshold = this.nextThreshold;
+        }
+    }
+
+    /**
+     * Recherche en profondeur bornée par le seuil, depuis un état atteint avec le coût g
+     * et dont l'heuristique vaut h.
+     *
+     * @return vrai si un plan a été trouvé (il est alors dans {@code path})
+     */
+    private boolean search(PackedState state, int g, float h, double threshold, PackedAction last) {
+        double f = g + h;
+        if (f > threshold) {
+            this.nextThreshold = Math.min(this.nextThreshold, f);
+            return false;
+        }
+        if (getPackedGoal().isSatisfiedBy(state)) {
+            return true;
+        }
+        if (this.table != null && this.table.probe(state.getKey(), g, this.iteration)) {
+            countDuplicate();
+            return false;
+        }
+        countNode();
+        observeFrontier(this.path.size(), 0);
+        long[] lastVars = (last == null || !this.movePruning) ? null : this.readWrite.get(last);
+        for (PackedAction action : getApplicableActions(state)) {
+            if (lastVars != null && intersects(lastVars, this.readWrite.get(action))) {
+                continue;
+            }
+            PackedState next = successor(action, state);
+            if (!this.onPath.add(next)) {
+                countDuplicate();
+                continue;
+            }
+            this.path.add(action);
+            float nextH = estimate(this.heuristique, state, h, action, next);
+            if (search(next, g + action.getCost(), nextH, threshold, action)) {
+                return true;
+            }
+            this.path.remove(this.path.size() - 1);
+            this.onPath.remove(next);
+        }
+        return false;
+    }
+
+    /**
+     * Calcule, pour chaque action, l'ensemble des variables présentes à la fois dans ses
+     * préconditions et dans ses effets. Une action non compilée n'en a aucune.
+     */
+    private Map<PackedAction, long[]> computeReadWrite() {
+        int nbLongs = (getCodec().getNbVariables() + 63) / 64;
+        Map<PackedAction, long[]> sets = new IdentityHashMap<>();
+        for (PackedAction action : getPackedActions()) {
+            long[] set = new long[nbLongs];
+            if (action.isCompiled()) {
+                int[] preVars = action.getPreconditionVariables();
+                for (int var : action.getEffectVariables()) {
+                    if (Arrays.binarySearch(preVars, var) >= 0) {
+                        set[var >>> 6] |= 1L << var;
+                    }
+                }
+            }
+            sets.put(action, set);
+        }
+        return sets;
+    }
+
+    private static boolean intersects(long[] a, long[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if ((a[i] & b[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
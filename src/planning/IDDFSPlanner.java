@@ -0,0 +1,261 @@
+package planning;
+import modelling.Variable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Planificateur en profondeur itérée (IDDFS).
+ * <p>
+ * Une suite de recherches en profondeur ({@link DepthFirstSearch}) est bornée par une
+ * profondeur maximale augmentée de 1 à chaque itération : le premier plan trouvé a le plus
+ * petit nombre d'actions, comme avec {@link BFSPlanner}, mais seul le chemin courant est
+ * mémorisé. La recherche échoue quand une itération n'a été coupée par la borne nulle part.
+ * Une table de transposition de taille fixe ({@link #setTranspositionTable(int)}) peut
+ * élaguer un état déjà atteint pendant l'itération à une profondeur inférieure ou égale,
+ * comme dans {@link IDAStarPlanner}.
+ * </p>
+ * <p>
+ * En mode parallèle ({@link #setParallelism(int)}), chaque itération répartit les
+ * sous-arbres des successeurs de l'état initial entre les threads ; le premier plan trouvé
+ * arrête les autres. Il a la même longueur que celui de la recherche séquentielle, mais
+ * peut passer par d'autres actions. Chaque sous-arbre a sa propre table de transposition,
+ * la taille demandée étant partagée entre eux.
+ * </p>
+ */
+public class IDDFSPlanner extends AbstractPlanner {
+
+    /** Nombre de threads de la recherche (1 : recherche séquentielle). */
+    private int parallelism;
+
+    /** Nombre d'entrées de la table de transposition (0 : pas de table). */
+    private int tableEntries;
+
+    /** Nombre d'itérations de la dernière recherche. */
+    private int nbIterations;
+
+    /**
+     * Construit un planificateur en profondeur itérée.
+     *
+     * @param initialState l'état initial
+     * @param actions les actions disponibles
+     * @param goal le but à atteindre
+     */
+    public IDDFSPlanner(Map<Variable, Object> initialState, Set<Action> actions, Goal goal) {
+        super(initialState, actions, goal);
+        this.parallelism = 1;
+    }
+
+    /**
+     * Construit un planificateur en profondeur itérée à partir d'un index d'actions partagé.
+     *
+     * @param initialState l'état initial
+     * @param actionIndex l'index des actions disponibles
+     * @param goal le but à atteindre
+     */
+    public IDDFSPlanner(Map<Variable, Object> initialState, ApplicableActionIndex actionIndex, Goal goal) {
+        super(initialState, actionIndex, goal);
+        this.parallelism = 1;
+    }
+
+    /**
+     * Fixe le nombre de threads de la recherche.
+     *
+     * @param parallelism le nombre de threads (au moins 1 ; 1 pour une recherche séquentielle)
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Retourne le nombre de threads de la recherche.
+     *
+     * @return le nombre de threads
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Active une table de transposition de taille fixe, ou la désactive.
+     *
+     * @param entries le nombre d'entrées (16 octets chacune), ou 0 pour désactiver la table
+     */
+    public void setTranspositionTable(int entries) {
+        if (entries < 0) {
+            throw new IllegalArgumentException("Table entries must be non-negative, got " + entries);
+        }
+        this.tableEntries = entries;
+    }
+
+    /**
+     * Retourne le nombre d'itérations de la dernière recherche.
+     *
+     * @return le nombre d'itérations
+     */
+    public int getNbIterations() {
+        return this.nbIterations;
+    }
+
+    @Override
+    protected List<Action> search() {
+        PackedState root = getPackedInitialState();
+        this.nbIterations = 0;
+        if (getPackedGoal().isSatisfiedBy(root)) {
+            return new ArrayList<>();
+        }
+        return (this.parallelism == 1) ? planSequential(root) : planParallel(root);
+    }
+
+    private List<Action> planSequential(PackedState root) {
+        DepthFirstSearch search = new DepthFirstSearch(getActionIndex(), getPackedGoal(), getCanonicalizer(), getStubbornSets());
+        search.setTranspositionTable(this.tableEntries);
+        search.setLimitCheck((expanded, depth) -> enforceLimits(getStats().getExpanded() + expanded, depth));
+        for (int limit = 1; ; limit++) {
+            this.nbIterations++;
+            List<PackedAction> path;
+            try {
+                path = search.search(null, root, limit, null);
+            } finally {
+                // reporté aussi quand une limite arrête la recherche
+                countNodes((int) search.takeExpanded());
+                report(search);
+                observeFrontier(search.getMaxDepth(), 0);
+            }
+            if (path != null) {
+                return concretize(toPlan(null, path));
+            }
+            if (!search.isCutoff()) {
+                return null;
+            }
+            enforceLimits(getStats().getExpanded(), search.getMaxDepth());
+        }
+    }
+
+    /** Reporte les successeurs générés et les doublons d'une recherche dans les statistiques. */
+    private void report(DepthFirstSearch search) {
+        countGenerated(search.takeGenerated());
+        countDuplicates(search.takeDuplicates());
+    }
+
+    /**
+     * Seuls les chemins courants sont mémorisés : une entrée de l'ensemble des états du
+     * chemin, une case de la pile et ses actions applicables par noeud.
+     */
+    @Override
+    protected int getNodeBookkeepingBytes() {
+        return 64;
+    }
+
+    /**
+     * Recherche parallèle : à chaque itération, un sous-arbre par successeur de l'état
+     * initial, borné à la profondeur de l'itération moins 1.
+     */
+    private List<Action> planParallel(PackedState root) {
+        ApplicableActionIndex index = getActionIndex();
+        PackedGoal goal = getPackedGoal();
+        List<PackedAction> firstActions = new ArrayList<>();
+        List<PackedState> children = new ArrayList<>();
+        for (PackedAction action : getApplicableActions(root)) {
+            PackedState child = successor(action, root);
+            if (!child.equals(root)) {
+                firstActions.add(action);
+                children.add(child);
+            }
+        }
+        countNode();
+        // une recherche par sous-arbre, réutilisée d'une itération à l'autre
+        List<DepthFirstSearch> searches = new ArrayList<>(children.size());
+        int entries = (this.tableEntries == 0) ? 0 : Math.max(2, this.tableEntries / Math.max(1, children.size()));
+        for (int c = 0; c < children.size(); c++) {
+            DepthFirstSearch search = new DepthFirstSearch(index, goal, getCanonicalizer(), getStubbornSets());
+            search.setTranspositionTable(entries);
+            searches.add(search);
+        }
+
+        Thread caller = Thread.currentThread();
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            for (int limit = 1; ; limit++) {
+                this.nbIterations++;
+                int depth = limit - 1;
+                AtomicBoolean stop = new AtomicBoolean();
+                AtomicReference<List<Action>> found = new AtomicReference<>();
+                AtomicBoolean cutoff = new AtomicBoolean();
+                LongAdder expanded = new LongAdder();
+                // une limite atteinte dans un sous-arbre arrête les autres par le drapeau d'arrêt
+                AtomicReference<SearchLimits.Limit> limitReached = new AtomicReference<>();
+                List<Callable<Void>> tasks = new ArrayList<>(children.size());
+                for (int c = 0; c < children.size(); c++) {
+                    PackedAction first = firstActions.get(c);
+                    PackedState child = children.get(c);
+                    DepthFirstSearch search = searches.get(c);
+                    search.setLimitCheck((pending, pathDepth) -> {
+                        SearchLimits.Limit reached = caller.isInterrupted() ? SearchLimits.Limit.CANCELLED
+                                : checkLimits(getStats().getExpanded() + expanded.sum() + pending, pathDepth);
+                        if (reached != null && limitReached.compareAndSet(null, reached)) {
+                            stop.set(true);
+                        }
+                    });
+                    tasks.add(() -> {
+                        List<PackedAction> path = search.search(root, child, depth, stop);
+                        expanded.add(search.takeExpanded());
+                        if (path != null && found.compareAndSet(null, toPlan(first, path))) {
+                            stop.set(true);
+                        }
+                        if (search.isCutoff()) {
+                            cutoff.set(true);
+                        }
+                        return null;
+                    });
+                }
+                for (Future<Void> future : pool.invokeAll(tasks)) {
+                    try {
+                        future.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SearchLimitException(SearchLimits.Limit.CANCELLED);
+                    } catch (ExecutionException e) {
+                        throw new IllegalStateException("Parallel IDDFS failed", e.getCause());
+                    }
+                }
+                countNodes((int) expanded.sum());
+                // les chemins des sous-arbres coexistent : leurs profondeurs s'additionnent
+                int paths = 0;
+                for (DepthFirstSearch search : searches) {
+                    report(search);
+                    paths += search.getMaxDepth();
+                }
+                observeFrontier(paths, 0);
+                if (found.get() != null) {
+                    return concretize(found.get());
+                }
+                if (limitReached.get() != null) {
+                    throw new SearchLimitException(limitReached.get());
+                }
+                if (!cutoff.get()) {
+                    return null;
+                }
+                enforceLimits(getStats().getExpanded(), paths);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static List<Action> toPlan(PackedAction first, List<PackedAction> path) {
+        List<Action> plan = new ArrayList<>(path.size() + 1);
+        if (first != null) {
+            plan.add(first.getAction());
+        }
+        for (PackedAction action : path) {
+            plan.add(action.getAction());
+        }
+        return plan;
+    }
+}
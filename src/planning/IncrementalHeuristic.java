@@ -0,0 +1,47 @@
+package planning;
+
+/**
+ * Heuristique évaluée directement sur les états compacts.
+ * <p>
+ * Les planificateurs informés la lient au codec du problème avant la recherche
+ * ({@link #bind(StateCodec)}), puis l'évaluent sans décoder les états : l'heuristique
+ * précalcule les indices de variables et de valeurs dont elle a besoin, et n'alloue rien
+ * pendant l'évaluation. La variante incrémentale calcule la valeur d'un successeur à
+ * partir de celle de son père et des effets de l'action appliquée.
+ * </p>
+ * <p>
+ * Une heuristique liée n'est plus modifiée pendant la recherche : elle peut être évaluée
+ * par plusieurs threads, mais n'est liée qu'à un codec à la fois.
+ * </p>
+ */
+public interface IncrementalHeuristic extends Heuristic {
+
+    /**
+     * Lie l'heuristique au codec des états évalués.
+     *
+     * @param codec le codec du problème
+     */
+    void bind(StateCodec codec);
+
+    /**
+     * Estime le coût restant depuis un état compact.
+     *
+     * @param state l'état compact
+     * @return le coût estimé
+     */
+    float estimate(PackedState state);
+
+    /**
+     * Estime le coût restant depuis le successeur d'un état, connaissant la valeur de
+     * l'heuristique pour cet état. Par défaut, le successeur est évalué entièrement.
+     *
+     * @param parent l'état père
+     * @param parentValue la valeur de l'heuristique pour le père
+     * @param action l'action appliquée au père
+     * @param child le successeur
+     * @return le coût estimé depuis le successeur
+     */
+    default float estimate(PackedState parent, float parentValue, PackedAction action, PackedState child) {
+        return estimate(child);
+    }
+}
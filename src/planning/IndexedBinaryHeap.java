@@ -0,0 +1,175 @@
+package planning;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Tas binaire indexé : la position de chaque noeud dans le tas est mémorisée, ce qui
+ * permet de modifier sa priorité en O(log n) sans entrée périmée.
+ * <p>
+ * À priorité égale, le noeud de plus grand {@code g} sort en premier (il est en général
+ * plus proche du but), puis le plus récemment inséré.
+ * </p>
+ */
+public class IndexedBinaryHeap implements OpenList {
+
+    /** Les noeuds, rangés en tas. */
+    private int[] heap;
+
+    /** Nombre de noeuds dans le tas. */
+    private int size;
+
+    /** Position de chaque noeud dans le tas (-1 s'il est absent). */
+    private int[] pos;
+
+    /** Priorité de chaque noeud. */
+    private double[] priority;
+
+    /** Coût g de chaque noeud. */
+    private int[] g;
+
+    /** Ordre d'insertion de chaque noeud. */
+    private long[] stamp;
+
+    /** Compteur d'insertions. */
+    private long clock;
+
+    /**
+     * Construit un tas vide.
+     */
+    public IndexedBinaryHeap() {
+        this.heap = new int[64];
+        this.pos = new int[64];
+        Arrays.fill(this.pos, -1);
+        this.priority = new double[64];
+        this.g = new int[64];
+        this.stamp = new long[64];
+    }
+
+    private void ensureNode(int node) {
+        if (node >= this.pos.length) {
+            int capacity = Math.max(node + 1, this.pos.length * 2);
+            int old = this.pos.length;
+            this.pos = Arrays.copyOf(this.pos, capacity);
+            Arrays.fill(this.pos, old, capacity, -1);
+            this.priority = Arrays.copyOf(this.priority, capacity);
+            this.g = Arrays.copyOf(this.g, capacity);
+            this.stamp = Arrays.copyOf(this.stamp, capacity);
+        }
+    }
+
+    @Override
+    public void insertOrUpdate(int node, double priority, int g) {
+        ensureNode(node);
+        this.priority[node] = priority;
+        this.g[node] = g;
+        this.stamp[node] = this.clock++;
+        int i = this.pos[node];
+        if (i < 0) {
+            if (this.size == this.heap.length) {
+                this.heap = Arrays.copyOf(this.heap, this.size * 2);
+            }
+            i = this.size++;
+            this.heap[i] = node;
+            this.pos[node] = i;
+        }
+        siftDown(siftUp(i));
+    }
+
+    @Override
+    public int poll() {
+        if (this.size == 0) {
+            throw new NoSuchElementException();
+        }
+        int top = this.heap[0];
+        this.pos[top] = -1;
+        this.size--;
+        if (this.size > 0) {
+            int last = this.heap[this.size];
+            this.heap[0] = last;
+            this.pos[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    @Override
+    public double peekPriority() {
+        if (this.size == 0) {
+            throw new NoSuchElementException();
+        }
+        return this.priority[this.heap[0]];
+    }
+
+    @Override
+    public boolean contains(int node) {
+        return node < this.pos.length && this.pos[node] >= 0;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < this.size; i++) {
+            this.pos[this.heap[i]] = -1;
+        }
+        this.size = 0;
+    }
+
+    /** Vrai si le noeud a doit sortir avant le noeud b. */
+    private boolean before(int a, int b) {
+        if (this.priority[a] != this.priority[b]) {
+            return this.priority[a] < this.priority[b];
+        }
+        if (this.g[a] != this.g[b]) {
+            return this.g[a] > this.g[b];
+        }
+        return this.stamp[a] > this.stamp[b];
+    }
+
+    private int siftUp(int i) {
+        int node = this.heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            int p = this.heap[parent];
+            if (!before(node, p)) {
+                break;
+            }
+            this.heap[i] = p;
+            this.pos[p] = i;
+            i = parent;
+        }
+        this.heap[i] = node;
+        this.pos[node] = i;
+        return i;
+    }
+
+    private void siftDown(int i) {
+        int node = this.heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= this.size) {
+                break;
+            }
+            if (child + 1 < this.size && before(this.heap[child + 1], this.heap[child])) {
+                child++;
+            }
+            int c = this.heap[child];
+            if (!before(c, node)) {
+                break;
+            }
+            this.heap[i] = c;
+            this.pos[c] = i;
+            i = child;
+        }
+        this.heap[i] = node;
+        this.pos[node] = i;
+    }
+}
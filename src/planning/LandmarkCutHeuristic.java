@@ -0,0 +1,374 @@
+package planning;
+import modelling.Variable;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Heuristique LM-cut (Helmert et Domshlak, 2009) : somme des coûts d'une suite de
+ * coupes d'actions landmarks, admissible et bien plus informée que h_max.
+ * <p>
+ * Chaque itération calcule h_max avec les coûts restants des actions, et le support de
+ * chaque action (sa précondition la plus chère). La zone du but regroupe les faits d'où
+ * le but s'atteint par des actions de coût restant nul, en remontant les supports ; les
+ * actions dont le support est atteignable depuis l'état sans traverser cette zone et
+ * dont un effet y entre forment une coupe, dont au moins une action figure dans tout
+ * plan. Le coût minimal de la coupe est ajouté à l'estimation et retranché du coût de
+ * ses actions, jusqu'à ce que h_max du but soit nul.
+ * </p>
+ * <p>
+ * Les actions et le but sont compilés une fois en un graphe de faits. h_max n'est
+ * calculé entièrement qu'au début de l'évaluation d'un état : après chaque coupe, seuls
+ * les faits dont le coût diminue, à partir des effets des actions coupées, sont remis à
+ * jour. Les tampons de l'évaluation sont propres à chaque thread et réutilisés d'un état
+ * à l'autre : une évaluation n'alloue rien.
+ * </p>
+ * <p>
+ * Les actions doivent exposer leurs préconditions et leurs effets et le but doit être un
+ * {@link BasicGoal}.
+ * </p>
+ */
+public class LandmarkCutHeuristic implements IncrementalHeuristic {
+
+    /** Coût d'un fait ou d'une action inatteignable. */
+    private static final int INFINITE = Integer.MAX_VALUE;
+
+    /** Les actions du problème. */
+    private final Set<Action> actions;
+
+    /** Le but du problème. */
+    private final BasicGoal goal;
+
+    /** Le graphe de faits compilé pour le codec lié ({@code null} avant la liaison). */
+    private FactGraph graph;
+
+    /** Tampons d'évaluation de chaque thread. */
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<>();
+
+    /**
+     * Construit l'heuristique.
+     *
+     * @param actions les actions du problème, qui exposent leurs préconditions et leurs effets
+     * @param goal le but, un {@link BasicGoal}
+     * @throws IllegalArgumentException si le but n'est pas un {@link BasicGoal}
+     */
+    public LandmarkCutHeuristic(Set<Action> actions, Goal goal) {
+        if (!(goal instanceof BasicGoal)) {
+            throw new IllegalArgumentException("LM-cut needs a BasicGoal, got " + goal);
+        }
+        this.actions = actions;
+        this.goal = (BasicGoal) goal;
+    }
+
+    /**
+     * Compile le graphe de faits pour le codec, s'il n'y est pas déjà lié.
+     *
+     * @throws IllegalArgumentException si une action n'expose pas ses préconditions et ses effets
+     */
+    @Override
+    public void bind(StateCodec codec) {
+        FactGraph current = this.graph;
+        if (current == null || current.codec != codec) {
+            this.graph = new FactGraph(codec, this.actions, this.goal);
+        }
+    }
+
+    /**
+     * Estime le coût depuis un état décodé. Si l'heuristique n'est liée à aucun codec, elle
+     * est liée au codec du problème formé par cet état, les actions et le but ; les
+     * affectations inconnues du codec sont ignorées.
+     */
+    @Override
+    public float estimate(Map<Variable, Object> etat) {
+        if (this.graph == null) {
+            bind(StateCodec.forProblem(etat, this.actions, this.goal));
+        }
+        FactGraph g = this.graph;
+        Scratch s = scratchFor(g);
+        return evaluate(g, s, g.collect(etat, s.initial));
+    }
+
+    @Override
+    public float estimate(PackedState state) {
+        FactGraph g = this.graph;
+        Scratch s = scratchFor(g);
+        return evaluate(g, s, g.collect(state, s.initial));
+    }
+
+    /** Retourne les tampons du thread courant, alloués à la taille du graphe. */
+    private Scratch scratchFor(FactGraph g) {
+        if (g == null) {
+            throw new IllegalStateException("Heuristic not bound to a codec");
+        }
+        Scratch s = this.scratch.get();
+        if (s == null || s.graph != g) {
+            s = new Scratch(g);
+            this.scratch.set(s);
+        }
+        return s;
+    }
+
+    /** Calcule LM-cut pour l'état dont les faits sont rangés dans les tampons. */
+    private static float evaluate(FactGraph g, Scratch s, int nbInitial) {
+        if (g.unreachableGoal) {
+            return Float.POSITIVE_INFINITY;
+        }
+        System.arraycopy(g.actionCost, 0, s.remaining, 0, g.nbActions);
+        computeHmax(g, s, nbInitial);
+        int goalCost = goalCost(g, s);
+        if (goalCost == INFINITE) {
+            return Float.POSITIVE_INFINITY;
+        }
+        long h = 0;
+        while (goalCost > 0) {
+            s.nextStamp();
+            markGoalZone(g, s);
+            int nbCut = findCut(g, s, nbInitial);
+            int min = INFINITE;
+            for (int i = 0; i < nbCut; i++) {
+                min = Math.min(min, s.remaining[s.cut[i]]);
+            }
+            h += min;
+            for (int i = 0; i < nbCut; i++) {
+                s.remaining[s.cut[i]] -= min;
+            }
+            updateHmax(g, s, nbCut);
+            goalCost = goalCost(g, s);
+        }
+        return h;
+    }
+
+    /**
+     * Calcule h_max depuis l'état avec les coûts restants des actions : coût de chaque
+     * fait, et coût et support de chaque action atteignable.
+     */
+    private static void computeHmax(FactGraph g, Scratch s, int nbInitial) {
+        Arrays.fill(s.cost, INFINITE);
+        Arrays.fill(s.actCost, INFINITE);
+        System.arraycopy(g.nbPre, 0, s.counter, 0, g.nbActions);
+        FactQueue queue = s.queue;
+        queue.clear();
+        for (int i = 0; i < nbInitial; i++) {
+            s.cost[s.initial[i]] = 0;
+            queue.push(s.initial[i], 0);
+        }
+        for (int a : g.noPrecondition) {
+            s.actCost[a] = 0;
+            s.supporter[a] = -1;
+            relax(g, s, a);
+        }
+        while (!queue.isEmpty()) {
+            long top = queue.pop();
+            int fact = FactQueue.fact(top);
+            int c = FactQueue.cost(top);
+            if (c > s.cost[fact]) {
+                continue;
+            }
+            for (int k = g.preOfStart[fact]; k < g.preOfStart[fact + 1]; k++) {
+                int a = g.preOf[k];
+                // les faits sortent par coût croissant : la dernière précondition est la plus chère
+                if (--s.counter[a] == 0) {
+                    s.actCost[a] = c;
+                    s.supporter[a] = fact;
+                    relax(g, s, a);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remet h_max à jour après la baisse du coût des actions coupées : les coûts ne font
+     * que diminuer, et seuls les faits concernés et les actions dont ils sont le support
+     * sont recalculés.
+     */
+    private static void updateHmax(FactGraph g, Scratch s, int nbCut) {
+        FactQueue queue = s.queue;
+        queue.clear();
+        for (int i = 0; i < nbCut; i++) {
+            relax(g, s, s.cut[i]);
+        }
+        while (!queue.isEmpty()) {
+            long top = queue.pop();
+            int fact = FactQueue.fact(top);
+            if (FactQueue.cost(top) > s.cost[fact]) {
+                continue;
+            }
+            for (int k = g.preOfStart[fact]; k < g.preOfStart[fact + 1]; k++) {
+                int a = g.preOf[k];
+                if (s.supporter[a] != fact) {
+                    continue;
+                }
+                int max = -1;
+                int support = -1;
+                for (int p = g.preStart[a]; p < g.preStart[a + 1]; p++) {
+                    if (s.cost[g.pre[p]] > max) {
+                        max = s.cost[g.pre[p]];
+                        support = g.pre[p];
+                    }
+                }
+                s.supporter[a] = support;
+                if (max < s.actCost[a]) {
+                    s.actCost[a] = max;
+                    relax(g, s, a);
+                }
+            }
+        }
+    }
+
+    /** Abaisse le coût des effets d'une action atteignable, si son coût les améliore. */
+    private static void relax(FactGraph g, Scratch s, int a) {
+        int c = s.actCost[a] + s.remaining[a];
+        for (int k = g.effStart[a]; k < g.effStart[a + 1]; k++) {
+            int fact = g.eff[k];
+            if (c < s.cost[fact]) {
+                s.cost[fact] = c;
+                s.queue.push(fact, c);
+            }
+        }
+    }
+
+    /** Retourne h_max du but et range dans {@code goalSupporter} son fait le plus cher. */
+    private static int goalCost(FactGraph g, Scratch s) {
+        int max = 0;
+        s.goalSupporter = -1;
+        for (int fact : g.goalFacts) {
+            if (s.cost[fact] > max || s.goalSupporter < 0) {
+                max = s.cost[fact];
+                s.goalSupporter = fact;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Marque la zone du but : le support du but, puis les supports des actions de coût
+     * restant nul qui produisent un fait de la zone.
+     */
+    private static void markGoalZone(FactGraph g, Scratch s) {
+        int stamp = s.stamp;
+        int top = 0;
+        s.zone[s.goalSupporter] = stamp;
+        s.stack[top++] = s.goalSupporter;
+        while (top > 0) {
+            int fact = s.stack[--top];
+            for (int k = g.achieverStart[fact]; k < g.achieverStart[fact + 1]; k++) {
+                int a = g.achievers[k];
+                int support = s.supporter[a];
+                if (s.remaining[a] == 0 && s.actCost[a] != INFINITE && support >= 0 && s.zone[support] != stamp) {
+                    s.zone[support] = stamp;
+                    s.stack[top++] = support;
+                }
+            }
+        }
+    }
+
+    /**
+     * Parcourt les faits atteignables depuis l'état, en suivant les actions par leur
+     * support et sans entrer dans la zone du but, et range dans {@code cut} les actions
+     * qui y entrent.
+     *
+     * @return le nombre d'actions de la coupe
+     */
+    private static int findCut(FactGraph g, Scratch s, int nbInitial) {
+        int stamp = s.stamp;
+        int nbCut = 0;
+        s.top = 0;
+        for (int i = 0; i < nbInitial; i++) {
+            s.reached[s.initial[i]] = stamp;
+            s.stack[s.top++] = s.initial[i];
+        }
+        for (int a : g.noPrecondition) {
+            if (expand(g, s, a)) {
+                s.cut[nbCut++] = a;
+            }
+        }
+        while (s.top > 0) {
+            int fact = s.stack[--s.top];
+            for (int k = g.preOfStart[fact]; k < g.preOfStart[fact + 1]; k++) {
+                int a = g.preOf[k];
+                if (s.supporter[a] == fact && s.actCost[a] != INFINITE && expand(g, s, a)) {
+                    s.cut[nbCut++] = a;
+                }
+            }
+        }
+        return nbCut;
+    }
+
+    /**
+     * Suit une action dont le support est atteint : si un de ses effets est dans la zone du
+     * but, elle appartient à la coupe ; sinon ses effets sont atteints à leur tour.
+     *
+     * @return vrai si l'action appartient à la coupe
+     */
+    private static boolean expand(FactGraph g, Scratch s, int a) {
+        int stamp = s.stamp;
+        for (int k = g.effStart[a]; k < g.effStart[a + 1]; k++) {
+            if (s.zone[g.eff[k]] == stamp) {
+                return true;
+            }
+        }
+        for (int k = g.effStart[a]; k < g.effStart[a + 1]; k++) {
+            int fact = g.eff[k];
+            if (s.reached[fact] != stamp) {
+                s.reached[fact] = stamp;
+                s.stack[s.top++] = fact;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tampons d'une évaluation, réutilisés d'un état à l'autre. Les marques de zone et
+     * d'atteinte ne sont jamais remises à zéro : une marque n'est valide que si elle vaut
+     * la date de la coupe courante.
+     */
+    private static final class Scratch {
+        final FactGraph graph;
+        int stamp;
+
+        /** h_max de chaque fait, et marques de la zone du but et du parcours avant. */
+        final int[] cost;
+        final int[] zone;
+        final int[] reached;
+
+        /** Coût restant, h_max des préconditions, support et préconditions manquantes de chaque action. */
+        final int[] remaining;
+        final int[] actCost;
+        final int[] supporter;
+        final int[] counter;
+
+        /** Faits de l'état évalué, pile des parcours et sa hauteur, et actions de la coupe. */
+        final int[] initial;
+        final int[] stack;
+        int top;
+        final int[] cut;
+
+        /** Fait le plus cher du but. */
+        int goalSupporter;
+
+        /** File de priorité du calcul de h_max. */
+        final FactQueue queue = new FactQueue();
+
+        Scratch(FactGraph graph) {
+            this.graph = graph;
+            this.cost = new int[graph.nbFacts];
+            this.zone = new int[graph.nbFacts];
+            this.reached = new int[graph.nbFacts];
+            this.remaining = new int[graph.nbActions];
+            this.actCost = new int[graph.nbActions];
+            this.supporter = new int[graph.nbActions];
+            this.counter = new int[graph.nbActions];
+            this.initial = new int[graph.nbVariables];
+            this.stack = new int[graph.nbFacts];
+            this.cut = new int[graph.nbActions];
+        }
+
+        void nextStamp() {
+            if (++this.stamp == Integer.MAX_VALUE) {
+                Arrays.fill(this.zone, 0);
+                Arrays.fill(this.reached, 0);
+                this.stamp = 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package planning;
+
+/**
+ * Liste ouverte d'un planificateur à coûts : une file de priorité sur des noeuds
+ * identifiés par des entiers, où chaque noeud est présent au plus une fois.
+ * <p>
+ * Quand un meilleur chemin vers un noeud déjà présent est trouvé, sa priorité est
+ * mise à jour sur place (diminution de clé) au lieu d'ajouter une seconde entrée.
+ * À priorité égale, le coût {@code g} du noeud peut servir à départager.
+ * </p>
+ */
+public interface OpenList {
+
+    /**
+     * Insère un noeud, ou met à jour sa priorité s'il est déjà dans la liste.
+     *
+     * @param node l'identifiant du noeud (entier positif ou nul)
+     * @param priority la priorité (plus petite = extraite en premier)
+     * @param g le coût du chemin menant au noeud
+     */
+    void insertOrUpdate(int node, double priority, int g);
+
+    /**
+     * Retire et retourne le noeud de plus petite priorité.
+     *
+     * @return l'identifiant du noeud
+     * @throws java.util.NoSuchElementException si la liste est vide
+     */
+    int poll();
+
+    /**
+     * Retourne la priorité du prochain noeud extrait, sans le retirer. Pour une liste
+     * qui arrondit les priorités, c'est une borne inférieure de la vraie priorité.
+     *
+     * @return la plus petite priorité de la liste
+     * @throws java.util.NoSuchElementException si la liste est vide
+     */
+    double peekPriority();
+
+    /**
+     * Vérifie si un noeud est dans la liste.
+     *
+     * @param node l'identifiant du noeud
+     * @return vrai si le noeud est présent
+     */
+    boolean contains(int node);
+
+    /**
+     * Retourne le nombre de noeuds dans la liste.
+     *
+     * @return la taille de la liste
+     */
+    int size();
+
+    /**
+     * Vérifie si la liste est vide.
+     *
+     * @return vrai si la liste est vide
+     */
+    boolean isEmpty();
+
+    /**
+     * Vide la liste pour une nouvelle recherche.
+     */
+    void clear();
+}
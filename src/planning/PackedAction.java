@@ -0,0 +1,302 @@
+package planning;
+import modelling.Variable;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Action compilée par un {@link StateCodec} pour opérer directement sur des
+ * {@link PackedState}.
+ * <p>
+ * Pour une action qui expose ses préconditions et ses effets (comme une
+ * {@link BasicAction}), ceux-ci sont traduits en masques de bits : le test
+ * d'applicabilité et le calcul du successeur se font mot par mot, sans aucune map.
+ * Les autres actions passent par le décodage de l'état.
+ * </p>
+ */
+public class PackedAction {
+
+    /** L'action d'origine. */
+    private final Action action;
+
+    /** Le codec ayant compilé l'action. */
+    private final StateCodec codec;
+
+    /** Masques et valeurs des préconditions ({@code null} si l'action n'expose pas ses préconditions et ses effets). */
+    private final long[] preMask;
+    private final long[] preValue;
+
+    /** Masques et valeurs des effets. */
+    private final long[] effMask;
+    private final long[] effValue;
+
+    /** Indices des variables et des valeurs des préconditions, dans l'ordre des variables. */
+    private final int[] preVars;
+    private final int[] preValues;
+
+    /** Indices des variables et des valeurs des effets, dans l'ordre des variables. */
+    private final int[] effVars;
+    private final int[] effValues;
+
+    /** Vrai si une précondition ne peut jamais être satisfaite. */
+    private final boolean impossible;
+
+    /** Rang de l'action dans la liste compilée par {@link StateCodec#compileAll} (-1 hors liste). */
+    private final int ordinal;
+
+    /**
+     * Compile une action.
+     *
+     * @param codec le codec des états
+     * @param action l'action à compiler
+     * @param ordinal le rang de l'action dans sa liste, ou -1
+     */
+    PackedAction(StateCodec codec, Action action, int ordinal) {
+        this.action = action;
+        this.codec = codec;
+        this.ordinal = ordinal;
+        Map<Variable, Object> precondition = action.getPrecondition();
+        Map<Variable, Object> effect = action.getEffect();
+        if (precondition != null && effect != null) {
+            int nbWords = codec.getNbWords();
+            this.preMask = new long[nbWords];
+            this.preValue = new long[nbWords];
+            this.effMask = new long[nbWords];
+            this.effValue = new long[nbWords];
+            int nbPre = precondition.size();
+            this.preVars = new int[nbPre];
+            this.preValues = new int[nbPre];
+            this.impossible = !fill(precondition, this.preMask, this.preValue, this.preVars, this.preValues);
+            int nbEff = effect.size();
+            this.effVars = new int[nbEff];
+            this.effValues = new int[nbEff];
+            if (!fill(effect, this.effMask, this.effValue, this.effVars, this.effValues)) {
+                throw new IllegalArgumentException("Effect of " + action + " not encodable");
+            }
+        } else {
+            this.preMask = null;
+            this.preValue = null;
+            this.effMask = null;
+            this.effValue = null;
+            this.preVars = null;
+            this.preValues = null;
+            this.effVars = null;
+            this.effValues = null;
+            this.impossible = false;
+        }
+    }
+
+    private boolean fill(Map<Variable, Object> assignment, long[] mask, long[] value, int[] vars, int[] vals) {
+        int[][] pairs = new int[assignment.size()][];
+        int i = 0;
+        for (Map.Entry<Variable, Object> entry : assignment.entrySet()) {
+            int var = this.codec.indexOf(entry.getKey());
+            int val = (var < 0) ? -1 : this.codec.indexOfValue(var, entry.getValue());
+            if (val < 0) {
+                return false;
+            }
+            int w = this.codec.wordOf(var);
+            mask[w] |= this.codec.fieldMask(var);
+            value[w] |= this.codec.fieldValue(var, val);
+            pairs[i++] = new int[] { var, val };
+        }
+        Arrays.sort(pairs, (p1, p2) -> Integer.compare(p1[0], p2[0]));
+        for (i = 0; i < pairs.length; i++) {
+            vars[i] = pairs[i][0];
+            vals[i] = pairs[i][1];
+        }
+        return true;
+    }
+
+    /**
+     * Vérifie si l'action, qui expose ses préconditions et ses effets, est compilée en masques de bits.
+     *
+     * @return vrai si l'action est compilée, faux si elle passe par le décodage
+     */
+    public boolean isCompiled() {
+        return this.preMask != null;
+    }
+
+    /**
+     * Vérifie si une précondition de l'action ne peut jamais être satisfaite
+     * (variable ou valeur inconnue du codec).
+     *
+     * @return vrai si l'action n'est jamais applicable
+     */
+    public boolean isImpossible() {
+        return this.impossible;
+    }
+
+    /**
+     * Retourne les indices des variables des préconditions, triés
+     * ({@code null} pour une action non compilée). Le tableau ne doit pas être modifié.
+     *
+     * @return les indices des variables des préconditions
+     */
+    public int[] getPreconditionVariables() {
+        return this.preVars;
+    }
+
+    /**
+     * Retourne les indices des valeurs des préconditions, alignés sur
+     * {@link #getPreconditionVariables()}. Le tableau ne doit pas être modifié.
+     *
+     * @return les indices des valeurs des préconditions
+     */
+    public int[] getPreconditionValues() {
+        return this.preValues;
+    }
+
+    /**
+     * Retourne les indices des variables des effets, triés
+     * ({@code null} pour une action non compilée). Le tableau ne doit pas être modifié.
+     *
+     * @return les indices des variables des effets
+     */
+    public int[] getEffectVariables() {
+        return this.effVars;
+    }
+
+    /**
+     * Retourne les indices des valeurs des effets, alignés sur
+     * {@link #getEffectVariables()}. Le tableau ne doit pas être modifié.
+     *
+     * @return les indices des valeurs des effets
+     */
+    public int[] getEffectValues() {
+        return this.effValues;
+    }
+
+    /**
+     * Retourne le rang de l'action dans la liste compilée par {@link StateCodec#compileAll},
+     * qui permet de la mémoriser sous forme d'entier.
+     *
+     * @return le rang, ou -1 si l'action a été compilée seule
+     */
+    int getOrdinal() {
+        return this.ordinal;
+    }
+
+    /**
+     * Retourne l'action d'origine.
+     *
+     * @return l'action
+     */
+    public Action getAction() {
+        return this.action;
+    }
+
+    /**
+     * Retourne le coût de l'action.
+     *
+     * @return le coût
+     */
+    public int getCost() {
+        return this.action.getCost();
+    }
+
+    /**
+     * Vérifie si l'action est applicable dans un état compact.
+     *
+     * @param state l'état compact
+     * @return vrai si l'action est applicable
+     */
+    public boolean isApplicable(PackedState state) {
+        if (this.preMask == null) {
+            return this.action.isApplicable(this.codec.decode(state));
+        }
+        if (this.impossible) {
+            return false;
+        }
+        long[] words = state.words();
+        for (int w = 0; w < words.length; w++) {
+            if ((words[w] & this.preMask[w]) != this.preValue[w]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Calcule l'état successeur d'un état compact (l'action doit être applicable).
+     * La clé de Zobrist du successeur est obtenue à partir de celle de l'état en ne
+     * remplaçant que les clés des variables des effets.
+     *
+     * @param state l'état compact
+     * @return le nouvel état compact
+     */
+    public PackedState successor(PackedState state) {
+        if (this.effMask == null) {
+            return this.codec.encode(this.action.successor(this.codec.decode(state)));
+        }
+        long[] words = state.words();
+        long key = state.getKey();
+        for (int i = 0; i < this.effVars.length; i++) {
+            int var = this.effVars[i];
+            key ^= this.codec.zobrist(var, this.codec.get(words, var)) ^ this.codec.zobrist(var, this.effValues[i]);
+        }
+        long[] next = new long[words.length];
+        for (int w = 0; w < words.length; w++) {
+            next[w] = (words[w] & ~this.effMask[w]) | this.effValue[w];
+        }
+        return new PackedState(next, key);
+    }
+
+    /**
+     * Calcule la régression d'un état partiel par l'action : l'état partiel qu'il suffit
+     * de satisfaire pour que l'action soit applicable et que son successeur satisfasse
+     * l'état partiel donné. Les variables absentes d'un état compact ne sont pas contraintes.
+     *
+     * @param partial l'état partiel compact
+     * @return l'état partiel régressé, ou {@code null} si l'action ne produit aucune
+     *         variable de l'état partiel ou en contredit une
+     * @throws IllegalStateException si l'action n'expose pas ses préconditions et ses effets
+     */
+    public PackedState regress(PackedState partial) {
+        if (this.effMask == null) {
+            throw new IllegalStateException("Regression needs exposed preconditions and effects, got " + this.action);
+        }
+        if (this.impossible) {
+            return null;
+        }
+        long[] words = partial.words();
+        boolean relevant = false;
+        for (int i = 0; i < this.effVars.length; i++) {
+            int current = this.codec.get(words, this.effVars[i]);
+            if (current >= 0) {
+                if (current != this.effValues[i]) {
+                    return null;
+                }
+                relevant = true;
+            }
+        }
+        if (!relevant) {
+            return null;
+        }
+        for (int i = 0; i < this.preVars.length; i++) {
+            int var = this.preVars[i];
+            boolean modified = (this.effMask[this.codec.wordOf(var)] & this.codec.fieldMask(var)) != 0;
+            int current = this.codec.get(words, var);
+            if (!modified && current >= 0 && current != this.preValues[i]) {
+                return null;
+            }
+        }
+        long[] previous = words.clone();
+        long key = partial.getKey();
+        for (int i = 0; i < this.effVars.length; i++) {
+            int var = this.effVars[i];
+            key ^= this.codec.zobrist(var, this.codec.get(previous, var)) ^ this.codec.zobrist(var, -1);
+            this.codec.set(previous, var, -1);
+        }
+        for (int i = 0; i < this.preVars.length; i++) {
+            int var = this.preVars[i];
+            key ^= this.codec.zobrist(var, this.codec.get(previous, var)) ^ this.codec.zobrist(var, this.preValues[i]);
+            this.codec.set(previous, var, this.preValues[i]);
+        }
+        return new PackedState(previous, key);
+    }
+
+    @Override
+    public String toString() {
+        return this.action.toString();
+    }
+}
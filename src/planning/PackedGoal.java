@@ -0,0 +1,87 @@
+package planning;
+import modelling.Variable;
+import java.util.Map;
+
+/**
+ * But compilé par un {@link StateCodec} pour être testé directement sur des
+ * {@link PackedState}.
+ * <p>
+ * Un {@link BasicGoal} est traduit en masques de bits ; les autres buts sont
+ * testés sur l'état décodé.
+ * </p>
+ */
+public class PackedGoal {
+
+    /** Le but d'origine. */
+    private final Goal goal;
+
+    /** Le codec ayant compilé le but. */
+    private final StateCodec codec;
+
+    /** Masques et valeurs de l'instanciation ({@code null} si le but n'est pas un BasicGoal). */
+    private final long[] mask;
+    private final long[] value;
+
+    /** Vrai si le but ne peut jamais être satisfait. */
+    private boolean impossible;
+
+    /**
+     * Compile un but.
+     *
+     * @param codec le codec des états
+     * @param goal le but à compiler
+     */
+    PackedGoal(StateCodec codec, Goal goal) {
+        this.goal = goal;
+        this.codec = codec;
+        if (goal instanceof BasicGoal) {
+            this.mask = new long[codec.getNbWords()];
+            this.value = new long[codec.getNbWords()];
+            for (Map.Entry<Variable, Object> entry : ((BasicGoal) goal).getInstanciation().entrySet()) {
+                int var = codec.indexOf(entry.getKey());
+                int val = (var < 0) ? -1 : codec.indexOfValue(var, entry.getValue());
+                if (val < 0) {
+                    this.impossible = true;
+                    break;
+                }
+                int w = codec.wordOf(var);
+                this.mask[w] |= codec.fieldMask(var);
+                this.value[w] |= codec.fieldValue(var, val);
+            }
+        } else {
+            this.mask = null;
+            this.value = null;
+        }
+    }
+
+    /**
+     * Retourne le but d'origine.
+     *
+     * @return le but
+     */
+    public Goal getGoal() {
+        return this.goal;
+    }
+
+    /**
+     * Vérifie si un état compact satisfait le but.
+     *
+     * @param state l'état compact
+     * @return vrai si le but est satisfait
+     */
+    public boolean isSatisfiedBy(PackedState state) {
+        if (this.mask == null) {
+            return this.goal.isSatisfiedBy(this.codec.decode(state));
+        }
+        if (this.impossible) {
+            return false;
+        }
+        long[] words = state.words();
+        for (int w = 0; w < words.length; w++) {
+            if ((words[w] & this.mask[w]) != this.value[w]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
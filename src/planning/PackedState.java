@@ -0,0 +1,73 @@
+package planning;
+import java.util.Arrays;
+
+/**
+ * Représentation compacte d'un état, produite par un {@link StateCodec}.
+ * <p>
+ * Chaque variable occupe un petit champ de bits dans un tableau de {@code long}
+ * (un seul mot suffit pour les petits mondes).
+ * </p>
+ * <p>
+ * L'état porte aussi une clé de Zobrist sur 64 bits : le ou exclusif des clés
+ * aléatoires de chaque couple (variable, valeur). Les actions compilées la calculent
+ * à partir de celle du père en ne touchant que les variables de leurs effets. Le code
+ * de hachage en est dérivé, et l'égalité ne compare les mots que lorsque les clés
+ * sont égales.
+ * </p>
+ */
+public final class PackedState {
+
+    /** Les mots contenant les champs de bits des variables. */
+    private final long[] words;
+
+    /** Clé de Zobrist de l'état. */
+    private final long key;
+
+    /**
+     * Construit un état compact à partir de ses mots et de sa clé. Le tableau n'est pas copié.
+     *
+     * @param words les mots de l'état
+     * @param key la clé de Zobrist des mots
+     */
+    PackedState(long[] words, long key) {
+        this.words = words;
+        this.key = key;
+    }
+
+    /**
+     * Retourne la clé de Zobrist de l'état.
+     *
+     * @return la clé sur 64 bits
+     */
+    public long getKey() {
+        return this.key;
+    }
+
+    /**
+     * Retourne les mots de l'état (sans copie, à ne pas modifier).
+     *
+     * @return les mots de l'état
+     */
+    long[] words() {
+        return this.words;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof PackedState)) return false;
+        PackedState other = (PackedState) obj;
+        // comparaison complète seulement en cas de collision des clés
+        return this.key == other.key && Arrays.equals(this.words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (this.key ^ (this.key >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(this.words);
+    }
+}
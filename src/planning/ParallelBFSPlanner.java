@@ -0,0 +1,418 @@
+package planning;
+import modelling.Variable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Planificateur en largeur parallèle, synchronisé couche par couche.
+ * <p>
+ * Chaque couche de la recherche en largeur est découpée en tranches développées en
+ * parallèle dans un {@link ForkJoinPool}. Les états visités sont rangés dans une
+ * {@link SearchNodeArena}, numérotés couche après couche : une couche est un intervalle
+ * d'identifiants. Pendant le développement, la table n'est que lue ; chaque tranche
+ * écarte les successeurs déjà connus et répartit les autres, selon leur clé de Zobrist,
+ * entre des partitions de tampons de mots bruts, avec leur père et leur action.
+ * </p>
+ * <p>
+ * La fusion est elle aussi parallèle : chaque partition, traitée par une tâche, élimine
+ * ses doublons avec sa propre table, en parcourant les tranches dans l'ordre. Un même
+ * état tombe toujours dans la même partition, les survivants des partitions sont donc
+ * distincts. Leurs identifiants sont réservés d'un bloc dans la table, puis chaque
+ * partition y range ses survivants ({@link SearchNodeArena#store}, insertion par
+ * compare-and-set). Tous les états d'une couche sont à la même profondeur, le plan
+ * retourné a donc la même longueur (optimale) que celui de {@link BFSPlanner}.
+ * </p>
+ * <p>
+ * Les {@link SearchLimits} sont vérifiées dans chaque tranche tous les
+ * {@link #CHECK_INTERVAL} états développés, et après chaque couche.
+ * </p>
+ */
+public class ParallelBFSPlanner extends AbstractPlanner {
+
+    /** En dessous de cette taille, une couche est développée et fusionnée sans découpage. */
+    private static final int SEQUENTIAL_THRESHOLD = 256;
+
+    /** Nombre d'états développés par une tranche entre deux vérifications des limites. */
+    private static final int CHECK_INTERVAL = 1024;
+
+    /** Les nouveaux états d'une partition d'une tranche, avec leur père et le rang de leur action. */
+    private static final class Candidates {
+        final int nbWords;
+        long[] words;
+        long[] keys = new long[16];
+        int[] parents = new int[16];
+        int[] actions = new int[16];
+        int size;
+        /** Indice du premier état but (-1 : aucun). */
+        int goalAt = -1;
+
+        Candidates(int nbWords) {
+            this.nbWords = nbWords;
+            this.words = new long[16 * nbWords];
+        }
+
+        void add(PackedState state, int parent, int action) {
+            if (this.size == this.keys.length) {
+                int capacity = 2 * this.size;
+                this.words = Arrays.copyOf(this.words, capacity * this.nbWords);
+                this.keys = Arrays.copyOf(this.keys, capacity);
+                this.parents = Arrays.copyOf(this.parents, capacity);
+                this.actions = Arrays.copyOf(this.actions, capacity);
+            }
+            System.arraycopy(state.words(), 0, this.words, this.size * this.nbWords, this.nbWords);
+            this.keys[this.size] = state.getKey();
+            this.parents[this.size] = parent;
+            this.actions[this.size] = action;
+            this.size++;
+        }
+
+        boolean sameWords(int i, long[] other, int j) {
+            for (int w = 0; w < this.nbWords; w++) {
+                if (this.words[i * this.nbWords + w] != other[j * this.nbWords + w]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Résultat du développement d'une tranche. */
+    private static final class Chunk {
+        final Candidates[] partitions;
+        long generated;
+        long duplicates;
+        int size;
+
+        Chunk(int nbPartitions, int nbWords) {
+            this.partitions = new Candidates[nbPartitions];
+            for (int p = 0; p < nbPartitions; p++) {
+                this.partitions[p] = new Candidates(nbWords);
+            }
+        }
+    }
+
+    /**
+     * Les états distincts d'une partition d'une couche, désignés par
+     * {@code (tranche << 32) | indice}, et la position du premier but parmi eux.
+     */
+    private static final class Survivors {
+        final long[] refs;
+        final int size;
+        final int goalAt;
+        final long duplicates;
+        /** Identifiant du premier survivant dans la table. */
+        int base;
+
+        Survivors(long[] refs, int size, int goalAt, long duplicates) {
+            this.refs = refs;
+            this.size = size;
+            this.goalAt = goalAt;
+            this.duplicates = duplicates;
+        }
+    }
+
+    /** Nombre de threads de la recherche. */
+    private int parallelism;
+
+    /**
+     * Construit un planificateur en largeur parallèle utilisant tous les processeurs.
+     *
+     * @param initialState l'état initial
+     * @param actions les actions disponibles
+     * @param goal le but à atteindre
+     */
+    public ParallelBFSPlanner(Map<Variable, Object> initialState, Set<Action> actions, Goal goal) {
+        super(initialState, actions, goal);
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Construit un planificateur en largeur parallèle à partir d'un index d'actions partagé.
+     *
+     * @param initialState l'état initial
+     * @param actionIndex l'index des actions disponibles
+     * @param goal le but à atteindre
+     */
+    public ParallelBFSPlanner(Map<Variable, Object> initialState, ApplicableActionIndex actionIndex, Goal goal) {
+        super(initialState, actionIndex, goal);
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Fixe le nombre de threads de la recherche.
+     *
+     * @param parallelism le nombre de threads (au moins 1)
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Retourne le nombre de threads de la recherche.
+     *
+     * @return le nombre de threads
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Un noeud de la {@link SearchNodeArena} ; les tampons d'une couche ne vivent que
+     * jusqu'à sa fusion.
+     */
+    @Override
+    protected int getBytesPerNode() {
+        return SearchNodeArena.getBytesPerNode(getCodec());
+    }
+
+    @Override
+    protected List<Action> search() {
+        PackedGoal goal = getPackedGoal();
+        getActionIndex(); // construit l'index avant de le partager entre les threads
+        PackedState initialState = getPackedInitialState();
+        if (goal.isSatisfiedBy(initialState)) {
+            return new ArrayList<>();
+        }
+
+        SearchNodeArena nodes = new SearchNodeArena(getCodec(), getPackedActions());
+        nodes.add(initialState, 0, -1, null);
+        int nbPartitions = (this.parallelism == 1) ? 1 : this.parallelism * 4;
+        AtomicBoolean found = new AtomicBoolean();
+        AtomicReference<SearchLimits.Limit> limit = new AtomicReference<>();
+        LongAdder expanded = new LongAdder();
+        int layerStart = 0;
+        int layerEnd = 1;
+
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            while (layerStart < layerEnd) {
+                boolean parallel = layerEnd - layerStart >= SEQUENTIAL_THRESHOLD && this.parallelism > 1;
+                int layerSize = layerEnd - layerStart;
+                int nbChunks = parallel ? Math.min(this.parallelism * 4, layerSize / (SEQUENTIAL_THRESHOLD / 4)) : 1;
+                List<Callable<Chunk>> expansions = new ArrayList<>(nbChunks);
+                for (int c = 0; c < nbChunks; c++) {
+                    int from = layerStart + (int) ((long) layerSize * c / nbChunks);
+                    int to = layerStart + (int) ((long) layerSize * (c + 1) / nbChunks);
+                    expansions.add(() -> expand(nodes, from, to, nbPartitions, goal, found, limit, expanded));
+                }
+                List<Chunk> chunks = run(pool, expansions, parallel);
+                int goalNode = merge(pool, nodes, chunks, parallel);
+                countNodes((int) expanded.sumThenReset());
+                observeFrontier(nodes.size() - layerEnd, layerEnd);
+                if (goalNode >= 0) {
+                    return concretize(nodes.extractPlan(goalNode));
+                }
+                if (limit.get() != null) {
+                    throw new SearchLimitException(limit.get());
+                }
+                enforceLimits(getStats().getExpanded(), nodes.size());
+                layerStart = layerEnd;
+                layerEnd = nodes.size();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return null;
+    }
+
+    /**
+     * Exécute des tâches dans le pool, ou sur le thread appelant, et retourne leurs
+     * résultats dans l'ordre.
+     */
+    private static <T> List<T> run(ForkJoinPool pool, List<Callable<T>> tasks, boolean parallel) {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            if (!parallel) {
+                for (Callable<T> task : tasks) {
+                    results.add(task.call());
+                }
+                return results;
+            }
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SearchLimitException(SearchLimits.Limit.CANCELLED);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Parallel BFS failed", e.getCause());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Parallel BFS failed", e);
+        }
+    }
+
+    /**
+     * Développe une tranche d'une couche et retourne ses successeurs absents de la table,
+     * répartis entre les partitions. La tranche s'arrête dès qu'un but est trouvé ou
+     * qu'une limite est atteinte.
+     */
+    private Chunk expand(SearchNodeArena nodes, int from, int to, int nbPartitions, PackedGoal goal,
+                         AtomicBoolean found, AtomicReference<SearchLimits.Limit> limit, LongAdder expanded) {
+        int nbWords = getCodec().getNbWords();
+        Chunk next = new Chunk(nbPartitions, nbWords);
+        List<PackedAction> applicable = new ArrayList<>();
+        for (int id = from; id < to && !found.get() && limit.get() == null; id++) {
+            PackedState current = nodes.getState(id);
+            expanded.increment();
+            if ((id - from + 1) % CHECK_INTERVAL == 0) {
+                SearchLimits.Limit reached = checkLimits(getStats().getExpanded() + expanded.sum(), nodes.size() + next.size);
+                if (reached != null) {
+                    limit.compareAndSet(null, reached);
+                    return next;
+                }
+            }
+            applicable.clear();
+            collectApplicableActions(current, applicable);
+            for (PackedAction action : applicable) {
+                PackedState successor = replay(action, current);
+                next.generated++;
+                if (nodes.indexOf(successor) >= 0) {
+                    next.duplicates++;
+                    continue;
+                }
+                Candidates partition = next.partitions[partitionOf(successor.getKey(), nbPartitions)];
+                partition.add(successor, id, nodes.ordinalOf(action));
+                next.size++;
+                if (goal.isSatisfiedBy(successor)) {
+                    partition.goalAt = partition.size - 1;
+                    found.set(true);
+                    return next;
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Ajoute à la table les successeurs des tranches en éliminant les doublons de la
+     * couche, une tâche par partition.
+     *
+     * @return le noeud d'un état but de la couche, ou -1
+     */
+    private int merge(ForkJoinPool pool, SearchNodeArena nodes, List<Chunk> chunks, boolean parallel) {
+        int nbPartitions = chunks.get(0).partitions.length;
+        long generated = 0;
+        long duplicates = 0;
+        for (Chunk chunk : chunks) {
+            generated += chunk.generated;
+            duplicates += chunk.duplicates;
+        }
+
+        List<Callable<Survivors>> deduplications = new ArrayList<>(nbPartitions);
+        for (int p = 0; p < nbPartitions; p++) {
+            int partition = p;
+            deduplications.add(() -> deduplicate(chunks, partition));
+        }
+        List<Survivors> survivors = run(pool, deduplications, parallel);
+
+        int total = 0;
+        for (Survivors partition : survivors) {
+            duplicates += partition.duplicates;
+            total += partition.size;
+        }
+        int base = nodes.reserve(total);
+        for (Survivors partition : survivors) {
+            partition.base = base;
+            base += partition.size;
+        }
+
+        List<Callable<Void>> stores = new ArrayList<>(nbPartitions);
+        for (int p = 0; p < nbPartitions; p++) {
+            int partition = p;
+            stores.add(() -> {
+                store(nodes, chunks, partition, survivors.get(partition));
+                return null;
+            });
+        }
+        run(pool, stores, parallel);
+
+        countGenerated(generated);
+        countDuplicates(duplicates);
+        for (Survivors partition : survivors) {
+            if (partition.goalAt >= 0) {
+                return partition.base + partition.goalAt;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Élimine les doublons d'une partition de la couche, en parcourant les tranches dans
+     * l'ordre : la première occurrence d'un état est gardée.
+     */
+    private static Survivors deduplicate(List<Chunk> chunks, int partition) {
+        int total = 0;
+        for (Chunk chunk : chunks) {
+            total += chunk.partitions[partition].size;
+        }
+        long[] refs = new long[total];
+        // indices des survivants plus 1 (0 : case vide), au plus à moitié pleine
+        int[] table = new int[Integer.highestOneBit(Math.max(1, 2 * total - 1)) << 1];
+        int mask = table.length - 1;
+        int size = 0;
+        int goalAt = -1;
+        long duplicates = 0;
+        for (int c = 0; c < chunks.size(); c++) {
+            Candidates candidates = chunks.get(c).partitions[partition];
+            for (int i = 0; i < candidates.size; i++) {
+                long key = candidates.keys[i];
+                int survivor = -1;
+                int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 33) & mask;
+                for (; table[slot] != 0; slot = (slot + 1) & mask) {
+                    long ref = refs[table[slot] - 1];
+                    Candidates other = chunks.get((int) (ref >>> 32)).partitions[partition];
+                    int j = (int) ref;
+                    if (other.keys[j] == key && candidates.sameWords(i, other.words, j)) {
+                        survivor = table[slot] - 1;
+                        break;
+                    }
+                }
+                if (survivor >= 0) {
+                    duplicates++;
+                } else {
+                    survivor = size;
+                    refs[size++] = ((long) c << 32) | i;
+                    table[slot] = size;
+                }
+                if (i == candidates.goalAt && goalAt < 0) {
+                    goalAt = survivor;
+                }
+            }
+        }
+        return new Survivors(refs, size, goalAt, duplicates);
+    }
+
+    /**
+     * Range dans la table les survivants d'une partition, aux identifiants réservés.
+     */
+    private static void store(SearchNodeArena nodes, List<Chunk> chunks, int partition, Survivors survivors) {
+        for (int s = 0; s < survivors.size; s++) {
+            long ref = survivors.refs[s];
+            Candidates candidates = chunks.get((int) (ref >>> 32)).partitions[partition];
+            int i = (int) ref;
+            int parent = candidates.parents[i];
+            nodes.store(survivors.base + s, candidates.words, i * candidates.nbWords, candidates.keys[i],
+                        nodes.getCost(parent) + 1, parent, candidates.actions[i]);
+        }
+    }
+
+    /**
+     * Retourne la partition d'un état, tirée de bits de sa clé indépendants de ceux qui
+     * choisissent sa case dans la table.
+     */
+    private static int partitionOf(long key, int nbPartitions) {
+        return (int) (((key * 0xD6E8FEB86659FD93L) >>> 33) % nbPartitions);
+    }
+}
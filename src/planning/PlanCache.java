@@ -0,0 +1,310 @@
+package planning;
+import modelling.Variable;
+import java.util.*;
+
+/**
+ * Cache de plans placé devant n'importe quel {@link Planner} d'un même ensemble d'actions.
+ * <p>
+ * Une requête est identifiée par une clé canonique de son état initial et de son but :
+ * l'égalité et le hachage des affectations ne dépendent pas de l'ordre des variables, et
+ * un {@link BasicGoal} est identifié par son instanciation (les autres buts par leur
+ * identité). Une requête déjà posée est servie sans recherche, qu'elle ait un plan ou
+ * non. Une requête dont l'état initial est traversé par un plan en cache vers le même but
+ * est servie par la fin de ce plan : la fin d'un plan optimal est optimale depuis l'état
+ * traversé.
+ * </p>
+ * <p>
+ * Le nombre de requêtes retenues est borné. Au-delà, l'entrée la moins récemment servie
+ * ({@link Eviction#LRU}) ou la moins souvent servie, la plus ancienne en cas d'égalité
+ * ({@link Eviction#LFU}), est évincée avec les états qu'elle traverse. Les compteurs de
+ * succès, de succès par suffixe, d'échecs et d'évictions mesurent l'efficacité du cache.
+ * </p>
+ * <p>
+ * Le cache est partagé entre threads ; la recherche d'un échec se fait hors du verrou, si
+ * bien que deux échecs simultanés sur la même requête la résolvent deux fois.
+ * </p>
+ */
+public class PlanCache {
+
+    /** Politique d'éviction. */
+    public enum Eviction {
+        /** Évince l'entrée la moins récemment servie. */
+        LRU,
+        /** Évince l'entrée la moins souvent servie. */
+        LFU
+    }
+
+    /** Les actions des planificateurs servis. */
+    private final Set<Action> actions;
+
+    /** Nombre maximal d'entrées. */
+    private final int capacity;
+
+    /** La politique d'éviction. */
+    private final Eviction eviction;
+
+    /** Les entrées, par clé de requête. */
+    private final Map<Key, Entry> entries = new HashMap<>();
+
+    /** Les états traversés par les plans en cache, par clé (état, but). */
+    private final Map<Key, Suffix> suffixes = new HashMap<>();
+
+    /** Les entrées dans l'ordre d'éviction : la première est évincée. */
+    private final TreeSet<Entry> order;
+
+    /** Horloge des accès. */
+    private long tick;
+
+    /** Compteurs de succès, de succès par suffixe, d'échecs et d'évictions. */
+    private long hits;
+    private long suffixHits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Construit un cache vide.
+     *
+     * @param actions les actions des planificateurs servis
+     * @param capacity le nombre maximal de requêtes retenues
+     * @param eviction la politique d'éviction
+     * @throws IllegalArgumentException si la capacité n'est pas strictement positive
+     */
+    public PlanCache(Set<Action> actions, int capacity, Eviction eviction) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Plan cache needs a positive capacity, got " + capacity);
+        }
+        this.actions = actions;
+        this.capacity = capacity;
+        this.eviction = eviction;
+        Comparator<Entry> recency = Comparator.comparingLong(entry -> entry.tick);
+        this.order = new TreeSet<>((eviction == Eviction.LFU)
+                ? Comparator.<Entry>comparingLong(entry -> entry.frequency).thenComparing(recency)
+                : recency);
+    }
+
+    /**
+     * Retourne le plan de la requête d'un planificateur : depuis le cache si la requête,
+     * ou un plan en cache traversant son état initial vers le même but, y est ; sinon le
+     * plan calculé par le planificateur, qui est alors retenu.
+     *
+     * @param planner le planificateur de la requête
+     * @return une copie du plan, ou {@code null} si la requête n'a pas de plan
+     * @throws IllegalArgumentException si le planificateur n'utilise pas les actions du cache
+     */
+    public List<Action> plan(Planner planner) {
+        if (planner.getActions() != this.actions && !planner.getActions().equals(this.actions)) {
+            throw new IllegalArgumentException("Planner actions differ from the cached action set");
+        }
+        Key key = new Key(planner.getInitialState(), planner.getGoal());
+        synchronized (this) {
+            Entry entry = this.entries.get(key);
+            if (entry != null) {
+                this.hits++;
+                touch(entry);
+                return (entry.plan == null) ? null : new ArrayList<>(entry.plan);
+            }
+            Suffix suffix = this.suffixes.get(key);
+            if (suffix != null) {
+                this.suffixHits++;
+                touch(suffix.entry);
+                return new ArrayList<>(suffix.entry.plan.subList(suffix.offset, suffix.entry.plan.size()));
+            }
+            this.misses++;
+        }
+        List<Action> plan = planner.plan();
+        List<Key> through = (plan == null) ? List.of() : statesThrough(planner.getInitialState(), plan, key.goal);
+        synchronized (this) {
+            if (!this.entries.containsKey(key)) {
+                insert(new Entry(key, (plan == null) ? null : new ArrayList<>(plan), through));
+            }
+        }
+        return plan;
+    }
+
+    /** Calcule les clés des états traversés par un plan après son état initial, but inclus. */
+    private static List<Key> statesThrough(Map<Variable, Object> initialState, List<Action> plan, Object goal) {
+        List<Key> through = new ArrayList<>(plan.size());
+        Map<Variable, Object> state = initialState;
+        for (Action action : plan) {
+            state = action.successor(state);
+            through.add(new Key(state, goal));
+        }
+        return through;
+    }
+
+    /** Retire une entrée de l'ordre d'éviction et l'y replace après un accès. */
+    private void touch(Entry entry) {
+        this.order.remove(entry);
+        entry.frequency++;
+        entry.tick = ++this.tick;
+        this.order.add(entry);
+    }
+
+    /** Ajoute une entrée, en évinçant d'abord si le cache est plein. */
+    private void insert(Entry entry) {
+        while (this.entries.size() >= this.capacity) {
+            evict(this.order.first());
+        }
+        entry.tick = ++this.tick;
+        this.entries.put(entry.key, entry);
+        this.order.add(entry);
+        for (int i = 0; i < entry.through.size(); i++) {
+            this.suffixes.putIfAbsent(entry.through.get(i), new Suffix(entry, i + 1));
+        }
+    }
+
+    private void evict(Entry entry) {
+        this.order.remove(entry);
+        this.entries.remove(entry.key);
+        for (Key state : entry.through) {
+            Suffix suffix = this.suffixes.get(state);
+            if (suffix != null && suffix.entry == entry) {
+                this.suffixes.remove(state);
+            }
+        }
+        this.evictions++;
+    }
+
+    /** Vide le cache ; les compteurs sont conservés. */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.suffixes.clear();
+        this.order.clear();
+    }
+
+    /**
+     * Retourne le nombre de requêtes retenues.
+     *
+     * @return le nombre d'entrées
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Retourne le nombre maximal de requêtes retenues.
+     *
+     * @return la capacité
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Retourne la politique d'éviction.
+     *
+     * @return la politique d'éviction
+     */
+    public Eviction getEviction() {
+        return this.eviction;
+    }
+
+    /**
+     * Retourne le nombre de requêtes servies par une entrée du cache.
+     *
+     * @return le nombre de succès
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * Retourne le nombre de requêtes servies par la fin d'un plan en cache.
+     *
+     * @return le nombre de succès par suffixe
+     */
+    public synchronized long getSuffixHits() {
+        return this.suffixHits;
+    }
+
+    /**
+     * Retourne le nombre de requêtes transmises au planificateur.
+     *
+     * @return le nombre d'échecs
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Retourne le nombre d'entrées évincées.
+     *
+     * @return le nombre d'évictions
+     */
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    /**
+     * Retourne la part des requêtes servies sans recherche, par une entrée ou un suffixe.
+     *
+     * @return le taux de succès, entre 0 et 1 (0 si aucune requête n'a été posée)
+     */
+    public synchronized double getHitRatio() {
+        long total = this.hits + this.suffixHits + this.misses;
+        return (total == 0) ? 0 : (double) (this.hits + this.suffixHits) / total;
+    }
+
+    /**
+     * Clé canonique d'une requête : une copie de l'état, et l'instanciation d'un
+     * {@link BasicGoal} ou le but lui-même.
+     */
+    private static final class Key {
+        final Map<Variable, Object> state;
+        final Object goal;
+        final int hash;
+
+        Key(Map<Variable, Object> state, Goal goal) {
+            this(state, (goal instanceof BasicGoal) ? new HashMap<>(((BasicGoal) goal).getInstanciation()) : goal);
+        }
+
+        Key(Map<Variable, Object> state, Object goal) {
+            this.state = new HashMap<>(state);
+            this.goal = goal;
+            this.hash = 31 * this.state.hashCode() + goal.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return this.hash == other.hash && this.state.equals(other.state) && this.goal.equals(other.goal);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    /** Une requête retenue, son plan et les états qu'il traverse. */
+    private static final class Entry {
+        final Key key;
+        final List<Action> plan;
+        final List<Key> through;
+        long frequency;
+        long tick;
+
+        Entry(Key key, List<Action> plan, List<Key> through) {
+            this.key = key;
+            this.plan = plan;
+            this.through = through;
+        }
+    }
+
+    /** Un état traversé par le plan d'une entrée, après {@code offset} actions. */
+    private static final class Suffix {
+        final Entry entry;
+        final int offset;
+
+        Suffix(Entry entry, int offset) {
+            this.entry = entry;
+            this.offset = offset;
+        }
+    }
+}
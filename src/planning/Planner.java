@@ -5,7 +5,23 @@ import java.util.List;
 import java.util.Set;
 public interface Planner{
     List<Action> plan();
+
+    /**
+     * Cherche un plan et retourne l'issue de la recherche : un plan, l'espace de recherche
+     * épuisé, ou une limite atteinte avec les statistiques partielles.
+     *
+     * @return l'issue de la recherche
+     */
+    SearchOutcome solve();
+
     Map<Variable, Object> getInitialState();
     Set<Action> getActions();
     Goal getGoal();
+
+    /**
+     * Retourne les statistiques de la dernière recherche, ou de la recherche en cours.
+     *
+     * @return les statistiques
+     */
+    PlannerStats getStats();
 }
\ No newline at end of file
@@ -0,0 +1,269 @@
+package planning;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistiques d'une exécution de {@link Planner#plan()}, remplies par le planificateur
+ * pendant la recherche et lisibles pendant celle-ci (par un {@link ProgressListener}) ou
+ * après.
+ * <p>
+ * Un noeud est développé quand ses successeurs sont calculés, et chaque successeur calculé
+ * est un noeud généré ; un doublon est un successeur écarté parce que son état était déjà
+ * connu avec un coût au moins aussi bon (les recherches en profondeur sans mémoire ne
+ * détectent que les doublons du chemin courant). Les tailles maximales des listes ouverte
+ * et fermée sont relevées par le planificateur à chaque développement, ou à chaque couche
+ * et à la fin pour les recherches parallèles. Les octets par noeud sont une estimation :
+ * la taille d'un {@link PackedState} pour le codec du problème, plus la structure propre au
+ * planificateur.
+ * </p>
+ * <p>
+ * Le temps passé dans l'heuristique est estimé en mesurant une évaluation sur
+ * {@link #HEURISTIC_SAMPLING} : mesurer chaque évaluation coûterait autant que les
+ * heuristiques incrémentales les plus rapides. Les compteurs alimentés par plusieurs
+ * threads sont des {@link LongAdder} ; le thread de la recherche compte dans des champs
+ * du planificateur et y reporte ses totaux à chaque vérification des limites, les
+ * statistiques lues pendant la recherche peuvent donc retarder d'un millier de noeuds.
+ * </p>
+ */
+public class PlannerStats {
+
+    /** Une évaluation de l'heuristique sur {@code HEURISTIC_SAMPLING} est chronométrée. */
+    public static final int HEURISTIC_SAMPLING = 16;
+
+    /** Observateur périodique d'une recherche. */
+    @FunctionalInterface
+    public interface ProgressListener {
+        /**
+         * Appelé depuis le thread de la recherche, au plus une fois par période.
+         *
+         * @param stats les statistiques de la recherche en cours
+         */
+        void onProgress(PlannerStats stats);
+    }
+
+    /** Nom du planificateur. */
+    private final String planner;
+
+    /** Noeuds développés et générés, doublons. */
+    private final LongAdder expanded = new LongAdder();
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    /** Tailles maximales des listes ouverte et fermée. */
+    private volatile long peakOpen;
+    private volatile long peakClosed;
+
+    /** Estimation de la mémoire d'un noeud stocké, en octets. */
+    private volatile int bytesPerNode;
+
+    /** Évaluations de l'heuristique, et estimation de leur durée totale. */
+    private final LongAdder heuristicEvaluations = new LongAdder();
+    private final LongAdder heuristicNanos = new LongAdder();
+
+    /** Début, première solution et fin de la recherche ({@code System.nanoTime()}, -1 si non atteints). */
+    private final long start;
+    private volatile long firstSolution = -1;
+    private volatile long end = -1;
+
+    /** Longueur du plan retourné (-1 sans plan ou pendant la recherche). */
+    private volatile int planLength = -1;
+
+    PlannerStats(String planner, int bytesPerNode) {
+        this.planner = planner;
+        this.bytesPerNode = bytesPerNode;
+        this.start = System.nanoTime();
+    }
+
+    void addExpanded(long count) {
+        this.expanded.add(count);
+    }
+
+    void addGenerated(long count) {
+        this.generated.add(count);
+    }
+
+    void addDuplicates(long count) {
+        this.duplicates.add(count);
+    }
+
+    void observeFrontier(long open, long closed) {
+        if (open > this.peakOpen) {
+            this.peakOpen = open;
+        }
+        if (closed > this.peakClosed) {
+            this.peakClosed = closed;
+        }
+    }
+
+    void setBytesPerNode(int bytes) {
+        this.bytesPerNode = bytes;
+    }
+
+    void addHeuristicEvaluations(long count) {
+        this.heuristicEvaluations.add(count);
+    }
+
+    void addSampledHeuristicTime(long nanos) {
+        this.heuristicNanos.add(nanos * HEURISTIC_SAMPLING);
+    }
+
+    void solutionFound() {
+        if (this.firstSolution < 0) {
+            this.firstSolution = System.nanoTime();
+        }
+    }
+
+    void finish(List<Action> plan) {
+        if (plan != null) {
+            solutionFound();
+            this.planLength = plan.size();
+        }
+        this.end = System.nanoTime();
+    }
+
+    /**
+     * Retourne le nom du planificateur.
+     *
+     * @return le nom simple de sa classe
+     */
+    public String getPlanner() {
+        return this.planner;
+    }
+
+    /**
+     * Retourne le nombre de noeuds développés, c'est-à-dire dont les successeurs ont été
+     * calculés. Une recherche itérative compte de nouveau les noeuds de chaque itération.
+     *
+     * @return le nombre de noeuds développés
+     */
+    public long getExpanded() {
+        return this.expanded.sum();
+    }
+
+    /**
+     * Retourne le nombre de successeurs calculés, doublons compris.
+     *
+     * @return le nombre de noeuds générés
+     */
+    public long getGenerated() {
+        return this.generated.sum();
+    }
+
+    /**
+     * Retourne le nombre de successeurs écartés parce que leur état était déjà connu avec un
+     * coût au moins aussi bon. Pour les recherches en profondeur sans mémoire, ce sont les
+     * successeurs écartés par la détection de cycles sur le chemin courant.
+     *
+     * @return le nombre de doublons
+     */
+    public long getDuplicates() {
+        return this.duplicates.sum();
+    }
+
+    /**
+     * Retourne la plus grande taille relevée de la liste ouverte. Pour les recherches en
+     * profondeur, c'est la longueur maximale du chemin courant.
+     *
+     * @return le nombre maximal de noeuds en attente de développement
+     */
+    public long getPeakOpen() {
+        return this.peakOpen;
+    }
+
+    /**
+     * Retourne la plus grande taille relevée de la liste fermée, 0 pour les recherches sans
+     * mémoire des états visités.
+     *
+     * @return le nombre maximal de noeuds déjà développés et mémorisés
+     */
+    public long getPeakClosed() {
+        return this.peakClosed;
+    }
+
+    /**
+     * Retourne l'estimation de la mémoire d'un noeud stocké.
+     *
+     * @return les octets par noeud
+     */
+    public int getBytesPerNode() {
+        return this.bytesPerNode;
+    }
+
+    /**
+     * Retourne l'estimation de la mémoire des noeuds au plus fort de la recherche.
+     *
+     * @return les octets des noeuds des listes ouverte et fermée à leur maximum
+     */
+    public long getEstimatedPeakBytes() {
+        return (this.peakOpen + this.peakClosed) * this.bytesPerNode;
+    }
+
+    /**
+     * Retourne le nombre d'évaluations de l'heuristique demandées par le planificateur, sur
+     * tous ses threads.
+     *
+     * @return le nombre d'évaluations de l'heuristique
+     */
+    public long getHeuristicEvaluations() {
+        return this.heuristicEvaluations.sum();
+    }
+
+    /**
+     * Retourne l'estimation du temps passé dans l'heuristique.
+     *
+     * @return la durée en nanosecondes, extrapolée des évaluations chronométrées
+     */
+    public long getHeuristicNanos() {
+        return this.heuristicNanos.sum();
+    }
+
+    /**
+     * Retourne la durée de la recherche, jusqu'à maintenant si elle est en cours.
+     *
+     * @return la durée en nanosecondes
+     */
+    public long getElapsedNanos() {
+        long end = this.end;
+        return ((end < 0) ? System.nanoTime() : end) - this.start;
+    }
+
+    /**
+     * Retourne le temps écoulé jusqu'à la première solution.
+     *
+     * @return la durée en nanosecondes, ou -1 si aucune solution n'a été trouvée
+     */
+    public long getTimeToFirstSolutionNanos() {
+        long first = this.firstSolution;
+        return (first < 0) ? -1 : first - this.start;
+    }
+
+    /**
+     * Indique si la recherche est terminée.
+     *
+     * @return {@code true} après le retour de {@link Planner#plan()}
+     */
+    public boolean isFinished() {
+        return this.end >= 0;
+    }
+
+    /**
+     * Retourne la longueur du plan retourné.
+     *
+     * @return le nombre d'actions, ou -1 sans plan ou pendant la recherche
+     */
+    public int getPlanLength() {
+        return this.planLength;
+    }
+
+    @Override
+    public String toString() {
+        long elapsed = getElapsedNanos();
+        long expanded = getExpanded();
+        return String.format("%s : %d développés, %d générés, %d doublons, ouverte max %d, fermée max %d, "
+                        + "%d o/noeud, heuristique %d évaluations %d ms, première solution %s, %d ms (%.0f noeuds/s)",
+                this.planner, expanded, getGenerated(), getDuplicates(), this.peakOpen, this.peakClosed,
+                this.bytesPerNode, getHeuristicEvaluations(), getHeuristicNanos() / 1000000,
+                (this.firstSolution < 0) ? "aucune" : getTimeToFirstSolutionNanos() / 1000000 + " ms",
+                elapsed / 1000000, expanded * 1e9 / Math.max(elapsed, 1));
+    }
+}
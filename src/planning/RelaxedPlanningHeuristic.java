@@ -0,0 +1,362 @@
+package planning;
+import modelling.Variable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Heuristiques de la relaxation « sans suppressions » : h_max, h_add et la longueur
+ * du plan relaxé de FF.
+ * <p>
+ * Les actions et le but sont compilés une fois, à la liaison au codec, en un graphe de
+ * faits : un fait est une affectation (variable, valeur) et chaque action est reliée aux
+ * faits de ses préconditions et de ses effets. L'évaluation d'un état est un Dijkstra
+ * généralisé sur ce graphe : chaque fait extrait décrémente le compteur de préconditions
+ * manquantes des actions qui l'utilisent, et une action dont le compteur tombe à zéro
+ * relâche ses effets. Aucune action n'est parcourue tant qu'une de ses préconditions
+ * n'est pas atteinte, et la propagation s'arrête dès que tous les faits du but sont
+ * atteints.
+ * </p>
+ * <ul>
+ * <li>{@link Mode#MAX} : le coût d'un ensemble de faits est celui du plus cher ;
+ * l'heuristique est admissible.</li>
+ * <li>{@link Mode#ADD} : le coût d'un ensemble de faits est la somme de leurs coûts ;
+ * plus informée, mais non admissible.</li>
+ * <li>{@link Mode#FF} : coût d'un plan relaxé extrait en remontant les meilleurs
+ * supports de h_add, chaque action n'étant comptée qu'une fois ; non admissible.</li>
+ * </ul>
+ * <p>
+ * Le plan relaxé fournit aussi les actions utiles (« helpful actions ») de FF : les
+ * actions applicables qui produisent un sous-but du premier niveau du plan relaxé. Un planificateur peut
+ * les explorer en premier ou se limiter à elles ({@link #getHelpfulActions}).
+ * </p>
+ * <p>
+ * Les actions doivent exposer leurs préconditions et leurs effets et le but doit être un
+ * {@link BasicGoal}. Les tampons de l'évaluation sont propres à chaque thread : une
+ * heuristique liée peut être évaluée par plusieurs threads.
+ * </p>
+ */
+public class RelaxedPlanningHeuristic implements IncrementalHeuristic {
+
+    /** Fonction de coût de la relaxation. */
+    public enum Mode { MAX, ADD, FF }
+
+    /** Les actions du problème. */
+    private final Set<Action> actions;
+
+    /** Le but du problème. */
+    private final BasicGoal goal;
+
+    /** La fonction de coût utilisée. */
+    private final Mode mode;
+
+    /** Le graphe de faits compilé pour le codec lié ({@code null} avant la liaison). */
+    private FactGraph graph;
+
+    /** Tampons d'évaluation de chaque thread. */
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<>();
+
+    /**
+     * Construit l'heuristique.
+     *
+     * @param actions les actions du problème, qui exposent leurs préconditions et leurs effets
+     * @param goal le but, un {@link BasicGoal}
+     * @param mode la fonction de coût de la relaxation
+     * @throws IllegalArgumentException si le but n'est pas un {@link BasicGoal}
+     */
+    public RelaxedPlanningHeuristic(Set<Action> actions, Goal goal, Mode mode) {
+        if (!(goal instanceof BasicGoal)) {
+            throw new IllegalArgumentException("Relaxed planning heuristics need a BasicGoal, got " + goal);
+        }
+        this.actions = actions;
+        this.goal = (BasicGoal) goal;
+        this.mode = mode;
+    }
+
+    /**
+     * Retourne la fonction de coût de la relaxation.
+     *
+     * @return le mode de l'heuristique
+     */
+    public Mode getMode() {
+        return this.mode;
+    }
+
+    /**
+     * Compile le graphe de faits pour le codec, s'il n'y est pas déjà lié.
+     *
+     * @throws IllegalArgumentException si une action n'expose pas ses préconditions et ses effets
+     */
+    @Override
+    public void bind(StateCodec codec) {
+        FactGraph current = this.graph;
+        if (current == null || current.codec != codec) {
+            this.graph = new FactGraph(codec, this.actions, this.goal);
+        }
+    }
+
+    /**
+     * Estime le coût depuis un état décodé. Si l'heuristique n'est liée à aucun codec, elle
+     * est liée au codec du problème formé par cet état, les actions et le but ; les
+     * affectations inconnues du codec sont ignorées.
+     */
+    @Override
+    public float estimate(Map<Variable, Object> etat) {
+        if (this.graph == null) {
+            bind(StateCodec.forProblem(etat, this.actions, this.goal));
+        }
+        FactGraph g = this.graph;
+        Scratch s = scratchFor(g);
+        int n = g.collect(etat, s.initial);
+        return evaluate(g, s, n);
+    }
+
+    @Override
+    public float estimate(PackedState state) {
+        FactGraph g = this.graph;
+        Scratch s = scratchFor(g);
+        return evaluate(g, s, g.collect(state, s.initial));
+    }
+
+    /**
+     * Évalue un état et sélectionne, parmi ses actions applicables, les actions utiles :
+     * celles qui produisent un sous-but du premier niveau du plan relaxé, c'est-à-dire un
+     * sous-but faux dans l'état dont le support relaxé y est applicable.
+     * Les actions non compilées ne sont jamais sélectionnées. Si le but est inatteignable
+     * dans la relaxation, aucune action n'est sélectionnée.
+     *
+     * @param state l'état compact
+     * @param applicable les actions applicables dans l'état
+     * @param helpful la liste où ajouter les actions utiles, dans l'ordre de {@code applicable}
+     * @return l'estimation de l'état, selon le mode de l'heuristique
+     */
+    public float getHelpfulActions(PackedState state, List<PackedAction> applicable, List<PackedAction> helpful) {
+        FactGraph g = this.graph;
+        Scratch s = scratchFor(g);
+        float value = evaluate(g, s, g.collect(state, s.initial));
+        if (value == Float.POSITIVE_INFINITY) {
+            return value;
+        }
+        if (this.mode != Mode.FF) {
+            extractRelaxedPlan(g, s);
+        }
+        for (PackedAction action : applicable) {
+            if (!action.isCompiled()) {
+                continue;
+            }
+            int[] vars = action.getEffectVariables();
+            int[] values = action.getEffectValues();
+            for (int i = 0; i < vars.length; i++) {
+                int fact = g.base[vars[i]] + values[i];
+                if (s.subgoal[fact] == s.epoch && isFirstLayer(g, s, s.supporter[fact])) {
+                    helpful.add(action);
+                    break;
+                }
+            }
+        }
+        return value;
+    }
+
+    /** Vrai si le support d'un fait est une action dont toutes les préconditions sont vraies dans l'état évalué. */
+    private static boolean isFirstLayer(FactGraph g, Scratch s, int a) {
+        if (a < 0) {
+            return false;
+        }
+        for (int k = g.preStart[a]; k < g.preStart[a + 1]; k++) {
+            if (s.supporter[g.pre[k]] >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Retourne les tampons du thread courant, alloués à la taille du graphe. */
+    private Scratch scratchFor(FactGraph g) {
+        if (g == null) {
+            throw new IllegalStateException("Heuristic not bound to a codec");
+        }
+        Scratch s = this.scratch.get();
+        if (s == null || s.graph != g) {
+            s = new Scratch(g);
+            this.scratch.set(s);
+        }
+        return s;
+    }
+
+    /**
+     * Propage les coûts depuis les faits initiaux jusqu'à atteindre tous les faits du but,
+     * et renvoie l'estimation.
+     */
+    private float evaluate(FactGraph g, Scratch s, int nbInitial) {
+        if (g.unreachableGoal) {
+            return Float.POSITIVE_INFINITY;
+        }
+        s.nextEpoch();
+        int epoch = s.epoch;
+        boolean sum = this.mode != Mode.MAX;
+        s.queue.clear();
+        for (int i = 0; i < nbInitial; i++) {
+            reach(s, s.initial[i], 0, -1);
+        }
+        for (int a : g.noPrecondition) {
+            fire(g, s, a, 0);
+        }
+        int remaining = g.goalFacts.length;
+        while (remaining > 0 && !s.queue.isEmpty()) {
+            long top = s.queue.pop();
+            int fact = FactQueue.fact(top);
+            int c = FactQueue.cost(top);
+            if (s.closed[fact] == epoch || c > s.cost[fact]) {
+                continue;
+            }
+            s.closed[fact] = epoch;
+            if (g.isGoal[fact]) {
+                remaining--;
+            }
+            for (int k = g.preOfStart[fact]; k < g.preOfStart[fact + 1]; k++) {
+                int a = g.preOf[k];
+                if (s.actStamp[a] != epoch) {
+                    s.actStamp[a] = epoch;
+                    s.counter[a] = g.nbPre[a];
+                    s.actCost[a] = 0;
+                }
+                s.actCost[a] = sum ? s.actCost[a] + c : Math.max(s.actCost[a], c);
+                if (--s.counter[a] == 0) {
+                    fire(g, s, a, s.actCost[a]);
+                }
+            }
+        }
+        if (remaining > 0) {
+            return Float.POSITIVE_INFINITY;
+        }
+        switch (this.mode) {
+            case MAX: {
+                int h = 0;
+                for (int fact : g.goalFacts) {
+                    h = Math.max(h, s.cost[fact]);
+                }
+                return h;
+            }
+            case ADD: {
+                long h = 0;
+                for (int fact : g.goalFacts) {
+                    h += s.cost[fact];
+                }
+                return h;
+            }
+            default:
+                return extractRelaxedPlan(g, s);
+        }
+    }
+
+    /** Relâche les effets d'une action dont toutes les préconditions sont atteintes. */
+    private static void fire(FactGraph g, Scratch s, int a, int preCost) {
+        int c = preCost + g.actionCost[a];
+        for (int k = g.effStart[a]; k < g.effStart[a + 1]; k++) {
+            reach(s, g.eff[k], c, a);
+        }
+    }
+
+    /** Atteint un fait avec un coût, s'il améliore le coût connu. */
+    private static void reach(Scratch s, int fact, int c, int supporter) {
+        if (s.reached[fact] == s.epoch && s.cost[fact] <= c) {
+            return;
+        }
+        s.reached[fact] = s.epoch;
+        s.cost[fact] = c;
+        s.supporter[fact] = supporter;
+        s.queue.push(fact, c);
+    }
+
+    /**
+     * Extrait le plan relaxé en remontant les meilleurs supports depuis les faits du but,
+     * marque ses sous-buts et renvoie son coût. Les supports sont ceux de la propagation
+     * courante : en mode MAX, ils suivent h_max plutôt que h_add.
+     */
+    private static float extractRelaxedPlan(FactGraph g, Scratch s) {
+        int epoch = s.epoch;
+        int top = 0;
+        for (int fact : g.goalFacts) {
+            if (s.subgoal[fact] != epoch) {
+                s.subgoal[fact] = epoch;
+                s.stack[top++] = fact;
+            }
+        }
+        long h = 0;
+        while (top > 0) {
+            int fact = s.stack[--top];
+            int a = s.supporter[fact];
+            if (a < 0 || s.inPlan[a] == epoch) {
+                continue;
+            }
+            s.inPlan[a] = epoch;
+            h += g.actionCost[a];
+            for (int k = g.preStart[a]; k < g.preStart[a + 1]; k++) {
+                int pre = g.pre[k];
+                if (s.subgoal[pre] != epoch) {
+                    s.subgoal[pre] = epoch;
+                    s.stack[top++] = pre;
+                }
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Tampons d'une évaluation, réutilisés d'un état à l'autre. Les tableaux indexés par
+     * fait ou par action ne sont jamais remis à zéro : une entrée n'est valide que si son
+     * tampon de date vaut la date de l'évaluation courante.
+     */
+    private static final class Scratch {
+        final FactGraph graph;
+        int epoch;
+
+        /** Coût, meilleur support et dates d'atteinte, d'extraction et de sous-but de chaque fait. */
+        final int[] cost;
+        final int[] supporter;
+        final int[] reached;
+        final int[] closed;
+        final int[] subgoal;
+
+        /** Préconditions manquantes, coût accumulé et dates de chaque action. */
+        final int[] counter;
+        final int[] actCost;
+        final int[] actStamp;
+        final int[] inPlan;
+
+        /** Faits de l'état évalué, et pile de l'extraction du plan relaxé. */
+        final int[] initial;
+        final int[] stack;
+
+        /** File de priorité de la propagation. */
+        final FactQueue queue = new FactQueue();
+
+        Scratch(FactGraph graph) {
+            this.graph = graph;
+            int nbActions = graph.nbActions;
+            this.cost = new int[graph.nbFacts];
+            this.supporter = new int[graph.nbFacts];
+            this.reached = new int[graph.nbFacts];
+            this.closed = new int[graph.nbFacts];
+            this.subgoal = new int[graph.nbFacts];
+            this.counter = new int[nbActions];
+            this.actCost = new int[nbActions];
+            this.actStamp = new int[nbActions];
+            this.inPlan = new int[nbActions];
+            this.initial = new int[graph.nbVariables];
+            this.stack = new int[graph.nbFacts];
+        }
+
+        void nextEpoch() {
+            if (++this.epoch == Integer.MAX_VALUE) {
+                Arrays.fill(this.reached, 0);
+                Arrays.fill(this.closed, 0);
+                Arrays.fill(this.subgoal, 0);
+                Arrays.fill(this.actStamp, 0);
+                Arrays.fill(this.inPlan, 0);
+                this.epoch = 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package planning;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Événements JFR des recherches : un événement par appel de {@link Planner#plan()}, et un
+ * événement de progression à chaque période du {@link PlannerStats.ProgressListener} ou,
+ * sans observateur, à chaque période par défaut quand l'enregistrement est actif. Ils ne
+ * coûtent rien hors enregistrement.
+ */
+final class SearchEvents {
+
+    private SearchEvents() {
+    }
+
+    /** Copie les compteurs communs des statistiques dans un événement. */
+    static void fill(Counters event, PlannerStats stats) {
+        event.planner = stats.getPlanner();
+        event.expanded = stats.getExpanded();
+        event.generated = stats.getGenerated();
+        event.duplicates = stats.getDuplicates();
+        event.peakOpen = stats.getPeakOpen();
+        event.peakClosed = stats.getPeakClosed();
+        event.heuristicEvaluations = stats.getHeuristicEvaluations();
+        event.heuristicTime = stats.getHeuristicNanos();
+    }
+
+    /** Champs communs aux deux événements. */
+    abstract static class Counters extends Event {
+        @Label("Planner")
+        String planner;
+
+        @Label("Expanded Nodes")
+        long expanded;
+
+        @Label("Generated Nodes")
+        long generated;
+
+        @Label("Duplicates")
+        long duplicates;
+
+        @Label("Peak Open")
+        long peakOpen;
+
+        @Label("Peak Closed")
+        long peakClosed;
+
+        @Label("Heuristic Evaluations")
+        long heuristicEvaluations;
+
+        @Label("Heuristic Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long heuristicTime;
+    }
+
+    /** Une recherche complète. */
+    @Name("planning.Search")
+    @Label("Planning Search")
+    @Category("Planning")
+    @Description("One call of Planner.plan()")
+    static final class Search extends Counters {
+        @Label("Plan Length")
+        @Description("Number of actions of the plan, -1 without plan")
+        int planLength;
+
+        @Label("Outcome")
+        @Description("SOLVED, EXHAUSTED or LIMIT_REACHED with the limit")
+        String outcome;
+
+        @Label("Time To First Solution")
+        @Timespan(Timespan.NANOSECONDS)
+        long timeToFirstSolution;
+    }
+
+    /** Un point de progression d'une recherche en cours. */
+    @Name("planning.SearchProgress")
+    @Label("Planning Search Progress")
+    @Category("Planning")
+    @StackTrace(false)
+    static final class Progress extends Counters {
+    }
+}
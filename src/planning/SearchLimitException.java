@@ -0,0 +1,22 @@
+package planning;
+
+/**
+ * Arrêt d'une recherche sur une limite, levé au point de vérification et rattrapé par
+ * {@link AbstractPlanner#solve()}. Il n'a pas de pile d'appels : il sert au déroulement,
+ * pas au diagnostic.
+ */
+final class SearchLimitException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SearchLimits.Limit limit;
+
+    SearchLimitException(SearchLimits.Limit limit) {
+        super("Search limit reached: " + limit, null, false, false);
+        this.limit = limit;
+    }
+
+    SearchLimits.Limit getLimit() {
+        return this.limit;
+    }
+}
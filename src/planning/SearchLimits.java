@@ -0,0 +1,224 @@
+package planning;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Limites d'une recherche : délai, échéance, nombre de noeuds développés, nombre d'états
+ * mémorisés et mémoire estimée des noeuds. Une instance est immuable ; chaque méthode
+ * {@code with...} retourne une copie modifiée, à partir de {@link #NONE}.
+ * <p>
+ * Les planificateurs les respectent de façon coopérative ({@link AbstractPlanner#solve()}).
+ * Les recherches séquentielles ne développent pas un noeud de plus que la limite, et
+ * comparent les états mémorisés au budget à chaque développement ; l'horloge n'est lue
+ * que tous les {@code 1024} noeuds. Les recherches en profondeur et les recherches
+ * parallèles vérifient toutes les limites tous les {@code 1024} noeuds (par thread, sur
+ * des comptes partagés), et les recherches externes à chaque couche pour les états : elles
+ * peuvent dépasser les limites de cette marge.
+ * </p>
+ * <p>
+ * La mémoire est celle estimée par {@link PlannerStats#getBytesPerNode()} pour les états
+ * mémorisés (listes ouverte et fermée), pas la mémoire réelle du tas.
+ * </p>
+ */
+public final class SearchLimits {
+
+    /** La limite qui a arrêté une recherche. */
+    public enum Limit {
+        /** Le délai ou l'échéance est dépassé. */
+        DEADLINE,
+        /** Le nombre maximal de noeuds développés est dépassé. */
+        EXPANSIONS,
+        /** Le nombre maximal d'états mémorisés est dépassé. */
+        STATES,
+        /** La mémoire maximale estimée des noeuds est dépassée. */
+        BYTES,
+        /** La recherche a été annulée, ou son thread interrompu. */
+        CANCELLED
+    }
+
+    /** Borne des délais, pour que les échéances en nanosecondes ne débordent pas. */
+    private static final Duration FAR = Duration.ofDays(365 * 100);
+
+    /** Aucune limite. */
+    public static final SearchLimits NONE = new SearchLimits(0, null, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+    /** Délai en millisecondes depuis le début de la recherche (0 : pas de délai). */
+    private final long timeout;
+
+    /** Échéance absolue ({@code null} : pas d'échéance). */
+    private final Instant deadline;
+
+    /** Nombres maximaux de noeuds développés, d'états mémorisés et d'octets estimés. */
+    private final long maxExpansions;
+    private final long maxStates;
+    private final long maxBytes;
+
+    private SearchLimits(long timeout, Instant deadline, long maxExpansions, long maxStates, long maxBytes) {
+        this.timeout = timeout;
+        this.deadline = deadline;
+        this.maxExpansions = maxExpansions;
+        this.maxStates = maxStates;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Retourne ces limites avec un délai compté depuis le début de chaque recherche.
+     *
+     * @param millis le délai en millisecondes, ou 0 pour ne pas limiter
+     * @return les nouvelles limites
+     * @throws IllegalArgumentException si le délai est négatif ou dépasse un siècle
+     */
+    public SearchLimits withTimeout(long millis) {
+        if (millis < 0 || millis > FAR.toMillis()) {
+            throw new IllegalArgumentException("Timeout must be between 0 and " + FAR.toMillis() + " ms, got " + millis);
+        }
+        return new SearchLimits(millis, this.deadline, this.maxExpansions, this.maxStates, this.maxBytes);
+    }
+
+    /**
+     * Retourne ces limites avec une échéance absolue, commune à toutes les recherches
+     * (celle d'une requête, par exemple). Avec un délai, la plus proche des deux s'applique.
+     *
+     * @param deadline l'échéance, ou {@code null} pour ne pas limiter
+     * @return les nouvelles limites
+     */
+    public SearchLimits withDeadline(Instant deadline) {
+        return new SearchLimits(this.timeout, deadline, this.maxExpansions, this.maxStates, this.maxBytes);
+    }
+
+    /**
+     * Retourne ces limites avec un nombre maximal de noeuds développés.
+     *
+     * @param max le nombre maximal, au moins 1
+     * @return les nouvelles limites
+     * @throws IllegalArgumentException si le nombre n'est pas strictement positif
+     */
+    public SearchLimits withMaxExpansions(long max) {
+        return new SearchLimits(this.timeout, this.deadline, positive(max, "expansions"), this.maxStates, this.maxBytes);
+    }
+
+    /**
+     * Retourne ces limites avec un nombre maximal d'états mémorisés.
+     *
+     * @param max le nombre maximal, au moins 1
+     * @return les nouvelles limites
+     * @throws IllegalArgumentException si le nombre n'est pas strictement positif
+     */
+    public SearchLimits withMaxStates(long max) {
+        return new SearchLimits(this.timeout, this.deadline, this.maxExpansions, positive(max, "states"), this.maxBytes);
+    }
+
+    /**
+     * Retourne ces limites avec une mémoire maximale estimée des noeuds.
+     *
+     * @param max le nombre maximal d'octets, au moins 1
+     * @return les nouvelles limites
+     * @throws IllegalArgumentException si le nombre n'est pas strictement positif
+     */
+    public SearchLimits withMaxBytes(long max) {
+        return new SearchLimits(this.timeout, this.deadline, this.maxExpansions, this.maxStates, positive(max, "bytes"));
+    }
+
+    private static long positive(long max, String what) {
+        if (max < 1) {
+            throw new IllegalArgumentException("Max " + what + " must be positive, got " + max);
+        }
+        return max;
+    }
+
+    /**
+     * Retourne le délai compté depuis le début de chaque recherche.
+     *
+     * @return le délai en millisecondes, ou 0 s'il n'y en a pas
+     */
+    public long getTimeout() {
+        return this.timeout;
+    }
+
+    /**
+     * Retourne l'échéance absolue.
+     *
+     * @return l'échéance, ou {@code null} s'il n'y en a pas
+     */
+    public Instant getDeadline() {
+        return this.deadline;
+    }
+
+    /**
+     * Retourne le nombre maximal de noeuds développés.
+     *
+     * @return le nombre maximal, {@code Long.MAX_VALUE} sans limite
+     */
+    public long getMaxExpansions() {
+        return this.maxExpansions;
+    }
+
+    /**
+     * Retourne le nombre maximal d'états mémorisés.
+     *
+     * @return le nombre maximal, {@code Long.MAX_VALUE} sans limite
+     */
+    public long getMaxStates() {
+        return this.maxStates;
+    }
+
+    /**
+     * Retourne la mémoire maximale estimée des noeuds.
+     *
+     * @return le nombre maximal d'octets, {@code Long.MAX_VALUE} sans limite
+     */
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    /**
+     * Calcule l'échéance d'une recherche sur l'horloge de {@code System.nanoTime()}.
+     *
+     * @param start le début de la recherche ({@code System.nanoTime()})
+     * @return l'échéance, ou {@code Long.MAX_VALUE} s'il n'y en a pas
+     */
+    long deadlineNanos(long start) {
+        long end = Long.MAX_VALUE;
+        if (this.timeout > 0) {
+            end = start + Math.min(this.timeout * 1000000L, FAR.toNanos());
+        }
+        if (this.deadline != null) {
+            Duration left = Duration.between(Instant.now(), this.deadline);
+            long nanos = left.isNegative() ? 0 : left.compareTo(FAR) > 0 ? FAR.toNanos() : left.toNanos();
+            end = Math.min(end, start + nanos);
+        }
+        return end;
+    }
+
+    /**
+     * Calcule le nombre maximal d'états mémorisés qui respecte à la fois la limite d'états
+     * et celle de mémoire.
+     *
+     * @param bytesPerNode l'estimation des octets par noeud
+     * @return le nombre maximal d'états
+     */
+    long stateBudget(int bytesPerNode) {
+        return Math.min(this.maxStates, this.maxBytes / Math.max(1, bytesPerNode));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("SearchLimits[");
+        if (this.timeout > 0) {
+            text.append(" délai=").append(this.timeout).append(" ms");
+        }
+        if (this.deadline != null) {
+            text.append(" échéance=").append(this.deadline);
+        }
+        if (this.maxExpansions != Long.MAX_VALUE) {
+            text.append(" noeuds=").append(this.maxExpansions);
+        }
+        if (this.maxStates != Long.MAX_VALUE) {
+            text.append(" états=").append(this.maxStates);
+        }
+        if (this.maxBytes != Long.MAX_VALUE) {
+            text.append(" octets=").append(this.maxBytes);
+        }
+        return text.append(" ]").toString();
+    }
+}
@@ -0,0 +1,366 @@
+package planning;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+
+/**
+ * Stockage des noeuds d'une recherche en colonnes de tableaux primitifs : chaque état
+ * rencontré reçoit un identifiant entier, utilisé par l'{@link OpenList}, et ses
+ * informations sont rangées à cet indice.
+ * <p>
+ * Les mots des états sont copiés bout à bout dans un seul tableau de {@code long} (le
+ * noeud {@code i} occupe les mots {@code i * nbWords} à {@code (i + 1) * nbWords}), à côté
+ * de leurs clés de Zobrist. Le père est l'identifiant d'un autre noeud et l'action est
+ * mémorisée par son rang dans la liste des actions compilées
+ * ({@link PackedAction#getOrdinal()}) : le plan se reconstruit en suivant des entiers.
+ * Les identifiants sont retrouvés par une table à adressage ouvert qui ne contient que
+ * des entiers, sondée par la clé de Zobrist.
+ * </p>
+ * <p>
+ * Un noeud coûte ainsi une quarantaine d'octets plus ses mots, sans aucun objet : le
+ * ramasse-miettes n'a rien à parcourir dans la table, quelle que soit sa taille. Les
+ * {@link PackedState} rendus par {@link #getState(int)} sont des copies éphémères.
+ * </p>
+ * <p>
+ * La table n'est pas synchronisée ; des lectures concurrentes sont sûres tant qu'aucun
+ * noeud n'est ajouté. Seul un lot de noeuds réservé par {@link #reserve(int)} peut être
+ * rempli par plusieurs threads à la fois, par {@link #store}.
+ * </p>
+ */
+final class SearchNodeArena {
+
+    /** Accès atomique aux cases de la table des identifiants. */
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    /** Nombre initial de noeuds. */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** Nombre maximal de noeuds, pour que les index des tableaux ne débordent pas. */
+    private final int maxNodes;
+
+    /** Nombre de mots par état. */
+    private final int nbWords;
+
+    /** Les actions compilées, indexées par leur rang. */
+    private final List<PackedAction> actions;
+
+    /** Mots des états, bout à bout. */
+    private long[] words;
+
+    /** Clé de Zobrist de chaque noeud. */
+    private long[] keys;
+
+    /** Coût du meilleur chemin connu vers chaque noeud. */
+    private int[] cost;
+
+    /** Père de chaque noeud (-1 pour la racine). */
+    private int[] parent;
+
+    /** Rang de l'action ayant engendré chaque noeud (-1 pour la racine). */
+    private int[] action;
+
+    /** Table à adressage ouvert des identifiants plus 1 (0 : case vide). */
+    private int[] slots;
+
+    /** Décalage de la clé mélangée donnant la case initiale. */
+    private int shift;
+
+    /** Nombre de noeuds. */
+    private int size;
+
+    /**
+     * Construit une table vide.
+     *
+     * @param codec le codec des états
+     * @param actions les actions compilées par {@link StateCodec#compileAll}, dans leur ordre
+     */
+    SearchNodeArena(StateCodec codec, List<PackedAction> actions) {
+        this.nbWords = codec.getNbWords();
+        this.actions = actions;
+        this.maxNodes = Math.min((Integer.MAX_VALUE - 8) / Math.max(1, this.nbWords), 1 << 29);
+        this.words = new long[INITIAL_CAPACITY * this.nbWords];
+        this.keys = new long[INITIAL_CAPACITY];
+        this.cost = new int[INITIAL_CAPACITY];
+        this.parent = new int[INITIAL_CAPACITY];
+        this.action = new int[INITIAL_CAPACITY];
+        this.slots = new int[2 * INITIAL_CAPACITY];
+        this.shift = 64 - Integer.numberOfTrailingZeros(this.slots.length);
+    }
+
+    /**
+     * Estime le nombre d'octets d'un noeud : ses mots et sa clé, le coût, le père et
+     * l'action, et deux à quatre cases de la table des identifiants.
+     *
+     * @param codec le codec des états
+     * @return l'estimation en octets
+     */
+    static int getBytesPerNode(StateCodec codec) {
+        return 8 * codec.getNbWords() + 8 + 12 + 12;
+    }
+
+    /**
+     * Retourne l'identifiant d'un état.
+     *
+     * @param state l'état
+     * @return son identifiant, ou -1 s'il n'a pas encore été rencontré
+     */
+    int indexOf(PackedState state) {
+        return find(state.words(), 0, state.getKey());
+    }
+
+    /**
+     * Retourne l'identifiant d'un état donné par ses mots bruts.
+     *
+     * @param source le tableau contenant les mots
+     * @param offset l'indice du premier mot
+     * @param key la clé de Zobrist des mots
+     * @return son identifiant, ou -1 s'il n'a pas encore été rencontré
+     */
+    int find(long[] source, int offset, long key) {
+        int mask = this.slots.length - 1;
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            int id = this.slots[i] - 1;
+            if (id < 0) {
+                return -1;
+            }
+            if (this.keys[id] == key && sameWords(id, source, offset)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Ajoute un nouvel état.
+     *
+     * @param state l'état
+     * @param cost le coût du chemin qui y mène
+     * @param parent le noeud père (-1 pour la racine)
+     * @param via l'action ayant engendré l'état ({@code null} pour la racine)
+     * @return l'identifiant du nouveau noeud
+     * @throws IllegalArgumentException si l'action ne vient pas de la liste de la table
+     */
+    int add(PackedState state, int cost, int parent, PackedAction via) {
+        return append(state.words(), 0, state.getKey(), cost, parent, ordinalOf(via));
+    }
+
+    /**
+     * Ajoute un nouvel état donné par ses mots bruts, qui sont copiés.
+     *
+     * @param source le tableau contenant les mots
+     * @param offset l'indice du premier mot
+     * @param key la clé de Zobrist des mots
+     * @param cost le coût du chemin qui y mène
+     * @param parent le noeud père (-1 pour la racine)
+     * @param ordinal le rang de l'action ayant engendré l'état (-1 pour la racine)
+     * @return l'identifiant du nouveau noeud
+     * @throws IllegalStateException si la table a atteint sa taille maximale
+     */
+    int append(long[] source, int offset, long key, int cost, int parent, int ordinal) {
+        if (this.size == this.keys.length) {
+            if (this.size >= this.maxNodes) {
+                throw new IllegalStateException("Search node arena is full (" + this.size + " nodes)");
+            }
+            grow((int) Math.min(2L * this.size, this.maxNodes));
+        }
+        int id = this.size++;
+        System.arraycopy(source, offset, this.words, id * this.nbWords, this.nbWords);
+        this.keys[id] = key;
+        this.cost[id] = cost;
+        this.parent[id] = parent;
+        this.action[id] = ordinal;
+        if (2 * this.size > this.slots.length) {
+            rehash(2 * this.slots.length);
+        } else {
+            insert(id);
+        }
+        return id;
+    }
+
+    /**
+     * Réserve les identifiants d'un lot de nouveaux noeuds, remplis ensuite par
+     * {@link #store}. Les colonnes et la table des identifiants sont agrandies d'avance
+     * pour tout le lot.
+     *
+     * @param count le nombre de noeuds du lot
+     * @return l'identifiant du premier noeud du lot
+     * @throws IllegalStateException si le lot ne tient pas dans la taille maximale
+     */
+    int reserve(int count) {
+        long needed = (long) this.size + count;
+        if (needed > this.maxNodes) {
+            throw new IllegalStateException("Search node arena is full (" + this.size + " nodes)");
+        }
+        if (needed > this.keys.length) {
+            grow((int) Math.min(Math.max(needed, 2L * this.size), this.maxNodes));
+        }
+        if (2 * needed > this.slots.length) {
+            // avant de compter le lot, dont les clés ne sont pas encore écrites
+            rehash(Integer.highestOneBit((int) (2 * needed - 1)) << 1);
+        }
+        int first = this.size;
+        this.size = (int) needed;
+        return first;
+    }
+
+    /**
+     * Remplit un noeud réservé par {@link #reserve(int)}. Des threads différents peuvent
+     * remplir en même temps des noeuds différents du lot, pourvu que leurs états soient
+     * distincts et absents de la table : l'identifiant est inséré par un
+     * compare-and-set sur la case, sans comparer les états. Le noeud n'est visible des
+     * autres threads qu'une fois le lot terminé (fin des tâches qui le remplissent).
+     *
+     * @param id l'identifiant réservé
+     * @param source le tableau contenant les mots
+     * @param offset l'indice du premier mot
+     * @param key la clé de Zobrist des mots
+     * @param cost le coût du chemin qui y mène
+     * @param parent le noeud père
+     * @param ordinal le rang de l'action ayant engendré l'état
+     */
+    void store(int id, long[] source, int offset, long key, int cost, int parent, int ordinal) {
+        System.arraycopy(source, offset, this.words, id * this.nbWords, this.nbWords);
+        this.keys[id] = key;
+        this.cost[id] = cost;
+        this.parent[id] = parent;
+        this.action[id] = ordinal;
+        int[] table = this.slots;
+        int mask = table.length - 1;
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            if (SLOTS.compareAndSet(table, i, 0, id + 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Enregistre un meilleur chemin vers un noeud existant.
+     *
+     * @param node le noeud
+     * @param cost le nouveau coût
+     * @param parent le nouveau père
+     * @param via la nouvelle action
+     */
+    void update(int node, int cost, int parent, PackedAction via) {
+        this.cost[node] = cost;
+        this.parent[node] = parent;
+        this.action[node] = ordinalOf(via);
+    }
+
+    /**
+     * Retourne une copie de l'état d'un noeud.
+     *
+     * @param node le noeud
+     * @return l'état compact
+     */
+    PackedState getState(int node) {
+        int from = node * this.nbWords;
+        return new PackedState(Arrays.copyOfRange(this.words, from, from + this.nbWords), this.keys[node]);
+    }
+
+    /**
+     * Retourne un mot de l'état d'un noeud, sans copie.
+     *
+     * @param node le noeud
+     * @param w l'indice du mot
+     * @return le mot
+     */
+    long getWord(int node, int w) {
+        return this.words[node * this.nbWords + w];
+    }
+
+    int getCost(int node) {
+        return this.cost[node];
+    }
+
+    int getParent(int node) {
+        return this.parent[node];
+    }
+
+    /**
+     * Retourne l'action ayant engendré un noeud.
+     *
+     * @param node le noeud
+     * @return l'action, ou {@code null} pour la racine
+     */
+    PackedAction getAction(int node) {
+        int ordinal = this.action[node];
+        return (ordinal < 0) ? null : this.actions.get(ordinal);
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Reconstruit le plan menant à un noeud en remontant les pères.
+     *
+     * @param node le noeud atteint
+     * @return la liste des actions depuis la racine
+     */
+    List<Action> extractPlan(int node) {
+        List<Action> plan = new ArrayList<>();
+        while (this.parent[node] >= 0) {
+            plan.add(this.actions.get(this.action[node]).getAction());
+            node = this.parent[node];
+        }
+        Collections.reverse(plan);
+        return plan;
+    }
+
+    /**
+     * Retourne le rang d'une action de la liste de la table.
+     *
+     * @param via l'action, ou {@code null} pour la racine
+     * @return son rang, ou -1 pour {@code null}
+     * @throws IllegalArgumentException si l'action ne vient pas de la liste de la table
+     */
+    int ordinalOf(PackedAction via) {
+        if (via == null) {
+            return -1;
+        }
+        int ordinal = via.getOrdinal();
+        if (ordinal < 0 || ordinal >= this.actions.size() || this.actions.get(ordinal) != via) {
+            throw new IllegalArgumentException("Action " + via + " does not belong to the compiled action list");
+        }
+        return ordinal;
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> this.shift);
+    }
+
+    private boolean sameWords(int id, long[] source, int offset) {
+        int from = id * this.nbWords;
+        for (int w = 0; w < this.nbWords; w++) {
+            if (this.words[from + w] != source[offset + w]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(int id) {
+        int mask = this.slots.length - 1;
+        int i = slot(this.keys[id]);
+        while (this.slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        this.slots[i] = id + 1;
+    }
+
+    private void grow(int capacity) {
+        this.words = Arrays.copyOf(this.words, capacity * this.nbWords);
+        this.keys = Arrays.copyOf(this.keys, capacity);
+        this.cost = Arrays.copyOf(this.cost, capacity);
+        this.parent = Arrays.copyOf(this.parent, capacity);
+        this.action = Arrays.copyOf(this.action, capacity);
+    }
+
+    private void rehash(int capacity) {
+        this.slots = new int[capacity];
+        this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        for (int id = 0; id < this.size; id++) {
+            insert(id);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package planning;
+import java.util.List;
+
+/**
+ * Issue d'une recherche ({@link Planner#solve()}) : un plan, l'espace de recherche épuisé
+ * sans plan, ou une {@link SearchLimits.Limit} atteinte, avec les statistiques de la
+ * recherche jusqu'à son arrêt.
+ */
+public final class SearchOutcome {
+
+    /** Issue d'une recherche. */
+    public enum Status {
+        /** Un plan a été trouvé. */
+        SOLVED,
+        /** La recherche s'est terminée sans plan. */
+        EXHAUSTED,
+        /** La recherche a été arrêtée par une limite ou une annulation. */
+        LIMIT_REACHED
+    }
+
+    private final Status status;
+    private final List<Action> plan;
+    private final SearchLimits.Limit limit;
+    private final PlannerStats stats;
+
+    SearchOutcome(Status status, List<Action> plan, SearchLimits.Limit limit, PlannerStats stats) {
+        this.status = status;
+        this.plan = plan;
+        this.limit = limit;
+        this.stats = stats;
+    }
+
+    /**
+     * Retourne l'issue de la recherche.
+     *
+     * @return {@link Status#SOLVED} si la recherche s'est terminée avec un plan,
+     *         {@link Status#EXHAUSTED} si elle s'est terminée sans plan, et
+     *         {@link Status#LIMIT_REACHED} si une limite l'a arrêtée, même avec un plan déjà
+     *         trouvé
+     */
+    public Status getStatus() {
+        return this.status;
+    }
+
+    /**
+     * Indique si un plan a été trouvé.
+     *
+     * @return {@code true} si le statut est {@link Status#SOLVED}
+     */
+    public boolean isSolved() {
+        return this.status == Status.SOLVED;
+    }
+
+    /**
+     * Retourne le plan trouvé. Une recherche arrêtée par une limite peut en retourner un
+     * quand elle en avait déjà trouvé (les recherches anytime), sans garantie d'optimalité.
+     *
+     * @return le plan, ou {@code null} s'il n'y en a pas
+     */
+    public List<Action> getPlan() {
+        return this.plan;
+    }
+
+    /**
+     * Retourne la limite qui a arrêté la recherche.
+     *
+     * @return la limite, ou {@code null} si le statut n'est pas {@link Status#LIMIT_REACHED}
+     */
+    public SearchLimits.Limit getLimit() {
+        return this.limit;
+    }
+
+    /**
+     * Retourne les statistiques de la recherche, partielles si elle a été arrêtée.
+     *
+     * @return les statistiques
+     */
+    public PlannerStats getStats() {
+        return this.stats;
+    }
+
+    @Override
+    public String toString() {
+        return (this.status == Status.LIMIT_REACHED) ? this.status + " (" + this.limit + ")" : this.status.toString();
+    }
+}
@@ -0,0 +1,207 @@
+package planning;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fichier d'états compacts triés et sans doublons, relu par projection en mémoire.
+ * <p>
+ * Chaque enregistrement est formé des mots d'un état ({@code nbWords} entiers longs),
+ * triés dans l'ordre lexicographique des mots. Le fichier est écrit séquentiellement par
+ * un {@link Writer}, puis projeté en lecture seule par segments de {@link MappedByteBuffer}
+ * (un segment ne pouvant dépasser 2 Go). La recherche d'un état est dichotomique.
+ * </p>
+ */
+class SortedRun {
+
+    /** Le fichier du segment. */
+    private final Path file;
+
+    /** Nombre de mots d'un enregistrement. */
+    private final int nbWords;
+
+    /** Nombre d'enregistrements. */
+    private final long size;
+
+    /** Nombre d'enregistrements par segment projeté. */
+    private final long perSegment;
+
+    /** Les segments projetés. */
+    private final MappedByteBuffer[] segments;
+
+    private SortedRun(Path file, int nbWords, long size) {
+        this.file = file;
+        this.nbWords = nbWords;
+        this.size = size;
+        int recordBytes = 8 * nbWords;
+        this.perSegment = Integer.MAX_VALUE / recordBytes;
+        int nbSegments = (int) ((size + this.perSegment - 1) / this.perSegment);
+        this.segments = new MappedByteBuffer[nbSegments];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int s = 0; s < nbSegments; s++) {
+                long first = s * this.perSegment;
+                long count = Math.min(this.perSegment, size - first);
+                this.segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, first * recordBytes, count * recordBytes);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map " + file, e);
+        }
+    }
+
+    /**
+     * Compare deux enregistrements dans l'ordre lexicographique de leurs mots.
+     */
+    static int compare(long[] a, int offsetA, long[] b, int offsetB, int nbWords) {
+        for (int w = 0; w < nbWords; w++) {
+            int c = Long.compare(a[offsetA + w], b[offsetB + w]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Retourne le nombre d'enregistrements.
+     *
+     * @return la taille du segment
+     */
+    long size() {
+        return this.size;
+    }
+
+    /**
+     * Retourne la taille du fichier en octets.
+     *
+     * @return la taille sur disque
+     */
+    long bytes() {
+        return this.size * 8 * this.nbWords;
+    }
+
+    /**
+     * Lit un enregistrement.
+     *
+     * @param i l'indice de l'enregistrement
+     * @param out le tableau recevant les mots, à partir de l'indice 0
+     */
+    void read(long i, long[] out) {
+        MappedByteBuffer segment = this.segments[(int) (i / this.perSegment)];
+        int offset = (int) (i % this.perSegment) * 8 * this.nbWords;
+        for (int w = 0; w < this.nbWords; w++) {
+            out[w] = segment.getLong(offset + 8 * w);
+        }
+    }
+
+    /**
+     * Vérifie par dichotomie si le segment contient un enregistrement.
+     *
+     * @param words les mots cherchés
+     * @param buffer un tableau de travail d'au moins {@code nbWords} mots
+     * @return vrai si l'enregistrement est présent
+     */
+    boolean contains(long[] words, long[] buffer) {
+        long low = 0;
+        long high = this.size - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            read(mid, buffer);
+            int c = compare(buffer, 0, words, 0, this.nbWords);
+            if (c == 0) {
+                return true;
+            } else if (c < 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Supprime le fichier du segment (les projections restent lisibles jusqu'à leur libération).
+     */
+    void delete() {
+        try {
+            Files.deleteIfExists(this.file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot delete " + this.file, e);
+        }
+    }
+
+    /**
+     * Écriture séquentielle d'un segment trié, par blocs.
+     */
+    static class Writer {
+
+        private final Path file;
+        private final int nbWords;
+        private final FileChannel channel;
+        private final ByteBuffer block = ByteBuffer.allocateDirect(1 << 16);
+        private long size;
+
+        /**
+         * Crée le fichier d'un nouveau segment.
+         *
+         * @param file le chemin du fichier
+         * @param nbWords le nombre de mots d'un enregistrement
+         */
+        Writer(Path file, int nbWords) {
+            this.file = file;
+            this.nbWords = nbWords;
+            try {
+                this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot create " + file, e);
+            }
+        }
+
+        /**
+         * Ajoute un enregistrement (les enregistrements doivent arriver triés et distincts).
+         *
+         * @param records le tableau contenant l'enregistrement
+         * @param offset l'indice de son premier mot
+         */
+        void append(long[] records, int offset) {
+            if (this.block.remaining() < 8 * this.nbWords) {
+                flush();
+            }
+            for (int w = 0; w < this.nbWords; w++) {
+                this.block.putLong(records[offset + w]);
+            }
+            this.size++;
+        }
+
+        private void flush() {
+            this.block.flip();
+            try {
+                while (this.block.hasRemaining()) {
+                    this.channel.write(this.block);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot write " + this.file, e);
+            }
+            this.block.clear();
+        }
+
+        /**
+         * Termine l'écriture et projette le segment en lecture.
+         *
+         * @return le segment écrit
+         */
+        SortedRun finish() {
+            flush();
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot close " + this.file, e);
+            }
+            return new SortedRun(this.file, this.nbWords, this.size);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package planning;
+
+/**
+ * Réduction des symétries d'un problème : associe à chaque état compact le représentant
+ * canonique de sa classe d'états symétriques.
+ * <p>
+ * Un planificateur muni d'un canonicaliseur ({@link AbstractPlanner#setCanonicalizer})
+ * remplace l'état initial et chaque successeur par leur forme canonique avant de
+ * détecter les doublons : les états qui ne diffèrent que par une symétrie ne sont
+ * explorés qu'une fois. Le plan trouvé entre états canoniques est ensuite rejoué depuis
+ * l'état initial concret, en choisissant à chaque pas l'action dont le successeur a la
+ * forme canonique attendue.
+ * </p>
+ * <p>
+ * Les symétries doivent être celles du problème : elles transforment toute action
+ * applicable en une action applicable de même coût, et préservent le but, qu'un état
+ * satisfait si et seulement si sa forme canonique le satisfait. Une fois lié, un
+ * canonicaliseur peut être appelé par plusieurs threads.
+ * </p>
+ */
+public interface StateCanonicalizer {
+
+    /**
+     * Lie le canonicaliseur au codec des états.
+     *
+     * @param codec le codec du problème
+     */
+    void bind(StateCodec codec);
+
+    /**
+     * Retourne la forme canonique d'un état : le même état pour tous les états symétriques.
+     *
+     * @param state l'état compact
+     * @return sa forme canonique, éventuellement l'état lui-même
+     */
+    PackedState canonicalize(PackedState state);
+}
@@ -0,0 +1,428 @@
+package planning;
+import modelling.Variable;
+import java.util.*;
+
+/**
+ * Encodeur/décodeur entre les états {@code Map<Variable,Object>} et leur forme
+ * compacte {@link PackedState}.
+ * <p>
+ * Chaque variable reçoit un indice dense (ordre des noms), et chaque valeur de son
+ * domaine un indice dense lui aussi. Une variable est stockée dans un champ de bits
+ * contenant {@code indiceValeur + 1}, la valeur {@code 0} signifiant que la variable
+ * est absente de l'état. Les champs ne chevauchent jamais deux mots.
+ * </p>
+ */
+public class StateCodec {
+
+    /** Les variables, dans l'ordre de leur indice. */
+    private final Variable[] variables;
+
+    /** Indice de chaque variable. */
+    private final Map<Variable, Integer> variableIndex;
+
+    /** Les valeurs connues de chaque variable, dans l'ordre de leur indice. */
+    private final Object[][] values;
+
+    /** Indice de chaque valeur, pour chaque variable. */
+    private final List<Map<Object, Integer>> valueIndex;
+
+    /** Mot contenant le champ de chaque variable. */
+    private final int[] wordOf;
+
+    /** Décalage du champ de chaque variable dans son mot. */
+    private final int[] shiftOf;
+
+    /** Masque (non décalé) du champ de chaque variable. */
+    private final long[] maskOf;
+
+    /** Nombre de mots d'un état compact. */
+    private final int nbWords;
+
+    /** Graine des clés de Zobrist, fixe pour que les clés soient reproductibles. */
+    private static final long ZOBRIST_SEED = 0x5DEECE66DL;
+
+    /** Clés de Zobrist, indexées par variable puis par contenu du champ (indiceValeur + 1). */
+    private final long[][] zobrist;
+
+    /**
+     * Construit un codec pour un ensemble de variables, à partir de leurs domaines.
+     *
+     * @param variables les variables à encoder
+     */
+    public StateCodec(Collection<Variable> variables) {
+        this(collectDomains(variables));
+    }
+
+    /**
+     * Construit un codec à partir des valeurs possibles de chaque variable.
+     *
+     * @param domains les valeurs possibles de chaque variable
+     */
+    private StateCodec(Map<Variable, Set<Object>> domains) {
+        List<Variable> sorted = new ArrayList<>(domains.keySet());
+        sorted.sort(Comparator.comparing(Variable::getName));
+        int n = sorted.size();
+        this.variables = sorted.toArray(new Variable[0]);
+        this.variableIndex = new HashMap<>();
+        this.values = new Object[n][];
+        this.valueIndex = new ArrayList<>();
+        this.wordOf = new int[n];
+        this.shiftOf = new int[n];
+        this.maskOf = new long[n];
+        this.zobrist = new long[n][];
+        SplittableRandom random = new SplittableRandom(ZOBRIST_SEED);
+
+        int word = 0;
+        int shift = 0;
+        for (int v = 0; v < n; v++) {
+            Variable var = this.variables[v];
+            this.variableIndex.put(var, v);
+            this.values[v] = domains.get(var).toArray();
+            Map<Object, Integer> index = new HashMap<>();
+            for (int i = 0; i < this.values[v].length; i++) {
+                index.put(this.values[v][i], i);
+            }
+            this.valueIndex.add(index);
+            this.zobrist[v] = new long[this.values[v].length + 1];
+            for (int i = 0; i < this.zobrist[v].length; i++) {
+                this.zobrist[v][i] = random.nextLong();
+            }
+
+            // le champ contient indiceValeur + 1, 0 étant réservé à l'absence
+            int bits = 64 - Long.numberOfLeadingZeros(this.values[v].length);
+            bits = Math.max(bits, 1);
+            if (shift + bits > 64) {
+                word++;
+                shift = 0;
+            }
+            this.wordOf[v] = word;
+            this.shiftOf[v] = shift;
+            this.maskOf[v] = (bits == 64) ? -1L : (1L << bits) - 1;
+            shift += bits;
+        }
+        this.nbWords = (n == 0) ? 0 : word + 1;
+    }
+
+    /**
+     * Construit le codec adapté à un problème de planification : il couvre les variables
+     * de l'état initial, des actions qui exposent leurs préconditions et leurs effets, et
+     * du but, ainsi que toutes les valeurs qui y apparaissent, même si elles sont absentes
+     * des domaines déclarés.
+     *
+     * @param initialState l'état initial
+     * @param actions les actions du problème
+     * @param goal le but
+     * @return le codec du problème
+     */
+    public static StateCodec forProblem(Map<Variable, Object> initialState, Set<Action> actions, Goal goal) {
+        Map<Variable, Set<Object>> domains = collectDomains(initialState.keySet());
+        addValues(domains, initialState);
+        for (Action action : actions) {
+            if (action.getPrecondition() != null && action.getEffect() != null) {
+                addValues(domains, action.getPrecondition());
+                addValues(domains, action.getEffect());
+            }
+        }
+        if (goal instanceof BasicGoal) {
+            addValues(domains, ((BasicGoal) goal).getInstanciation());
+        }
+        return new StateCodec(domains);
+    }
+
+    private static Map<Variable, Set<Object>> collectDomains(Collection<Variable> variables) {
+        Map<Variable, Set<Object>> domains = new HashMap<>();
+        for (Variable var : variables) {
+            Set<Object> domain = new LinkedHashSet<>();
+            if (var.getDomain() != null) {
+                domain.addAll(var.getDomain());
+            }
+            domains.put(var, domain);
+        }
+        return domains;
+    }
+
+    private static void addValues(Map<Variable, Set<Object>> domains, Map<Variable, Object> assignment) {
+        for (Map.Entry<Variable, Object> entry : assignment.entrySet()) {
+            domains.computeIfAbsent(entry.getKey(), k -> new LinkedHashSet<>()).add(entry.getValue());
+        }
+    }
+
+    /**
+     * Retourne le nombre de variables encodées.
+     *
+     * @return le nombre de variables
+     */
+    public int getNbVariables() {
+        return this.variables.length;
+    }
+
+    /**
+     * Retourne la variable d'indice donné.
+     *
+     * @param var l'indice de la variable
+     * @return la variable
+     */
+    public Variable getVariable(int var) {
+        return this.variables[var];
+    }
+
+    /**
+     * Retourne l'indice d'une variable.
+     *
+     * @param var la variable
+     * @return son indice, ou -1 si elle n'est pas encodée
+     */
+    public int indexOf(Variable var) {
+        Integer index = this.variableIndex.get(var);
+        return (index == null) ? -1 : index;
+    }
+
+    /**
+     * Retourne le nombre de valeurs connues d'une variable.
+     *
+     * @param var l'indice de la variable
+     * @return le nombre de valeurs
+     */
+    public int getNbValues(int var) {
+        return this.values[var].length;
+    }
+
+    /**
+     * Retourne la valeur d'indice donné d'une variable.
+     *
+     * @param var l'indice de la variable
+     * @param value l'indice de la valeur
+     * @return la valeur
+     */
+    public Object getValue(int var, int value) {
+        return this.values[var][value];
+    }
+
+    /**
+     * Retourne l'indice d'une valeur d'une variable.
+     *
+     * @param var l'indice de la variable
+     * @param value la valeur
+     * @return l'indice de la valeur, ou -1 si elle est inconnue
+     */
+    public int indexOfValue(int var, Object value) {
+        Integer index = this.valueIndex.get(var).get(value);
+        return (index == null) ? -1 : index;
+    }
+
+    /**
+     * Retourne le nombre de mots d'un état compact.
+     *
+     * @return le nombre de mots
+     */
+    public int getNbWords() {
+        return this.nbWords;
+    }
+
+    /**
+     * Estime le nombre d'octets occupés par un état compact sur le tas
+     * (objet {@link PackedState} et son tableau de mots).
+     *
+     * @return l'estimation en octets
+     */
+    public int getBytesPerState() {
+        return 24 + 16 + 8 * this.nbWords;
+    }
+
+    /**
+     * Lit l'indice de valeur d'une variable dans des mots bruts.
+     *
+     * @param words les mots d'un état
+     * @param var l'indice de la variable
+     * @return l'indice de la valeur, ou -1 si la variable est absente
+     */
+    public int get(long[] words, int var) {
+        return (int) ((words[this.wordOf[var]] >>> this.shiftOf[var]) & this.maskOf[var]) - 1;
+    }
+
+    /**
+     * Lit l'indice de valeur d'une variable dans un état compact.
+     *
+     * @param state l'état compact
+     * @param var l'indice de la variable
+     * @return l'indice de la valeur, ou -1 si la variable est absente
+     */
+    public int get(PackedState state, int var) {
+        return get(state.words(), var);
+    }
+
+    /**
+     * Écrit l'indice de valeur d'une variable dans des mots bruts.
+     *
+     * @param words les mots d'un état
+     * @param var l'indice de la variable
+     * @param value l'indice de la valeur, ou -1 pour rendre la variable absente
+     */
+    public void set(long[] words, int var, int value) {
+        int w = this.wordOf[var];
+        words[w] = (words[w] & ~(this.maskOf[var] << this.shiftOf[var]))
+                 | ((long) (value + 1) << this.shiftOf[var]);
+    }
+
+    /**
+     * Retourne la clé de Zobrist d'un couple (variable, valeur).
+     *
+     * @param var l'indice de la variable
+     * @param value l'indice de la valeur, ou -1 pour l'absence de la variable
+     * @return la clé sur 64 bits
+     */
+    public long zobrist(int var, int value) {
+        return this.zobrist[var][value + 1];
+    }
+
+    /**
+     * Calcule entièrement la clé de Zobrist de mots bruts.
+     *
+     * @param words les mots d'un état
+     * @return la clé sur 64 bits
+     */
+    public long computeKey(long[] words) {
+        long key = 0;
+        for (int v = 0; v < this.variables.length; v++) {
+            key ^= this.zobrist[v][get(words, v) + 1];
+        }
+        return key;
+    }
+
+    /**
+     * Calcule le masque du champ d'une variable dans son mot.
+     *
+     * @param var l'indice de la variable
+     * @return le masque décalé
+     */
+    long fieldMask(int var) {
+        return this.maskOf[var] << this.shiftOf[var];
+    }
+
+    /**
+     * Calcule le contenu du champ d'une variable pour un indice de valeur.
+     *
+     * @param var l'indice de la variable
+     * @param value l'indice de la valeur
+     * @return le champ décalé
+     */
+    long fieldValue(int var, int value) {
+        return (long) (value + 1) << this.shiftOf[var];
+    }
+
+    /**
+     * Retourne le mot contenant le champ d'une variable.
+     *
+     * @param var l'indice de la variable
+     * @return l'indice du mot
+     */
+    int wordOf(int var) {
+        return this.wordOf[var];
+    }
+
+    /**
+     * Construit un état compact à partir de mots bruts (sans copie).
+     *
+     * @param words les mots de l'état
+     * @return l'état compact
+     */
+    public PackedState wrap(long[] words) {
+        return new PackedState(words, computeKey(words));
+    }
+
+    /**
+     * Retourne une copie d'un état compact où des variables prennent de nouvelles valeurs.
+     * La clé de Zobrist est mise à jour à partir de celle de l'état, sans être recalculée.
+     *
+     * @param state l'état compact
+     * @param vars les indices des variables modifiées, distincts
+     * @param values les indices de leurs nouvelles valeurs, ou -1 pour une variable absente
+     * @param count le nombre de variables modifiées
+     * @return le nouvel état compact
+     */
+    public PackedState with(PackedState state, int[] vars, int[] values, int count) {
+        long[] words = state.words().clone();
+        long key = state.getKey();
+        for (int i = 0; i < count; i++) {
+            key ^= zobrist(vars[i], get(words, vars[i])) ^ zobrist(vars[i], values[i]);
+            set(words, vars[i], values[i]);
+        }
+        return new PackedState(words, key);
+    }
+
+    /**
+     * Encode un état.
+     *
+     * @param etat l'état à encoder
+     * @return l'état compact
+     * @throws IllegalArgumentException si une variable ou une valeur est inconnue du codec
+     */
+    public PackedState encode(Map<Variable, Object> etat) {
+        long[] words = new long[this.nbWords];
+        for (Map.Entry<Variable, Object> entry : etat.entrySet()) {
+            int var = indexOf(entry.getKey());
+            if (var < 0) {
+                throw new IllegalArgumentException("Variable " + entry.getKey() + " not encoded");
+            }
+            int value = indexOfValue(var, entry.getValue());
+            if (value < 0) {
+                throw new IllegalArgumentException("Value " + entry.getValue() + " not in domain of " + entry.getKey());
+            }
+            set(words, var, value);
+        }
+        return wrap(words);
+    }
+
+    /**
+     * Décode un état compact.
+     *
+     * @param state l'état compact
+     * @return l'état sous forme de map (nouvelle instance)
+     */
+    public Map<Variable, Object> decode(PackedState state) {
+        long[] words = state.words();
+        Map<Variable, Object> etat = new HashMap<>();
+        for (int v = 0; v < this.variables.length; v++) {
+            int value = get(words, v);
+            if (value >= 0) {
+                etat.put(this.variables[v], this.values[v][value]);
+            }
+        }
+        return etat;
+    }
+
+    /**
+     * Compile une action pour qu'elle opère directement sur les états compacts.
+     *
+     * @param action l'action à compiler
+     * @return l'action compilée
+     */
+    public PackedAction compile(Action action) {
+        return new PackedAction(this, action, -1);
+    }
+
+    /**
+     * Compile un ensemble d'actions, dans un ordre déterministe. Chaque action compilée
+     * connaît son rang dans la liste.
+     *
+     * @param actions les actions à compiler
+     * @return la liste des actions compilées
+     */
+    public List<PackedAction> compileAll(Set<Action> actions) {
+        List<PackedAction> compiled = new ArrayList<>(actions.size());
+        for (Action action : actions) {
+            compiled.add(new PackedAction(this, action, compiled.size()));
+        }
+        return compiled;
+    }
+
+    /**
+     * Compile un but pour qu'il soit testé directement sur les états compacts.
+     *
+     * @param goal le but à compiler
+     * @return le but compilé
+     */
+    public PackedGoal compile(Goal goal) {
+        return new PackedGoal(this, goal);
+    }
+}
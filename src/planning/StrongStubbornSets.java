@@ -0,0 +1,413 @@
+package planning;
+import modelling.Variable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Réduction d'ordre partiel par ensembles têtus forts (« strong stubborn sets », Wehrle
+ * et Helmert, 2014).
+ * <p>
+ * Des actions indépendantes, par exemple des déplacements sur des tours distinctes,
+ * commutent : les explorer dans tous les ordres ne fait que multiplier les états
+ * intermédiaires. Dans chaque état, seules les actions applicables d'un ensemble têtu
+ * sont développées. L'ensemble part des actions qui produisent un fait du but faux dans
+ * l'état, puis est clos : pour une action applicable, il reçoit toutes les actions qui
+ * interfèrent avec elle ; pour une action non applicable, les actions qui produisent
+ * une de ses préconditions fausses. Le graphe réduit conserve un plan optimal depuis
+ * chaque état : les recherches complètes ou optimales le restent.
+ * </p>
+ * <p>
+ * Deux actions interfèrent si l'une rend fausse une précondition de l'autre ou si elles
+ * écrivent des valeurs différentes dans une même variable. La relation est calculée une
+ * fois, à la construction, à partir des préconditions et des effets des actions
+ * compilées. Le choix du fait du but et de la précondition fausse est déterministe :
+ * l'ensemble ne dépend que de l'état.
+ * </p>
+ * <p>
+ * Le calcul s'arrête dès que l'ensemble contient toutes les actions applicables. Dans les
+ * domaines où presque toutes les actions interfèrent, comme le monde des blocs où deux
+ * déplacements partagent souvent un bloc ou une destination, l'élagage est rare. Sur
+ * demande, en fixant un taux minimal ({@link #setMinPruningRatio}), la réduction se
+ * désactive si elle a élagué moins que ce taux après {@link #TRIAL_CALLS} états développés
+ * par un thread ; {@link #isDisabled()} l'indique. Par défaut, elle reste toujours active.
+ * </p>
+ * <p>
+ * Les tampons du calcul sont propres à chaque thread ; les compteurs d'actions
+ * applicables et élaguées sont partagés, et donnent le taux d'élagage.
+ * </p>
+ */
+public class StrongStubbornSets {
+
+    /** Nombre d'états développés par un thread avant de juger le taux d'élagage. */
+    public static final int TRIAL_CALLS = 1000;
+
+    /** Taux d'élagage minimal par défaut : la réduction ne se désactive jamais d'elle-même. */
+    public static final double DEFAULT_MIN_PRUNING_RATIO = 0;
+
+    /** Le codec des états. */
+    private final StateCodec codec;
+
+    /** Numéro de chaque action compilée. */
+    private final Map<PackedAction, Integer> ids = new IdentityHashMap<>();
+
+    /** Les actions compilées, dans l'ordre de leurs numéros. */
+    private final PackedAction[] actions;
+
+    /** Premier numéro de fait de chaque variable : le fait (variable, valeur) porte {@code base[variable] + valeur}. */
+    private final int[] base;
+
+    /** Pour chaque fait, les actions possibles qui le produisent (listes à plat). */
+    private final int[] achieverStart;
+    private final int[] achievers;
+
+    /** Pour chaque action, les actions qui interfèrent avec elle (listes à plat). */
+    private final int[] interferenceStart;
+    private final int[] interference;
+
+    /** Variables et indices de valeur du but ({@code null} si le but ne peut être atteint). */
+    private final int[] goalVars;
+    private final int[] goalValues;
+
+    /** Nombre d'actions applicables présentées, et nombre d'actions élaguées. */
+    private final LongAdder applicable = new LongAdder();
+    private final LongAdder pruned = new LongAdder();
+
+    /** Taux d'élagage en dessous duquel la réduction se désactive. */
+    private volatile double minPruningRatio = DEFAULT_MIN_PRUNING_RATIO;
+
+    /** Vrai si la réduction s'est désactivée faute d'élaguer assez. */
+    private volatile boolean disabled;
+
+    /** Tampons du calcul de chaque thread. */
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Calcule la relation d'interférence des actions d'un problème.
+     *
+     * @param codec le codec des états
+     * @param actions les actions compilées du problème
+     * @param goal le but, un {@link BasicGoal}
+     * @throws IllegalArgumentException si une action n'expose pas ses préconditions et ses
+     *         effets, ou si le but n'est pas un {@link BasicGoal}
+     */
+    public StrongStubbornSets(StateCodec codec, List<PackedAction> actions, Goal goal) {
+        if (!(goal instanceof BasicGoal)) {
+            throw new IllegalArgumentException("Stubborn sets need a BasicGoal, got " + goal);
+        }
+        this.codec = codec;
+        this.actions = actions.toArray(new PackedAction[0]);
+        int nbActions = this.actions.length;
+        int nbVariables = codec.getNbVariables();
+        this.base = new int[nbVariables + 1];
+        for (int var = 0; var < nbVariables; var++) {
+            this.base[var + 1] = this.base[var] + codec.getNbValues(var);
+        }
+        for (int a = 0; a < nbActions; a++) {
+            if (!this.actions[a].isCompiled()) {
+                throw new IllegalArgumentException("Stubborn sets need exposed preconditions and effects, got "
+                        + this.actions[a].getAction().getClass().getName());
+            }
+            this.ids.put(this.actions[a], a);
+        }
+
+        // producteurs de chaque fait, et actions qui lisent ou écrivent chaque variable
+        int nbFacts = this.base[nbVariables];
+        List<List<Integer>> achieversOf = newLists(nbFacts);
+        List<List<Integer>> readers = newLists(nbVariables);
+        List<List<Integer>> writers = newLists(nbVariables);
+        for (int a = 0; a < nbActions; a++) {
+            PackedAction action = this.actions[a];
+            if (action.isImpossible()) {
+                continue;
+            }
+            for (int var : action.getPreconditionVariables()) {
+                readers.get(var).add(a);
+            }
+            int[] vars = action.getEffectVariables();
+            int[] values = action.getEffectValues();
+            for (int i = 0; i < vars.length; i++) {
+                writers.get(vars[i]).add(a);
+                achieversOf.get(this.base[vars[i]] + values[i]).add(a);
+            }
+        }
+        this.achieverStart = new int[nbFacts + 1];
+        this.achievers = flatten(achieversOf, this.achieverStart);
+
+        List<List<Integer>> interfering = newLists(nbActions);
+        int[] seen = new int[nbActions];
+        for (int a = 0; a < nbActions; a++) {
+            PackedAction action = this.actions[a];
+            if (action.isImpossible()) {
+                continue;
+            }
+            seen[a] = a + 1;
+            List<Integer> out = interfering.get(a);
+            int[] vars = action.getEffectVariables();
+            int[] values = action.getEffectValues();
+            for (int i = 0; i < vars.length; i++) {
+                // a rend fausse une précondition de b
+                for (int b : readers.get(vars[i])) {
+                    if (seen[b] != a + 1 && preconditionValue(this.actions[b], vars[i]) != values[i]) {
+                        seen[b] = a + 1;
+                        out.add(b);
+                    }
+                }
+                // a et b écrivent des valeurs différentes
+                for (int b : writers.get(vars[i])) {
+                    if (seen[b] != a + 1 && effectValue(this.actions[b], vars[i]) != values[i]) {
+                        seen[b] = a + 1;
+                        out.add(b);
+                    }
+                }
+            }
+            // b rend fausse une précondition de a
+            int[] preVars = action.getPreconditionVariables();
+            int[] preValues = action.getPreconditionValues();
+            for (int i = 0; i < preVars.length; i++) {
+                for (int b : writers.get(preVars[i])) {
+                    if (seen[b] != a + 1 && effectValue(this.actions[b], preVars[i]) != preValues[i]) {
+                        seen[b] = a + 1;
+                        out.add(b);
+                    }
+                }
+            }
+        }
+        this.interferenceStart = new int[nbActions + 1];
+        this.interference = flatten(interfering, this.interferenceStart);
+
+        int[] goalVars = new int[0];
+        int[] goalValues = new int[0];
+        boolean reachable = true;
+        for (Map.Entry<Variable, Object> entry : ((BasicGoal) goal).getInstanciation().entrySet()) {
+            int var = codec.indexOf(entry.getKey());
+            int value = (var < 0) ? -1 : codec.indexOfValue(var, entry.getValue());
+            if (value < 0) {
+                reachable = false;
+                break;
+            }
+            goalVars = Arrays.copyOf(goalVars, goalVars.length + 1);
+            goalValues = Arrays.copyOf(goalValues, goalValues.length + 1);
+            goalVars[goalVars.length - 1] = var;
+            goalValues[goalValues.length - 1] = value;
+        }
+        this.goalVars = reachable ? goalVars : null;
+        this.goalValues = reachable ? goalValues : null;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(nbActions));
+    }
+
+    /** Indice de valeur qu'une action demande pour une variable, -1 si elle n'en demande pas. */
+    private static int preconditionValue(PackedAction action, int var) {
+        int i = Arrays.binarySearch(action.getPreconditionVariables(), var);
+        return (i < 0) ? -1 : action.getPreconditionValues()[i];
+    }
+
+    /** Indice de valeur qu'une action écrit dans une variable, -1 si elle ne l'écrit pas. */
+    private static int effectValue(PackedAction action, int var) {
+        int i = Arrays.binarySearch(action.getEffectVariables(), var);
+        return (i < 0) ? -1 : action.getEffectValues()[i];
+    }
+
+    private static List<List<Integer>> newLists(int n) {
+        List<List<Integer>> lists = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            lists.add(new ArrayList<>());
+        }
+        return lists;
+    }
+
+    private static int[] flatten(List<List<Integer>> lists, int[] start) {
+        for (int i = 0; i < lists.size(); i++) {
+            start[i + 1] = start[i] + lists.get(i).size();
+        }
+        int[] flat = new int[start[lists.size()]];
+        for (int i = 0; i < lists.size(); i++) {
+            for (int k = 0; k < lists.get(i).size(); k++) {
+                flat[start[i] + k] = lists.get(i).get(k);
+            }
+        }
+        return flat;
+    }
+
+    /**
+     * Ne garde, parmi les actions applicables dans un état, que celles de son ensemble
+     * têtu. Dans un état but, ou si le but ne peut être atteint, rien n'est élagué.
+     *
+     * @param state l'état développé
+     * @param actions la liste où filtrer les actions
+     * @param from l'indice de la première action applicable dans l'état ; les actions qui
+     *             précèdent sont laissées intactes
+     */
+    public void prune(PackedState state, List<PackedAction> actions, int from) {
+        if (this.disabled) {
+            return;
+        }
+        Scratch s = this.scratch.get();
+        if (++s.calls == TRIAL_CALLS && getPruningRatio() < this.minPruningRatio) {
+            this.disabled = true;
+            return;
+        }
+        int size = actions.size();
+        this.applicable.add(size - from);
+        int fact = firstFalseGoal(state);
+        if (fact < 0) {
+            return;
+        }
+        int stamp = s.nextStamp();
+        int top = 0;
+        int nbApplicable = 0;
+        top = push(s, this.achieverStart[fact], this.achieverStart[fact + 1], this.achievers, top);
+        while (top > 0) {
+            int a = s.queue[--top];
+            PackedAction action = this.actions[a];
+            if (action.isApplicable(state)) {
+                if (++nbApplicable == size - from) {
+                    // toutes les actions applicables sont dans l'ensemble : rien à élaguer
+                    return;
+                }
+                top = push(s, this.interferenceStart[a], this.interferenceStart[a + 1], this.interference, top);
+            } else if (!action.isImpossible()) {
+                int pre = firstFalsePrecondition(state, action);
+                top = push(s, this.achieverStart[pre], this.achieverStart[pre + 1], this.achievers, top);
+            }
+        }
+        int kept = from;
+        for (int i = from; i < size; i++) {
+            PackedAction action = actions.get(i);
+            Integer id = this.ids.get(action);
+            if (id == null || s.stubborn[id] == stamp) {
+                actions.set(kept++, action);
+            }
+        }
+        for (int i = size - 1; i >= kept; i--) {
+            actions.remove(i);
+        }
+        this.pruned.add(size - kept);
+    }
+
+    /**
+     * Ne garde, parmi les actions applicables dans un état, que celles de son ensemble têtu.
+     *
+     * @param state l'état développé
+     * @param actions les actions applicables dans l'état, filtrées sur place
+     */
+    public void prune(PackedState state, List<PackedAction> actions) {
+        prune(state, actions, 0);
+    }
+
+    /** Ajoute à l'ensemble têtu les actions d'une liste qui n'y sont pas encore. */
+    private static int push(Scratch s, int from, int to, int[] list, int top) {
+        for (int k = from; k < to; k++) {
+            int b = list[k];
+            if (s.stubborn[b] != s.stamp) {
+                s.stubborn[b] = s.stamp;
+                s.queue[top++] = b;
+            }
+        }
+        return top;
+    }
+
+    /** Retourne le premier fait du but faux dans l'état, ou -1 si l'état est un but. */
+    private int firstFalseGoal(PackedState state) {
+        if (this.goalVars == null) {
+            return -1;
+        }
+        for (int i = 0; i < this.goalVars.length; i++) {
+            if (this.codec.get(state, this.goalVars[i]) != this.goalValues[i]) {
+                return this.base[this.goalVars[i]] + this.goalValues[i];
+            }
+        }
+        return -1;
+    }
+
+    /** Retourne la première précondition fausse d'une action non applicable. */
+    private int firstFalsePrecondition(PackedState state, PackedAction action) {
+        int[] vars = action.getPreconditionVariables();
+        int[] values = action.getPreconditionValues();
+        for (int i = 0; i < vars.length; i++) {
+            if (this.codec.get(state, vars[i]) != values[i]) {
+                return this.base[vars[i]] + values[i];
+            }
+        }
+        throw new IllegalStateException("Action " + action + " is applicable");
+    }
+
+    /**
+     * Retourne le nombre d'actions applicables présentées à l'élagage, tant que la
+     * réduction était active.
+     *
+     * @return le nombre d'actions applicables
+     */
+    public long getNbApplicable() {
+        return this.applicable.sum();
+    }
+
+    /**
+     * Retourne le nombre d'actions applicables élaguées.
+     *
+     * @return le nombre d'actions élaguées
+     */
+    public long getNbPruned() {
+        return this.pruned.sum();
+    }
+
+    /**
+     * Retourne la part des actions applicables élaguées, tant que la réduction était
+     * active : après une désactivation, c'est le taux de la période d'essai.
+     *
+     * @return le taux d'élagage, entre 0 et 1 (0 si rien n'a été présenté)
+     */
+    public double getPruningRatio() {
+        long total = this.applicable.sum();
+        return (total == 0) ? 0 : (double) this.pruned.sum() / total;
+    }
+
+    /**
+     * Fixe le taux d'élagage en dessous duquel la réduction se désactive après la période
+     * d'essai ; 0, la valeur par défaut, la garde toujours active.
+     *
+     * @param ratio le taux minimal, entre 0 et 1
+     * @throws IllegalArgumentException si le taux sort de [0, 1]
+     */
+    public void setMinPruningRatio(double ratio) {
+        if (!(ratio >= 0 && ratio <= 1)) {
+            throw new IllegalArgumentException("Pruning ratio must be in [0, 1], got " + ratio);
+        }
+        this.minPruningRatio = ratio;
+    }
+
+    /**
+     * Indique si la réduction s'est désactivée faute d'élaguer assez.
+     *
+     * @return {@code true} si les actions applicables ne sont plus filtrées
+     */
+    public boolean isDisabled() {
+        return this.disabled;
+    }
+
+    /** Tampons du calcul d'un ensemble têtu. */
+    private static final class Scratch {
+        final int[] stubborn;
+        final int[] queue;
+        int stamp;
+
+        /** Nombre d'états traités par le thread, pour la période d'essai. */
+        int calls;
+
+        Scratch(int nbActions) {
+            this.stubborn = new int[nbActions];
+            this.queue = new int[nbActions];
+        }
+
+        int nextStamp() {
+            if (++this.stamp == Integer.MAX_VALUE) {
+                Arrays.fill(this.stubborn, 0);
+                this.stamp = 1;
+            }
+            return this.stamp;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package planning;
+
+/**
+ * Table de transposition de taille fixe pour les recherches en profondeur
+ * ({@link IDAStarPlanner}, {@link DepthFirstSearch}).
+ * <p>
+ * Chaque entrée retient la clé de Zobrist d'un état, le plus petit coût {@code g} avec
+ * lequel il a été atteint et l'itération de l'approfondissement concernée. La table est
+ * rangée en paires d'entrées, choisies par les bits de poids faible de la clé :
+ * - la première entrée garde l'état atteint avec le plus petit {@code g} (dont le
+ *   sous-arbre est le plus coûteux à redévelopper), sauf si elle date d'une itération
+ *   précédente ;
+ * - la seconde est toujours remplacée.
+ * Une collision de clés de 64 bits ne pourrait faire élaguer qu'à tort un état, avec une
+ * probabilité négligeable.
+ * </p>
+ */
+class TranspositionTable {
+
+    /** Clés, coûts et itérations des entrées (deux entrées par paire). */
+    private final long[] keys;
+    private final int[] costs;
+    private final int[] iterations;
+
+    /** Masque de sélection d'une paire. */
+    private final int mask;
+
+    /**
+     * Construit une table d'au moins le nombre d'entrées demandé (arrondi à une puissance de deux).
+     *
+     * @param entries le nombre d'entrées
+     */
+    TranspositionTable(int entries) {
+        if (entries < 2) {
+            throw new IllegalArgumentException("Transposition table needs at least 2 entries, got " + entries);
+        }
+        int pairs = Integer.highestOneBit(entries - 1);
+        this.keys = new long[2 * pairs];
+        this.costs = new int[2 * pairs];
+        this.iterations = new int[2 * pairs];
+        this.mask = pairs - 1;
+    }
+
+    /**
+     * Retourne le nombre d'entrées de la table.
+     *
+     * @return le nombre d'entrées
+     */
+    int capacity() {
+        return this.keys.length;
+    }
+
+    /**
+     * Vérifie si un état a déjà été atteint pendant l'itération avec un coût inférieur ou
+     * égal, sinon enregistre ce passage.
+     *
+     * @param key la clé de Zobrist de l'état
+     * @param g le coût du chemin courant jusqu'à l'état
+     * @param iteration le numéro de l'itération (strictement positif)
+     * @return vrai si l'état peut être élagué
+     */
+    boolean probe(long key, int g, int iteration) {
+        int first = 2 * ((int) (key ^ (key >>> 32)) & this.mask);
+        int second = first + 1;
+        for (int i = first; i <= second; i++) {
+            if (this.keys[i] == key && this.iterations[i] == iteration) {
+                if (this.costs[i] <= g) {
+                    return true;
+                }
+                this.costs[i] = g;
+                return false;
+            }
+        }
+        if (this.iterations[first] != iteration || g <= this.costs[first]) {
+            // l'ancienne première entrée descend dans la seconde
+            this.keys[second] = this.keys[first];
+            this.costs[second] = this.costs[first];
+            this.iterations[second] = this.iterations[first];
+            store(first, key, g, iteration);
+        } else {
+            store(second, key, g, iteration);
+        }
+        return false;
+    }
+
+    private void store(int i, long key, int g, int iteration) {
+        this.keys[i] = key;
+        this.costs[i] = g;
+        this.iterations[i] = iteration;
+    }
+}